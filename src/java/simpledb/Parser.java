@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -13,18 +15,33 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.optimizer.CostModel;
+import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.SelectivityFeedback;
 import simpledb.optimizer.TableStats;
-import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
 
+    /** The largest number of threads the plan of each query runs on */
+    private int degree = Gather.DEFAULT_DEGREE;
+
+    /** Whether the joins of each query may be ordered into bushy plans */
+    private boolean bushy = false;
+
+    /** The largest number of tables whose joins are ordered by dynamic programming */
+    private int dpLimit = JoinOptimizer.DEFAULT_DP_LIMIT;
+
+    /** The queries run through processNextStatement, parsed and optimized */
+    private final StatementCache statements = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -75,6 +92,16 @@ public class Parser {
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
+            if (isParameter(ops.get(0)) || isParameter(ops.get(1))) {
+                ZExp other = ops.get(isParameter(ops.get(0)) ? 1 : 0);
+                if (!(other instanceof ZConstant) || ((ZConstant) other).getType() != ZConstant.COLUMNNAME) {
+                    throw new simpledb.ParsingException(
+                            "A parameter can only be compared with a field.");
+                }
+                lp.addParameterFilter(((ZConstant) other).getValue(), op);
+                return;
+            }
+
             boolean op1const = ops.get(0) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
@@ -137,12 +164,21 @@ public class Parser {
 
     }
 
+    /** @return whether an expression is a parameter, ?, which Zql parses as an operator without operands */
+    private static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).getOperands() == null;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         List<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setDegreeOfParallelism(degree);
+        lp.setBushyJoins(bushy);
+        lp.setJoinDpLimit(dpLimit);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.get(i);
@@ -223,16 +259,13 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
                 aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
                 aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, groupByField);
             } else {
                 if (groupByField != null
                         && !(groupByField.equals(si.getTable() + "."
@@ -250,31 +283,73 @@ public class Parser {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        if (limit >= 0) {
+            lp.setLimit(limit, offset);
+            limit = -1;
+        }
         return lp;
     }
 
+    /**
+     * A trailing LIMIT n [OFFSET m] clause of a single statement, which Zql
+     * does not parse.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "^([^;]*?)\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** The LIMIT and OFFSET of the statement being parsed, or -1 if it has none */
+    private int limit = -1, offset = 0;
+
+    /**
+     * The EXPLAIN ANALYZE prefix of a query, which Zql does not parse: the
+     * query is run, and its plan printed with the number of tuples each
+     * operator was estimated to return and did return
+     */
+    private static final Pattern EXPLAIN_ANALYZE = Pattern.compile("^\\s*EXPLAIN\\s+ANALYZE\\s+(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** Whether the statement being run is prefixed by EXPLAIN ANALYZE */
+    private boolean analyze = false;
+
+    /**
+     * Remove the LIMIT clause, if any, from the specified statement, and
+     * remember it for parseQueryLogicalPlan.
+     *
+     * @return the statement without its LIMIT clause
+     */
+    private String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(2));
+            offset = m.group(3) == null ? 0 : Integer.parseInt(m.group(3));
+        } catch (NumberFormatException e) {
+            limit = -1;
+            throw new simpledb.ParsingException("LIMIT or OFFSET out of range");
+        }
+        return m.group(1) + m.group(4);
+    }
+
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
@@ -288,7 +363,14 @@ public class Parser {
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        printQueryPlan(query);
 
+        return query;
+    }
+
+    private void printQueryPlan(Query query) {
+        OpIterator physicalPlan = query.getPhysicalPlan();
+        LogicalPlan lp = query.getLogicalPlan();
         if (physicalPlan != null) {
             Class<?> c;
             try {
@@ -300,9 +382,12 @@ public class Parser {
                 java.lang.reflect.Method m = c.getMethod(
                         "updateOperatorCardinality", p, h, h);
 
-                System.out.println("The query plan is:");
                 m.invoke(null, physicalPlan,
                         lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+                if (analyze)
+                    // printed with the actual cardinalities once run
+                    return;
+                System.out.println("The query plan is:");
                 c = Class.forName("simpledb.optimizer.QueryPlanVisualizer");
                 m = c.getMethod(
                         "printQueryPlanTree", OpIterator.class, System.out.getClass());
@@ -312,8 +397,24 @@ public class Parser {
                 e.printStackTrace();
             }
         }
+    }
 
-        return query;
+    /**
+     * Run a query without printing its tuples, and print its plan with the
+     * number of tuples each operator was estimated to return, as printed by
+     * printQueryPlan before it ran, and the number it did return.
+     */
+    private void explainAnalyze(Query query) throws DbException, TransactionAbortedException {
+        int cnt = 0;
+        query.start();
+        while (query.hasNext()) {
+            query.next();
+            cnt++;
+        }
+        query.close();
+        System.out.println("The query plan, with estimated and actual cardinalities, is:");
+        new QueryPlanVisualizer().printQueryPlanTree(query.getPhysicalPlan(), System.out, true);
+        System.out.println("\n " + cnt + " rows.");
     }
 
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
@@ -352,26 +453,28 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type ftype = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (ftype == Type.STRING_TYPE || ftype == Type.DATE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a " + ftype + ".");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (ftype != Type.STRING_TYPE && ftype != Type.DATE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or number fields are supported.");
+                }
+                try {
+                    t.setField(i, ftype.parseText(zc.getValue()));
+                } catch (java.text.ParseException ex) {
+                    throw new simpledb.ParsingException("Value "
+                            + zc.getValue() + " is not a valid " + ftype + ".");
                 }
 
                 i++;
@@ -465,6 +568,7 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
+        s = stripLimit(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
@@ -481,6 +585,47 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Prepare a query to be run many times, with the settings of this parser.
+     *
+     * @param sql
+     *            the query, with a ? for the value of each parameter
+     * @throws ParsingException
+     *             if the query is not valid, or has subqueries
+     */
+    public PreparedStatement prepare(String sql) throws simpledb.ParsingException, IOException {
+        return new PreparedStatement(this, sql);
+    }
+
+    /** @return the queries this parser keeps prepared */
+    public StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+     * @return the query prepared for the normalized text of a SELECT
+     *         statement, with its constants in constants, or null if the
+     *         statement cannot be prepared
+     */
+    private PreparedStatement cachedStatement(String sql, List<String> constants) {
+        String key = StatementCache.normalize(sql, constants);
+        if (key == null)
+            return null;
+        if (limit >= 0)
+            key = key.substring(0, key.length() - 1) + " LIMIT " + limit + " OFFSET " + offset + ";";
+        PreparedStatement prepared = statements.get(key);
+        if (prepared == null) {
+            try {
+                prepared = prepare(key);
+            } catch (simpledb.ParsingException | IOException e) {
+                // parsed, and reported, as it was written
+                return null;
+            }
+            statements.put(key, prepared);
+        }
+        return prepared;
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -489,14 +634,56 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Set the largest number of threads the plans of the queries parsed from
+     * now on run on.
+     *
+     * @see LogicalPlan#setDegreeOfParallelism
+     */
+    public void setDegreeOfParallelism(int degree) {
+        if (degree <= 0)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.degree = degree;
+    }
+
+    public int getDegreeOfParallelism() {
+        return degree;
+    }
+
     public void processNextStatement(String s) {
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                statement.write(buf, 0, n);
+            String sql = new String(statement.toByteArray(), StandardCharsets.UTF_8);
+            Matcher explained = EXPLAIN_ANALYZE.matcher(sql);
+            analyze = explained.matches();
+            if (analyze)
+                sql = explained.group(1);
+            sql = stripLimit(sql);
+            // queries that differ only in their constants are parsed and
+            // optimized once
+            List<String> constants = new ArrayList<>();
+            int limit = this.limit, offset = this.offset;
+            PreparedStatement prepared = cachedStatement(sql, constants);
+            // preparing a query parses its LIMIT clause again
+            this.limit = prepared == null ? limit : -1;
+            this.offset = offset;
+            ZStatement s = null;
+            if (prepared == null) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes(StandardCharsets.UTF_8)));
+                s = p.readStatement();
+                if (limit >= 0 && !(s instanceof ZQuery))
+                    throw new simpledb.ParsingException("LIMIT is only supported in queries");
+                if (analyze && !(s instanceof ZQuery))
+                    throw new simpledb.ParsingException("EXPLAIN ANALYZE is only supported in queries");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -509,7 +696,10 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (prepared != null) {
+                        query = prepared.bind(curtrans.getId(), constants);
+                        printQueryPlan(query);
+                    } else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -524,8 +714,15 @@ public class Parser {
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
-                        query.execute();
+                    if (query != null) {
+                        if (analyze)
+                            explainAnalyze(query);
+                        else
+                            query.execute();
+                        // the next queries are optimized with the
+                        // selectivities this one observed
+                        SelectivityFeedback.record(query.getPhysicalPlan(), TableStats.getStatsMap());
+                    }
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
@@ -566,12 +763,13 @@ public class Parser {
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "group by", "order by", "limit", "offset", "max(", "min(", "avg(",
+            "count", "rollback", "commit", "insert", "delete", "values", "into",
+            "explain analyze" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 12) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,7 +779,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-parallel threads] [-samplerate fraction] [-bushy] [-dplimit tables] [-calibrate]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -593,9 +791,10 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
 
         String queryFile = null;
+        double sampleRate = TableStats.DEFAULT_SAMPLE_RATE;
+        boolean recalibrate = false;
 
         if (argv.length > 1) {
             for (int i = 1; i < argv.length; i++) {
@@ -611,12 +810,52 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-parallel")) {
+                    try {
+                        setDegreeOfParallelism(Integer.parseInt(argv[++i]));
+                    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                        System.out.println("Expected a positive number of threads after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Queries run on up to " + degree + " threads.");
+                } else if (argv[i].equals("-bushy")) {
+                    bushy = true;
+                    System.out.println("Joins may be ordered into bushy plans.");
+                } else if (argv[i].equals("-dplimit")) {
+                    try {
+                        dpLimit = Integer.parseInt(argv[++i]);
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        dpLimit = 0;
+                    }
+                    if (dpLimit < 2) {
+                        System.out.println("Expected a number of tables of at least 2 after -dplimit\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                } else if (argv[i].equals("-calibrate")) {
+                    recalibrate = true;
+                } else if (argv[i].equals("-samplerate")) {
+                    try {
+                        sampleRate = Double.parseDouble(argv[++i]);
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        sampleRate = -1;
+                    }
+                    if (!(sampleRate > 0 && sampleRate <= 1)) {
+                        System.out.println("Expected a fraction of pages in (0, 1] after -samplerate\n"
+                                + usage);
+                        System.exit(0);
+                    }
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
         }
+        // statistics saved next to the catalog are reused while current
+        TableStats.computeStatistics(TableStats.statsFileFor(argv[0]), sampleRate);
+        // so is the cost model measured on this host
+        CostModel.load(CostModel.costFileFor(argv[0]), recalibrate);
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
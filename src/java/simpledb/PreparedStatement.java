@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.execution.Query;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A query parsed and optimized once, to be run many times with different
+ * values of its parameters: the ? in its WHERE clause, each compared with a
+ * field. Its joins are ordered the first time it is run, with the values of
+ * that run, and that order is kept while the catalog and the table statistics
+ * stay as they were; once either changes, the query is parsed and optimized
+ * again the next time it is run.
+ * <p>
+ * Queries with subqueries cannot be prepared.
+ */
+public class PreparedStatement {
+
+    private final Parser parser;
+    private final String sql;
+
+    private LogicalPlan lp;
+    private long catalogVersion;
+    private long statsVersion;
+
+    /**
+     * Prepare a query with the settings (parallelism, join ordering) of a
+     * parser.
+     *
+     * @throws ParsingException if the query is not valid, or has subqueries
+     */
+    PreparedStatement(Parser parser, String sql) throws ParsingException, IOException {
+        this.parser = parser;
+        this.sql = sql;
+        prepare();
+    }
+
+    private void prepare() throws ParsingException, IOException {
+        catalogVersion = Database.getCatalog().getVersion();
+        statsVersion = TableStats.getVersion();
+        LogicalPlan plan = parser.generateLogicalPlan(new TransactionId(), sql);
+        if (plan.hasSubqueries())
+            throw new ParsingException("Queries with subqueries cannot be prepared.");
+        plan.setReuseJoinOrder(true);
+        lp = plan;
+    }
+
+    /** @return the text of the query */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return the number of parameters of the query */
+    public synchronized int getParameterCount() {
+        return lp.getParameterCount();
+    }
+
+    /**
+     * @return whether neither the catalog nor the statistics of the tables have
+     *         changed since the query was optimized
+     */
+    public synchronized boolean isCurrent() {
+        return catalogVersion == Database.getCatalog().getVersion() && statsVersion == TableStats.getVersion();
+    }
+
+    /**
+     * Build a plan of the query with the specified parameter values.
+     *
+     * @param tid
+     *            the transaction the plan runs as a part of
+     * @param values
+     *            the value of each parameter, in the order of the parameters
+     *            in the query, as a number or a string without quotes
+     * @return the query, ready to be executed
+     * @throws ParsingException
+     *             if there are not as many values as parameters, or a value
+     *             is not one of the type of its field
+     */
+    public Query bind(TransactionId tid, String... values) throws ParsingException, IOException {
+        return bind(tid, Arrays.asList(values));
+    }
+
+    /** @see #bind(TransactionId, String...) */
+    public synchronized Query bind(TransactionId tid, List<String> values) throws ParsingException, IOException {
+        if (!isCurrent())
+            prepare();
+        lp.bindParameters(values);
+        Query query = new Query(tid);
+        query.setPhysicalPlan(lp.physicalPlan(tid, TableStats.getStatsMap(), Parser.explain));
+        query.setLogicalPlan(lp);
+        return query;
+    }
+}
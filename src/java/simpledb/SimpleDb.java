@@ -7,6 +7,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.NoSuchElementException;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -37,11 +38,9 @@ public class SimpleDb {
                         }
                         int index = 0;
                         for (String s : typeStringAr) {
-                            if (s.equalsIgnoreCase("int"))
-                                ts[index++] = Type.INT_TYPE;
-                            else if (s.equalsIgnoreCase("string"))
-                                ts[index++] = Type.STRING_TYPE;
-                            else {
+                            try {
+                                ts[index++] = Type.forName(s);
+                            } catch (NoSuchElementException e) {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
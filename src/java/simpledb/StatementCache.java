@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of prepared queries, keyed by their normalized text, which
+ * evicts the least recently used query when full. Queries that differ only in
+ * their constants and whitespace share one entry: {@link #normalize} replaces
+ * each constant with a parameter, and the constants are bound to the prepared
+ * query to run it. Entries whose query was optimized against another version
+ * of the catalog or of the table statistics are dropped when looked up.
+ */
+public class StatementCache {
+
+    /** The number of queries a Parser keeps prepared */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final Map<String, PreparedStatement> statements;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * @param capacity
+     *            the largest number of queries kept
+     */
+    public StatementCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the query cached under the specified normalized text, or null
+     *         if there is none, or it is no longer current
+     */
+    public synchronized PreparedStatement get(String key) {
+        PreparedStatement s = statements.get(key);
+        if (s != null && !s.isCurrent()) {
+            statements.remove(key);
+            s = null;
+        }
+        if (s == null)
+            misses++;
+        else
+            hits++;
+        return s;
+    }
+
+    public synchronized void put(String key, PreparedStatement s) {
+        statements.put(key, s);
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    public synchronized void clear() {
+        statements.clear();
+    }
+
+    /** @return the number of lookups that found a current query */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that did not */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Normalize the text of a SELECT statement: replace each string and number
+     * constant with a ?, and each run of whitespace with a single space, and
+     * end it with a semicolon.
+     *
+     * @param sql
+     *            the statement, without a LIMIT clause
+     * @param constants
+     *            receives the constants, in order, strings without their
+     *            quotes
+     * @return the normalized statement, or null if it is not a single SELECT
+     *         statement, has subqueries, or has parameters of its own
+     */
+    public static String normalize(String sql, List<String> constants) {
+        String s = sql.trim();
+        while (s.endsWith(";"))
+            s = s.substring(0, s.length() - 1).trim();
+        if (!s.regionMatches(true, 0, "SELECT", 0, 6) || s.length() == 6 || !Character.isWhitespace(s.charAt(6)))
+            return null;
+        StringBuilder sb = new StringBuilder(s.length() + 1);
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\'') {
+                // a string, with '' standing for a quote
+                StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (true) {
+                    if (j >= s.length())
+                        return null;
+                    char d = s.charAt(j++);
+                    if (d != '\'') {
+                        value.append(d);
+                    } else if (j < s.length() && s.charAt(j) == '\'') {
+                        value.append('\'');
+                        j++;
+                    } else {
+                        break;
+                    }
+                }
+                constants.add(value.toString());
+                sb.append('?');
+                i = j;
+            } else if (Character.isDigit(c) && (i == 0 || !isNamePart(s.charAt(i - 1)))) {
+                int j = i;
+                while (j < s.length() && (Character.isDigit(s.charAt(j)) || s.charAt(j) == '.'))
+                    j++;
+                constants.add(s.substring(i, j));
+                sb.append('?');
+                i = j;
+            } else if (Character.isWhitespace(c)) {
+                while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+                    i++;
+                sb.append(' ');
+            } else if (c == '?' || c == ';') {
+                // a parameter of its own, or more statements after this one
+                return null;
+            } else if (i > 0 && s.regionMatches(true, i, "SELECT", 0, 6) && !isNamePart(s.charAt(i - 1))
+                    && (i + 6 == s.length() || !isNamePart(s.charAt(i + 6)))) {
+                // a subquery, which cannot be prepared
+                return null;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.append(';').toString();
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+}
@@ -1,9 +1,11 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -11,6 +13,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -30,9 +33,18 @@ public class Catalog {
    
     private Map<Integer, TableSchema> catalogMap;
 
+    /** The files of the secondary indexes, by id, which are not tables */
+    private Map<Integer, DbFile> indexFiles;
+
+    /** Versions are drawn from one counter, so that no two catalogs share one */
+    private static final AtomicLong versions = new AtomicLong();
+
+    private volatile long version = versions.incrementAndGet();
+
     public Catalog() {
         // some code goes here
         this.catalogMap = new ConcurrentHashMap<>();
+        this.indexFiles = new ConcurrentHashMap<>();
     }
 
     /**
@@ -60,6 +72,7 @@ public class Catalog {
 
             TableSchema t = new TableSchema(file, name, pkeyField);
             this.catalogMap.put(tableId, t);
+            this.version = versions.incrementAndGet();
         }
     }
 
@@ -95,7 +108,8 @@ public class Catalog {
     }
 
     /**
-     * Returns the tuple descriptor (schema) of the specified table
+     * Returns the tuple descriptor (schema) of the specified table, or of
+     * the entries of the specified index file
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      * @throws NoSuchElementException if the table doesn't exist
@@ -104,6 +118,8 @@ public class Catalog {
         // some code goes here
         if (this.catalogMap.containsKey(tableid)) {
             return this.catalogMap.get(tableid).getFile().getTupleDesc();
+        } else if (this.indexFiles.containsKey(tableid)) {
+            return this.indexFiles.get(tableid).getTupleDesc();
         } else {
             throw new NoSuchElementException("Table with specified table ID does not exist.");
         }
@@ -111,7 +127,8 @@ public class Catalog {
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or the file of the specified secondary index, so
+     * that its pages can be read and written.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
@@ -119,6 +136,23 @@ public class Catalog {
         // some code goes here
         if (this.catalogMap.containsKey(tableid)) {
             return this.catalogMap.get(tableid).getFile();
+        } else if (this.indexFiles.containsKey(tableid)) {
+            return this.indexFiles.get(tableid);
+        } else {
+            throw new NoSuchElementException("Table with specified table ID does not exist.");
+        }
+    }
+
+    /**
+     * Returns the page layout of the specified table: the layout of its
+     * HeapFile, or ROW for tables stored in other kinds of DbFile.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public HeapFile.Layout getLayout(int tableid) throws NoSuchElementException {
+        if (this.catalogMap.containsKey(tableid)) {
+            return this.catalogMap.get(tableid).getLayout();
         } else {
             throw new NoSuchElementException("Table with specified table ID does not exist.");
         }
@@ -133,6 +167,39 @@ public class Catalog {
         }
     }
 
+    /**
+     * Register a secondary index. The index's BTreeFile is known to the catalog
+     * by its id, so that its pages can find their TupleDesc, but it is not a
+     * table: it has no name, and is not returned by tableIdIterator, so that it
+     * is only ever modified through the index. The index is attached to the
+     * indexed table so that inserts and deletes keep it up to date.
+     * @param index the index to add; its table must already be in the catalog
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     */
+    public void addIndex(SecondaryIndex index) {
+        TableSchema t = this.catalogMap.get(index.getTableId());
+        if (t == null) {
+            throw new NoSuchElementException("Table with specified table ID does not exist.");
+        }
+        this.indexFiles.put(index.getFile().getId(), index.getFile());
+        t.getIndexes().add(index);
+        this.version = versions.incrementAndGet();
+    }
+
+    /**
+     * Returns the secondary indexes over the specified table, which may be empty.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        if (this.catalogMap.containsKey(tableid)) {
+            return Collections.unmodifiableList(this.catalogMap.get(tableid).getIndexes());
+        } else {
+            throw new NoSuchElementException("Table with specified table ID does not exist.");
+        }
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return this.catalogMap.keySet().iterator();
@@ -151,6 +218,16 @@ public class Catalog {
     public void clear() {
         // some code goes here
         this.catalogMap.clear();
+        this.indexFiles.clear();
+        this.version = versions.incrementAndGet();
+    }
+
+    /**
+     * @return the version of this catalog, which changes whenever a table or
+     *     index is added to it, or it is cleared
+     */
+    public long getVersion() {
+        return version;
     }
     
     /**
@@ -164,7 +241,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [row|slotted|pax]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -172,22 +249,23 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().equalsIgnoreCase("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().equalsIgnoreCase("string"))
-                        types.add(Type.STRING_TYPE);
-                    else {
+                    try {
+                        types.add(Type.forName(els2[1]));
+                    } catch (NoSuchElementException ex) {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("idx"))
+                            indexed.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -195,11 +273,26 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String annotation = line.substring(line.indexOf(")") + 1).trim();
+                HeapFile.Layout layout = HeapFile.Layout.ROW;
+                if (!annotation.isEmpty()) {
+                    try {
+                        layout = HeapFile.Layout.forName(annotation);
+                    } catch (NoSuchElementException ex) {
+                        System.out.println("Unknown table annotation " + annotation);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, layout);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : indexed) {
+                    SecondaryIndex.create(tabHf.getId(), field,
+                            new File(baseFolder + "/" + name + "_" + field + ".idx"));
+                    System.out.println("Added index on " + name + "." + field);
+                }
             }
-        } catch (IOException e) {
+        } catch (IOException | DbException | TransactionAbortedException e) {
             e.printStackTrace();
             System.exit(0);
         } catch (IndexOutOfBoundsException e) {
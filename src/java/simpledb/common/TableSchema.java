@@ -1,21 +1,30 @@
 package simpledb.common;
 
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Table class stores all the information of a table.
- * This includes a DbFile file, a String name, and a String pkeyField.
+ * This includes a DbFile file, a String name, a String pkeyField, the page
+ * layout of the file, and the secondary indexes built over the table.
  * This class is used by the Catalog class for a better, neater, and cleaner code organization.
  */
 public class TableSchema {
     private DbFile file;
     private String name;
     private String pkeyField;
+    private HeapFile.Layout layout;
+    private List<SecondaryIndex> indexes = new CopyOnWriteArrayList<>();
 
     public TableSchema(DbFile file, String name, String pkeyField) {
 		this.file = file;
 		this.name = name;
 		this.pkeyField = pkeyField;
+		this.layout = (file instanceof HeapFile) ? ((HeapFile) file).getLayout() : HeapFile.Layout.ROW;
 	}
 
 	public DbFile getFile() {
@@ -29,4 +38,12 @@ public class TableSchema {
 	public String getPkeyField() {
 		return this.pkeyField;
 	}
-}
\ No newline at end of file
+
+	public HeapFile.Layout getLayout() {
+		return this.layout;
+	}
+
+	public List<SecondaryIndex> getIndexes() {
+		return this.indexes;
+	}
+}
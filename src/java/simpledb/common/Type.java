@@ -1,11 +1,17 @@
 package simpledb.common;
 
+import simpledb.execution.Predicate;
+import simpledb.storage.DateField;
+import simpledb.storage.DoubleField;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.LongField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.time.format.DateTimeParseException;
+import java.util.NoSuchElementException;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +34,24 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public boolean compare(byte[] data, int offset, Predicate.Op op, Field operand) {
+            if (!(operand instanceof IntField))
+                return super.compare(data, offset, op, operand);
+            int value = (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            return holds(op, Integer.compare(value, ((IntField) operand).getValue()));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return new IntField(Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not an int: " + s, 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,10 +70,147 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public int getMinVarLen() {
+            return 2;
+        }
+
+        @Override
+        public int getVarLen(Field f) {
+            return 2 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public void serializeVarLen(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN)
+                s = s.substring(0, STRING_LEN);
+            dos.writeShort(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field parseVarLen(DataInputStream dis) throws ParseException {
+            try {
+                byte[] bs = new byte[dis.readUnsignedShort()];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parseText(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public boolean compare(byte[] data, int offset, Predicate.Op op, Field operand) {
+            if (!(operand instanceof LongField))
+                return super.compare(data, offset, op, operand);
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (data[offset + i] & 0xff);
+            return holds(op, Long.compare(value, ((LongField) operand).getValue()));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return new LongField(Long.parseLong(s));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a long: " + s, 0);
+            }
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return new DoubleField(Double.parseDouble(s));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a double: " + s, 0);
+            }
+        }
+    }, DATE_TYPE() {
+        @Override
+        public int getLen() {
+            return 4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readInt());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return DateField.valueOf(s);
+            } catch (DateTimeParseException e) {
+                throw new ParseException("not a date: " + s, e.getErrorIndex());
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+  /**
+   * @return the type with the specified name, as used in schema files and
+   *   by the convert command: int, string, long, double or date (ignoring case).
+   * @param name The name of the type
+   * @throws NoSuchElementException if there is no type with that name
+   */
+    public static Type forName(String name) throws NoSuchElementException {
+        switch (name.trim().toLowerCase()) {
+            case "int":
+                return INT_TYPE;
+            case "string":
+                return STRING_TYPE;
+            case "long":
+                return LONG_TYPE;
+            case "double":
+                return DOUBLE_TYPE;
+            case "date":
+                return DATE_TYPE;
+            default:
+                throw new NoSuchElementException("unknown type " + name);
+        }
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -64,4 +225,96 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of this type holding the value written out in the
+   *   specified text, such as a field of a text file being converted or a
+   *   constant in a query. Dates are written as yyyy-mm-dd.
+   * @param s The text to parse, without surrounding whitespace
+   * @throws ParseException if the text is not a value of this type.
+   */
+    public abstract Field parseText(String s) throws ParseException;
+
+  /**
+   * Compare a value of this type, stored in the fixed-length format at the
+   * specified offset of a page, with a field, as Field.compare would compare
+   * the parsed value. Numbers are compared on their bytes, without a Field
+   * being built; other values are parsed on their own, without the rest of
+   * their tuple.
+   * @param data The bytes of the page
+   * @param offset The offset of the value in data
+   * @param op The comparison
+   * @param operand The field to compare the value with
+   */
+    public boolean compare(byte[] data, int offset, Predicate.Op op, Field operand) {
+        try {
+            return parse(new DataInputStream(new ByteArrayInputStream(data, offset, getLen())))
+                    .compare(op, operand);
+        } catch (ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+  /**
+   * @return whether a comparison holds, given the sign of the difference
+   *   between its operands; LIKE is equality for numbers.
+   */
+    private static boolean holds(Predicate.Op op, int cmp) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+            default:
+                return false;
+        }
+    }
+
+  /**
+   * @return the smallest number of bytes a field of this type takes in a
+   *   variable-length record.
+   */
+    public int getMinVarLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes the specified field of this type takes in a
+   *   variable-length record. Strings only take as many bytes as their actual
+   *   length, plus two for the length itself; other types take their fixed length.
+   * @param f The field to measure
+   */
+    public int getVarLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Write the specified field of this type to dos in the variable-length record
+   * format, taking getVarLen(f) bytes.
+   * @param f The field to write
+   * @param dos Where the field is written
+   */
+    public void serializeVarLen(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * @return a Field object of this type read from the specified DataInputStream,
+   *   which holds a field written by serializeVarLen.
+   * @param dis The input stream to read from
+   * @throws ParseException if the data read from the input stream is not
+   *   of the appropriate type.
+   */
+    public Field parseVarLen(DataInputStream dis) throws ParseException {
+        return parse(dis);
+    }
+
 }
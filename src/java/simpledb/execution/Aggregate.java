@@ -2,35 +2,83 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
-import simpledb.storage.Field;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HashPartitioner;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, are computed in
+ * one pass over the child, grouped by a single column.
+ * <p>
+ * At most memoryGroups groups are held in memory. When there are more, the
+ * partial state of every group held (see {@link HashAggregator}) is written to
+ * spill files, divided into partitions by the hash of the group, and
+ * aggregation starts again with an empty table. Once the child is exhausted
+ * the partial states of each partition are merged in turn, partitioning them
+ * again, by other bits of the hash, if they still have too many groups.
+ * <p>
+ * Aggregation can also be split into phases: a partial Aggregate returns the
+ * partial states of its groups rather than their results, so that partial
+ * aggregation can run separately over each part of a table, and the Aggregate
+ * returned by its finalAggregate merges the partial states of all the parts.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The default largest number of groups held in memory */
+    public static final int DEFAULT_MEMORY_GROUPS = 100000;
+
+    /** The phases of a split aggregation */
+    public enum Phase {
+        /** Aggregate input tuples into results */
+        COMPLETE,
+        /** Aggregate input tuples into partial states */
+        PARTIAL,
+        /** Merge partial states into results */
+        FINAL
+    }
+
     private OpIterator child;
-    private int afield;
+    private final int[] afields;
     private int gfield;
-    private Aggregator.Op aop;
-    private Aggregator aggregator;
-    private OpIterator aggregatorIterator;
+    private final Aggregator.Op[] aops;
+    private final Phase phase;
+    /** The TupleDesc aggregated by the partial phase, if this is the final phase */
+    private final TupleDesc partialInputTd;
+    private final int memoryGroups;
+
+    /** The aggregator whose results are being returned, if nothing was spilled */
+    transient private HashAggregator aggregator;
+    transient private OpIterator aggregatorIterator;
+    transient private Deque<SpilledPartition> pending;
+    transient private int numSpilled;
+
+    /** A partition of partial states that remains to be merged */
+    private static class SpilledPartition {
+        final SpillFile states;
+        final int level;
+
+        SpilledPartition(SpillFile states, int level) {
+            this.states = states;
+            this.level = level;
+        }
+    }
 
     /**
-     * Constructor.
-     * <p>
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
+     * Constructor. The aggregate is computed by a {@link HashAggregator},
+     * whatever the type of afield.
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -39,18 +87,127 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[] { afield }, gfield, new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates over the same grouping.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfield  The column over which we are grouping the result, or -1
+     *                if there is no grouping
+     * @param aops    The aggregation operator to apply to each column
+     * @throws IllegalArgumentException if there are no aggregates, or a
+     *                                  different number of columns and
+     *                                  operators
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        this(child, afields, gfield, aops, DEFAULT_MEMORY_GROUPS);
+    }
+
+    /**
+     * Constructor for several aggregates over the same grouping, with a
+     * memory budget.
+     *
+     * @param child        The OpIterator that is feeding us tuples.
+     * @param afields      The columns over which we are computing aggregates.
+     * @param gfield       The column over which we are grouping the result, or
+     *                     -1 if there is no grouping
+     * @param aops         The aggregation operator to apply to each column
+     * @param memoryGroups The largest number of groups to hold in memory
+     * @throws IllegalArgumentException if there are no aggregates, a different
+     *                                  number of columns and operators, or the
+     *                                  memory budget is not positive
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops, int memoryGroups) {
+        this(child, afields, gfield, aops, Phase.COMPLETE, null, memoryGroups);
+    }
+
+    private Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops, Phase phase,
+            TupleDesc partialInputTd, int memoryGroups) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate field");
+        if (memoryGroups <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
         this.child = child;
-        this.afield = afield;
+        this.afields = afields.clone();
         this.gfield = gfield;
-        this.aop = aop;
-        this.aggregator = null;
-        this.aggregatorIterator = null;
+        this.aops = aops.clone();
+        this.phase = phase;
+        this.partialInputTd = partialInputTd;
+        this.memoryGroups = memoryGroups;
+    }
+
+    /**
+     * Create the partial phase of an aggregation, which returns the partial
+     * state of each group of its child rather than the results of the
+     * aggregates. Its output can be combined with that of other partial
+     * Aggregates with the same arguments over other parts of the same table,
+     * and merged into results by finalAggregate.
+     *
+     * @param child        The OpIterator that is feeding us tuples.
+     * @param afields      The columns over which we are computing aggregates.
+     * @param gfield       The column over which we are grouping the result, or
+     *                     -1 if there is no grouping
+     * @param aops         The aggregation operator to apply to each column
+     * @param memoryGroups The largest number of groups to hold in memory
+     * @throws IllegalArgumentException as for the constructor
+     */
+    public static Aggregate partial(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops,
+            int memoryGroups) {
+        return new Aggregate(child, afields, gfield, aops, Phase.PARTIAL, null, memoryGroups);
+    }
 
+    /**
+     * Create the final phase of this partial aggregation.
+     *
+     * @param partials the partial states to merge, as returned by this
+     *                 Aggregate or others with the same arguments
+     * @return an Aggregate that merges the partial states into the results of
+     *         the aggregates, with the same TupleDesc as a complete Aggregate
+     *         with these arguments
+     * @throws IllegalStateException    if this is not a partial Aggregate
+     * @throws IllegalArgumentException if partials do not have the TupleDesc
+     *                                  of this Aggregate
+     */
+    public Aggregate finalAggregate(OpIterator partials) {
+        if (phase != Phase.PARTIAL)
+            throw new IllegalStateException("only a partial aggregate has a final phase");
+        if (!partials.getTupleDesc().equals(getTupleDesc()))
+            throw new IllegalArgumentException("partial states do not match this aggregate");
+        return new Aggregate(partials, afields, gfield, aops, Phase.FINAL, child.getTupleDesc(),
+                memoryGroups);
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public int getMemoryGroups() {
+        return memoryGroups;
+    }
+
+    /**
+     * @return the number of partitions written to disk since the last open or
+     *         rewind, counting partitions spilled again when merged
+     */
+    public int getNumSpilledPartitions() {
+        return numSpilled;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples aggregated, which for the final
+     *         phase are those of the partial phase rather than the child
+     */
+    private TupleDesc inputTupleDesc() {
+        return phase == Phase.FINAL ? partialInputTd : child.getTupleDesc();
     }
 
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     *         field index in the <b>INPUT</b> tuples, which for the final phase
+     *         are those of the partial phase. If not, return
      *         {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
@@ -64,31 +221,46 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         if (gfield != Aggregator.NO_GROUPING) {
-            return child.getTupleDesc().getFieldName(this.gfield);
+            return inputTupleDesc().getFieldName(this.gfield);
         }
         return null;
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field, or the first one if there are several
      */
     public int aggregateField() {
-        return this.afield;
+        return this.afields[0];
+    }
+
+    /**
+     * @return the aggregate fields
+     */
+    public int[] aggregateFields() {
+        return this.afields.clone();
     }
 
     /**
      * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     *         tuples, or of the first one if there are several
      */
     public String aggregateFieldName() {
-        return child.getTupleDesc().getFieldName(this.afield);
+        return inputTupleDesc().getFieldName(this.afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator, or the first one if there are
+     *         several
      */
     public Aggregator.Op aggregateOp() {
-        return this.aop;
+        return this.aops[0];
+    }
+
+    /**
+     * @return the aggregate operators, one for each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -97,40 +269,134 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
+        this.child.open();
+        start();
+        super.open();
+    }
+
+    /** Aggregate the child, spilling partitions if there are too many groups */
+    private void start() throws DbException, TransactionAbortedException {
+        this.pending = new ArrayDeque<>();
+        this.numSpilled = 0;
+        this.aggregator = aggregate(null, 0);
+        this.aggregatorIterator = this.aggregator == null ? null : resultIterator(this.aggregator);
+    }
 
-        if (this.aggregatorIterator == null) {
-            this.aggregator = this.createAggregator(this.child.getTupleDesc());
-            this.populateAggregator();
-            this.aggregatorIterator = this.aggregator.iterator();
+    /**
+     * Aggregate the child or a spilled partition. If there are more than
+     * memoryGroups groups, their partial states are spilled instead, and the
+     * new partitions are added to pending.
+     *
+     * @param states the partial states to merge, or null to read the child
+     * @param level  the level of partitioning of the states
+     * @return the aggregator holding every group, or null if they were spilled
+     */
+    private HashAggregator aggregate(SpillFile states, int level)
+            throws DbException, TransactionAbortedException {
+        boolean partialInput = states != null || phase == Phase.FINAL;
+        HashAggregator agg = createAggregator(partialInput);
+        SpillFile[] spills = null;
+        // a partition at the last level is merged in memory whatever its size
+        boolean canSpill = level <= HashPartitioner.MAX_LEVEL;
+        if (states == null) {
+            TupleBatch batch;
+            while ((batch = this.child.nextBatch()) != null) {
+                agg.mergeBatchIntoGroups(batch);
+                if (canSpill && agg.numGroups() > memoryGroups) {
+                    spills = spill(agg, spills, level);
+                    agg = createAggregator(partialInput);
+                }
+            }
+        } else {
+            DbFileIterator it = states.iterator();
+            it.open();
+            while (it.hasNext()) {
+                agg.mergeTupleIntoGroup(it.next());
+                if (canSpill && agg.numGroups() > memoryGroups) {
+                    spills = spill(agg, spills, level);
+                    agg = createAggregator(partialInput);
+                }
+            }
+            it.close();
+            states.delete();
         }
-        this.aggregatorIterator.open();
-        super.open();
+        if (spills == null)
+            return agg;
+
+        spill(agg, spills, level);
+        for (int p = HashPartitioner.NUM_PARTITIONS - 1; p >= 0; p--) {
+            if (spills[p] != null) {
+                spills[p].finishWriting();
+                pending.addFirst(new SpilledPartition(spills[p], level + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the partial state of every group of an aggregator to the spill
+     * file of its partition.
+     *
+     * @return the spill files of the partitions, created if spills is null
+     */
+    private SpillFile[] spill(HashAggregator agg, SpillFile[] spills, int level) throws DbException {
+        if (spills == null)
+            spills = new SpillFile[HashPartitioner.NUM_PARTITIONS];
+        TupleDesc td = agg.getPartialTupleDesc();
+        boolean grouped = this.gfield != Aggregator.NO_GROUPING;
+        for (int g = 0; g < agg.numGroups(); g++) {
+            Tuple t = agg.partialState(td, g);
+            int p = grouped ? HashPartitioner.partition(t.getField(0), level) : 0;
+            if (spills[p] == null) {
+                spills[p] = new SpillFile(td);
+                numSpilled++;
+            }
+            spills[p].add(t);
+        }
+        return spills;
+    }
+
+    private OpIterator resultIterator(HashAggregator agg) throws DbException, TransactionAbortedException {
+        OpIterator it = phase == Phase.PARTIAL ? agg.partialIterator() : agg.iterator();
+        it.open();
+        return it;
     }
 
     /**
      * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * field is the field by which we are grouping, and the following fields
+     * are the results of computing the aggregates. If there is no group by
+     * field, then the result tuple should contain one field for the result of
+     * each aggregate. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (this.aggregatorIterator.hasNext()) {
-            return this.aggregatorIterator.next();
+        while (true) {
+            if (this.aggregatorIterator != null && this.aggregatorIterator.hasNext())
+                return this.aggregatorIterator.next();
+            if (this.pending.isEmpty())
+                return null;
+            SpilledPartition sp = this.pending.removeFirst();
+            HashAggregator agg = aggregate(sp.states, sp.level);
+            this.aggregatorIterator = agg == null ? null : resultIterator(agg);
         }
-        return null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        this.aggregatorIterator = this.aggregator.iterator();
-        this.aggregatorIterator.open();
+        if (this.aggregator != null) {
+            // nothing was spilled, so the results are still in memory
+            this.aggregatorIterator = resultIterator(this.aggregator);
+            return;
+        }
+        deleteSpillFiles();
+        this.child.rewind();
+        start();
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * this will have one field for each aggregate column. If there is a group
+     * by field, the first field will be the group by field, followed by the
+     * aggregate value columns.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -138,34 +404,77 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        String aggFieldName = Aggregate.aggName(this.aop) + " (" +
-                this.child.getTupleDesc().getFieldName(this.afield) + ")";
+        TupleDesc childTd = inputTupleDesc();
+        int offset = this.gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[offset + this.afields.length];
+        String[] names = new String[offset + this.afields.length];
+        if (offset == 1) {
+            types[0] = childTd.getFieldType(this.gfield);
+            names[0] = childTd.getFieldName(this.gfield);
+        }
+        if (this.phase == Phase.PARTIAL)
+            return partialTupleDesc();
+        for (int i = 0; i < this.afields.length; i++) {
+            types[offset + i] = resultType(childTd.getFieldType(this.afields[i]), this.aops[i]);
+            names[offset + i] = Aggregate.aggName(this.aops[i]) + " (" +
+                    childTd.getFieldName(this.afields[i]) + ")";
+        }
+        return new TupleDesc(types, names);
+    }
 
-        if (this.gfield == Aggregator.NO_GROUPING) {
-            return new TupleDesc(
-                    new Type[] { this.child.getTupleDesc().getFieldType(this.afield) },
-                    new String[] { aggFieldName });
-        } else {
-            return new TupleDesc(
-                    new Type[] {
-                            this.child.getTupleDesc().getFieldType(this.gfield),
-                            this.child.getTupleDesc().getFieldType(this.afield)
-                    },
-                    new String[] {
-                            this.child.getTupleDesc().getFieldName(this.gfield),
-                            aggFieldName
-                    });
+    /**
+     * @return the TupleDesc of the partial phase: the group by field, if any,
+     *         the count of the group, then the state of each aggregate other
+     *         than COUNT, named after the aggregate whose state it holds
+     */
+    private TupleDesc partialTupleDesc() {
+        TupleDesc childTd = this.child.getTupleDesc();
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (this.gfield != Aggregator.NO_GROUPING) {
+            types.add(childTd.getFieldType(this.gfield));
+            names.add(childTd.getFieldName(this.gfield));
+        }
+        types.add(Type.LONG_TYPE);
+        names.add("count (*)");
+        for (int i = 0; i < this.afields.length; i++) {
+            Type t = childTd.getFieldType(this.afields[i]);
+            String name = " (" + childTd.getFieldName(this.afields[i]) + ")";
+            switch (this.aops[i]) {
+                case COUNT:
+                    continue;
+                case SUM:
+                case AVG:
+                    types.add(t == Type.DOUBLE_TYPE ? Type.DOUBLE_TYPE : Type.LONG_TYPE);
+                    names.add(aggName(Aggregator.Op.SUM) + name);
+                    break;
+                default:
+                    types.add(t);
+                    names.add(aggName(this.aops[i]) + name);
+                    break;
+            }
         }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
     }
 
     public void close() {
         super.close();
         this.child.close();
-        this.aggregatorIterator.close();
+        if (this.aggregatorIterator != null)
+            this.aggregatorIterator.close();
+        deleteSpillFiles();
         this.aggregatorIterator = null;
         this.aggregator = null;
     }
 
+    private void deleteSpillFiles() {
+        if (this.pending != null) {
+            for (SpilledPartition sp : this.pending)
+                sp.states.delete();
+        }
+        this.pending = null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -195,27 +504,43 @@ public class Aggregate extends Operator {
         }
     }
 
-    private Aggregator createAggregator(TupleDesc td) throws DbException {
+    /**
+     * @return the type of the result of the specified aggregate over a field of
+     *         the specified type: COUNT is always an INT, the SUM of INTs is a
+     *         LONG, so that it does not overflow, and the other aggregates have
+     *         the type of the field they aggregate
+     */
+    public static Type resultType(Type afieldType, Aggregator.Op aop) {
+        if (aop == Aggregator.Op.COUNT) {
+            return Type.INT_TYPE;
+        }
+        if (aop == Aggregator.Op.SUM && afieldType == Type.INT_TYPE) {
+            return Type.LONG_TYPE;
+        }
+        return afieldType;
+    }
+
+    /**
+     * @param partialInput true to merge partial states rather than tuples of
+     *                     the input
+     */
+    private HashAggregator createAggregator(boolean partialInput) throws DbException {
+        TupleDesc td = inputTupleDesc();
         Type groupByFieldType = null;
         if (this.gfield != Aggregator.NO_GROUPING) {
             groupByFieldType = td.getFieldType(this.gfield);
         }
 
-        if (td.getFieldType(this.afield) == Type.INT_TYPE) {
-            return new IntegerAggregator(this.gfield, groupByFieldType, this.afield, this.aop);
-        } else if (td.getFieldType(this.afield) == Type.STRING_TYPE) {
-            return new StringAggregator(this.gfield, groupByFieldType, this.afield, this.aop);
-        } else {
-            throw new DbException("This type of iterator is not supported");
+        Type[] afieldTypes = new Type[this.afields.length];
+        for (int i = 0; i < this.afields.length; i++) {
+            afieldTypes[i] = td.getFieldType(this.afields[i]);
         }
-    }
-
-    private void populateAggregator() throws DbException, TransactionAbortedException {
-        this.child.open();
-
-        while (this.child.hasNext()) {
-            Tuple nextTuple = this.child.next();
-            this.aggregator.mergeTupleIntoGroup(nextTuple);
+        try {
+            if (partialInput)
+                return HashAggregator.mergingPartials(groupByFieldType, afieldTypes, this.aops);
+            return new HashAggregator(this.gfield, groupByFieldType, this.afields, afieldTypes, this.aops);
+        } catch (IllegalArgumentException e) {
+            throw new DbException(e.getMessage());
         }
     }
 
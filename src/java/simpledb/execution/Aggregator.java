@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,18 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate. The default
+     * implementation merges the rows one Tuple at a time.
+     *
+     * @param batch the rows, each containing an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroups(TupleBatch batch) {
+        for (int k = 0; k < batch.numRows(); k++) {
+            mergeTupleIntoGroup(batch.getTuple(k));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
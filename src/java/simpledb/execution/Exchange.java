@@ -0,0 +1,361 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An Exchange is an operator that runs each of its children, the producers,
+ * on a thread of its own, so that a plan can run on several cores. Each
+ * producer opens its child, reads all of it a TupleBatch at a time into
+ * bounded queues, and closes it, so the subtree below an Exchange is used by
+ * one thread only; consumers read the batches from the queues.
+ * <p>
+ * The producers may be shared by several Exchanges, the consumers, each of
+ * which receives the tuples whose value of a field hashes to it. They start
+ * when the first consumer is opened and stop when the last is closed.
+ * <p>
+ * All the producers of an Exchange run as part of the transaction of its
+ * children, and take their page locks for it. When a producer fails, its
+ * exception is thrown by every consumer, and the producers are stopped.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of batches each producer may have queued before it waits */
+    private static final int QUEUED_BATCHES_PER_PRODUCER = 4;
+    /** How long a blocked producer waits before checking if it was stopped */
+    private static final long POLL_MILLIS = 10;
+
+    /**
+     * The threads producers run on. Producers block on their queues, and may
+     * run nested Exchanges, so the pool grows rather than making them wait
+     * for each other.
+     */
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-exchange");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A batch of a producer, the end of a producer, or the failure of a
+     * producer or the stopping of all of them
+     */
+    private static class Message {
+        final TupleBatch batch;
+        final Throwable error;
+
+        Message(TupleBatch batch, Throwable error) {
+            this.batch = batch;
+            this.error = error;
+        }
+    }
+
+    private static final Message END = new Message(null, null);
+
+    /**
+     * The producers of one or more Exchanges, and the queue of each consumer
+     */
+    static class Producers {
+        private OpIterator[] children;
+        /** The field that chooses the consumer of a tuple, if there are several */
+        private final int field;
+        private final int numConsumers;
+
+        private BlockingQueue<Message>[] queues;
+        private List<Future<?>> running;
+        private volatile boolean stopped;
+        /** 1 for each consumer that no longer reads its queue */
+        private final AtomicIntegerArray closed;
+        private final boolean[] open;
+        private int numOpen;
+        /** For each consumer, the number of producers it has not seen the end of */
+        private final int[] remaining;
+
+        /**
+         * @throws IllegalArgumentException if there are no children, or their
+         *                                  TupleDescs differ
+         */
+        Producers(OpIterator[] children, int field, int numConsumers) {
+            if (children.length == 0)
+                throw new IllegalArgumentException("an exchange needs at least one producer");
+            for (OpIterator child : children) {
+                if (!child.getTupleDesc().equals(children[0].getTupleDesc()))
+                    throw new IllegalArgumentException("the producers of an exchange must have the same TupleDesc");
+            }
+            this.children = children.clone();
+            this.field = field;
+            this.numConsumers = numConsumers;
+            this.closed = new AtomicIntegerArray(numConsumers);
+            this.open = new boolean[numConsumers];
+            this.remaining = new int[numConsumers];
+        }
+
+        synchronized void open(int c) {
+            if (running == null)
+                start();
+            if (!open[c]) {
+                open[c] = true;
+                numOpen++;
+            }
+        }
+
+        synchronized void close(int c) {
+            closed.set(c, 1);
+            if (open[c]) {
+                open[c] = false;
+                if (--numOpen == 0)
+                    stop(null);
+            }
+        }
+
+        synchronized void rewind() throws DbException {
+            if (numConsumers > 1)
+                throw new DbException("an exchange with several consumers cannot be rewound");
+            stop(null);
+            start();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void start() {
+            queues = new BlockingQueue[numConsumers];
+            for (int c = 0; c < numConsumers; c++) {
+                queues[c] = new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_PRODUCER * children.length);
+                closed.set(c, 0);
+                remaining[c] = children.length;
+            }
+            stopped = false;
+            running = new ArrayList<>(children.length);
+            for (OpIterator child : children)
+                running.add(WORKERS.submit(() -> produce(child)));
+        }
+
+        /**
+         * Stop the producers, and wait for them to close their children. The
+         * consumers still reading then see the specified failure, or the end
+         * of the producers if it is null.
+         */
+        private void stop(Throwable cause) {
+            if (running == null)
+                return;
+            stopped = true;
+            List<Future<?>> started = running;
+            running = null;
+            for (Future<?> f : started) {
+                while (!f.isDone()) {
+                    for (BlockingQueue<Message> q : queues)
+                        q.clear();
+                    try {
+                        f.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (Exception e) {
+                        // its error, if any, is no longer wanted
+                    }
+                }
+            }
+            for (BlockingQueue<Message> q : queues) {
+                q.clear();
+                q.offer(new Message(null, cause));
+            }
+        }
+
+        /** @return the consumer of a value of the field */
+        private int consumerOf(Field key) {
+            long h = (key.hashCode() * 0x9E3779B9L) & 0xffffffffL;
+            return (int) ((h * numConsumers) >>> 32);
+        }
+
+        /** Read all of a child into the queues, on a worker thread */
+        private void produce(OpIterator child) {
+            boolean opened = false;
+            try {
+                child.open();
+                opened = true;
+                TupleBatch[] out = new TupleBatch[numConsumers];
+                TupleBatch batch;
+                while (!stopped && (batch = child.nextBatch()) != null) {
+                    if (numConsumers == 1) {
+                        if (batch.numRows() > 0)
+                            put(0, new Message(batch, null));
+                        continue;
+                    }
+                    int width = batch.getTupleDesc().numFields();
+                    for (int k = 0; k < batch.numRows(); k++) {
+                        int row = batch.row(k);
+                        int c = consumerOf(batch.getField(field, row));
+                        if (closed.get(c) != 0)
+                            continue;
+                        if (out[c] == null)
+                            out[c] = new TupleBatch(batch.getTupleDesc());
+                        int r = out[c].addRow();
+                        for (int j = 0; j < width; j++)
+                            out[c].copyField(j, r, batch, j, row);
+                        if (out[c].isFull()) {
+                            put(c, new Message(out[c], null));
+                            out[c] = null;
+                        }
+                    }
+                }
+                for (int c = 0; c < numConsumers; c++) {
+                    if (out[c] != null)
+                        put(c, new Message(out[c], null));
+                    put(c, END);
+                }
+            } catch (Throwable e) {
+                try {
+                    for (int c = 0; c < numConsumers; c++)
+                        put(c, new Message(null, e));
+                } catch (InterruptedException ie) {
+                    // the consumers are gone
+                }
+            } finally {
+                if (opened)
+                    child.close();
+            }
+        }
+
+        /** Queue a message, unless the consumer closes or the producers stop first */
+        private void put(int c, Message m) throws InterruptedException {
+            BlockingQueue<Message> q = queues[c];
+            while (!stopped && closed.get(c) == 0) {
+                if (q.offer(m, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        }
+
+        /**
+         * @return the next batch for a consumer, in the order they were
+         *         queued, or null once every producer has ended
+         */
+        TupleBatch take(int c) throws DbException, TransactionAbortedException {
+            while (remaining[c] > 0) {
+                Message m;
+                try {
+                    m = queues[c].take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for producers");
+                }
+                if (m == END) {
+                    remaining[c]--;
+                } else if (m.batch != null) {
+                    return m.batch;
+                } else {
+                    // a producer failed, or the producers were stopped
+                    remaining[c] = 0;
+                    if (m.error == null)
+                        return null;
+                    synchronized (this) {
+                        stop(m.error);
+                    }
+                    if (m.error instanceof TransactionAbortedException)
+                        throw (TransactionAbortedException) m.error;
+                    if (m.error instanceof DbException)
+                        throw (DbException) m.error;
+                    if (m.error instanceof RuntimeException)
+                        throw (RuntimeException) m.error;
+                    throw new DbException("producer failed: " + m.error);
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Producers producers;
+    private final int consumer;
+
+    /**
+     * @param children the producers, each run on its own thread; they must
+     *                 all have the same TupleDesc
+     * @throws IllegalArgumentException if there are no children, or their
+     *                                  TupleDescs differ
+     */
+    protected Exchange(OpIterator[] children) {
+        this(new Producers(children, -1, 1), 0);
+    }
+
+    /**
+     * @param producers the producers, which may be shared with other Exchanges
+     * @param consumer  the number of this consumer of the producers
+     */
+    Exchange(Producers producers, int consumer) {
+        this.producers = producers;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return the name of this exchange in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return the number of producers
+     */
+    public int getDegreeOfParallelism() {
+        return producers.children.length;
+    }
+
+    /**
+     * @return the number of consumers the producers send their tuples to,
+     *         including this one
+     */
+    public int getNumConsumers() {
+        return producers.numConsumers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers.children[0].getTupleDesc();
+    }
+
+    /**
+     * @return the producers, which are shared by all their consumers
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers.children = children.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        producers.open(consumer);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        producers.close(consumer);
+    }
+
+    /**
+     * @throws DbException if the producers are shared with other consumers
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        producers.rewind();
+    }
+
+    /**
+     * @return the next batch of any producer for this consumer, in the order
+     *         they were queued, or null once every producer has ended
+     * @throws DbException                 if a producer failed
+     * @throws TransactionAbortedException if a producer was aborted
+     */
+    protected TupleBatch nextProducedBatch() throws DbException, TransactionAbortedException {
+        return producers.take(consumer);
+    }
+}
@@ -0,0 +1,233 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts a set of tuples that may not fit in memory. Tuples are
+ * added with add; whenever memoryTuples of them are held in memory, they are
+ * sorted and written out to a SpillFile as a sorted run. iterator() then
+ * returns the tuples in order by merging the runs (and the tuples still in
+ * memory) through a priority queue. If there are more than MAX_FAN_IN runs,
+ * groups of runs are first merged into longer runs, so that no more than
+ * MAX_FAN_IN files are open at once.
+ * <p>
+ * The sort is stable: tuples that compare equal are returned in the order
+ * they were added.
+ */
+public class ExternalSort {
+
+    /** The default largest number of tuples held in memory */
+    public static final int DEFAULT_MEMORY_TUPLES = 100000;
+
+    /** The largest number of runs merged at once */
+    public static final int MAX_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int memoryTuples;
+    private final List<Tuple> buffer = new ArrayList<>();
+    private final List<SpillFile> runs = new ArrayList<>();
+    private boolean finished = false;
+
+    /**
+     * @param td the TupleDesc of the tuples to sort
+     * @param comparator the order to sort the tuples in
+     * @param memoryTuples the largest number of tuples to hold in memory
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int memoryTuples) {
+        if (memoryTuples <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.td = td;
+        this.comparator = comparator;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /**
+     * Add a tuple to the set to sort.
+     *
+     * @throws DbException if a run cannot be written
+     * @throws IllegalStateException if iterator has been called
+     */
+    public void add(Tuple t) throws DbException {
+        if (finished)
+            throw new IllegalStateException("tuples have already been sorted");
+        buffer.add(t);
+        if (buffer.size() >= memoryTuples)
+            spillRun();
+    }
+
+    /**
+     * Add all the tuples of the specified iterator, which must be open, to
+     * the set to sort.
+     */
+    public void addAll(OpIterator child) throws DbException, TransactionAbortedException {
+        while (child.hasNext())
+            add(child.next());
+    }
+
+    /**
+     * @return the number of sorted runs written to disk
+     */
+    public int getNumRuns() {
+        return runs.size();
+    }
+
+    private void spillRun() throws DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer)
+            run.add(t);
+        run.finishWriting();
+        runs.add(run);
+        buffer.clear();
+    }
+
+    /**
+     * Returns an iterator over the added tuples in sorted order. No more
+     * tuples can be added once this has been called, and the iterator can be
+     * rewound, or this method called again, without sorting again.
+     *
+     * @throws DbException if runs cannot be merged
+     */
+    public DbFileIterator iterator() throws DbException, TransactionAbortedException {
+        if (!finished) {
+            buffer.sort(comparator);
+            while (runs.size() + (buffer.isEmpty() ? 0 : 1) > MAX_FAN_IN) {
+                List<SpillFile> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                runs.subList(0, MAX_FAN_IN).clear();
+                // the merged run holds the earliest tuples, and goes first so
+                // that ties between runs still break by the order of addition
+                runs.add(0, mergeRuns(group));
+            }
+            finished = true;
+        }
+        List<DbFileIterator> sources = new ArrayList<>();
+        for (SpillFile run : runs)
+            sources.add(run.iterator());
+        if (!buffer.isEmpty())
+            sources.add(new ListIterator(buffer));
+        return new MergeIterator(sources, comparator);
+    }
+
+    /** Merge the specified runs into a single run, and delete them */
+    private SpillFile mergeRuns(List<SpillFile> group) throws DbException, TransactionAbortedException {
+        List<DbFileIterator> sources = new ArrayList<>();
+        for (SpillFile run : group)
+            sources.add(run.iterator());
+        DbFileIterator it = new MergeIterator(sources, comparator);
+        SpillFile merged = new SpillFile(td);
+        it.open();
+        while (it.hasNext())
+            merged.add(it.next());
+        it.close();
+        merged.finishWriting();
+        for (SpillFile run : group)
+            run.delete();
+        return merged;
+    }
+
+    /** Delete the runs of this sort, and drop the tuples held in memory */
+    public void delete() {
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        buffer.clear();
+    }
+
+    private static class ListIterator extends AbstractDbFileIterator {
+        private final List<Tuple> tuples;
+        private Iterator<Tuple> it = null;
+
+        ListIterator(List<Tuple> tuples) {
+            this.tuples = tuples;
+        }
+
+        public void open() {
+            it = tuples.iterator();
+        }
+
+        protected Tuple readNext() {
+            return it != null && it.hasNext() ? it.next() : null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            it = null;
+        }
+    }
+
+    /**
+     * Merges sorted iterators into one sorted iterator. Ties are broken by the
+     * position of the iterator in the list, which keeps the merge stable.
+     */
+    private static class MergeIterator extends AbstractDbFileIterator {
+        private final List<DbFileIterator> sources;
+        private final Comparator<Tuple> comparator;
+        private PriorityQueue<Integer> heap = null;
+        private Tuple[] heads;
+
+        MergeIterator(List<DbFileIterator> sources, Comparator<Tuple> comparator) {
+            this.sources = sources;
+            this.comparator = comparator;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            heads = new Tuple[sources.size()];
+            heap = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+                int c = comparator.compare(heads[a], heads[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                DbFileIterator source = sources.get(i);
+                source.open();
+                if (source.hasNext()) {
+                    heads[i] = source.next();
+                    heap.add(i);
+                }
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (heap == null || heap.isEmpty())
+                return null;
+            int i = heap.poll();
+            Tuple t = heads[i];
+            DbFileIterator source = sources.get(i);
+            if (source.hasNext()) {
+                heads[i] = source.next();
+                heap.add(i);
+            } else {
+                heads[i] = null;
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (heap != null) {
+                for (DbFileIterator source : sources)
+                    source.close();
+            }
+            heap = null;
+            heads = null;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -81,6 +82,23 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with at least one tuple that passes
+     * the predicate, with only the passing tuples selected.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = this.child.nextBatch()) != null) {
+            this.p.filter(batch);
+            if (batch.numRows() > 0) {
+                return counted(batch);
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -0,0 +1,88 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+
+/**
+ * Gather is the Exchange that merges the output of all its producers into one
+ * stream, in the order their batches arrive, so the tuples of different
+ * producers are interleaved. Each producer is typically one partition of a
+ * parallel scan, with the Filters, Projects or partial Aggregates that can
+ * run on each partition separately above it.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of producers of a parallel plan: one for each core */
+    public static final int DEFAULT_DEGREE = Runtime.getRuntime().availableProcessors();
+
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param children the producers, each run on its own thread; they must
+     *                 all have the same TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        super(children);
+    }
+
+    /**
+     * Create a parallel scan of a table: a Gather over the scans of up to
+     * degree ranges of its pages.
+     *
+     * @param tid        The transaction the scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param degree     the largest number of partitions to scan at once
+     * @see SeqScan#partitions
+     */
+    public static Gather parallelScan(TransactionId tid, int tableid, String tableAlias, int degree) {
+        List<SeqScan> scans = SeqScan.partitions(tid, tableid, tableAlias, null, degree);
+        return new Gather(scans.toArray(new OpIterator[0]));
+    }
+
+    public String getName() {
+        return "gather(" + getDegreeOfParallelism() + ")";
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.numRows()) {
+            batch = nextProducedBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(pos++);
+    }
+
+    /**
+     * Returns the next batch of any producer, as it produced it.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return counted(nextProducedBatch());
+    }
+}
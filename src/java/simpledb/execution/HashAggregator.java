@@ -0,0 +1,522 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.DateField;
+import simpledb.storage.DoubleField;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Computes any number of aggregates over the same grouping in one pass.
+ * <p>
+ * Groups are found through an open-addressing hash table with linear probing.
+ * An INT group-by field is keyed by its primitive value; any other group-by
+ * field is keyed by the first Field seen with that value, so each group holds
+ * one Field however many tuples it has. Each group is numbered in the order it
+ * was first seen, and its running aggregates are kept at that number in
+ * parallel arrays of longs (for INT, LONG and DATE fields) or doubles (for
+ * DOUBLE fields), so merging a tuple allocates nothing. Sums are kept in longs,
+ * and the SUM of an INT field is returned as a LONG, so neither SUM nor AVG
+ * overflows on large inputs.
+ * <p>
+ * When merging a TupleBatch, the group of every row is found first, and then
+ * each aggregate is computed over its whole column, reading int columns of the
+ * batch directly.
+ * <p>
+ * Aggregation can be split into phases. The partial state of each group, as
+ * returned by partialIterator, can be written out or computed separately over
+ * parts of the input, and an aggregator made with mergingPartials combines
+ * partial states into the same results as aggregating all the input at once.
+ * A partial state is the group-by field, if any, then the number of tuples in
+ * the group as a LONG, then one field for each aggregate other than COUNT: its
+ * running sum for SUM and AVG (a LONG, or a DOUBLE for DOUBLE fields), or its
+ * running value for MIN and MAX.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The initial number of groups with room in the arrays */
+    private static final int INITIAL_GROUPS = 16;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] ops;
+    private final boolean intKeys;
+    /** true if the tuples merged are partial states rather than input tuples */
+    private final boolean partialInput;
+
+    /** For each slot of the hash table, the number of its group plus one, or 0 if empty */
+    private int[] slots;
+    private int numGroups;
+    /** For each group, its key if intKeys */
+    private int[] groupInts;
+    /** For each group, its key if not intKeys */
+    private Field[] groupFields;
+    private int[] groupHashes;
+    private long[] counts;
+    /** For each aggregate, its running value in each group; null for DOUBLE fields */
+    private final long[][] longValues;
+    /** For each aggregate over a DOUBLE field, its running value in each group */
+    private final double[][] doubleValues;
+
+    private transient int[] batchGroups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield     the 0-based index of the group-by field in the tuple, or
+     *                    NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or
+     *                    null if there is no grouping
+     * @param afields     the 0-based indexes of the fields to aggregate
+     * @param afieldtypes the types of the fields to aggregate
+     * @param ops         the aggregation operator to apply to each field
+     * @throws IllegalArgumentException if the arrays differ in length, or an
+     *                                  operator is not supported on its field:
+     *                                  STRING fields only support COUNT, and
+     *                                  DATE fields do not support SUM or AVG
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int[] afields, Type[] afieldtypes, Op[] ops) {
+        this(gbfield, gbfieldtype, afields, afieldtypes, ops, false);
+    }
+
+    /**
+     * Create an aggregator that merges partial states, as returned by
+     * partialIterator of aggregators with the same arguments, rather than
+     * input tuples.
+     *
+     * @param gbfieldtype the type of the group by field, or null if there is
+     *                    no grouping
+     * @param afieldtypes the types of the fields that were aggregated
+     * @param ops         the aggregation operator applied to each field
+     * @throws IllegalArgumentException as for the constructor
+     */
+    public static HashAggregator mergingPartials(Type gbfieldtype, Type[] afieldtypes, Op[] ops) {
+        int offset = gbfieldtype == null ? 0 : 1;
+        int[] stateFields = new int[ops.length];
+        int next = offset + 1;
+        for (int i = 0; i < ops.length; i++)
+            stateFields[i] = ops[i] == Op.COUNT ? -1 : next++;
+        return new HashAggregator(gbfieldtype == null ? NO_GROUPING : 0, gbfieldtype,
+                stateFields, afieldtypes, ops, true);
+    }
+
+    private HashAggregator(int gbfield, Type gbfieldtype, int[] afields, Type[] afieldtypes, Op[] ops,
+            boolean partialInput) {
+        if (afields.length != afieldtypes.length || afields.length != ops.length)
+            throw new IllegalArgumentException("need one type and one operator for each aggregate field");
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Op.SUM_COUNT || ops[i] == Op.SC_AVG)
+                throw new IllegalArgumentException("unsupported aggregate " + ops[i]);
+            if (afieldtypes[i] == Type.STRING_TYPE && ops[i] != Op.COUNT)
+                throw new IllegalArgumentException("strings only support COUNT");
+            if (afieldtypes[i] == Type.DATE_TYPE && (ops[i] == Op.SUM || ops[i] == Op.AVG))
+                throw new IllegalArgumentException("dates only support MIN, MAX and COUNT");
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afields = afields.clone();
+        this.afieldtypes = afieldtypes.clone();
+        this.ops = ops.clone();
+        this.intKeys = gbfieldtype == Type.INT_TYPE;
+        this.partialInput = partialInput;
+
+        this.slots = new int[INITIAL_GROUPS * 2];
+        this.numGroups = 0;
+        if (intKeys)
+            this.groupInts = new int[INITIAL_GROUPS];
+        else
+            this.groupFields = new Field[INITIAL_GROUPS];
+        this.groupHashes = new int[INITIAL_GROUPS];
+        this.counts = new long[INITIAL_GROUPS];
+        this.longValues = new long[ops.length][];
+        this.doubleValues = new double[ops.length][];
+        for (int i = 0; i < ops.length; i++) {
+            if (afieldtypes[i] == Type.DOUBLE_TYPE)
+                doubleValues[i] = new double[INITIAL_GROUPS];
+            else
+                longValues[i] = new long[INITIAL_GROUPS];
+        }
+    }
+
+    /**
+     * @return the number of groups seen so far
+     */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the number of the group with the specified INT key, adding it if new */
+    private int intGroup(int key) {
+        int h = mix(key);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0)
+                return addGroup(i, h, key, null);
+            if (groupInts[s - 1] == key)
+                return s - 1;
+        }
+    }
+
+    /** @return the number of the group with the specified key, adding it if new */
+    private int fieldGroup(Field key) {
+        int h = mix(key == null ? 0 : key.hashCode());
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0)
+                return addGroup(i, h, 0, key);
+            if (groupHashes[s - 1] == h && (key == null || key.equals(groupFields[s - 1])))
+                return s - 1;
+        }
+    }
+
+    private int groupOf(Tuple tup) {
+        if (gbfield == NO_GROUPING)
+            return fieldGroup(null);
+        Field key = tup.getField(gbfield);
+        return intKeys ? intGroup(((IntField) key).getValue()) : fieldGroup(key);
+    }
+
+    /** Add a group at the specified empty slot, which was found for its key */
+    private int addGroup(int slot, int hash, int intKey, Field fieldKey) {
+        if (numGroups == counts.length) {
+            grow();
+            // the slot found before growing is no longer the right one
+            return intKeys ? intGroup(intKey) : fieldGroup(fieldKey);
+        }
+        int g = numGroups++;
+        slots[slot] = g + 1;
+        if (intKeys)
+            groupInts[g] = intKey;
+        else
+            groupFields[g] = fieldKey;
+        groupHashes[g] = hash;
+        for (int i = 0; i < ops.length; i++) {
+            // MIN and MAX start from the identity, so no value is special
+            if (doubleValues[i] != null) {
+                doubleValues[i][g] = ops[i] == Op.MIN ? Double.POSITIVE_INFINITY
+                        : ops[i] == Op.MAX ? Double.NEGATIVE_INFINITY : 0;
+            } else {
+                longValues[i][g] = ops[i] == Op.MIN ? Long.MAX_VALUE
+                        : ops[i] == Op.MAX ? Long.MIN_VALUE : 0;
+            }
+        }
+        return g;
+    }
+
+    /** Double the room for groups, and the size of the hash table */
+    private void grow() {
+        int capacity = counts.length * 2;
+        if (intKeys)
+            groupInts = Arrays.copyOf(groupInts, capacity);
+        else
+            groupFields = Arrays.copyOf(groupFields, capacity);
+        groupHashes = Arrays.copyOf(groupHashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        for (int i = 0; i < ops.length; i++) {
+            if (doubleValues[i] != null)
+                doubleValues[i] = Arrays.copyOf(doubleValues[i], capacity);
+            else
+                longValues[i] = Arrays.copyOf(longValues[i], capacity);
+        }
+        slots = new int[capacity * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int i = groupHashes[g] & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = g + 1;
+        }
+    }
+
+    private void mergeLong(int i, int g, long v) {
+        long[] values = longValues[i];
+        switch (ops[i]) {
+            case MIN:
+                values[g] = Math.min(values[g], v);
+                break;
+            case MAX:
+                values[g] = Math.max(values[g], v);
+                break;
+            case SUM:
+            case AVG:
+                values[g] += v;
+                break;
+            default:
+                // COUNT is computed from counts
+                break;
+        }
+    }
+
+    private void mergeDouble(int i, int g, double v) {
+        double[] values = doubleValues[i];
+        switch (ops[i]) {
+            case MIN:
+                values[g] = Math.min(values[g], v);
+                break;
+            case MAX:
+                values[g] = Math.max(values[g], v);
+                break;
+            case SUM:
+            case AVG:
+                values[g] += v;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void mergeField(int i, int g, Field f) {
+        switch (afieldtypes[i]) {
+            case INT_TYPE:
+                mergeLong(i, g, ((IntField) f).getValue());
+                break;
+            case LONG_TYPE:
+                mergeLong(i, g, ((LongField) f).getValue());
+                break;
+            case DATE_TYPE:
+                mergeLong(i, g, ((DateField) f).getValue());
+                break;
+            case DOUBLE_TYPE:
+                mergeDouble(i, g, ((DoubleField) f).getValue());
+                break;
+            default:
+                // strings are only counted
+                break;
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing the aggregate fields and the group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = groupOf(tup);
+        if (partialInput) {
+            counts[g] += ((LongField) tup.getField(countField())).getValue();
+            for (int i = 0; i < ops.length; i++) {
+                if (ops[i] != Op.COUNT)
+                    mergeState(i, g, tup.getField(afields[i]));
+            }
+            return;
+        }
+        counts[g]++;
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] != Op.COUNT)
+                mergeField(i, g, tup.getField(afields[i]));
+        }
+    }
+
+    /** @return the index of the count in a partial state */
+    private int countField() {
+        return gbfield == NO_GROUPING ? 0 : 1;
+    }
+
+    /** Merge the partial state of an aggregate into a group */
+    private void mergeState(int i, int g, Field f) {
+        if (ops[i] == Op.SUM || ops[i] == Op.AVG) {
+            if (doubleValues[i] != null)
+                mergeDouble(i, g, ((DoubleField) f).getValue());
+            else
+                mergeLong(i, g, ((LongField) f).getValue());
+        } else {
+            mergeField(i, g, f);
+        }
+    }
+
+    /**
+     * Merge every selected row of a batch into the aggregates: the group of
+     * each row is found first, then each aggregate is computed over its column.
+     *
+     * @param batch the rows, each containing the aggregate fields and the group-by field
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int n = batch.numRows();
+        if (batchGroups == null || batchGroups.length < n)
+            batchGroups = new int[Math.max(n, 1)];
+        int[] groups = batchGroups;
+        if (gbfield == NO_GROUPING) {
+            if (n == 0)
+                return;
+            Arrays.fill(groups, 0, n, fieldGroup(null));
+        } else if (intKeys && batch.isIntColumn(gbfield)) {
+            int[] keys = batch.getIntColumn(gbfield);
+            for (int k = 0; k < n; k++)
+                groups[k] = intGroup(keys[batch.row(k)]);
+        } else {
+            for (int k = 0; k < n; k++) {
+                Field key = batch.getField(gbfield, batch.row(k));
+                groups[k] = intKeys ? intGroup(((IntField) key).getValue()) : fieldGroup(key);
+            }
+        }
+        if (partialInput) {
+            int countField = countField();
+            for (int k = 0; k < n; k++) {
+                int row = batch.row(k);
+                counts[groups[k]] += ((LongField) batch.getField(countField, row)).getValue();
+            }
+            for (int i = 0; i < ops.length; i++) {
+                if (ops[i] == Op.COUNT)
+                    continue;
+                for (int k = 0; k < n; k++)
+                    mergeState(i, groups[k], batch.getField(afields[i], batch.row(k)));
+            }
+            return;
+        }
+        for (int k = 0; k < n; k++)
+            counts[groups[k]]++;
+
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Op.COUNT)
+                continue;
+            if (batch.isIntColumn(afields[i])) {
+                int[] values = batch.getIntColumn(afields[i]);
+                for (int k = 0; k < n; k++)
+                    mergeLong(i, groups[k], values[batch.row(k)]);
+            } else {
+                for (int k = 0; k < n; k++)
+                    mergeField(i, groups[k], batch.getField(afields[i], batch.row(k)));
+            }
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the results: the group-by field, if any,
+     *         followed by each aggregate
+     */
+    public TupleDesc getResultTupleDesc() {
+        int offset = gbfield == NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[offset + ops.length];
+        if (offset == 1)
+            types[0] = gbfieldtype;
+        for (int i = 0; i < ops.length; i++)
+            types[offset + i] = Aggregate.resultType(afieldtypes[i], ops[i]);
+        return new TupleDesc(types);
+    }
+
+    /**
+     * @return the TupleDesc of partial states: the group-by field, if any, the
+     *         count, and the state of each aggregate other than COUNT
+     */
+    public TupleDesc getPartialTupleDesc() {
+        int offset = gbfield == NO_GROUPING ? 0 : 1;
+        ArrayList<Type> types = new ArrayList<>();
+        if (offset == 1)
+            types.add(gbfieldtype);
+        types.add(Type.LONG_TYPE);
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Op.SUM || ops[i] == Op.AVG)
+                types.add(afieldtypes[i] == Type.DOUBLE_TYPE ? Type.DOUBLE_TYPE : Type.LONG_TYPE);
+            else if (ops[i] != Op.COUNT)
+                types.add(afieldtypes[i]);
+        }
+        return new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    private Field groupKey(int g) {
+        return intKeys ? new IntField(groupInts[g]) : groupFields[g];
+    }
+
+    /**
+     * @return the partial state of group g, which has the specified
+     *         TupleDesc, as returned by getPartialTupleDesc
+     */
+    Tuple partialState(TupleDesc td, int g) {
+        Tuple t = new Tuple(td);
+        int j = 0;
+        if (gbfield != NO_GROUPING)
+            t.setField(j++, groupKey(g));
+        t.setField(j++, new LongField(counts[g]));
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Op.COUNT)
+                continue;
+            if (ops[i] == Op.SUM || ops[i] == Op.AVG) {
+                t.setField(j++, doubleValues[i] != null ? new DoubleField(doubleValues[i][g])
+                        : new LongField(longValues[i][g]));
+            } else {
+                t.setField(j++, finalValue(i, g));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Create a OpIterator over the partial state of each group.
+     *
+     * @return a OpIterator whose tuples have getPartialTupleDesc, in the order
+     *         the groups were first seen
+     */
+    public OpIterator partialIterator() {
+        TupleDesc td = getPartialTupleDesc();
+        ArrayList<Tuple> tuples = new ArrayList<>(numGroups);
+        for (int g = 0; g < numGroups; g++)
+            tuples.add(partialState(td, g));
+        return new TupleIterator(td, tuples);
+    }
+
+    private Field finalValue(int i, int g) {
+        long count = counts[g];
+        if (ops[i] == Op.COUNT)
+            return new IntField((int) count);
+        switch (afieldtypes[i]) {
+            case DOUBLE_TYPE: {
+                double v = doubleValues[i][g];
+                return new DoubleField(ops[i] == Op.AVG ? v / count : v);
+            }
+            case LONG_TYPE: {
+                long v = longValues[i][g];
+                return new LongField(ops[i] == Op.AVG ? v / count : v);
+            }
+            case DATE_TYPE:
+                return new DateField((int) longValues[i][g]);
+            default: {
+                long v = longValues[i][g];
+                if (ops[i] == Op.SUM)
+                    return new LongField(v);
+                return new IntField((int) (ops[i] == Op.AVG ? v / count : v));
+            }
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group value, if using group,
+     *         followed by the value of each aggregate, in the order the
+     *         groups were first seen
+     */
+    public OpIterator iterator() {
+        TupleDesc td = getResultTupleDesc();
+        int offset = gbfield == NO_GROUPING ? 0 : 1;
+        ArrayList<Tuple> tuples = new ArrayList<>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
+            Tuple t = new Tuple(td);
+            if (offset == 1)
+                t.setField(0, groupKey(g));
+            for (int i = 0; i < ops.length; i++)
+                t.setField(offset + i, finalValue(i, g));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+}
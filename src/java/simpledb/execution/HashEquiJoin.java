@@ -2,27 +2,80 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HashPartitioner;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table over one child
+ * (the build side) and probes it with the tuples of the other. The tuples of
+ * both sides are divided into partitions by the hash of their join field, and
+ * when the build side holds more tuples than the memory budget, whole
+ * partitions are written out to spill files, largest first. Probe tuples that
+ * fall into a partition held in memory are joined right away; the others are
+ * written to the spill file of their partition, and each pair of spilled
+ * partitions is joined afterwards in the same way, with a different part of
+ * the hash. Each child is therefore read once, and each spilled tuple is
+ * written and read back once more for every level of partitioning it goes
+ * through.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default largest number of build tuples held in memory */
+    public static final int DEFAULT_MEMORY_TUPLES = 20000;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+    private final int memoryTuples;
+
+    /** true if child1 is the build side, false if child2 is */
+    transient private boolean buildLeft = true;
+    transient private int numSpilled = 0;
+
+    // the partitions being joined
+    transient private int level;
+    transient private List<Map<Field, List<Tuple>>> tables = null;
+    transient private SpillFile[] buildSpills = null;
+    transient private SpillFile[] probeSpills = null;
+    transient private Deque<SpilledPartition> pending = null;
+    transient private SpillFile probeInput = null;
+    transient private DbFileIterator probeInputIt = null;
+    transient private boolean probeDone = false;
+
+    // the position of the join in its current partitions
+    transient private TupleBatch probeBatch = null;
+    transient private int probePos = 0;
+    transient private List<Tuple> matches = null;
+    transient private int matchPos = 0;
+
+    /** A pair of spilled partitions that remain to be joined */
+    private static class SpilledPartition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        SpilledPartition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+    }
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +84,29 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * Constructor. Accepts to children to join, the predicate to join them on,
+     * and the largest number of build tuples to hold in memory at once.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryTuples
+     *            The memory budget of the join, in tuples
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (memoryTuples <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -44,7 +117,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,29 +127,63 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
 
+    public int getMemoryTuples() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the child the hash table is built over, chosen when the join is
+     *         opened
+     */
+    public OpIterator getBuildSide() {
+        return buildLeft ? child1 : child2;
+    }
+
+    /**
+     * @return the number of partitions written to spill files since the join
+     *         was opened
+     */
+    public int getNumSpilledPartitions() {
+        return numSpilled;
+    }
+
+    private OpIterator buildChild() {
+        return buildLeft ? child1 : child2;
+    }
+
+    private OpIterator probeChild() {
+        return buildLeft ? child2 : child1;
+    }
+
+    private int buildField() {
+        return buildLeft ? pred.getField1() : pred.getField2();
+    }
+
+    private int probeField() {
+        return buildLeft ? pred.getField2() : pred.getField1();
+    }
+
+    /**
+     * Build over child2 only if both children have an estimated cardinality
+     * and child2 is expected to be the smaller one.
+     */
+    private boolean chooseBuildLeft() {
+        if (!(child1 instanceof Operator) || !(child2 instanceof Operator))
+            return true;
+        int card1 = ((Operator) child1).getEstimatedCardinality();
+        int card2 = ((Operator) child2).getEstimatedCardinality();
+        return card1 <= 0 || card2 <= 0 || card1 <= card2;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        buildLeft = chooseBuildLeft();
+        numSpilled = 0;
+        pending = new ArrayDeque<>();
+        startPartitions(null, null, 0);
         super.open();
     }
 
@@ -84,18 +191,211 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        deleteSpillFiles();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpillFiles();
         child1.rewind();
         child2.rewind();
+        numSpilled = 0;
+        pending = new ArrayDeque<>();
+        startPartitions(null, null, 0);
+    }
+
+    private void deleteSpillFiles() {
+        endProbeInput();
+        if (buildSpills != null) {
+            for (int p = 0; p < HashPartitioner.NUM_PARTITIONS; p++) {
+                if (buildSpills[p] != null) {
+                    buildSpills[p].delete();
+                    probeSpills[p].delete();
+                }
+            }
+        }
+        if (pending != null) {
+            for (SpilledPartition sp : pending) {
+                sp.build.delete();
+                sp.probe.delete();
+            }
+        }
+        tables = null;
+        buildSpills = null;
+        probeSpills = null;
+        pending = null;
+        probeBatch = null;
+        matches = null;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private void endProbeInput() {
+        if (probeInputIt != null)
+            probeInputIt.close();
+        if (probeInput != null)
+            probeInput.delete();
+        probeInputIt = null;
+        probeInput = null;
+    }
+
+    /**
+     * Build the hash tables of the next partitions to join, spilling
+     * partitions to disk if they do not fit in memory.
+     *
+     * @param build the spilled build tuples, or null to read the build child
+     * @param probe the spilled probe tuples, or null to read the probe child
+     * @param level the level of partitioning of the tuples
+     */
+    private void startPartitions(SpillFile build, SpillFile probe, int level)
+            throws DbException, TransactionAbortedException {
+        this.level = level;
+        this.tables = new ArrayList<>(HashPartitioner.NUM_PARTITIONS);
+        for (int p = 0; p < HashPartitioner.NUM_PARTITIONS; p++)
+            tables.add(new HashMap<>());
+        this.buildSpills = new SpillFile[HashPartitioner.NUM_PARTITIONS];
+        this.probeSpills = new SpillFile[HashPartitioner.NUM_PARTITIONS];
+        int[] counts = new int[HashPartitioner.NUM_PARTITIONS];
+        int inMemory = 0;
+        boolean empty = true;
+
+        DbFileIterator buildIt = null;
+        if (build != null) {
+            buildIt = build.iterator();
+            buildIt.open();
+        }
+        OpIterator buildChild = buildChild();
+        int buildField = buildField();
+        while (buildIt != null ? buildIt.hasNext() : buildChild.hasNext()) {
+            Tuple t = buildIt != null ? buildIt.next() : buildChild.next();
+            empty = false;
+            Field key = t.getField(buildField);
+            int p = HashPartitioner.partition(key, level);
+            if (buildSpills[p] != null) {
+                buildSpills[p].add(t);
+                continue;
+            }
+            tables.get(p).computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+            counts[p]++;
+            if (++inMemory > memoryTuples && level < HashPartitioner.MAX_LEVEL)
+                inMemory -= spillLargestPartition(counts);
+        }
+        if (build != null) {
+            buildIt.close();
+            build.delete();
+        }
+
+        this.probeInput = probe;
+        if (probe != null) {
+            probeInputIt = probe.iterator();
+            probeInputIt.open();
+        }
+        // with nothing to build, there is nothing to probe
+        this.probeDone = empty;
+        this.probeBatch = null;
+        this.probePos = 0;
+        this.matches = null;
+    }
+
+    /**
+     * Write the largest partition held in memory to a spill file.
+     *
+     * @return the number of tuples written
+     */
+    private int spillLargestPartition(int[] counts) throws DbException {
+        int largest = -1;
+        for (int p = 0; p < HashPartitioner.NUM_PARTITIONS; p++) {
+            if (buildSpills[p] == null && (largest < 0 || counts[p] > counts[largest]))
+                largest = p;
+        }
+        buildSpills[largest] = new SpillFile(buildChild().getTupleDesc());
+        probeSpills[largest] = new SpillFile(probeChild().getTupleDesc());
+        for (List<Tuple> list : tables.get(largest).values()) {
+            for (Tuple t : list)
+                buildSpills[largest].add(t);
+        }
+        tables.get(largest).clear();
+        numSpilled++;
+        int n = counts[largest];
+        counts[largest] = 0;
+        return n;
+    }
+
+    /**
+     * Queue the partitions spilled while joining the current ones, and start
+     * the next queued partitions.
+     *
+     * @return false if there are no more partitions to join
+     */
+    private boolean nextPartitions() throws DbException, TransactionAbortedException {
+        endProbeInput();
+        for (int p = 0; p < HashPartitioner.NUM_PARTITIONS; p++) {
+            if (buildSpills[p] == null)
+                continue;
+            buildSpills[p].finishWriting();
+            probeSpills[p].finishWriting();
+            if (buildSpills[p].size() > 0 && probeSpills[p].size() > 0) {
+                pending.push(new SpilledPartition(buildSpills[p], probeSpills[p], level + 1));
+            } else {
+                buildSpills[p].delete();
+                probeSpills[p].delete();
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
+        SpilledPartition next = pending.poll();
+        if (next == null) {
+            tables = null;
+            return false;
+        }
+        startPartitions(next.build, next.probe, next.level);
+        return true;
+    }
+
+    private TupleBatch readProbeBatch() throws DbException, TransactionAbortedException {
+        if (probeDone)
+            return null;
+        if (probeInputIt == null)
+            return probeChild().nextBatch();
+        TupleBatch batch = new TupleBatch(probeChild().getTupleDesc());
+        while (!batch.isFull() && probeInputIt.hasNext())
+            batch.addTuple(probeInputIt.next());
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    /**
+     * Move to the next pair of a build tuple (matches.get(matchPos)) and a
+     * probe row (the row before probePos in probeBatch) that join.
+     *
+     * @return false if there are no more such pairs
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+        int probeField = probeField();
+        while (true) {
+            if (matches != null && ++matchPos < matches.size())
+                return true;
+            matches = null;
+            if (probeBatch != null && probePos < probeBatch.numRows()) {
+                int row = probeBatch.row(probePos++);
+                Field key = probeBatch.getField(probeField, row);
+                int p = HashPartitioner.partition(key, level);
+                if (probeSpills[p] != null) {
+                    probeSpills[p].add(probeBatch.getTuple(probePos - 1));
+                    continue;
+                }
+                List<Tuple> l = tables.get(p).get(key);
+                if (l != null) {
+                    matches = l;
+                    matchPos = 0;
+                    return true;
+                }
+                continue;
+            }
+            if (tables == null)
+                return false;
+            probeBatch = readProbeBatch();
+            probePos = 0;
+            if (probeBatch == null && !nextPartitions())
+                return false;
+        }
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -111,53 +411,50 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!advance())
+            return null;
+        Tuple build = matches.get(matchPos);
+        int probeRow = probeBatch.row(probePos - 1);
+        int nb = build.getTupleDesc().numFields();
+        int np = probeBatch.getTupleDesc().numFields();
+        int buildOffset = buildLeft ? 0 : np;
+        int probeOffset = buildLeft ? nb : 0;
 
         // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+        for (int i = 0; i < nb; i++)
+            t.setField(buildOffset + i, build.getField(i));
+        for (int i = 0; i < np; i++)
+            t.setField(probeOffset + i, probeBatch.getField(i, probeRow));
         return t;
-
     }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Returns the next batch of joined tuples. The probe side is read a batch
+     * at a time, as for fetchNext, and its fields are copied from the probe
+     * batch without creating a Tuple for each probe row.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch out = new TupleBatch(comboTD);
+        int nb = buildChild().getTupleDesc().numFields();
+        int np = probeChild().getTupleDesc().numFields();
+        int buildOffset = buildLeft ? 0 : np;
+        int probeOffset = buildLeft ? nb : 0;
+        while (!out.isFull() && advance()) {
+            Tuple build = matches.get(matchPos);
+            int probeRow = probeBatch.row(probePos - 1);
+            int row = out.addRow();
+            for (int i = 0; i < nb; i++)
+                out.setField(buildOffset + i, row, build.getField(i));
+            for (int i = 0; i < np; i++)
+                out.copyField(probeOffset + i, row, probeBatch, i, probeRow);
         }
-
-        return null;
+        return out.numRows() == 0 ? null : counted(out);
     }
 
     @Override
@@ -170,5 +467,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
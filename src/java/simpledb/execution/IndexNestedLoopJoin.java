@@ -0,0 +1,217 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.DbFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each tuple of child1 to the tuples of child2 found
+ * by probing an index on the join field of child2, so child2 is never
+ * scanned. child2 is an IndexOpIterator, either a BTreeScan of a BTreeFile
+ * keyed on the join field or an IndexScan of a SecondaryIndex on it, which is
+ * reopened with an IndexPredicate built from the join value of each tuple of
+ * child1.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private IndexOpIterator child2;
+    private final TupleDesc comboTD;
+    private final Predicate.Op indexOp;
+
+    transient private Tuple outer = null;
+    transient private boolean probing = false;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Index access method of the right(inner) relation, on the
+     *            join field of p
+     * @throws IllegalArgumentException
+     *            if the operator of the predicate is LIKE or NOT_EQUALS
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.indexOp = indexOp(p.getOperator());
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the operator op' such that (v op f) holds exactly when (f op' v)
+     *         does, so that an index on f can find the values matching v
+     */
+    private static Predicate.Op indexOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS: return Predicate.Op.EQUALS;
+            case LESS_THAN: return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ: return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN: return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ: return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                throw new IllegalArgumentException("index nested-loop join does not support " + op);
+        }
+    }
+
+    /**
+     * @return true if the specified field of the specified table can be
+     *         probed by an IndexNestedLoopJoin
+     */
+    public static boolean hasIndex(int tableid, int field) {
+        return isClustered(tableid, field) || secondaryIndex(tableid, field) != null;
+    }
+
+    /**
+     * @return true if the specified table is a BTreeFile keyed on the
+     *         specified field, so that the tuples found by a probe are stored
+     *         together
+     */
+    public static boolean isClustered(int tableid, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    private static SecondaryIndex secondaryIndex(int tableid, int field) {
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * Returns an index access method over the table read by the specified
+     * scan, on the specified field, that can be the child2 of an
+     * IndexNestedLoopJoin in place of the scan. The access method returns
+     * every field of the table, even if the scan only returns some of them.
+     *
+     * @param field the index of the field among the fields the scan returns
+     * @return the access method, or null if the field has no index
+     */
+    public static IndexOpIterator indexFor(SeqScan scan, int field) {
+        if (scan.getFields() != null)
+            field = scan.getFields()[field];
+        int tableid = scan.getTableId();
+        if (isClustered(tableid, field))
+            return new BTreeScan(scan.getTransactionId(), tableid, scan.getAlias(), null);
+        SecondaryIndex index = secondaryIndex(tableid, field);
+        if (index != null)
+            return new IndexScan(scan.getTransactionId(), index, scan.getAlias(), null);
+        return null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // child2 is opened by the first probe
+        child1.open();
+        outer = null;
+        probing = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (probing)
+            child2.close();
+        child1.close();
+        outer = null;
+        probing = false;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        outer = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As for Join, each tuple is the concatenation of a tuple of
+     * child1 and a tuple of child2 that satisfy the join predicate.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null) {
+                while (child2.hasNext()) {
+                    Tuple inner = child2.next();
+                    if (pred.filter(outer, inner))
+                        return merge(outer, inner);
+                }
+            }
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            IndexPredicate ipred = new IndexPredicate(indexOp, outer.getField(pred.getField1()));
+            if (probing) {
+                child2.rewind(ipred);
+            } else {
+                child2.open(ipred);
+                probing = true;
+            }
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    /**
+     * @throws IllegalArgumentException if the new child2 is not an
+     *         IndexOpIterator
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!(children[1] instanceof IndexOpIterator))
+            throw new IllegalArgumentException("the inner child must be an index access method");
+        this.child1 = children[0];
+        this.child2 = (IndexOpIterator) children[1];
+    }
+}
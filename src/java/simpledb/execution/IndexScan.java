@@ -0,0 +1,178 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan is an access method that uses a SecondaryIndex to read only the
+ * tuples of a table whose indexed field satisfies an IndexPredicate. Tuples
+ * are returned in index key order, and are fetched from the base table by
+ * RecordId.
+ */
+public class IndexScan implements IndexOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final String tableAlias;
+    private IndexPredicate ipred;
+    private DbFileIterator entries;
+    private Tuple nextTuple;
+    private long actualCardinality = 0;
+    private long lastPassCardinality = 0;
+    private boolean exhausted = false;
+
+    /**
+     * Creates an index scan over the table of the specified index as a part
+     * of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            The secondary index to scan.
+     * @param tableAlias
+     *            the alias of the indexed table (needed by the parser); the
+     *            returned tupleDesc should have fields with name
+     *            tableAlias.fieldName
+     * @param ipred
+     *            The predicate on the indexed field that returned tuples satisfy.
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    /**
+     * @return the table name of the table the operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.index.getTableId());
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    public SecondaryIndex getIndex() {
+        return this.index;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.actualCardinality = 0;
+        start();
+    }
+
+    /** Start a pass over the entries that satisfy the index predicate */
+    private void start() throws DbException, TransactionAbortedException {
+        this.entries = this.index.entryIterator(this.tid, this.ipred);
+        this.entries.open();
+        this.nextTuple = null;
+        this.lastPassCardinality = 0;
+        this.exhausted = false;
+    }
+
+    public void open(IndexPredicate ipred) throws NoSuchElementException, DbException, TransactionAbortedException {
+        this.ipred = ipred;
+        open();
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, with field names prefixed
+     * with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc originalTd = Database.getCatalog().getTupleDesc(this.index.getTableId());
+        Type[] newTdTypeAr = new Type[originalTd.numFields()];
+        String[] newTdFieldAr = new String[originalTd.numFields()];
+
+        for (int i = 0; i < originalTd.numFields(); i++) {
+            newTdTypeAr[i] = originalTd.getFieldType(i);
+            newTdFieldAr[i] = this.tableAlias + "." + originalTd.getFieldName(i);
+        }
+        return new TupleDesc(newTdTypeAr, newTdFieldAr);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (this.entries == null) {
+            throw new IllegalStateException("iterator is closed");
+        }
+        while (this.nextTuple == null && this.entries.hasNext()) {
+            this.nextTuple = this.index.fetchTuple(this.tid, this.entries.next());
+        }
+        if (this.nextTuple == null)
+            this.exhausted = true;
+        return this.nextTuple != null;
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.nextTuple;
+        this.nextTuple = null;
+        this.actualCardinality++;
+        this.lastPassCardinality++;
+        return t;
+    }
+
+    /**
+     * @return the number of tuples returned since this scan was last opened,
+     *         over all the times it was rewound, as for Operator
+     */
+    public long getActualCardinality() {
+        return this.actualCardinality;
+    }
+
+    /**
+     * @return the number of tuples returned since this scan was last opened,
+     *         or rewound
+     */
+    public long getLastPassCardinality() {
+        return this.lastPassCardinality;
+    }
+
+    /**
+     * @return whether every tuple matching the index predicate was returned
+     *         since this scan was last opened, or rewound
+     */
+    public boolean isExhausted() {
+        return this.exhausted;
+    }
+
+    public void close() {
+        if (this.entries != null) {
+            this.entries.close();
+        }
+        this.entries = null;
+        this.nextTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        start();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        this.ipred = ipred;
+        start();
+    }
+}
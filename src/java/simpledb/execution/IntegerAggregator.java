@@ -4,14 +4,18 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.storage.IntField;
+import simpledb.storage.LongField;
 import simpledb.storage.Field;
 import java.util.*;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields. Sums are
+ * accumulated in longs, and SUM is returned as a LongField, so that neither
+ * SUM nor AVG overflows on large inputs.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -20,7 +24,7 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<Field, Integer> aggregateValues;
+    private HashMap<Field, Long> aggregateValues;
     private HashMap<Field, Integer> countValues;
 
     /**
@@ -56,12 +60,74 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        Field groupByField = this.getGroupByField(tup);
-        int updatedCount = this.getUpdatedCount(tup);
-        this.countValues.put(groupByField, updatedCount);
-        int updatedAggregate = this.getUpdatedAggregate(tup);
-        this.aggregateValues.put(groupByField, updatedAggregate);
+        IntField tupleAggregate = (IntField) tup.getField(this.afield);
+        this.merge(this.getGroupByField(tup), 1, tupleAggregate.getValue(), tupleAggregate.getValue(),
+                tupleAggregate.getValue());
+    }
 
+    /**
+     * Merge every selected row of a batch into the aggregate. Without
+     * grouping, the rows are first combined in a loop over the int array of
+     * the aggregate field, and merged into the result once.
+     *
+     * @param batch
+     *            the rows, each containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        if (!batch.isIntColumn(this.afield)) {
+            Aggregator.super.mergeBatchIntoGroups(batch);
+            return;
+        }
+        int[] values = batch.getIntColumn(this.afield);
+        int n = batch.numRows();
+        if (this.gbfield != Aggregator.NO_GROUPING) {
+            for (int k = 0; k < n; k++) {
+                int row = batch.row(k);
+                int v = values[row];
+                this.merge(batch.getField(this.gbfield, row), 1, v, v, v);
+            }
+            return;
+        }
+        if (n == 0)
+            return;
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            int v = values[batch.row(k)];
+            sum += v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        this.merge(null, n, sum, min, max);
+    }
+
+    /**
+     * Merge count values with the specified sum, minimum and maximum into the
+     * aggregate of the specified group.
+     */
+    private void merge(Field groupByField, int count, long sum, int min, int max) {
+        Integer currentCount = this.countValues.get(groupByField);
+        this.countValues.put(groupByField, currentCount == null ? count : currentCount + count);
+        Long current = this.aggregateValues.get(groupByField);
+        long updated;
+        switch (this.what) {
+            case MAX:
+                updated = current == null ? max : Math.max(current, max);
+                break;
+            case MIN:
+                updated = current == null ? min : Math.min(current, min);
+                break;
+            case AVG:
+            case SUM:
+                updated = current == null ? sum : current + sum;
+                break;
+            default:
+                // COUNT is computed from countValues
+                updated = 0;
+                break;
+        }
+        this.aggregateValues.put(groupByField, updated);
     }
 
     /**
@@ -77,15 +143,16 @@ public class IntegerAggregator implements Aggregator {
         ArrayList<Tuple> tuples = new ArrayList<>();
         boolean hasGrouping = (this.gbfield != Aggregator.NO_GROUPING);
 
+        Type aggregateType = Aggregate.resultType(Type.INT_TYPE, this.what);
         if (hasGrouping) {
-            groupAggregateTd = new TupleDesc(new Type[] { this.gbfieldtype, Type.INT_TYPE });
+            groupAggregateTd = new TupleDesc(new Type[] { this.gbfieldtype, aggregateType });
         } else {
-            groupAggregateTd = new TupleDesc(new Type[] { Type.INT_TYPE });
+            groupAggregateTd = new TupleDesc(new Type[] { aggregateType });
         }
 
-        for (Map.Entry<Field, Integer> groupAggregateEntry : this.aggregateValues.entrySet()) {
+        for (Map.Entry<Field, Long> groupAggregateEntry : this.aggregateValues.entrySet()) {
             Tuple groupAggregateTuple = new Tuple(groupAggregateTd);
-            Integer finalAggregateValue = this.getFinalAggregateValue(
+            Field finalAggregateValue = this.getFinalAggregateValue(
                     countValues.get(groupAggregateEntry.getKey()),
                     groupAggregateEntry.getValue());
 
@@ -94,50 +161,15 @@ public class IntegerAggregator implements Aggregator {
             // If there is no grouping, we return a tuple in the form {aggregateVal}
             if (hasGrouping) {
                 groupAggregateTuple.setField(0, groupAggregateEntry.getKey());
-                groupAggregateTuple.setField(1, new IntField(finalAggregateValue));
+                groupAggregateTuple.setField(1, finalAggregateValue);
             } else {
-                groupAggregateTuple.setField(0, new IntField(finalAggregateValue));
+                groupAggregateTuple.setField(0, finalAggregateValue);
             }
             tuples.add(groupAggregateTuple);
         }
         return new TupleIterator(groupAggregateTd, tuples);
     }
 
-    private int getUpdatedCount(Tuple tup) {
-        Field groupByField = getGroupByField(tup);
-        int currentCount = this.countValues.getOrDefault(groupByField, 0);
-        return ++currentCount;
-    }
-
-    private int getUpdatedAggregate(Tuple tup) {
-        IntField tupleAggregate = (IntField) tup.getField((this.afield));
-        Field groupByField = getGroupByField(tup);
-        Integer defaultValue = (this.what == Op.MIN || this.what == Op.MAX) ? tupleAggregate.getValue() : 0;
-        Integer currentAggregateValue = this.aggregateValues.getOrDefault(groupByField, defaultValue);
-        Integer updatedAggregateValue = currentAggregateValue;
-
-        switch (this.what) {
-            case AVG:
-                updatedAggregateValue = currentAggregateValue + tupleAggregate.getValue();
-                break;
-            case MAX:
-                updatedAggregateValue = Math.max(currentAggregateValue, tupleAggregate.getValue());
-                break;
-            case MIN:
-                updatedAggregateValue = Math.min(currentAggregateValue, tupleAggregate.getValue());
-                break;
-            case SUM:
-                updatedAggregateValue = currentAggregateValue + tupleAggregate.getValue();
-                break;
-            case COUNT:
-                // This case is handled by groupCount
-                break;
-            default:
-                break;
-        }
-        return updatedAggregateValue;
-    }
-
     private Field getGroupByField(Tuple tup) {
         Field groupByField;
         if (this.gbfield == Aggregator.NO_GROUPING) {
@@ -148,20 +180,17 @@ public class IntegerAggregator implements Aggregator {
         return groupByField;
     }
 
-    private Integer getFinalAggregateValue(Integer totalCount, Integer aggregateValue) {
-        Integer finalAggregateValue;
+    private Field getFinalAggregateValue(int totalCount, long aggregateValue) {
         switch (this.what) {
             case AVG:
-                finalAggregateValue = aggregateValue / totalCount;
-                break;
+                return new IntField((int) (aggregateValue / totalCount));
             case COUNT:
-                finalAggregateValue = totalCount;
-                break;
+                return new IntField(totalCount);
+            case SUM:
+                return new LongField(aggregateValue);
             default:
-                finalAggregateValue = aggregateValue;
-                break;
+                return new IntField((int) aggregateValue);
         }
-        return finalAggregateValue;
     }
 
 }
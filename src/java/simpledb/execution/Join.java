@@ -2,26 +2,37 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a nested
+ * loop that compares tuples of child1 to every tuple of child2. By default it
+ * takes one tuple of child1 at a time; a block nested-loop join takes a block
+ * of tuples of child1 at a time, so child2 is scanned fewer times.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The default number of pages of child1 buffered by a block nested-loop join */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
     private JoinPredicate jp;
     private OpIterator child1;
     private OpIterator child2;
-    private Tuple currTuple;
+    private final int blockTuples;
+    private List<Tuple> block;
+    private int blockPos;
+    private Tuple currTuple2;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
-     * on
+     * on. The join is a tuple-at-a-time nested loop, which scans child2 once
+     * for every tuple of child1.
      * 
      * @param p
      *            The predicate to use to join the children
@@ -35,7 +46,50 @@ public class Join extends Operator {
         this.jp = p;
         this.child1 = child1;
         this.child2 = child2;
-        this.currTuple = null;
+        this.blockTuples = 1;
+        this.block = null;
+        this.currTuple2 = null;
+    }
+
+    /**
+     * Constructor for a block nested-loop join, which buffers as many tuples
+     * of child1 as fit in the specified number of pages, and scans child2
+     * once for every such block rather than once for every tuple.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            The number of pages of child1 to buffer per scan of child2
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        if (blockPages <= 0)
+            throw new IllegalArgumentException("block must hold at least one page");
+        this.jp = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+        this.block = null;
+        this.currTuple2 = null;
+    }
+
+    /**
+     * @return the number of tuples with the specified TupleDesc that fit in
+     *         the specified number of heap pages
+     */
+    public static int blockTuples(TupleDesc td, int blockPages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return blockPages * Math.max(1, perPage);
+    }
+
+    /**
+     * @return the number of tuples of child1 joined per scan of child2
+     */
+    public int getBlockTuples() {
+        return this.blockTuples;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -78,9 +132,6 @@ public class Join extends Operator {
         this.child1.open();
         this.child2.open();
         super.open();
-        if (this.child1.hasNext()) {
-            this.currTuple = this.child1.next();
-        }
     }
 
     public void close() {
@@ -88,16 +139,16 @@ public class Join extends Operator {
         this.child1.close();
         this.child2.close();
         super.close();
-        this.currTuple = null;
+        this.block = null;
+        this.currTuple2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         this.child1.rewind();
         this.child2.rewind();
-        if (this.child1.hasNext()) {
-            this.currTuple = this.child1.next();
-        }
+        this.block = null;
+        this.currTuple2 = null;
     }
 
     /**
@@ -120,34 +171,50 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while (this.currTuple != null) {
-            while (this.child2.hasNext()) {
-                Tuple currTuple2 = this.child2.next();
-
-                if (this.jp.filter(this.currTuple, currTuple2)) {
-                    Tuple newTuple = new Tuple(getTupleDesc());
-
-                    for (int i = 0; i < currTuple.getTupleDesc().numFields(); i++) {
-                        newTuple.setField(i, this.currTuple.getField(i));
-                    }
-
-                    for (int i = 0; i < currTuple2.getTupleDesc().numFields(); i++) {
-                        newTuple.setField(i + this.currTuple.getTupleDesc().numFields(), currTuple2.getField(i));
+        while (true) {
+            if (this.currTuple2 != null) {
+                while (this.blockPos < this.block.size()) {
+                    Tuple currTuple = this.block.get(this.blockPos++);
+                    if (this.jp.filter(currTuple, this.currTuple2)) {
+                        return merge(currTuple, this.currTuple2);
                     }
-
-                    return newTuple;
                 }
+                this.currTuple2 = null;
             }
 
-            if (this.child1.hasNext()) {
-                this.currTuple = this.child1.next();
+            if (this.block != null && this.child2.hasNext()) {
+                this.currTuple2 = this.child2.next();
+                this.blockPos = 0;
+                continue;
+            }
+
+            // child2 is done with this block: read the next block of child1
+            boolean first = this.block == null;
+            this.block = new ArrayList<>();
+            while (this.block.size() < this.blockTuples && this.child1.hasNext()) {
+                this.block.add(this.child1.next());
+            }
+            if (this.block.isEmpty()) {
+                return null;
+            }
+            if (!first) {
                 this.child2.rewind();
-            } else {
-                this.currTuple = null;
             }
         }
+    }
+
+    private Tuple merge(Tuple currTuple, Tuple currTuple2) {
+        Tuple newTuple = new Tuple(getTupleDesc());
+
+        for (int i = 0; i < currTuple.getTupleDesc().numFields(); i++) {
+            newTuple.setField(i, currTuple.getField(i));
+        }
+
+        for (int i = 0; i < currTuple2.getTupleDesc().numFields(); i++) {
+            newTuple.setField(i + currTuple.getTupleDesc().numFields(), currTuple2.getField(i));
+        }
 
-        return null;
+        return newTuple;
     }
 
     @Override
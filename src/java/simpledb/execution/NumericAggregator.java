@@ -0,0 +1,170 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.DateField;
+import simpledb.storage.DoubleField;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DoubleFields or
+ * DateFields. Each group keeps its running aggregate in primitive longs and
+ * doubles, so merging a tuple does not box its value. Dates are aggregated as
+ * their epoch day and support MIN, MAX and COUNT only.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private int gbfield;
+    private Type gbfieldtype;
+    private int afield;
+    private Type afieldtype;
+    private Op what;
+    private HashMap<Field, Group> groups;
+
+    /** The running aggregate of one group */
+    private static class Group implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        long count;
+        long longValue;
+        double doubleValue;
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield     the 0-based index of the group-by field in the tuple, or
+     *                    NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or
+     *                    null if there is no grouping
+     * @param afield      the 0-based index of the aggregate field in the tuple
+     * @param afieldtype  the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE
+     *                    or DATE_TYPE
+     * @param what        the aggregation operator
+     * @throws IllegalArgumentException if afieldtype is not supported, or what is
+     *                                  SUM or AVG over dates
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DOUBLE_TYPE && afieldtype != Type.DATE_TYPE) {
+            throw new IllegalArgumentException("NumericAggregator does not support " + afieldtype);
+        }
+        if (afieldtype == Type.DATE_TYPE && (what == Op.SUM || what == Op.AVG)) {
+            throw new IllegalArgumentException("dates only support MIN, MAX and COUNT");
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+        this.groups = new HashMap<>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field groupField = (gbfield == NO_GROUPING) ? null : tup.getField(gbfield);
+        Group g = groups.get(groupField);
+        if (g == null) {
+            g = new Group();
+            groups.put(groupField, g);
+        }
+        Field f = tup.getField(afield);
+        if (afieldtype == Type.DOUBLE_TYPE) {
+            double v = ((DoubleField) f).getValue();
+            switch (what) {
+                case MIN:
+                    g.doubleValue = g.count == 0 ? v : Math.min(g.doubleValue, v);
+                    break;
+                case MAX:
+                    g.doubleValue = g.count == 0 ? v : Math.max(g.doubleValue, v);
+                    break;
+                case SUM:
+                case AVG:
+                    g.doubleValue += v;
+                    break;
+                default:
+                    break;
+            }
+        } else {
+            long v = afieldtype == Type.LONG_TYPE ? ((LongField) f).getValue() : ((DateField) f).getValue();
+            switch (what) {
+                case MIN:
+                    g.longValue = g.count == 0 ? v : Math.min(g.longValue, v);
+                    break;
+                case MAX:
+                    g.longValue = g.count == 0 ? v : Math.max(g.longValue, v);
+                    break;
+                case SUM:
+                case AVG:
+                    g.longValue += v;
+                    break;
+                default:
+                    break;
+            }
+        }
+        g.count++;
+    }
+
+    private Field getFinalAggregateValue(Group g) {
+        if (what == Op.COUNT) {
+            return new IntField((int) g.count);
+        }
+        switch (afieldtype) {
+            case DOUBLE_TYPE:
+                return new DoubleField(what == Op.AVG ? g.doubleValue / g.count : g.doubleValue);
+            case DATE_TYPE:
+                return new DateField((int) g.longValue);
+            default:
+                return new LongField(what == Op.AVG ? g.longValue / g.count : g.longValue);
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal,
+     *         aggregateVal) if using group, or a single (aggregateVal) if no
+     *         grouping. The aggregateVal is determined by the type of
+     *         aggregate specified in the constructor.
+     */
+    public OpIterator iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        Type resultType = Aggregate.resultType(afieldtype, what);
+        TupleDesc td;
+
+        if (this.gbfield == NO_GROUPING) {
+            td = new TupleDesc(new Type[] { resultType });
+        } else {
+            td = new TupleDesc(new Type[] { this.gbfieldtype, resultType });
+        }
+
+        for (Map.Entry<Field, Group> entry : groups.entrySet()) {
+            Tuple tuple = new Tuple(td);
+            Field value = getFinalAggregateValue(entry.getValue());
+
+            if (this.gbfield == NO_GROUPING) {
+                tuple.setField(0, value);
+            } else {
+                tuple.setField(0, entry.getKey());
+                tuple.setField(1, value);
+            }
+
+            tuples.add(tuple);
+        }
+
+        return new TupleIterator(td, tuples);
+    }
+
+}
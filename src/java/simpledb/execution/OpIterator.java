@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,28 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next batch of tuples from the operator, or null if there are no
+   * more tuples. A batch is never empty.
+   * <p>
+   * Operators that process many rows per call override this method; the
+   * default implementation collects up to {@link TupleBatch#DEFAULT_SIZE}
+   * tuples from next(), so that any OpIterator can feed an operator that
+   * consumes batches. Between calls to open or rewind, a consumer should use
+   * either next() or nextBatch(), not both.
+   *
+   * @return the next batch of tuples, or null if the iteration is finished.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    if (!hasNext())
+      return null;
+    TupleBatch batch = new TupleBatch(getTupleDesc());
+    while (!batch.isFull() && hasNext())
+      batch.addTuple(next());
+    return batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.NoSuchElementException;
@@ -35,9 +36,22 @@ public abstract class Operator implements OpIterator {
 
         Tuple result = next;
         next = null;
+        actualCardinality++;
         return result;
     }
 
+    /**
+     * Counts the tuples of a batch this operator returns. Subclasses that
+     * override <code>nextBatch</code> pass each batch they return through it.
+     *
+     * @return batch
+     */
+    protected TupleBatch counted(TupleBatch batch) {
+        if (batch != null)
+            actualCardinality += batch.numRows();
+        return batch;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -62,9 +76,11 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private long actualCardinality = 0;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
+        this.actualCardinality = 0;
     }
 
     /**
@@ -109,4 +125,12 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return the number of tuples this operator has returned since it was
+     *         last opened, over all the times it was rewound
+     */
+    public long getActualCardinality() {
+        return this.actualCardinality;
+    }
+
 }
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -9,18 +10,21 @@ import simpledb.storage.TupleDesc;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or more
+ * fields. The tuples of the child are sorted with an ExternalSort, so that no
+ * more than memoryTuples of them are held in memory at once; larger inputs
+ * are sorted in runs that are spilled to disk and merged.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
-    private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int memoryTuples;
+    private transient ExternalSort sort;
+    private transient DbFileIterator it;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,26 +37,90 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts the tuples from the iterator on
+     * several fields: by the first, then by the second among tuples equal on
+     * the first, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, ExternalSort.DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * Creates a new OrderBy node that holds no more than memoryTuples tuples
+     * in memory at once.
+     *
+     * @throws IllegalArgumentException
+     *            if there are no fields to sort on, a different number of
+     *            fields and orders, or the budget is not positive
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int memoryTuples) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order for each of at least one field");
+        if (memoryTuples <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.memoryTuples = memoryTuples;
     }
     
+    /**
+     * @return true if the sort order of the first sort field is ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+        return this.ascs[0];
     }
     
+    /**
+     * @return the first sort field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
+    /**
+     * @return the name of the first sort field
+     */
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+        return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return the sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if its sort order is ascending
+     */
+    public boolean[] getOrderByAsc() {
+        return this.ascs.clone();
+    }
+
+    /**
+     * @return the number of sorted runs spilled to disk by the last open, or
+     *         0 if the input fit in memory
+     */
+    public int getNumRuns() {
+        return sort == null ? 0 : sort.getNumRuns();
     }
     
     public TupleDesc getTupleDesc() {
@@ -62,21 +130,27 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        // sort all the tuples, spilling runs to disk as memory fills up
+        sort = new ExternalSort(td, new TupleComparator(orderByFields, ascs), memoryTuples);
+        sort.addAll(child);
+        it = sort.iterator();
+        it.open();
         super.open();
     }
 
     public void close() {
         super.close();
+        if (it != null)
+            it.close();
         it = null;
+        if (sort != null)
+            sort.delete();
+        sort = null;
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
     }
 
     /**
@@ -86,7 +160,8 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -105,24 +180,35 @@ public class OrderBy extends Operator {
 
 }
 
+/**
+ * Orders tuples on one or more fields, each ascending or descending; later
+ * fields only break ties between tuples equal on the earlier ones.
+ */
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc[i] ? 1 : -1;
+            else
+                return asc[i] ? -1 : 1;
+        }
+        return 0;
     }
     
 }
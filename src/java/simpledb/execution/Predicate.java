@@ -1,7 +1,9 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -113,6 +115,70 @@ public class Predicate implements Serializable {
         return false;
     }
 
+    /**
+     * Applies this predicate to every selected row of the specified batch, and
+     * narrows the selection of the batch to the rows that satisfy it. INT
+     * fields compared to an IntField operand are compared directly in their
+     * int array.
+     *
+     * @param batch
+     *            The batch to filter
+     */
+    public void filter(TupleBatch batch) {
+        int n = batch.numRows();
+        int[] selected = new int[n];
+        int m = 0;
+        if (batch.isIntColumn(this.field) && this.operand instanceof IntField) {
+            int[] col = batch.getIntColumn(this.field);
+            int v = ((IntField) this.operand).getValue();
+            switch (this.op) {
+                case EQUALS:
+                case LIKE:
+                    for (int k = 0; k < n; k++) {
+                        int row = batch.row(k);
+                        if (col[row] == v) selected[m++] = row;
+                    }
+                    break;
+                case NOT_EQUALS:
+                    for (int k = 0; k < n; k++) {
+                        int row = batch.row(k);
+                        if (col[row] != v) selected[m++] = row;
+                    }
+                    break;
+                case GREATER_THAN:
+                    for (int k = 0; k < n; k++) {
+                        int row = batch.row(k);
+                        if (col[row] > v) selected[m++] = row;
+                    }
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    for (int k = 0; k < n; k++) {
+                        int row = batch.row(k);
+                        if (col[row] >= v) selected[m++] = row;
+                    }
+                    break;
+                case LESS_THAN:
+                    for (int k = 0; k < n; k++) {
+                        int row = batch.row(k);
+                        if (col[row] < v) selected[m++] = row;
+                    }
+                    break;
+                case LESS_THAN_OR_EQ:
+                    for (int k = 0; k < n; k++) {
+                        int row = batch.row(k);
+                        if (col[row] <= v) selected[m++] = row;
+                    }
+                    break;
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                int row = batch.row(k);
+                if (batch.getField(this.field, row).compare(this.op, this.operand)) selected[m++] = row;
+            }
+        }
+        batch.select(selected, m);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
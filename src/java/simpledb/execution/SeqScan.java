@@ -5,9 +5,13 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileIterator;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -25,6 +29,16 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFileIterator dbFileIterator;
     private DbFile file;
+    private int[] fields;
+    /** Predicates over the fields of the table, which every tuple returned satisfies */
+    private Predicate[] predicates;
+    /** The range of pages scanned, or -1 for endPage to scan every page */
+    private int firstPage = 0;
+    private int endPage = -1;
+    /** The number of tuples returned since the scan was opened or rewound */
+    private long actualCardinality = 0;
+    private long lastPassCardinality = 0;
+    private boolean exhausted = false;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -46,13 +60,227 @@ public class SeqScan implements OpIterator {
      *                   tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that only returns
+     * the specified fields of each tuple, in that order. Heap files only
+     * decode the fields that are returned, which on a PAX file skips the
+     * bytes of all the other fields.
+     *
+     * @param tid
+     *                   The transaction this scan is running as a part of.
+     * @param tableid
+     *                   the table to scan.
+     * @param tableAlias
+     *                   the alias of this table (needed by the parser)
+     * @param fields
+     *                   the indexes of the fields to return, or null to
+     *                   return every field
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias, fields, (Predicate[]) null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that only returns
+     * the tuples satisfying all the specified predicates. Heap files compare
+     * the fields of the predicates on the bytes of each page, and only decode
+     * the tuples that satisfy them.
+     *
+     * @param tid
+     *                   The transaction this scan is running as a part of.
+     * @param tableid
+     *                   the table to scan.
+     * @param tableAlias
+     *                   the alias of this table (needed by the parser)
+     * @param fields
+     *                   the indexes of the fields to return, or null to
+     *                   return every field
+     * @param predicates
+     *                   predicates over the fields of the table (not of the
+     *                   tuples returned), or null to return every tuple
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, Predicate[] predicates) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.fields = fields;
+        this.predicates = predicates == null || predicates.length == 0 ? null : predicates;
         this.file = Database.getCatalog().getDatabaseFile(this.tableid);
-        this.dbFileIterator = this.file.iterator(this.tid);
+        this.dbFileIterator = this.createIterator();
+    }
 
-        
+    /**
+     * Creates a sequential scan over a range of the pages of a heap file, one
+     * of the partitions of a parallel scan.
+     *
+     * @param tid
+     *                   The transaction this scan is running as a part of.
+     * @param tableid
+     *                   the table to scan, which must be stored in a HeapFile
+     * @param tableAlias
+     *                   the alias of this table (needed by the parser)
+     * @param fields
+     *                   the indexes of the fields to return, or null to
+     *                   return every field
+     * @param firstPage
+     *                   the number of the first page to scan
+     * @param endPage
+     *                   one more than the number of the last page to scan
+     * @throws IllegalArgumentException if the table is not a heap file or the
+     *                   range is invalid
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, fields, null, firstPage, endPage);
+    }
+
+    /**
+     * Creates a sequential scan over a range of the pages of a heap file that
+     * only returns the tuples satisfying all the specified predicates.
+     *
+     * @param predicates
+     *                   predicates over the fields of the table, or null
+     * @see #SeqScan(TransactionId, int, String, int[], int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, Predicate[] predicates,
+            int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, fields, predicates);
+        if (!(this.file instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be scanned by page");
+        if (firstPage < 0 || endPage < firstPage)
+            throw new IllegalArgumentException("invalid page range " + firstPage + " to " + endPage);
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+        this.dbFileIterator = this.createIterator();
+    }
+
+    /**
+     * Divides a scan of a table into scans of contiguous ranges of its pages,
+     * which together return every tuple of the table once. Tables that are not
+     * heap files, or have too few pages, are scanned whole.
+     *
+     * @param tid
+     *                   The transaction the scans are running as a part of.
+     * @param tableid
+     *                   the table to scan.
+     * @param tableAlias
+     *                   the alias of this table (needed by the parser)
+     * @param fields
+     *                   the indexes of the fields to return, or null to
+     *                   return every field
+     * @param n
+     *                   the largest number of partitions to create
+     * @return the scan of each partition, in the order of their pages
+     */
+    public static List<SeqScan> partitions(TransactionId tid, int tableid, String tableAlias, int[] fields, int n) {
+        return partitions(tid, tableid, tableAlias, fields, null, n);
+    }
+
+    /**
+     * Divides a scan with predicates into scans of contiguous ranges of pages.
+     *
+     * @param predicates
+     *                   predicates over the fields of the table, or null
+     * @see #partitions(TransactionId, int, String, int[], int)
+     */
+    public static List<SeqScan> partitions(TransactionId tid, int tableid, String tableAlias, int[] fields,
+            Predicate[] predicates, int n) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        List<SeqScan> scans = new ArrayList<>();
+        int numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+        int parts = Math.min(n, numPages);
+        if (parts <= 1) {
+            scans.add(new SeqScan(tid, tableid, tableAlias, fields, predicates));
+            return scans;
+        }
+        for (int i = 0; i < parts; i++) {
+            int first = (int) ((long) numPages * i / parts);
+            int end = (int) ((long) numPages * (i + 1) / parts);
+            scans.add(new SeqScan(tid, tableid, tableAlias, fields, predicates, first, end));
+        }
+        return scans;
+    }
+
+    private DbFileIterator createIterator() {
+        if (this.file instanceof HeapFile) {
+            HeapFile hf = (HeapFile) this.file;
+            if (this.endPage >= 0 || this.predicates != null) {
+                return hf.iterator(this.tid, this.firstPage, this.endPage >= 0 ? this.endPage : hf.numPages(),
+                        this.fields, this.predicates);
+            }
+            if (this.fields != null) {
+                return hf.iterator(this.tid, this.fields);
+            }
+        }
+        DbFileIterator it = this.file.iterator(this.tid);
+        if (this.predicates == null) {
+            return it;
+        }
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (matches(t))
+                        return t;
+                }
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+        };
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : this.predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the indexes of the fields of the table this scan returns, or
+     *         null if it returns every field
+     */
+    public int[] getFields() {
+        return this.fields;
+    }
+
+    /**
+     * @return the predicates over the fields of the table that the tuples
+     *         returned satisfy, or null if every tuple is returned
+     */
+    public Predicate[] getPredicates() {
+        return this.predicates;
+    }
+
+    /**
+     * @return the number of the first page scanned
+     */
+    public int getFirstPage() {
+        return this.firstPage;
+    }
+
+    /**
+     * @return one more than the number of the last page scanned, or -1 if
+     *         this scan reads every page of the table
+     */
+    public int getEndPage() {
+        return this.endPage;
     }
 
     /**
@@ -71,6 +299,20 @@ public class SeqScan implements OpIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * 
@@ -91,7 +333,9 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.file = Database.getCatalog().getDatabaseFile(this.tableid);
-        this.dbFileIterator = this.file.iterator(tid);
+        this.firstPage = 0;
+        this.endPage = -1;
+        this.dbFileIterator = this.createIterator();
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -100,6 +344,33 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         this.dbFileIterator.open();
+        this.actualCardinality = 0;
+        this.lastPassCardinality = 0;
+        this.exhausted = false;
+    }
+
+    /**
+     * @return the number of tuples returned since this scan was last opened,
+     *         over all the times it was rewound, as for Operator
+     */
+    public long getActualCardinality() {
+        return this.actualCardinality;
+    }
+
+    /**
+     * @return the number of tuples returned since this scan was last opened,
+     *         or rewound
+     */
+    public long getLastPassCardinality() {
+        return this.lastPassCardinality;
+    }
+
+    /**
+     * @return whether every tuple was returned since this scan was last
+     *         opened, or rewound
+     */
+    public boolean isExhausted() {
+        return this.exhausted;
     }
 
     /**
@@ -114,6 +385,9 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         TupleDesc originalTd = this.file.getTupleDesc();
+        if (this.fields != null) {
+            originalTd = originalTd.project(this.fields);
+        }
         Type[] newTdTypeAr = new Type[originalTd.numFields()];
         String[] newTdFieldAr = new String[originalTd.numFields()];
 
@@ -125,12 +399,47 @@ public class SeqScan implements OpIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return this.dbFileIterator.hasNext();
+        if (this.dbFileIterator.hasNext())
+            return true;
+        this.exhausted = true;
+        return false;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return this.dbFileIterator.next();
+        Tuple t = this.dbFileIterator.next();
+        this.actualCardinality++;
+        this.lastPassCardinality++;
+        if (this.fields == null || this.file instanceof HeapFile) {
+            return t;
+        }
+        Tuple projected = new Tuple(this.file.getTupleDesc().project(this.fields));
+        for (int i = 0; i < this.fields.length; i++) {
+            projected.setField(i, t.getField(this.fields[i]));
+        }
+        projected.setRecordId(t.getRecordId());
+        return projected;
+    }
+
+    /**
+     * Returns the next tuples of the table in a batch. The fields of a heap
+     * file are copied out of its pages into the columns of the batch, without
+     * creating new Tuples.
+     *
+     * @see HeapFileIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!(this.dbFileIterator instanceof HeapFileIterator)) {
+            return OpIterator.super.nextBatch();
+        }
+        TupleBatch batch = ((HeapFileIterator) this.dbFileIterator).nextBatch(getTupleDesc());
+        if (batch == null) {
+            this.exhausted = true;
+            return null;
+        }
+        this.actualCardinality += batch.numRows();
+        this.lastPassCardinality += batch.numRows();
+        return batch;
     }
 
     public void close() {
@@ -140,5 +449,7 @@ public class SeqScan implements OpIterator {
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         this.dbFileIterator.rewind();
+        this.lastPassCardinality = 0;
+        this.exhausted = false;
     }
 }
@@ -0,0 +1,89 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Shuffle is the Exchange that divides the output of its producers among
+ * several consumers by the hash of a field, so that tuples with equal values
+ * of the field go to the same consumer. Shuffling both children of an
+ * equi-join by their join fields into the same number of consumers lets each
+ * consumer join its part of the inputs on its own thread.
+ * <p>
+ * The consumers of the same producers must each be read on a thread of its
+ * own, typically as the producers of a Gather, or closed: a producer with a
+ * full queue for one consumer waits for it to be read. They read their input
+ * once, and cannot be rewound.
+ */
+public class Shuffle extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    private Shuffle(Producers producers, int consumer, int field) {
+        super(producers, consumer);
+        this.field = field;
+    }
+
+    /**
+     * Create the consumers of a shuffle. If the input is a Gather, its
+     * producers are shuffled directly, each on its own thread; otherwise the
+     * input is the single producer.
+     *
+     * @param input        the tuples to shuffle
+     * @param field        the field whose hash chooses the consumer of a tuple
+     * @param numConsumers the number of consumers
+     * @return the consumers; a given value of the field always goes to the
+     *         consumer with the same position, for any input
+     */
+    public static Shuffle[] outputs(OpIterator input, int field, int numConsumers) {
+        if (numConsumers <= 0)
+            throw new IllegalArgumentException("a shuffle needs at least one consumer");
+        if (field < 0 || field >= input.getTupleDesc().numFields())
+            throw new IllegalArgumentException("no field " + field + " to shuffle by");
+        OpIterator[] children = input instanceof Gather ? ((Gather) input).getChildren()
+                : new OpIterator[] { input };
+        Producers producers = new Producers(children, field, numConsumers);
+        Shuffle[] outputs = new Shuffle[numConsumers];
+        for (int c = 0; c < numConsumers; c++)
+            outputs[c] = new Shuffle(producers, c, field);
+        return outputs;
+    }
+
+    public String getName() {
+        return "shuffle(" + getTupleDesc().getFieldName(field) + ")";
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.numRows()) {
+            batch = nextProducedBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(pos++);
+    }
+
+    /**
+     * Returns the next batch of this consumer's tuples.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return counted(nextProducedBatch());
+    }
+}
@@ -0,0 +1,336 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children on an equality or range predicate by
+ * sorting them on their join fields, with an ExternalSort when they are not
+ * already in order.
+ * <p>
+ * For EQUALS, both children are sorted in ascending order and merged; the
+ * tuples of child2 that share a join value are held in memory while the tuples
+ * of child1 with that value are joined to them.
+ * <p>
+ * For LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and GREATER_THAN_OR_EQ, only
+ * child2 is sorted, in the order in which the tuples of child2 that join a
+ * given tuple of child1 come first: descending for less-than predicates and
+ * ascending for greater-than ones. child1 is read in blocks of memoryTuples
+ * tuples, each sorted the opposite way, and each block is joined in a single
+ * pass over the sorted child2 that stops as soon as no tuple of the block
+ * joins. child2 is therefore read once per block rather than once per tuple
+ * of child1.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int memoryTuples;
+
+    transient private ExternalSort sort1 = null, sort2 = null;
+    transient private DbFileIterator left = null, right = null;
+
+    // EQUALS: the current tuple of child1, and the tuples of child2 with its
+    // join value
+    transient private Tuple leftTuple = null;
+    transient private List<Tuple> group = null;
+    transient private int groupPos = 0;
+    transient private Tuple rightNext = null;
+
+    // range predicates: the current block of child1, and the current tuple of
+    // child2
+    transient private List<Tuple> block = null;
+    transient private int blockPos = 0;
+    transient private Tuple rightTuple = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *            if the operator of the predicate is LIKE or NOT_EQUALS
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, ExternalSort.DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on, and the largest number of tuples of each child to hold in memory at
+     * once.
+     *
+     * @throws IllegalArgumentException
+     *            if the operator of the predicate is LIKE or NOT_EQUALS
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        if (memoryTuples <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if SortMergeJoin can join on the specified operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /**
+     * @return true if the tuples of the specified iterator come in ascending
+     *         order of the specified field, as they do from a scan of a
+     *         BTreeFile keyed on that field
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (!(it instanceof BTreeScan))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(((BTreeScan) it).getTableName()));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    private boolean isEquiJoin() {
+        return pred.getOperator() == Predicate.Op.EQUALS;
+    }
+
+    /** @return true if child2 is sorted in ascending order */
+    private boolean rightAscending() {
+        Predicate.Op op = pred.getOperator();
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return the tuples of child, sorted on field in the specified order;
+     *         the sort is skipped if the tuples are already in that order
+     */
+    private DbFileIterator sorted(OpIterator child, int field, boolean asc, boolean first)
+            throws DbException, TransactionAbortedException {
+        if (asc && isSortedOn(child, field))
+            return new ChildIterator(child);
+        ExternalSort sort = new ExternalSort(child.getTupleDesc(), new TupleComparator(field, asc), memoryTuples);
+        if (first)
+            sort1 = sort;
+        else
+            sort2 = sort;
+        sort.addAll(child);
+        return sort.iterator();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        if (isEquiJoin())
+            left = sorted(child1, pred.getField1(), true, true);
+        else
+            left = new ChildIterator(child1);
+        right = sorted(child2, pred.getField2(), rightAscending(), false);
+        left.open();
+        right.open();
+        resetState();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = null;
+        right = null;
+        if (sort1 != null)
+            sort1.delete();
+        if (sort2 != null)
+            sort2.delete();
+        sort1 = null;
+        sort2 = null;
+        resetState();
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        resetState();
+    }
+
+    private void resetState() {
+        leftTuple = null;
+        group = null;
+        groupPos = 0;
+        rightNext = null;
+        block = null;
+        blockPos = 0;
+        rightTuple = null;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As for Join, each tuple is the concatenation of a tuple of
+     * child1 and a tuple of child2 that satisfy the join predicate.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return isEquiJoin() ? fetchNextEquals() : fetchNextRange();
+    }
+
+    private Tuple readRight() throws DbException, TransactionAbortedException {
+        return right.hasNext() ? right.next() : null;
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        int f1 = pred.getField1();
+        int f2 = pred.getField2();
+        while (true) {
+            if (group != null && groupPos < group.size())
+                return merge(leftTuple, group.get(groupPos++));
+            if (!left.hasNext())
+                return null;
+            Tuple prev = leftTuple;
+            leftTuple = left.next();
+            Field key = leftTuple.getField(f1);
+            groupPos = 0;
+            // a run of equal join values in child1 reuses the group
+            if (prev != null && prev.getField(f1).compare(Predicate.Op.EQUALS, key))
+                continue;
+
+            if (prev == null)
+                rightNext = readRight();
+            while (rightNext != null && rightNext.getField(f2).compare(Predicate.Op.LESS_THAN, key))
+                rightNext = readRight();
+            group = new ArrayList<>();
+            while (rightNext != null && rightNext.getField(f2).compare(Predicate.Op.EQUALS, key)) {
+                group.add(rightNext);
+                rightNext = readRight();
+            }
+        }
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (rightTuple != null) {
+                if (blockPos < block.size() && pred.filter(block.get(blockPos), rightTuple))
+                    return merge(block.get(blockPos++), rightTuple);
+                // the block is sorted so that, once a tuple of it does not
+                // join rightTuple, neither do the rest; and if none of it
+                // does, no later tuple of child2 joins it either
+                boolean none = blockPos == 0;
+                rightTuple = null;
+                if (none)
+                    block = null;
+                continue;
+            }
+            if (block != null && right.hasNext()) {
+                rightTuple = right.next();
+                blockPos = 0;
+                continue;
+            }
+            block = new ArrayList<>();
+            while (block.size() < memoryTuples && left.hasNext())
+                block.add(left.next());
+            if (block.isEmpty()) {
+                block = null;
+                return null;
+            }
+            block.sort(new TupleComparator(pred.getField1(), !rightAscending()));
+            right.rewind();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    /** Reads an open child operator through the DbFileIterator interface */
+    private static class ChildIterator implements DbFileIterator {
+        private final OpIterator child;
+
+        ChildIterator(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() {
+            // the child is opened with the join
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+            // the child is closed with the join
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT ... OFFSET. Rather
+ * than sorting all the tuples of its child, as OrderBy does, it keeps only the
+ * first limit + offset of them in a bounded heap whose root is the last tuple
+ * kept, so a new tuple costs one comparison unless it displaces the root.
+ * Tuples that compare equal are returned in the order the child returned them,
+ * as from OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int limit;
+    private final int offset;
+    private transient List<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the largest number of tuples to return
+     * @param offset
+     *            the number of tuples at the start of the ordering to skip
+     * @param child
+     *            the tuples to sort
+     * @throws IllegalArgumentException
+     *            if there are no fields to sort on, a different number of
+     *            fields and orders, or limit or offset is negative or their
+     *            sum does not fit in an int
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, int offset, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order for each of at least one field");
+        if (limit < 0 || offset < 0 || (long) limit + offset > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid limit " + limit + " offset " + offset);
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getOrderByAsc() {
+        return ascs.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top = selectTop();
+        it = top.iterator();
+        super.open();
+    }
+
+    /** A tuple of the child, and its position in the child's output */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * @return the tuples of the child at positions offset to offset + limit
+     *         of the ordering, in order
+     */
+    private List<Tuple> selectTop() throws DbException, TransactionAbortedException {
+        int k = limit + offset;
+        if (limit == 0)
+            return new ArrayList<>();
+        TupleComparator tc = new TupleComparator(orderByFields, ascs);
+        Comparator<Entry> order = (a, b) -> {
+            int c = tc.compare(a.tuple, b.tuple);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        // the root of the heap is the last of the tuples kept so far
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(k, 1024), order.reversed());
+        long seq = 0;
+        while (child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < k) {
+                heap.add(e);
+            } else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(order);
+        List<Tuple> result = new ArrayList<>();
+        for (int i = offset; i < entries.size(); i++)
+            result.add(entries.get(i).tuple);
+        return result;
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        top = null;
+        child.close();
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    /**
+     * Returns the next of the top tuples, in order, or null if there are no
+     * more.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
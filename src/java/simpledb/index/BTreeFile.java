@@ -281,7 +281,7 @@ public class BTreeFile implements DbFile {
 
 		// if so then we can split the page
 		int n_tuples = page.getNumTuples();
-		for (int i=0; i < n_tuples / 2; ++i) {
+		for (int i=0; moreToMove(page, RPage, i, n_tuples / 2, page.getNumTuples() - 1); ++i) {
 			if (!tuples.hasNext()) {
 				throw new DbException("Reached the end.");
 			}
@@ -307,6 +307,9 @@ public class BTreeFile implements DbFile {
 		}
 
 		Field idx = RPage.iterator().next().getField(keyField);
+		if (page.isCompact()) {
+			idx = BTreePage.separator(page.reverseIterator().next().getField(keyField), idx);
+		}
 		BTreeEntry entry = new BTreeEntry(idx, page.getId(), RPage.getId());
 
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), idx);
@@ -363,7 +366,7 @@ public class BTreeFile implements DbFile {
 			throw new DbException("No such entries.");
 		}
 		int n_entries = page.getNumEntries();
-		for (int i = 0; i < n_entries / 2; i++) {
+		for (int i = 0; moreToMove(page, rightPage, i, n_entries / 2, page.getNumEntries() - 2); i++) {
 			if (!it.hasNext()) {
 				throw new DbException("No more entries to split.");
 			}
@@ -448,6 +451,46 @@ public class BTreeFile implements DbFile {
 
 	}
 
+	/**
+	 * Split a compact internal page whose entries no longer fit on the page. This happens
+	 * when redistributing tuples or entries between its children replaces one of its keys 
+	 * with a longer one.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the internal page to check
+	 * @see #splitInternalPage(TransactionId, Map, BTreeInternalPage, Field)
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void splitIfOverflowing(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage page)
+			throws DbException, IOException, TransactionAbortedException {
+		if(page.getUsedBytes() > BufferPool.getPageSize()) {
+			splitInternalPage(tid, dirtypages, page, page.iterator().next().getKey());
+		}
+	}
+
+	/**
+	 * Whether to move another tuple or entry from one page to another while splitting 
+	 * or redistributing pages. Pages are balanced by count, except for compact pages,
+	 * which are balanced by the number of bytes they use.
+	 * 
+	 * @param from - the page tuples or entries are moving from
+	 * @param to - the page tuples or entries are moving to
+	 * @param moved - the number of tuples or entries moved so far
+	 * @param count - the number of tuples or entries to move between pages that are not compact
+	 * @param spare - the number of tuples or entries the from page can still give up
+	 * @return true if another tuple or entry should be moved
+	 */
+	private static boolean moreToMove(BTreePage from, BTreePage to, int moved, int count, int spare) {
+		if(!from.isCompact()) {
+			return moved < count;
+		}
+		return spare > 0 && from.getUsedBytes() > to.getUsedBytes();
+	}
+
 	/**
 	 * Helper function to update the parent pointer of a node.
 	 * 
@@ -645,22 +688,24 @@ public class BTreeFile implements DbFile {
 			BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some tuples from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.isCompact() ? leftSibling.canMergeWith(page) : leftSibling.getNumEmptySlots() >= maxEmptySlots) {
 				mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
-			else {
+			else if(!page.isCompact() || leftSibling.getUsedBytes() > page.getUsedBytes()) {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				splitIfOverflowing(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {	
 			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some tuples from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.isCompact() ? page.canMergeWith(rightSibling) : rightSibling.getNumEmptySlots() >= maxEmptySlots) {
 				mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
-			else {
+			else if(!page.isCompact() || rightSibling.getUsedBytes() > page.getUsedBytes()) {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				splitIfOverflowing(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -699,7 +744,7 @@ public class BTreeFile implements DbFile {
 		int n_tuples = (sibling.getNumTuples() - page.getNumTuples()) / 2;
 		Tuple tuple = null;
 
-		for (int i = 0; i < n_tuples; ++i) {
+		for (int i = 0; moreToMove(sibling, page, i, n_tuples, sibling.getNumTuples() - 1); ++i) {
 			if (!it.hasNext()) {
 				throw new DbException("No more tuples to steal.");
 			}
@@ -712,6 +757,13 @@ public class BTreeFile implements DbFile {
 			throw new DbException("No tuples to steal.");
 		}
 		Field idx = tuple.getField(keyField);
+		if (page.isCompact()) {
+			if (isRightSibling) {
+				idx = BTreePage.separator(idx, sibling.iterator().next().getField(keyField));
+			} else {
+				idx = BTreePage.separator(sibling.reverseIterator().next().getField(keyField), idx);
+			}
+		}
 		entry.setKey(idx);
 		parent.updateEntry(entry);
 	}
@@ -748,22 +800,26 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.isCompact() ? leftSibling.canMergeWith(page, leftEntry.getKey()) 
+					: leftSibling.getNumEmptySlots() >= maxEmptySlots) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
-			else {
+			else if(!page.isCompact() || leftSibling.getUsedBytes() > page.getUsedBytes()) {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				splitIfOverflowing(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.isCompact() ? page.canMergeWith(rightSibling, rightEntry.getKey()) 
+					: rightSibling.getNumEmptySlots() >= maxEmptySlots) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
-			else {
+			else if(!page.isCompact() || rightSibling.getUsedBytes() > page.getUsedBytes()) {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				splitIfOverflowing(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -801,7 +857,7 @@ public class BTreeFile implements DbFile {
 		BTreeEntry middle = new BTreeEntry(parentEntry.getKey(), move.getRightChild(), page.iterator().next().getLeftChild());
 		page.insertEntry(middle);
 
-		for (int i = 0; i < n_entries - 1; ++i) {
+		for (int i = 0; moreToMove(leftSibling, page, i, n_entries - 1, leftSibling.getNumEntries() - 2); ++i) {
 			if (!it.hasNext()) {
 				throw new DbException("No more entries to steal.");
 			}
@@ -849,7 +905,7 @@ public class BTreeFile implements DbFile {
 		BTreeEntry middle = new BTreeEntry(parentEntry.getKey(), page.reverseIterator().next().getRightChild(), move.getLeftChild());
 		page.insertEntry(middle);
 
-		for (int i = 0; i < n_entries - 1; ++i) {
+		for (int i = 0; moreToMove(rightSibling, page, i, n_entries - 1, rightSibling.getNumEntries() - 2); ++i) {
 			if (!it.hasNext()) {
 				throw new DbException("No more entries to steal.");
 			}
@@ -997,7 +1053,7 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
 		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
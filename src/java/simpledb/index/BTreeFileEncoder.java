@@ -219,9 +219,36 @@ public class BTreeFileEncoder {
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		bulkLoad(bf, tuples, npagebytes, typeAr, keyField);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Write a list of tuples, already sorted on the key field, directly to an empty 
+	 * BTreeFile, bypassing the BufferPool. The BTreeFile must already be registered 
+	 * in the catalog, since its pages look up their TupleDesc there.
+	 * 
+	 * @param bf - the empty BTreeFile to fill
+	 * @param tuples - the tuples to add, sorted on keyField
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree is keyed on
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	public static void bulkLoad(BTreeFile bf, List<Tuple> tuples, int npagebytes,
+			Type[] typeAr, int keyField) throws IOException, DbException {
+		int numFields = typeAr.length;
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
+		if (keyType == Type.STRING_TYPE) {
+			bulkLoadCompact(bf, tuples, keyField);
+			return;
+		}
+
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
@@ -331,9 +358,124 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
+	}
 
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
+	/**
+	 * Bulk load a tree whose pages use the compact format (see {@link BTreePage#isCompact}).
+	 * Since compact pages hold a varying number of tuples, the pages are filled in memory
+	 * until they have no room for another tuple or entry of maximum size, and then written 
+	 * out in order. Separators between pages are truncated to their shortest prefix.
+	 * 
+	 * @param bf - the empty BTreeFile to fill
+	 * @param tuples - the tuples to add, sorted on keyField
+	 * @param keyField - the field of the tuples the B+ tree is keyed on
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	private static void bulkLoadCompact(BTreeFile bf, List<Tuple> tuples, int keyField)
+			throws IOException, DbException {
+		int tableid = bf.getId();
+		int pageNo = 1;
+		List<BTreePage> pages = new ArrayList<>();
+
+		// fill the leaf pages
+		List<BTreePage> children = new ArrayList<>();
+		BTreeLeafPage leaf = null;
+		for (Tuple tup : tuples) {
+			if (leaf == null || leaf.getNumEmptySlots() == 0) {
+				leaf = new BTreeLeafPage(new BTreePageId(tableid, pageNo++, BTreePageId.LEAF),
+						BTreeLeafPage.createEmptyPageData(), keyField);
+				children.add(leaf);
+			}
+			leaf.insertTuple(tup);
+		}
+		if (children.isEmpty()) {
+			children.add(new BTreeLeafPage(new BTreePageId(tableid, pageNo++, BTreePageId.LEAF),
+					BTreeLeafPage.createEmptyPageData(), keyField));
+		}
+
+		// if the last leaf is less than half full, even it out with the one before it
+		if (children.size() > 1) {
+			BTreeLeafPage last = (BTreeLeafPage) children.get(children.size() - 1);
+			BTreeLeafPage prev = (BTreeLeafPage) children.get(children.size() - 2);
+			if (last.getNumEmptySlots() > last.getMaxTuples() - last.getMaxTuples() / 2) {
+				while (prev.getNumTuples() > 1 && prev.getUsedBytes() > last.getUsedBytes()) {
+					Tuple t = prev.reverseIterator().next();
+					prev.deleteTuple(t);
+					last.insertTuple(t);
+				}
+			}
+		}
+
+		// link the leaves and find the separators between them
+		List<Field> keys = new ArrayList<>();
+		for (int i = 0; i < children.size(); i++) {
+			BTreeLeafPage page = (BTreeLeafPage) children.get(i);
+			if (i > 0) {
+				BTreeLeafPage left = (BTreeLeafPage) children.get(i - 1);
+				page.setLeftSiblingId(left.getId());
+				left.setRightSiblingId(page.getId());
+				keys.add(BTreePage.separator(left.reverseIterator().next().getField(keyField),
+						page.iterator().next().getField(keyField)));
+			}
+		}
+		pages.addAll(children);
+
+		// build the internal levels bottom-up until a single root remains
+		while (children.size() > 1) {
+			// find the first child of each internal page on this level
+			List<Integer> firsts = new ArrayList<>();
+			firsts.add(0);
+			BTreeInternalPage scratch = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+					BTreeInternalPage.createEmptyPageData(), keyField);
+			for (int i = 1; i < children.size(); i++) {
+				if (scratch.getNumEntries() > 0 && scratch.getNumEmptySlots() == 0) {
+					firsts.add(i);
+					scratch = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+							BTreeInternalPage.createEmptyPageData(), keyField);
+				}
+				else {
+					scratch.insertEntry(new BTreeEntry(keys.get(i - 1), children.get(i - 1).getId(),
+							children.get(i).getId()));
+				}
+			}
+			// every internal page needs at least one entry
+			if (firsts.size() > 1 && firsts.get(firsts.size() - 1) == children.size() - 1) {
+				firsts.set(firsts.size() - 1, children.size() - 2);
+			}
+			firsts.add(children.size());
+
+			List<BTreePage> parents = new ArrayList<>();
+			List<Field> parentKeys = new ArrayList<>();
+			for (int p = 0; p < firsts.size() - 1; p++) {
+				int first = firsts.get(p);
+				BTreeInternalPage parent = new BTreeInternalPage(new BTreePageId(tableid, pageNo++, BTreePageId.INTERNAL),
+						BTreeInternalPage.createEmptyPageData(), keyField);
+				for (int i = first + 1; i < firsts.get(p + 1); i++) {
+					parent.insertEntry(new BTreeEntry(keys.get(i - 1), children.get(i - 1).getId(),
+							children.get(i).getId()));
+				}
+				for (int i = first; i < firsts.get(p + 1); i++) {
+					children.get(i).setParentId(parent.getId());
+				}
+				if (p > 0) {
+					// the separator between two internal pages is pushed up
+					parentKeys.add(keys.get(first - 1));
+				}
+				parents.add(parent);
+			}
+			pages.addAll(parents);
+			children = parents;
+			keys = parentKeys;
+		}
+
+		BTreePage root = children.get(0);
+		root.setParentId(BTreeRootPtrPage.getId(tableid));
+		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), 
+				convertToRootPtrPage(root.getId().getPageNumber(), root.getId().pgcateg(), 0)));
+		for (BTreePage page : pages) {
+			bf.writePage(page);
+		}
 	}
 
 	/**
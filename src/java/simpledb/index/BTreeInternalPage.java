@@ -2,6 +2,7 @@ package simpledb.index;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
@@ -13,6 +14,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -23,6 +25,11 @@ import simpledb.storage.RecordId;
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	// compact pages: parent pointer, child page category and number of used slots
+	private final static int COMPACT_HEADER_SIZE = INDEX_SIZE + 1 + 2;
+	// compact pages: slot number and child pointer of each slot
+	private final static int COMPACT_SLOT_SIZE = 2 + INDEX_SIZE;
+
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
@@ -43,7 +50,8 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        // compact pages cannot always be rebalanced to half full, since their keys vary in size
+        assert !checkOccupancy || depth <= 0 || compact || (getNumEntries() >= getMaxEntries() / 2);
 	}
 	
 	/**
@@ -62,6 +70,11 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Compact pages (see {@link BTreePage#isCompact}) instead store the number of
+	 * used slots after the child page category, followed by the used slots in order.
+	 * Each slot is stored as its slot number and child pointer, and every slot but 
+	 * the first also stores the length of its key followed by the key itself.
+	 * 
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -72,7 +85,9 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		// every compact entry takes at least its slot and a key length byte
+		this.numSlots = compact ? (BufferPool.getPageSize() - COMPACT_HEADER_SIZE - COMPACT_SLOT_SIZE) / 
+				(COMPACT_SLOT_SIZE + 1) + 1 : getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -88,6 +103,18 @@ public class BTreeInternalPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
+		if (compact) {
+			keys = new Field[numSlots];
+			children = new int[numSlots];
+			try{
+				readCompactEntries(dis);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
@@ -118,8 +145,13 @@ public class BTreeInternalPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * For compact pages, this is the number of entries with keys of maximum length
+	 * that fit on the page.
  	 */
 	public int getMaxEntries() {        
+		if (compact) {
+			return (BufferPool.getPageSize() - COMPACT_HEADER_SIZE - COMPACT_SLOT_SIZE) / getMaxCompactEntrySize();
+		}
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
@@ -133,13 +165,110 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = numSlots;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
 		return hb;
 	}
 
+	/**
+	 * Returns the number of bytes an entry with a key of maximum length takes on
+	 * a compact page
+	 */
+	private int getMaxCompactEntrySize() {
+		return COMPACT_SLOT_SIZE + 1 + Type.STRING_LEN;
+	}
+
+	/**
+	 * Returns the key of an entry stored on a compact page
+	 */
+	private static String compactKey(Field f) {
+		String k = ((StringField) f).getValue();
+		return k.length() > Type.STRING_LEN ? k.substring(0, Type.STRING_LEN) : k;
+	}
+
+	/**
+	 * Read the slots of a compact page, which follow the child page category.
+	 */
+	private void readCompactEntries(DataInputStream dis) throws NoSuchElementException {
+		try {
+			int n = dis.readUnsignedShort();
+			for (int i=0; i<n; i++) {
+				int slotId = dis.readUnsignedShort();
+				children[slotId] = dis.readInt();
+				if (slotId > 0) {
+					byte[] key = new byte[dis.readUnsignedByte()];
+					dis.readFully(key);
+					keys[slotId] = new StringField(new String(key, StandardCharsets.ISO_8859_1), Type.STRING_LEN);
+				}
+				markSlotUsed(slotId, true);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+
+	/**
+	 * Write the used slots of a compact page.
+	 */
+	private void writeCompactEntries(DataOutputStream dos) throws IOException {
+		int n = 0;
+		for (int i=0; i<numSlots; i++)
+			if (isSlotUsed(i))
+				n++;
+		dos.writeShort(n);
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			dos.writeShort(i);
+			dos.writeInt(children[i]);
+			if (i > 0) {
+				String key = compactKey(keys[i]);
+				dos.writeByte(key.length());
+				dos.writeBytes(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes this page occupies when serialized. A compact page
+	 * may briefly hold more than a page worth of entries when one of its keys is
+	 * replaced by a longer one; BTreeFile splits such pages before the operation ends.
+	 */
+	public int getUsedBytes() {
+		if (!compact)
+			return BufferPool.getPageSize();
+		int used = COMPACT_HEADER_SIZE;
+		if (isSlotUsed(0))
+			used += COMPACT_SLOT_SIZE;
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				used += COMPACT_SLOT_SIZE + 1 + compactKey(keys[i]).length();
+		return used;
+	}
+
+	/**
+	 * Returns whether the entries of this page and of its right sibling fit on a single 
+	 * page, together with the parent key that is pulled down between them
+	 */
+	boolean canMergeWith(BTreeInternalPage right, Field key) {
+		if (!compact)
+			return getNumEntries() + right.getNumEntries() + 1 <= getMaxEntries();
+		// the first child of the right page gains the pulled down key
+		return getNumEntries() + right.getNumEntries() + 1 < numSlots &&
+				getUsedBytes() + right.getUsedBytes() - COMPACT_HEADER_SIZE + 1 + 
+				compactKey(key).length() <= BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns the number of slots on this page, used or not
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
@@ -256,6 +385,17 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if (compact) {
+			try {
+				writeCompactEntries(dos);
+				dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the header of the page
         for (byte b : header) {
             try {
@@ -460,8 +600,16 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if(compact) {
+			int needed = COMPACT_SLOT_SIZE + 1 + compactKey(e.getKey()).length();
+			if(!isSlotUsed(0))
+				needed += COMPACT_SLOT_SIZE;
+			if(getUsedBytes() + needed > BufferPool.getPageSize())
+				throw new DbException("called insertEntry on page with no room for the entry.");
+		}
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -566,21 +714,25 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
-	}
-	
-	/**
-	 * Returns the number of empty slots on this page.
-	 */
-	public int getNumEmptySlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
 		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
+			if(isSlotUsed(i))
 				cnt++;
 		return cnt;
 	}
+	
+	/**
+	 * Returns the number of empty slots on this page. For compact pages, this is
+	 * the number of entries with keys of maximum length that still fit.
+	 */
+	public int getNumEmptySlots() {
+		int cnt = numSlots - 1 - getNumEntries();
+		if (compact)
+			cnt = Math.max(0, Math.min(cnt, (BufferPool.getPageSize() - getUsedBytes()) / getMaxCompactEntrySize()));
+		return cnt;
+	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
@@ -745,7 +897,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
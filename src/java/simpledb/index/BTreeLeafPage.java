@@ -10,6 +10,7 @@ import simpledb.storage.*;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -20,6 +21,11 @@ import java.io.*;
  *
  */
 public class BTreeLeafPage extends BTreePage {
+	// compact pages: parent and sibling pointers, then the number of tuples
+	private final static int COMPACT_HEADER_SIZE = 3 * INDEX_SIZE + 2;
+	// compact pages: slot number, shared prefix length and suffix length of each tuple
+	private final static int COMPACT_TUPLE_OVERHEAD = 4;
+
 	private final byte[] header;
 	private final Tuple[] tuples;
 	private final int numSlots;
@@ -41,7 +47,8 @@ public class BTreeLeafPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkoccupancy || depth <= 0 || (getNumTuples() >= getMaxTuples() / 2);
+        // compact pages cannot always be rebalanced to half full, since their tuples vary in size
+        assert !checkoccupancy || depth <= 0 || compact || (getNumTuples() >= getMaxTuples() / 2);
 	}
 
 	/**
@@ -57,6 +64,11 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * Compact pages (see {@link BTreePage#isCompact}) instead store the number of
+	 * tuples after the pointers, followed by the tuples in key order. Each tuple is
+	 * stored as its slot number, the length of the prefix its key shares with the
+	 * previous key on the page, the rest of the key, and then its other fields.
+	 * 
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -67,7 +79,9 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxTuples();
+		// every compact tuple takes at least its overhead and its non-key fields
+		this.numSlots = compact ? (BufferPool.getPageSize() - COMPACT_HEADER_SIZE) / 
+				(COMPACT_TUPLE_OVERHEAD + getNonKeySize()) : getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent and sibling pointers
@@ -94,10 +108,20 @@ public class BTreeLeafPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
+		tuples = new Tuple[numSlots];
+		if (compact) {
+			try{
+				readCompactTuples(dis);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
-		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
 			for (int i=0; i<tuples.length; i++)
@@ -111,9 +135,13 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/** 
-	 * Retrieve the maximum number of tuples this page can hold.
+	 * Retrieve the maximum number of tuples this page can hold. For compact pages,
+	 * this is the number of tuples with keys of maximum length that fit on the page.
 	 */
 	public int getMaxTuples() {        
+		if (compact) {
+			return (BufferPool.getPageSize() - COMPACT_HEADER_SIZE) / getMaxCompactTupleSize();
+		}
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8;
@@ -124,13 +152,128 @@ public class BTreeLeafPage extends BTreePage {
 	 * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
 	 */
 	private int getHeaderSize() {        
-		int tuplesPerPage = getMaxTuples();
+		int tuplesPerPage = numSlots;
 		int hb = (tuplesPerPage / 8);
 		if (hb * 8 < tuplesPerPage) hb++;
 
 		return hb;
 	}
 
+	/**
+	 * Returns the number of bytes taken by the fields of a tuple other than the key
+	 */
+	private int getNonKeySize() {
+		return td.getSize() - td.getFieldType(keyField).getLen();
+	}
+
+	/**
+	 * Returns the number of bytes a tuple takes on a compact page if none of its
+	 * key can be shared with the previous tuple
+	 */
+	private int getMaxCompactTupleSize() {
+		return COMPACT_TUPLE_OVERHEAD + Type.STRING_LEN + getNonKeySize();
+	}
+
+	/**
+	 * Returns the key of a tuple stored on a compact page
+	 */
+	private String compactKey(Tuple t) {
+		String k = ((StringField) t.getField(keyField)).getValue();
+		return k.length() > Type.STRING_LEN ? k.substring(0, Type.STRING_LEN) : k;
+	}
+
+	/**
+	 * Read the tuples of a compact page, which follow the sibling pointers.
+	 */
+	private void readCompactTuples(DataInputStream dis) throws NoSuchElementException {
+		try {
+			int n = dis.readUnsignedShort();
+			String prev = "";
+			for (int i=0; i<n; i++) {
+				int slotId = dis.readUnsignedShort();
+				int prefix = dis.readUnsignedByte();
+				byte[] suffix = new byte[dis.readUnsignedByte()];
+				dis.readFully(suffix);
+				String key = prev.substring(0, prefix) + new String(suffix, StandardCharsets.ISO_8859_1);
+
+				Tuple t = new Tuple(td);
+				t.setRecordId(new RecordId(pid, slotId));
+				for (int j=0; j<td.numFields(); j++) {
+					if (j == keyField)
+						t.setField(j, new StringField(key, Type.STRING_LEN));
+					else
+						t.setField(j, td.getFieldType(j).parse(dis));
+				}
+				tuples[slotId] = t;
+				markSlotUsed(slotId, true);
+				prev = key;
+			}
+		} catch (IOException | java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+
+	/**
+	 * Write the tuples of a compact page, each key prefix-compressed against the
+	 * key before it.
+	 */
+	private void writeCompactTuples(DataOutputStream dos) throws IOException {
+		dos.writeShort(getNumTuples());
+		String prev = "";
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			String key = compactKey(tuples[i]);
+			int prefix = commonPrefix(prev, key);
+			dos.writeShort(i);
+			dos.writeByte(prefix);
+			dos.writeByte(key.length() - prefix);
+			dos.writeBytes(key.substring(prefix));
+			for (int j=0; j<td.numFields(); j++) {
+				if (j != keyField)
+					tuples[i].getField(j).serialize(dos);
+			}
+			prev = key;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes this page occupies when serialized.
+	 */
+	public int getUsedBytes() {
+		if (!compact)
+			return BufferPool.getPageSize();
+		int used = COMPACT_HEADER_SIZE;
+		String prev = "";
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i)) {
+				String key = compactKey(tuples[i]);
+				used += COMPACT_TUPLE_OVERHEAD + key.length() - commonPrefix(prev, key) + getNonKeySize();
+				prev = key;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns whether the tuples of this page and of its right sibling fit on a single page
+	 */
+	boolean canMergeWith(BTreeLeafPage right) {
+		if (!compact)
+			return getNumTuples() + right.getNumTuples() <= getMaxTuples();
+		// the merged page has a single header, and merging never lengthens a key suffix
+		return getNumTuples() + right.getNumTuples() <= numSlots &&
+				getUsedBytes() + right.getUsedBytes() - COMPACT_HEADER_SIZE <= BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns the number of slots on this page, used or not
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
@@ -226,6 +369,17 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if (compact) {
+			try {
+				writeCompactTuples(dos);
+				dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the header of the page
         for (byte b : header) {
             try {
@@ -324,6 +478,9 @@ public class BTreeLeafPage extends BTreePage {
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
+		if (compact && getUsedBytes() + COMPACT_TUPLE_OVERHEAD + compactKey(t).length() + getNonKeySize()
+				> BufferPool.getPageSize())
+			throw new DbException("called addTuple on page with no room for the tuple.");
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
@@ -441,17 +598,21 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		int cnt = 0;
+		for(int i=0; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. For compact pages, this is
+	 * the number of tuples with keys of maximum length that still fit.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
+		int cnt = numSlots - getNumTuples();
+		if (compact)
+			cnt = Math.min(cnt, (BufferPool.getPageSize() - getUsedBytes()) / getMaxCompactTupleSize());
 		return cnt;
 	}
 
@@ -578,7 +739,7 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 
 	public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
 		this.p = p;
-		this.curTuple = p.getMaxTuples() - 1;
+		this.curTuple = p.getNumSlots() - 1;
 	}
 
 	public boolean hasNext() {
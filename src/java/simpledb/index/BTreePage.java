@@ -5,7 +5,9 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.StringField;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
@@ -27,6 +29,8 @@ public abstract class BTreePage implements Page {
 	protected final TupleDesc td;
 	protected final int keyField;
 
+	protected final boolean compact;
+
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
 	protected final Byte oldDataLock= (byte) 0;
@@ -58,6 +62,55 @@ public abstract class BTreePage implements Page {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.compact = td.getFieldType(key) == Type.STRING_TYPE;
+	}
+
+	/**
+	 * Whether this page stores its keys in the compact, variable-length format.
+	 * Pages of trees keyed on string fields use this format, since fixed-length
+	 * string slots are mostly padding: leaf pages prefix-compress each key against
+	 * the previous key on the page, and internal pages store their (suffix-truncated)
+	 * separator keys at their actual length.
+	 * <p>
+	 * Compact pages fill up by bytes rather than by slots. Their getNumEmptySlots()
+	 * reports how many maximum-size tuples or entries still fit, so that the occupancy
+	 * rules in BTreeFile apply to both formats unchanged.
+	 */
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Returns the length of the longest common prefix of two strings
+	 */
+	static int commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Returns the shortest separator key for two adjacent pages of a tree keyed on
+	 * a string field: the shortest prefix of the smallest key on the right page that
+	 * is still greater than the largest key on the left page. Any key between the two
+	 * routes searches correctly, so internal pages only need to store this prefix.
+	 * Keys of other types are returned unchanged.
+	 * 
+	 * @param left - the largest key on the left page
+	 * @param right - the smallest key on the right page
+	 * @return a key k with left < k <= right, or right if the two keys are equal
+	 */
+	static Field separator(Field left, Field right) {
+		if (!(left instanceof StringField) || !(right instanceof StringField))
+			return right;
+		String l = ((StringField) left).getValue();
+		String r = ((StringField) right).getValue();
+		int len = commonPrefix(l, r) + 1;
+		if (len >= r.length() || r.substring(0, len).compareTo(l) <= 0)
+			return right;
+		return new StringField(r.substring(0, len), Type.STRING_LEN);
 	}
 
 	/**
@@ -138,6 +191,12 @@ public abstract class BTreePage implements Page {
 	 * Returns the number of empty slots on this page.
 	 */
 	public abstract int getNumEmptySlots();
+
+	/**
+	 * Returns the number of bytes this page occupies when serialized. For pages
+	 * which are not compact this is always the page size.
+	 */
+	public abstract int getUsedBytes();
 	
 	/**
 	 * Returns true if associated slot on this page is filled.
@@ -3,8 +3,8 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
 import simpledb.execution.IndexPredicate;
-import simpledb.execution.OpIterator;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -15,9 +15,10 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate. As an IndexOpIterator, it can also be reopened
+ * with a new predicate, which is how an index nested-loop join probes it.
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
 	private static final long serialVersionUID = 1L;
 
@@ -26,6 +27,7 @@ public class BTreeScan implements OpIterator {
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
+	private int tableid;
 	private String tablename;
 	private String alias;
 
@@ -86,6 +88,7 @@ public class BTreeScan implements OpIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
@@ -155,4 +158,21 @@ public class BTreeScan implements OpIterator {
 		close();
 		open();
 	}
+
+	/**
+	 * Open the scan such that it returns, in sorted order, the tuples whose
+	 * key satisfies the specified predicate.
+	 */
+	public void open(IndexPredicate ipred) throws NoSuchElementException,
+	DbException, TransactionAbortedException {
+		this.ipred = ipred;
+		this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+		open();
+	}
+
+	public void rewind(IndexPredicate ipred) throws DbException,
+	TransactionAbortedException {
+		close();
+		open(ipred);
+	}
 }
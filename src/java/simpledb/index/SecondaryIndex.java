@@ -0,0 +1,219 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SecondaryIndex is a B+ tree index over one field of a table that is stored in
+ * some other DbFile (usually a HeapFile). Each entry of the index is a tuple of
+ * the form (key, pageNo, tupleNo), keyed on the first field, so that the entries
+ * for a key can be turned back into the RecordIds of the base tuples.
+ * <p>
+ * The index is kept up to date by BufferPool.insertTuple and BufferPool.deleteTuple,
+ * and is registered with the Catalog via Catalog.addIndex.
+ *
+ * @see simpledb.common.Catalog#addIndex
+ * @see simpledb.execution.IndexScan
+ */
+public class SecondaryIndex {
+
+	/** The field of an index entry holding the key */
+	public static final int KEY_FIELD = 0;
+	/** The field of an index entry holding the page number of the base tuple */
+	public static final int PAGE_FIELD = 1;
+	/** The field of an index entry holding the slot of the base tuple */
+	public static final int SLOT_FIELD = 2;
+
+	private final String name;
+	private final int tableid;
+	private final int field;
+	private final BTreeFile file;
+
+	/**
+	 * Constructs a secondary index over a field of a table. The index is not
+	 * usable until it has been registered with the Catalog.
+	 *
+	 * @param name - the name of the index
+	 * @param tableid - the id of the indexed table
+	 * @param field - the index of the indexed field in the table's TupleDesc
+	 * @param f - the file that stores the B+ tree on disk
+	 */
+	public SecondaryIndex(String name, int tableid, int field, File f) {
+		this.name = name;
+		this.tableid = tableid;
+		this.field = field;
+		Type keyType = Database.getCatalog().getTupleDesc(tableid).getFieldType(field);
+		this.file = new BTreeFile(f, KEY_FIELD, entryTupleDesc(keyType));
+	}
+
+	/**
+	 * Create an index over the named field of a table, register it with the
+	 * Catalog, and build it from the current contents of the table in its own
+	 * transaction. If f already holds an index it is opened rather than rebuilt.
+	 *
+	 * @param tableid - the id of the table to index
+	 * @param fieldName - the name of the field to index
+	 * @param f - the file that stores the B+ tree on disk
+	 * @return the new index
+	 * @throws NoSuchElementException if the table has no such field
+	 */
+	public static SecondaryIndex create(int tableid, String fieldName, File f)
+			throws DbException, IOException, TransactionAbortedException {
+		int field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(fieldName);
+		SecondaryIndex index = new SecondaryIndex(fieldName, tableid, field, f);
+		Database.getCatalog().addIndex(index);
+		TransactionId tid = new TransactionId();
+		try {
+			index.build(tid);
+		} finally {
+			Database.getBufferPool().transactionComplete(tid);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the TupleDesc of the entries of an index with keys of the given type
+	 */
+	public static TupleDesc entryTupleDesc(Type keyType) {
+		return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { "key", "pageno", "tupleno" });
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the index of the indexed field in the table's TupleDesc
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the BTreeFile storing the index entries
+	 */
+	public BTreeFile getFile() {
+		return file;
+	}
+
+	/**
+	 * Fill an empty index with one entry for every tuple currently in the
+	 * indexed table. The entries are sorted in memory and written out bottom-up,
+	 * so this is much cheaper than inserting them one at a time.
+	 *
+	 * @param tid - the transaction reading the indexed table
+	 */
+	public void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		if (file.getFile().length() > 0)
+			return;
+		List<Tuple> entries = new ArrayList<>();
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			entries.add(entryFor(it.next()));
+		}
+		it.close();
+		entries.sort(new BTreeFileEncoder.TupleComparator(KEY_FIELD));
+		TupleDesc td = file.getTupleDesc();
+		Type[] typeAr = new Type[td.numFields()];
+		for (int i = 0; i < typeAr.length; i++) {
+			typeAr[i] = td.getFieldType(i);
+		}
+		BTreeFileEncoder.bulkLoad(file, entries, BufferPool.getPageSize(), typeAr, KEY_FIELD);
+	}
+
+	/**
+	 * Add the entry for a tuple that has just been inserted into the indexed table.
+	 *
+	 * @param tid - the transaction inserting the tuple
+	 * @param t - the tuple, with its RecordId set
+	 * @return the index pages dirtied by the operation
+	 */
+	public List<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return file.insertTuple(tid, entryFor(t));
+	}
+
+	/**
+	 * Remove the entry for a tuple that is being deleted from the indexed table.
+	 *
+	 * @param tid - the transaction deleting the tuple
+	 * @param t - the tuple, with its RecordId set
+	 * @return the index pages dirtied by the operation
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public List<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(field)));
+		it.open();
+		try {
+			while (it.hasNext()) {
+				Tuple entry = it.next();
+				if (rid.equals(recordIdOf(entry))) {
+					return file.deleteTuple(tid, entry);
+				}
+			}
+		} finally {
+			it.close();
+		}
+		throw new DbException("no entry in index " + name + " for tuple " + rid);
+	}
+
+	/**
+	 * @return an iterator over the index entries matching ipred, in key order
+	 */
+	public DbFileIterator entryIterator(TransactionId tid, IndexPredicate ipred) {
+		return file.indexIterator(tid, ipred);
+	}
+
+	/**
+	 * @return the RecordId of the base tuple an index entry refers to
+	 */
+	public RecordId recordIdOf(Tuple entry) {
+		int pgNo = ((IntField) entry.getField(PAGE_FIELD)).getValue();
+		int tupleNo = ((IntField) entry.getField(SLOT_FIELD)).getValue();
+		return new RecordId(new HeapPageId(tableid, pgNo), tupleNo);
+	}
+
+	/**
+	 * Fetch the base tuple an index entry refers to.
+	 *
+	 * @param tid - the transaction reading the tuple
+	 * @param entry - an index entry
+	 * @return the tuple, or null if its slot is no longer in use
+	 */
+	public Tuple fetchTuple(TransactionId tid, Tuple entry)
+			throws DbException, TransactionAbortedException {
+		RecordId rid = recordIdOf(entry);
+		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+		return page.getTuple(rid.getTupleNumber());
+	}
+
+	private Tuple entryFor(Tuple t) {
+		Tuple entry = new Tuple(file.getTupleDesc());
+		entry.setField(KEY_FIELD, t.getField(field));
+		entry.setField(PAGE_FIELD, new IntField(t.getRecordId().getPageId().getPageNumber()));
+		entry.setField(SLOT_FIELD, new IntField(t.getRecordId().getTupleNumber()));
+		return entry;
+	}
+}
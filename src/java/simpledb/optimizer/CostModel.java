@@ -0,0 +1,252 @@
+package simpledb.optimizer;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * The costs the optimizer weighs plans by, in units of the cost of reading a
+ * page sequentially, which is TableStats.IOCOSTPERPAGE: the cost of reading a
+ * page at a random position of a file, as a B+ tree probe does, and the CPU
+ * cost of processing a tuple (comparing, hashing or moving it).
+ * <p>
+ * The default model charges a random read four sequential ones and a tuple
+ * 1. A calibrated model is measured by a micro-benchmark run on the host,
+ * which reads the pages of a scratch file in order and in random order, and
+ * hashes and compares tuples; it is saved next to the catalog, like table
+ * statistics, so that it is only measured once.
+ */
+public class CostModel {
+
+    /** The cost of reading a page sequentially */
+    public static final double SEQUENTIAL_PAGE_COST = TableStats.IOCOSTPERPAGE;
+
+    /** The model used until one is calibrated or loaded */
+    public static final CostModel DEFAULT = new CostModel(4 * SEQUENTIAL_PAGE_COST, 1);
+
+    /** The number of pages of the scratch file read by the micro-benchmark */
+    static final int CALIBRATION_PAGES = 2048;
+
+    /** The number of tuples hashed and compared by the micro-benchmark */
+    static final int CALIBRATION_TUPLES = 50000;
+
+    /** Each measurement is repeated this many times, and the fastest kept */
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    private static volatile CostModel current = DEFAULT;
+
+    private final double randomPageCost;
+    private final double tupleCost;
+
+    /**
+     * @param randomPageCost
+     *            the cost of reading a page at a random position
+     * @param tupleCost
+     *            the cost of processing a tuple
+     */
+    public CostModel(double randomPageCost, double tupleCost) {
+        if (!(randomPageCost > 0) || !(tupleCost > 0))
+            throw new IllegalArgumentException("costs must be positive");
+        this.randomPageCost = randomPageCost;
+        this.tupleCost = tupleCost;
+    }
+
+    /** @return the model the optimizer currently uses */
+    public static CostModel get() {
+        return current;
+    }
+
+    /** Set the model the optimizer uses */
+    public static void set(CostModel model) {
+        current = model;
+    }
+
+    public double getRandomPageCost() {
+        return randomPageCost;
+    }
+
+    public double getTupleCost() {
+        return tupleCost;
+    }
+
+    /**
+     * Use the model saved in costFile, or calibrate one, and save it there,
+     * if there is none or recalibrate is set.
+     *
+     * @param costFile
+     *            the file the model is saved in, or null not to save it
+     * @param recalibrate
+     *            whether to calibrate a model even if one is saved
+     */
+    public static void load(File costFile, boolean recalibrate) {
+        if (costFile != null && costFile.exists() && !recalibrate) {
+            try {
+                set(read(costFile));
+                return;
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable cost model in " + costFile + ": " + e);
+            }
+        }
+        System.out.println("Calibrating cost model.");
+        CostModel model;
+        try {
+            model = calibrate();
+        } catch (IOException e) {
+            System.out.println("Cannot calibrate cost model, using the default: " + e);
+            return;
+        }
+        set(model);
+        System.out.println("Done (" + model + ").");
+        if (costFile != null) {
+            try {
+                model.write(costFile);
+            } catch (IOException e) {
+                System.out.println("Cannot save cost model to " + costFile + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * @return the file the cost model of a catalog is saved in: the catalog
+     *         file, with the extension .cost
+     */
+    public static File costFileFor(String catalogFile) {
+        File catalog = new File(catalogFile).getAbsoluteFile();
+        String name = catalog.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(catalog.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".cost");
+    }
+
+    /** Save this model to a file */
+    public void write(File costFile) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("randomPageCost", Double.toString(randomPageCost));
+        props.setProperty("tupleCost", Double.toString(tupleCost));
+        try (OutputStream out = new FileOutputStream(costFile)) {
+            props.store(out, "SimpleDB cost model, in units of a sequential page read of "
+                    + SEQUENTIAL_PAGE_COST);
+        }
+    }
+
+    /**
+     * @return the model saved in a file by {@link #write}
+     * @throws IOException if the file cannot be read, or does not hold a
+     *         model
+     */
+    public static CostModel read(File costFile) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(costFile)) {
+            props.load(in);
+        }
+        try {
+            return new CostModel(Double.parseDouble(props.getProperty("randomPageCost")),
+                    Double.parseDouble(props.getProperty("tupleCost")));
+        } catch (NullPointerException | IllegalArgumentException e) {
+            throw new IOException("not a cost model file", e);
+        }
+    }
+
+    /**
+     * Measure a model on this host: the time to read a page at a random
+     * position and to process a tuple, relative to the time to read a page
+     * sequentially. A random read is never taken to be cheaper than a
+     * sequential one.
+     */
+    public static CostModel calibrate() throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        File scratch = File.createTempFile("calibrate", ".dat");
+        try {
+            byte[] page = new byte[pageSize];
+            Random random = new Random(0);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(scratch))) {
+                for (int i = 0; i < CALIBRATION_PAGES; i++) {
+                    random.nextBytes(page);
+                    out.write(page);
+                }
+            }
+            int[] inOrder = new int[CALIBRATION_PAGES];
+            for (int i = 0; i < inOrder.length; i++)
+                inOrder[i] = i;
+            int[] shuffled = inOrder.clone();
+            for (int i = shuffled.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = t;
+            }
+            double sequential = Double.MAX_VALUE, randomly = Double.MAX_VALUE, tuple = Double.MAX_VALUE;
+            try (RandomAccessFile raf = new RandomAccessFile(scratch, "r")) {
+                readPages(raf, inOrder, page);
+                for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+                    sequential = Math.min(sequential, readPages(raf, inOrder, page));
+                    randomly = Math.min(randomly, readPages(raf, shuffled, page));
+                }
+            }
+            Tuple[] tuples = calibrationTuples(random);
+            processTuples(tuples);
+            for (int round = 0; round < CALIBRATION_ROUNDS; round++)
+                tuple = Math.min(tuple, processTuples(tuples));
+            return new CostModel(SEQUENTIAL_PAGE_COST * Math.max(1, randomly / sequential),
+                    SEQUENTIAL_PAGE_COST * tuple / sequential);
+        } finally {
+            scratch.delete();
+        }
+    }
+
+    /** @return the time taken to read each of the pages, in nanoseconds per page */
+    private static double readPages(RandomAccessFile raf, int[] pages, byte[] page) throws IOException {
+        long start = System.nanoTime();
+        for (int pgNo : pages) {
+            raf.seek((long) pgNo * page.length);
+            raf.readFully(page);
+        }
+        return (double) (System.nanoTime() - start) / pages.length;
+    }
+
+    private static Tuple[] calibrationTuples(Random random) {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+        Tuple[] tuples = new Tuple[CALIBRATION_TUPLES];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(random.nextInt(CALIBRATION_TUPLES)));
+            tuples[i].setField(1, new IntField(i));
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the time taken to hash each tuple on its first field and compare
+     *         it with the tuple it was hashed with, in nanoseconds per tuple
+     */
+    private static double processTuples(Tuple[] tuples) {
+        long start = System.nanoTime();
+        Map<Field, Tuple> table = new HashMap<>();
+        int matches = 0;
+        for (Tuple t : tuples) {
+            Tuple other = table.putIfAbsent(t.getField(0), t);
+            if (other != null && other.getField(0).compare(Predicate.Op.EQUALS, t.getField(0)))
+                matches++;
+        }
+        long elapsed = System.nanoTime() - start;
+        // keep the loop from being optimized away
+        if (matches > tuples.length)
+            throw new IllegalStateException();
+        return (double) elapsed / tuples.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sequential page %.0f, random page %.0f, tuple %.2f",
+                SEQUENTIAL_PAGE_COST, randomPageCost, tupleCost);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+import simpledb.storage.DateField;
+import simpledb.storage.DoubleField;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A class to represent an equi-depth histogram over a single numeric field
+ * whose values do not fit the range of an IntHistogram: LONG and DOUBLE fields,
+ * and DATE fields (as the number of days since 1970-01-01).
+ * <p>
+ * Like IntHistogram, it is built in one pass from a fixed-size random sample
+ * of the values, and needs no range in advance.
+ *
+ * @see IntHistogram
+ */
+public class DoubleHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int buckets;
+    private final ReservoirSampler sampler = new ReservoirSampler(IntHistogram.SAMPLE_SIZE);
+    private final double[] sample = new double[IntHistogram.SAMPLE_SIZE];
+    /** The buckets, rebuilt from the sample when they are needed */
+    private transient EquiDepthBuckets hist;
+    private long population;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The largest number of buckets to split the values into.
+     */
+    public DoubleHistogram(int buckets) {
+        this.buckets = Math.max(1, buckets);
+    }
+
+    /**
+     * Create a new DoubleHistogram. The range of the values is not needed to
+     * build an equi-depth histogram; it is accepted for compatibility.
+     *
+     * @param buckets The largest number of buckets to split the values into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this(buckets);
+    }
+
+    /**
+     * @return the value of the specified numeric field as a double, which is
+     *         what this histogram keeps; dates are their epoch day
+     * @throws IllegalArgumentException if f is not an INT, LONG, DOUBLE or DATE field
+     */
+    public static double toDouble(Field f) {
+        switch (f.getType()) {
+            case INT_TYPE:
+                return ((IntField) f).getValue();
+            case LONG_TYPE:
+                return ((LongField) f).getValue();
+            case DOUBLE_TYPE:
+                return ((DoubleField) f).getValue();
+            case DATE_TYPE:
+                return ((DateField) f).getValue();
+            default:
+                throw new IllegalArgumentException("not a numeric field: " + f.getType());
+        }
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        int slot = sampler.offer();
+        if (slot >= 0)
+            sample[slot] = v;
+        hist = null;
+    }
+
+    /** @see IntHistogram#setPopulation */
+    void setPopulation(long population) {
+        this.population = population;
+        hist = null;
+    }
+
+    /** @return the number of values the estimates are for */
+    private long population() {
+        return Math.max(population, sampler.seen());
+    }
+
+    private EquiDepthBuckets buckets() {
+        if (hist == null) {
+            int n = sampler.size();
+            double[] sorted = Arrays.copyOf(sample, n);
+            Arrays.sort(sorted);
+            hist = new EquiDepthBuckets(sorted, n, population(), buckets);
+        }
+        return hist;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        return buckets().estimateSelectivity(op, v);
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate on a value in
+     *         this histogram
+     */
+    public double avgSelectivity() {
+        return buckets().avgSelectivity();
+    }
+
+    /**
+     * @return the estimated number of distinct values added to this histogram
+     */
+    public double numDistinct() {
+        return buckets().numDistinct();
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "DoubleHistogram(" + sampler.seen() + " values): " + buckets();
+    }
+}
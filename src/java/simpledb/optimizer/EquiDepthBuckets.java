@@ -0,0 +1,209 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.util.Arrays;
+
+/**
+ * The buckets of an equi-depth histogram over numeric values, built from a
+ * sorted sample of them: each bucket holds about the same number of values
+ * of the sample, so narrow ranges of frequent values get buckets of their
+ * own, rather than sharing one with wide ranges of rare ones. The values of
+ * the sample that are equal always go to the same bucket; a value frequent
+ * enough to fill a bucket has one to itself, and its frequency is known
+ * exactly.
+ * <p>
+ * Each bucket keeps its lowest and highest value, the fraction of all the
+ * values in it, and an estimate of its number of distinct values. Within a
+ * bucket, values are assumed to be spread evenly between its bounds, which
+ * are themselves values.
+ * <p>
+ * The number of distinct values is estimated from the frequencies of the
+ * values in the sample, with the bias-corrected Chao1 estimator: the values
+ * seen in the sample, plus f1 (f1 - 1) / (2 (f2 + 1)) unseen ones, where f1
+ * and f2 are the numbers of values seen once and twice. The more values are
+ * seen only once, the more values the sample is likely to have missed. When
+ * the sample holds all the values, the estimate is exact.
+ */
+final class EquiDepthBuckets {
+
+    private final double[] lo;
+    private final double[] hi;
+    /** The fraction of all values in each bucket, and in the buckets before it */
+    private final double[] frac;
+    private final double[] before;
+    /** The estimated number of distinct values in each bucket */
+    private final double[] distinct;
+    private final double numDistinct;
+
+    /**
+     * @param sample  the sampled values, sorted; only the first n are used
+     * @param n       the number of sampled values
+     * @param total   the number of values the sample was taken from
+     * @param buckets the largest number of buckets to use
+     */
+    EquiDepthBuckets(double[] sample, int n, long total, int buckets) {
+        double target = Math.max(1.0, (double) n / Math.max(1, buckets));
+
+        // the boundaries of the runs of equal values, and the frequencies of
+        // the frequencies
+        int runs = 0;
+        int once = 0;
+        int twice = 0;
+        for (int i = 0; i < n; ) {
+            int j = i + 1;
+            while (j < n && sample[j] == sample[i])
+                j++;
+            runs++;
+            if (j - i == 1)
+                once++;
+            else if (j - i == 2)
+                twice++;
+            i = j;
+        }
+        if (n == 0 || n >= total)
+            numDistinct = runs;
+        else
+            numDistinct = Math.min(total - (n - runs),
+                    runs + (double) once * (once - 1) / (2.0 * (twice + 1)));
+        double scale = runs == 0 ? 1.0 : numDistinct / runs;
+
+        double[] lo = new double[Math.min(runs, buckets + 1)];
+        double[] hi = new double[lo.length];
+        double[] frac = new double[lo.length];
+        double[] distinct = new double[lo.length];
+        int b = -1;
+        int size = 0;
+        int bucketRuns = 0;
+        for (int i = 0; i < n; ) {
+            int j = i + 1;
+            while (j < n && sample[j] == sample[i])
+                j++;
+            // a run starts a new bucket if the current one is full
+            if (b < 0 || (size >= target && b + 1 < lo.length)) {
+                if (b >= 0)
+                    distinct[b] = bucketRuns == 1 ? 1 : bucketRuns * scale;
+                b++;
+                lo[b] = sample[i];
+                size = 0;
+                bucketRuns = 0;
+            }
+            hi[b] = sample[j - 1];
+            size += j - i;
+            frac[b] += (double) (j - i) / n;
+            bucketRuns++;
+            i = j;
+        }
+        if (b >= 0)
+            distinct[b] = bucketRuns == 1 ? 1 : bucketRuns * scale;
+
+        int numBuckets = b + 1;
+        this.lo = Arrays.copyOf(lo, numBuckets);
+        this.hi = Arrays.copyOf(hi, numBuckets);
+        this.frac = Arrays.copyOf(frac, numBuckets);
+        this.distinct = Arrays.copyOf(distinct, numBuckets);
+        this.before = new double[numBuckets];
+        for (int i = 1; i < numBuckets; i++)
+            before[i] = before[i - 1] + frac[i - 1];
+    }
+
+    /** @return the last bucket whose lowest value is at most v, or -1 */
+    private int bucketOf(double v) {
+        int l = 0, h = lo.length - 1, found = -1;
+        while (l <= h) {
+            int m = (l + h) >>> 1;
+            if (lo[m] <= v) {
+                found = m;
+                l = m + 1;
+            } else {
+                h = m - 1;
+            }
+        }
+        return found;
+    }
+
+    /** @return the fraction of the values that are equal to v */
+    private double equalTo(double v) {
+        int b = bucketOf(v);
+        if (b < 0 || v > hi[b])
+            return 0.0;
+        return frac[b] / distinct[b];
+    }
+
+    /** @return the fraction of the values that are less than v */
+    private double lessThan(double v) {
+        int b = bucketOf(v);
+        if (b < 0)
+            return 0.0;
+        if (v > hi[b])
+            return before[b] + frac[b];
+        if (v == lo[b])
+            return before[b];
+        // lo and hi are values of the bucket, and the others lie evenly
+        // between them
+        double d = Math.max(2.0, distinct[b]);
+        double between = (v - lo[b]) / (hi[b] - lo[b]);
+        return before[b] + frac[b] * (1.0 / d + (d - 2.0) / d * between);
+    }
+
+    /**
+     * @return the estimated fraction of the values that satisfy the predicate
+     *         <tt>value op v</tt>
+     */
+    double estimateSelectivity(Predicate.Op op, double v) {
+        if (lo.length == 0)
+            return 0.0;
+        double sel;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                sel = equalTo(v);
+                break;
+            case NOT_EQUALS:
+                sel = 1.0 - equalTo(v);
+                break;
+            case LESS_THAN:
+                sel = lessThan(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = lessThan(v) + equalTo(v);
+                break;
+            case GREATER_THAN:
+                sel = 1.0 - lessThan(v) - equalTo(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1.0 - lessThan(v);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
+    }
+
+    /**
+     * @return the estimated fraction of the values equal to a value chosen at
+     *         random from them: the chance that two values are equal
+     */
+    double avgSelectivity() {
+        double sum = 0;
+        for (int b = 0; b < lo.length; b++)
+            sum += frac[b] * frac[b] / distinct[b];
+        return sum;
+    }
+
+    /** @return the estimated number of distinct values */
+    double numDistinct() {
+        return numDistinct;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 0; b < lo.length; b++) {
+            if (b > 0)
+                sb.append(' ');
+            sb.append('[').append(lo[b]).append(", ").append(hi[b]).append("]:")
+                    .append(String.format("%.4f", frac[b]));
+        }
+        return sb.toString();
+    }
+}
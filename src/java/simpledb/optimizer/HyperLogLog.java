@@ -0,0 +1,112 @@
+package simpledb.optimizer;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+import java.io.Serializable;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al.), which estimates the number of
+ * distinct values added to it in a fixed amount of memory: 2^PRECISION
+ * one-byte registers, for a standard error of about 1.04 / sqrt(2^PRECISION),
+ * or 1.6%. Each value is hashed to 64 bits; the first PRECISION bits choose a
+ * register, which keeps the largest number of leading zeros, plus one, seen
+ * in the rest of the hashes that chose it.
+ * <p>
+ * Adding a value that was already added never changes the sketch, and two
+ * sketches can be merged into the sketch of all their values.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /** @return a well-mixed 64-bit hash of x (the finalizer of MurmurHash3) */
+    static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /** @return a 64-bit hash of a string (FNV-1a over its characters, mixed) */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** Add a value, given its 64-bit hash */
+    private void addHash(long h) {
+        int r = (int) (h >>> (64 - PRECISION));
+        // a 1 bit below the remaining bits bounds the count of leading zeros
+        int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[r])
+            registers[r] = (byte) rank;
+    }
+
+    public void addValue(int v) {
+        addHash(mix(v));
+    }
+
+    public void addValue(double v) {
+        // +0.0 and -0.0 are equal values
+        addHash(mix(Double.doubleToLongBits(v == 0.0 ? 0.0 : v)));
+    }
+
+    public void addValue(String s) {
+        addHash(hash(s));
+    }
+
+    /** Add the first n values of an array */
+    public void addValues(int[] values, int n) {
+        for (int i = 0; i < n; i++)
+            addHash(mix(values[i]));
+    }
+
+    /** Add a field of any type */
+    public void addValue(Field f) {
+        if (f instanceof IntField)
+            addValue(((IntField) f).getValue());
+        else if (f instanceof StringField)
+            addValue(((StringField) f).getValue());
+        else
+            addValue(DoubleHistogram.toDouble(f));
+    }
+
+    /** Add all the values of another sketch to this one */
+    public void merge(HyperLogLog other) {
+        for (int r = 0; r < REGISTERS; r++) {
+            if (other.registers[r] > registers[r])
+                registers[r] = other.registers[r];
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    public double estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte b : registers) {
+            sum += 1.0 / (1L << b);
+            if (b == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double e = alpha * REGISTERS * REGISTERS / sum;
+        // few values leave many registers empty, and are better counted by
+        // the number of empty registers (linear counting)
+        if (e <= 2.5 * REGISTERS && zeros > 0)
+            return REGISTERS * Math.log((double) REGISTERS / zeros);
+        return e;
+    }
+}
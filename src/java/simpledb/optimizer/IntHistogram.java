@@ -2,28 +2,55 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
-/** A class to represent a fixed-width histogram over a single integer-based field.
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A class to represent an equi-depth histogram over a single integer-based
+ * field.
+ * <p>
+ * The histogram is built in one pass over the values, without knowing their
+ * range in advance: it keeps a fixed-size random sample of them (reservoir
+ * sampling), and the boundaries and heights of its buckets are those of the
+ * sample. When there are no more values than the sample holds, the estimates
+ * are exact. The buckets are rebuilt, from the sample, the first time an
+ * estimate is needed after values have been added.
+ *
+ * @see EquiDepthBuckets
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of values the histogram samples */
+    static final int SAMPLE_SIZE = 1 << 14;
+
+    private final int buckets;
+    private final ReservoirSampler sampler = new ReservoirSampler(SAMPLE_SIZE);
+    private final int[] sample = new int[SAMPLE_SIZE];
+    /** The buckets, rebuilt from the sample when they are needed */
+    private transient EquiDepthBuckets hist;
+    private long population;
 
     /**
      * Create a new IntHistogram.
-     * 
-     * This IntHistogram should maintain a histogram of integer values that it receives.
-     * It should split the histogram into "buckets" buckets.
-     * 
-     * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
-     * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
-     * simply store every value that you see in a sorted list.
-     * 
-     * @param buckets The number of buckets to split the input value into.
+     *
+     * @param buckets The largest number of buckets to split the values into.
+     */
+    public IntHistogram(int buckets) {
+        this.buckets = Math.max(1, buckets);
+    }
+
+    /**
+     * Create a new IntHistogram. The range of the values is not needed to
+     * build an equi-depth histogram; it is accepted for compatibility.
+     *
+     * @param buckets The largest number of buckets to split the values into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this(buckets);
     }
 
     /**
@@ -31,44 +58,102 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        int slot = sampler.offer();
+        if (slot >= 0)
+            sample[slot] = v;
+        hist = null;
+    }
+
+    /**
+     * Add the first n values of an array to the histogram. Values that are
+     * not sampled are passed over without being read, so this is much faster
+     * than adding them one at a time.
+     */
+    public void addValues(int[] values, int n) {
+        int i = 0;
+        while (i < n) {
+            long gap = sampler.gap();
+            if (gap >= n - i) {
+                sampler.skip(n - i);
+                break;
+            }
+            sampler.skip(gap);
+            i += (int) gap;
+            addValue(values[i++]);
+        }
+        hist = null;
+    }
+
+    /**
+     * Set the number of values the added values were themselves sampled
+     * from, when they are a sample of a larger population, such as the rows
+     * of a sample of the pages of a table. The number of distinct values is
+     * then estimated for the population.
+     */
+    void setPopulation(long population) {
+        this.population = population;
+        hist = null;
+    }
+
+    /** @return the number of values the estimates are for */
+    private long population() {
+        return Math.max(population, sampler.seen());
+    }
+
+    private EquiDepthBuckets buckets() {
+        if (hist == null) {
+            int n = sampler.size();
+            int[] sorted = Arrays.copyOf(sample, n);
+            Arrays.sort(sorted);
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++)
+                values[i] = sorted[i];
+            hist = new EquiDepthBuckets(values, n, population(), buckets);
+        }
+        return hist;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
-        return -1.0;
+        return buckets().estimateSelectivity(op, v);
     }
-    
+
     /**
-     * @return
-     *     the average selectivity of this histogram.
-     *     
-     *     This is not an indispensable method to implement the basic
-     *     join optimization. It may be needed if you want to
-     *     implement a more efficient optimization
-     * */
+     * @return the average selectivity of an equality predicate on a value in
+     *         this histogram
+     */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        return buckets().avgSelectivity();
+    }
+
+    /**
+     * @return the estimated number of distinct values added to this histogram
+     */
+    public double numDistinct() {
+        return buckets().numDistinct();
+    }
+
+    /**
+     * @return the number of values added to this histogram
+     */
+    public long numValues() {
+        return sampler.seen();
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        return "IntHistogram(" + numValues() + " values): " + buckets();
     }
 }
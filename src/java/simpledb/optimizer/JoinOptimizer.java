@@ -1,6 +1,7 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.ParsingException;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
@@ -18,6 +19,43 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
+    private boolean bushy = false;
+    private int dpLimit = DEFAULT_DP_LIMIT;
+    private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+    private double planCost;
+    private long joinsConsidered;
+
+    /** The default largest number of tables whose joins are ordered by dynamic programming */
+    public static final int DEFAULT_DP_LIMIT = 15;
+
+    /** The default time spent improving the orders of the joins of more tables */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 100;
+
+    /**
+     * The physical join operators the optimizer chooses between. When two
+     * algorithms have the same estimated cost, the one listed first is
+     * chosen.
+     */
+    public enum JoinAlgorithm {
+        /** HashEquiJoin */
+        HASH,
+        /** SortMergeJoin */
+        SORT_MERGE,
+        /** IndexNestedLoopJoin over an index on the join field of the inner table */
+        INDEX_NESTED_LOOP,
+        /** Join, buffering Join.DEFAULT_BLOCK_PAGES pages of the outer side */
+        BLOCK_NESTED_LOOP,
+        /** Join, one outer tuple at a time */
+        NESTED_LOOP
+    }
+
+    private static final JoinAlgorithm[] ALGORITHMS = JoinAlgorithm.values();
+
+    /** The estimated fraction of inner tuples matched by a range join */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    /** The estimated number of children of a B+ tree internal page */
+    static final int INDEX_FANOUT = 100;
 
     /**
      * Constructor
@@ -73,18 +111,32 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.algorithm != null) {
+            j = instantiateJoin(lj.algorithm, p, plan1, plan2);
+            if (j != null)
+                return j;
+        }
+
+        if (lj.p == Predicate.Op.EQUALS && SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id)) {
+            // both inputs already come in join order, so merging them
+            // needs no sort and no hash table
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
                 // fall back on regular join
                 Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
+                java.lang.reflect.Constructor<?> ct = c.getConstructor(JoinPredicate.class,
+                        OpIterator.class, OpIterator.class);
                 j = (OpIterator) ct
                         .newInstance(new Object[] { p, plan1, plan2 });
             } catch (Exception e) {
                 j = new Join(p, plan1, plan2);
             }
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -93,6 +145,65 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Instantiate the specified join algorithm over the specified subplans.
+     *
+     * @return the join, or null if the algorithm cannot perform it: a hash
+     *         join needs an equality predicate, and an index nested-loop join
+     *         needs plan2 to be a scan (under any number of filters) of a table
+     *         with an index on the join field
+     */
+    static OpIterator instantiateJoin(JoinAlgorithm algorithm, JoinPredicate p,
+                                      OpIterator plan1, OpIterator plan2) {
+        switch (algorithm) {
+        case HASH:
+            if (p.getOperator() != Predicate.Op.EQUALS)
+                return null;
+            return new HashEquiJoin(p, plan1, plan2);
+        case SORT_MERGE:
+            if (!SortMergeJoin.supports(p.getOperator()))
+                return null;
+            return new SortMergeJoin(p, plan1, plan2);
+        case INDEX_NESTED_LOOP:
+            if (!SortMergeJoin.supports(p.getOperator()))
+                return null;
+            // the index replaces the scan, so the filters over the scan, and
+            // the predicates of the scan, are applied to the output of the
+            // join instead, which has every field of the table
+            List<Predicate> filters = new ArrayList<>();
+            OpIterator scan = plan2;
+            while (scan instanceof Filter) {
+                filters.add(((Filter) scan).getPredicate());
+                scan = ((Filter) scan).getChildren()[0];
+            }
+            if (!(scan instanceof SeqScan))
+                return null;
+            SeqScan ss = (SeqScan) scan;
+            IndexOpIterator index = IndexNestedLoopJoin.indexFor(ss, p.getField2());
+            if (index == null)
+                return null;
+            int[] fields = ss.getFields();
+            if (fields != null) {
+                for (int i = 0; i < filters.size(); i++) {
+                    Predicate f = filters.get(i);
+                    filters.set(i, new Predicate(fields[f.getField()], f.getOp(), f.getOperand()));
+                }
+                p = new JoinPredicate(p.getField1(), p.getOperator(), fields[p.getField2()]);
+            }
+            if (ss.getPredicates() != null)
+                filters.addAll(Arrays.asList(ss.getPredicates()));
+            OpIterator j = new IndexNestedLoopJoin(p, plan1, index);
+            int offset = plan1.getTupleDesc().numFields();
+            for (Predicate f : filters)
+                j = new Filter(new Predicate(f.getField() + offset, f.getOp(), f.getOperand()), j);
+            return j;
+        case BLOCK_NESTED_LOOP:
+            return new Join(p, plan1, plan2, Join.DEFAULT_BLOCK_PAGES);
+        default:
+            return new Join(p, plan1, plan2);
+        }
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -124,16 +235,170 @@ public class JoinOptimizer {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
-            return card1 + cost1 + cost2;
+            return estimateJoinCost(j, JoinAlgorithm.NESTED_LOOP, card1, card2, cost1, cost2);
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            JoinAlgorithm algorithm = chooseJoinAlgorithm(j, card1, card2, cost1, cost2);
+            return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
         }
     }
 
+    /**
+     * Choose the cheapest join algorithm for a join, among those that can
+     * perform it.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        JoinAlgorithm best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (JoinAlgorithm algorithm : ALGORITHMS) {
+            double cost = estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+            if (cost < bestCost) {
+                best = algorithm;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of a join performed with the specified algorithm,
+     * under the current CostModel: pages read in order cost
+     * CostModel.SEQUENTIAL_PAGE_COST, pages read at random positions cost
+     * more, and each tuple compared, hashed or sorted costs the CPU cost of a
+     * tuple. The number of pages of an input is its cost divided by the cost
+     * of a sequential read, which is exact for a base table and overestimates
+     * the result of other joins.
+     * <ul>
+     * <li>a nested loop scans the inner side once per outer tuple, and a
+     * block nested loop once per block of Join.DEFAULT_BLOCK_PAGES pages of
+     * outer tuples; both compare every pair of tuples. An inner side that fits
+     * in the BufferPool is only read from disk once.</li>
+     * <li>an index nested loop probes the index once per outer tuple, reading
+     * one page per level of the tree at random, plus one page per match if
+     * the index is not clustered. The internal pages of the tree stay in the
+     * BufferPool if they fit, and if the whole index and table fit no page is
+     * read twice.</li>
+     * <li>a hash join scans each side once, and hashes every tuple; tuples
+     * that do not fit in memory are written out and read back.</li>
+     * <li>a sort-merge join scans each side once, and sorts what it needs
+     * to, writing out and reading back inputs too large to sort in
+     * memory.</li>
+     * </ul>
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if the algorithm cannot
+     *         perform the join
+     */
+    public double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm algorithm, int card1, int card2,
+            double cost1, double cost2) {
+        CostModel model = CostModel.get();
+        double tuple = model.getTupleCost();
+        if (j instanceof LogicalSubplanJoinNode)
+            return algorithm == JoinAlgorithm.NESTED_LOOP ? cost1 + cost2 + card1 * tuple : Double.MAX_VALUE;
+        boolean range = j.p != Predicate.Op.EQUALS;
+        double pages1 = pages(cost1), pages2 = pages(cost2);
+        // one page of the pool is taken by the scan of the outer side
+        int bufferPages = Database.getBufferPool().getNumPages() - 1;
+        switch (algorithm) {
+        case HASH: {
+            if (range)
+                return Double.MAX_VALUE;
+            // the smaller side is hashed; the fraction of it that does not
+            // fit in memory is spilled, along with as much of the other side
+            double build = Math.min(card1, card2);
+            double spilled = build <= HashEquiJoin.DEFAULT_MEMORY_TUPLES ? 0
+                    : 1 - HashEquiJoin.DEFAULT_MEMORY_TUPLES / build;
+            return cost1 + cost2 + (card1 + card2) * tuple
+                    + 2 * spilled * (pages1 + pages2) * CostModel.SEQUENTIAL_PAGE_COST;
+        }
+        case SORT_MERGE: {
+            if (!SortMergeJoin.supports(j.p))
+                return Double.MAX_VALUE;
+            double sorts = sortCost(card1) * tuple + sortCost(card2) * tuple
+                    + spillCost(card1, pages1) + spillCost(card2, pages2);
+            if (!range)
+                return cost1 + cost2 + sorts + (card1 + card2) * tuple;
+            // child2 is sorted and reread once per block of child1, and only
+            // joining pairs are compared
+            double blocks = Math.ceil((double) card1 / ExternalSort.DEFAULT_MEMORY_TUPLES);
+            return cost1 + cost2 + sorts + (blocks - 1) * spillCost(card2, pages2) / 2
+                    + (blocks * card2 + RANGE_JOIN_SELECTIVITY * card1 * card2) * tuple;
+        }
+        case INDEX_NESTED_LOOP: {
+            if (!SortMergeJoin.supports(j.p) || j.t2Alias == null || p.getTableId(j.t2Alias) == null)
+                return Double.MAX_VALUE;
+            int tableid = p.getTableId(j.t2Alias);
+            int field;
+            try {
+                field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(j.f2PureName);
+            } catch (NoSuchElementException e) {
+                return Double.MAX_VALUE;
+            }
+            if (!IndexNestedLoopJoin.hasIndex(tableid, field))
+                return Double.MAX_VALUE;
+            // the leaves of the index are taken to be about as many as the
+            // pages of the table
+            double height = 1 + Math.ceil(Math.log(pages2) / Math.log(INDEX_FANOUT));
+            double internalPages = Math.ceil(pages2 / (INDEX_FANOUT - 1));
+            double matches = range ? RANGE_JOIN_SELECTIVITY * card2 : 1;
+            boolean clustered = IndexNestedLoopJoin.isClustered(tableid, field);
+            double reads = card1 * ((internalPages <= bufferPages ? 1 : height) + (clustered ? 0 : matches));
+            if (2 * pages2 + internalPages <= bufferPages)
+                reads = Math.min(reads, 2 * pages2 + internalPages);
+            return cost1 + reads * model.getRandomPageCost() + card1 * (height + matches) * tuple;
+        }
+        case BLOCK_NESTED_LOOP: {
+            int blockTuples = Join.blockTuples(outerTupleDesc(j), Join.DEFAULT_BLOCK_PAGES);
+            double blocks = Math.max(1, Math.ceil((double) card1 / blockTuples));
+            return cost1 + cost2 + (blocks - 1) * rescanCost(card2, cost2, bufferPages)
+                    + (double) card1 * card2 * tuple;
+        }
+        default:
+            return cost1 + cost2 + Math.max(0, card1 - 1) * rescanCost(card2, cost2, bufferPages)
+                    + (double) card1 * card2 * tuple;
+        }
+    }
+
+    /** @return the number of pages read by an input of the specified cost, at least 1 */
+    private static double pages(double cost) {
+        return Math.max(1.0, cost / CostModel.SEQUENTIAL_PAGE_COST);
+    }
+
+    /**
+     * @return the cost of scanning an inner side of a nested loop again: only
+     *         the cost of its tuples if it fits in the BufferPool, or its
+     *         full cost if it does not
+     */
+    private static double rescanCost(int card, double cost, int bufferPages) {
+        return pages(cost) <= bufferPages ? card * CostModel.get().getTupleCost() : cost;
+    }
+
+    /**
+     * @return the cost of writing out the runs of an external sort of n
+     *         tuples and reading them back, if they do not fit in memory
+     */
+    private static double spillCost(int n, double pages) {
+        return n <= ExternalSort.DEFAULT_MEMORY_TUPLES ? 0 : 2 * pages * CostModel.SEQUENTIAL_PAGE_COST;
+    }
+
+    /** The number of comparisons needed to sort n tuples */
+    private static double sortCost(int n) {
+        return n <= 1 ? 0 : n * (Math.log(n) / Math.log(2));
+    }
+
+    /**
+     * The TupleDesc of the outer table of a join; the outer side may be the
+     * result of other joins, with wider tuples, but the base table is the best
+     * estimate available here.
+     */
+    private TupleDesc outerTupleDesc(LogicalJoinNode j) {
+        Integer tableid = p.getTableId(j.t1Alias);
+        if (tableid == null)
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        return Database.getCatalog().getTupleDesc(tableid);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -167,53 +432,166 @@ public class JoinOptimizer {
     }
 
     /**
-     * Estimate the join cardinality of two tables.
+     * Estimate the join cardinality of two tables. An equality join on a
+     * primary key matches each tuple of the other side at most once. Other
+     * equality joins assume that the values of the side with fewer distinct
+     * values all appear on the other side, so that each pair of tuples
+     * matches with probability 1 / (the larger number of distinct values).
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double pairs = (double) card1 * card2;
+        double equal;
+        if (t1pkey && t2pkey)
+            equal = Math.min(card1, card2);
+        else if (t1pkey)
+            equal = card2;
+        else if (t2pkey)
+            equal = card1;
+        else {
+            double d1 = distinctValues(table1Alias, field1PureName, card1, stats, tableAliasToId);
+            double d2 = distinctValues(table2Alias, field2PureName, card2, stats, tableAliasToId);
+            equal = pairs / Math.max(1.0, Math.max(d1, d2));
+        }
+        double card;
+        switch (joinOp) {
+        case EQUALS:
+            card = equal;
+            break;
+        case NOT_EQUALS:
+            card = pairs - equal;
+            break;
+        default:
+            card = pairs * RANGE_JOIN_SELECTIVITY;
+            break;
+        }
+        return card < 1 ? 1 : (int) Math.min(Integer.MAX_VALUE, Math.round(card));
+    }
+
+    /**
+     * @return the estimated number of distinct values of a field among card
+     *         tuples of a table, or card if the table has no statistics
+     */
+    private static double distinctValues(String tableAlias, String fieldPureName, int card,
+                                         Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableid = tableAliasToId.get(tableAlias);
+        if (tableid == null)
+            return card;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableid));
+        if (s == null)
+            return card;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(fieldPureName);
+        } catch (NoSuchElementException e) {
+            return card;
+        }
+        return Math.min(card, s.numDistinctValues(field));
     }
 
     /**
      * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
+     * specified vector. Subsets are generated as bitmasks in increasing
+     * order (Gosper's hack), so only the subsets returned are allocated.
      * 
      * @param v
-     *            The vector whose subsets are desired
+     *            The vector whose subsets are desired, of at most 63 elements
      * @param size
      *            The size of the subsets of interest
      * @return a set of all subsets of the specified size
      */
     public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
         Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+        int n = v.size();
+        if (size < 0 || size > n)
+            return els;
+        if (n >= 64)
+            throw new IllegalArgumentException("too many elements to enumerate the subsets of");
+        for (long s = (1L << size) - 1; s < (1L << n); ) {
+            Set<T> sub = new HashSet<>();
+            for (long bits = s; bits != 0; bits &= bits - 1)
+                sub.add(v.get(Long.numberOfTrailingZeros(bits)));
+            els.add(sub);
+            if (s == 0)
+                break;
+            // the next larger number with as many bits set
+            long c = s & -s, r = s + c;
+            s = (((r ^ s) >>> 2) / c) | r;
         }
-
         return els;
+    }
 
+    /**
+     * Set whether {@link #orderJoins} considers bushy plans, in which both
+     * sides of a join may be the result of other joins, rather than only
+     * left-deep ones. Bushy plans may be cheaper, but there are many more of
+     * them.
+     */
+    public void setBushy(boolean bushy) {
+        this.bushy = bushy;
+    }
+
+    /**
+     * Set the largest number of tables whose joins {@link #orderJoins} orders
+     * by dynamic programming. The joins of more tables joined to each other
+     * are ordered greedily, and the greedy plan is then improved upon until
+     * the time budget runs out.
+     *
+     * @throws IllegalArgumentException if tables is less than 2
+     */
+    public void setDpLimit(int tables) {
+        if (tables < 2)
+            throw new IllegalArgumentException("the dynamic programming limit must be at least 2 tables");
+        this.dpLimit = tables;
+    }
+
+    /**
+     * Set how long {@link #orderJoins} spends improving the greedy plans of
+     * joins of more tables than the dynamic programming limit.
+     *
+     * @throws IllegalArgumentException if millis is negative
+     */
+    public void setTimeBudget(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("the time budget must not be negative");
+        this.timeBudgetMillis = millis;
+    }
+
+    /**
+     * @return the estimated cost of the plan last returned by
+     *         {@link #orderJoins}
+     */
+    public double getPlanCost() {
+        return planCost;
+    }
+
+    /**
+     * @return the number of joins of two sets of tables that the last call
+     *         of {@link #orderJoins} costed, which measures the work it did
+     */
+    public long getJoinsConsidered() {
+        return joinsConsidered;
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Compute a logical, reasonably efficient join on the specified tables,
+     * by dynamic programming over the sets of tables that the joins connect
+     * (Selinger): the best plan for each set is made from the best plans for
+     * smaller sets. Sets of tables are bitmasks, and only sets connected by
+     * joins are considered, so no plan has a cross product. Left-deep plans
+     * extend each set by one table joined to it; bushy plans (see
+     * {@link #setBushy}) join any two connected sets that are joined to each
+     * other, enumerated without repeats by the DPccp algorithm of Moerkotte
+     * and Neumann.
+     * <p>
+     * The number of connected sets grows exponentially with the number of
+     * tables, so the joins of more tables than the dynamic programming limit
+     * (see {@link #setDpLimit}) are instead ordered by greedy operator
+     * ordering, and then by iterative improvement of left-deep orders while
+     * the time budget lasts.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -225,8 +603,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed; each join is between the tables or
+     *         results of earlier joins that its tables belong to.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -235,173 +614,513 @@ public class JoinOptimizer {
             Map<String, TableStats> stats,
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-
-        // some code goes here
-        //Replace the following
-        return joins;
+        if (joins.isEmpty())
+            return joins;
+        long deadline = System.nanoTime() + timeBudgetMillis * 1000000;
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        PlanCache pc = new PlanCache();
+        for (int v = 0; v < g.size; v++)
+            pc.addPlan(1L << v, g.cost[v], g.card[v], new ArrayList<>());
+
+        // tables that are not joined to each other are left to be rejected
+        // by the caller, rather than joined by a cross product
+        List<LogicalJoinNode> order = new ArrayList<>();
+        planCost = 0;
+        joinsConsidered = 0;
+        for (long component : g.components()) {
+            if (Long.bitCount(component) > dpLimit) {
+                orderGreedily(g, pc, component, null);
+                improve(g, pc, component, deadline);
+            } else if (bushy) {
+                enumerateBushy(g, pc, component);
+            } else {
+                enumerateLeftDeep(g, pc, component);
+            }
+            order.addAll(pc.getOrder(component));
+            planCost += pc.getCost(component);
+        }
+        if (explain)
+            printJoins(order, pc, g, stats, filterSelectivities);
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * The join graph of the query: a vertex for each table joined (and for
+     * each subquery), and an edge for each join. Vertex i is bit i of the
+     * sets of tables considered by orderJoins.
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private final class JoinGraph {
+        final int size;
+        /** The alias of each table, or null for a subquery */
+        final String[] aliases;
+        /** The tables joined to each table, and the joins of each table */
+        final long[] neighbours;
+        final int[][] edges;
+        /** The tables each join is between, the first being that of t1 */
+        final int[] left;
+        final int[] right;
+        /** Each join with its inner and outer tables swapped */
+        final LogicalJoinNode[] swapped;
+        /** Whether the field of t1 (or t2) of each join is indexed */
+        final boolean[] indexed1;
+        final boolean[] indexed2;
+        /**
+         * The fraction of the pairs of tuples of its tables that each join
+         * matches. The cardinality of a set of tables is the product of those
+         * of its tables and of the selectivities of the joins between them,
+         * whatever the order they are joined in, so that the best plan of
+         * each set is made from the best plans of its subsets.
+         */
+        final double[] selectivity;
+        /** The estimated cost of scanning each table, and its filtered cardinality */
+        final double[] cost;
+        final int[] card;
+
+        JoinGraph(Map<String, TableStats> stats, Map<String, Double> filterSelectivities)
+                throws ParsingException {
+            Map<String, Integer> vertices = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            left = new int[joins.size()];
+            right = new int[joins.size()];
+            for (int e = 0; e < joins.size(); e++) {
+                LogicalJoinNode j = joins.get(e);
+                left[e] = vertex(j.t1Alias, vertices, names);
+                right[e] = j instanceof LogicalSubplanJoinNode ? vertex(null, vertices, names)
+                        : vertex(j.t2Alias, vertices, names);
+            }
+            size = names.size();
+            if (size > 64)
+                throw new ParsingException("Cannot order the joins of more than 64 tables");
+            aliases = names.toArray(new String[0]);
+            neighbours = new long[size];
+            int[] degree = new int[size];
+            swapped = new LogicalJoinNode[left.length];
+            for (int e = 0; e < left.length; e++) {
+                neighbours[left[e]] |= 1L << right[e];
+                neighbours[right[e]] |= 1L << left[e];
+                degree[left[e]]++;
+                degree[right[e]]++;
+                if (!(joins.get(e) instanceof LogicalSubplanJoinNode))
+                    swapped[e] = joins.get(e).swapInnerOuter();
+            }
+            edges = new int[size][];
+            for (int v = 0; v < size; v++)
+                edges[v] = new int[degree[v]];
+            for (int e = 0; e < left.length; e++) {
+                edges[left[e]][--degree[left[e]]] = e;
+                edges[right[e]][--degree[right[e]]] = e;
+            }
+            cost = new double[size];
+            card = new int[size];
+            for (int v = 0; v < size; v++) {
+                if (aliases[v] == null)
+                    continue;
+                Integer tableid = p.getTableId(aliases[v]);
+                if (tableid == null)
+                    throw new ParsingException("Unknown table " + aliases[v]);
+                TableStats s = stats.get(Database.getCatalog().getTableName(tableid));
+                if (s == null)
+                    throw new ParsingException("No statistics for table " + aliases[v]);
+                Double sel = filterSelectivities.get(aliases[v]);
+                cost[v] = s.estimateScanCost();
+                card[v] = s.estimateTableCardinality(sel == null ? 1.0 : sel);
+            }
+            indexed1 = new boolean[left.length];
+            indexed2 = new boolean[left.length];
+            selectivity = new double[left.length];
+            for (int e = 0; e < left.length; e++) {
+                LogicalJoinNode j = joins.get(e);
+                if (j instanceof LogicalSubplanJoinNode)
+                    continue;
+                indexed1[e] = isIndexed(j.t1Alias, j.f1PureName);
+                indexed2[e] = isIndexed(j.t2Alias, j.f2PureName);
+                int card1 = Math.max(1, card[left[e]]), card2 = Math.max(1, card[right[e]]);
+                selectivity[e] = estimateJoinCardinality(j, card1, card2, isPkey(j.t1Alias, j.f1PureName),
+                        isPkey(j.t2Alias, j.f2PureName), stats) / ((double) card1 * card2);
+            }
+        }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        private int vertex(String alias, Map<String, Integer> vertices, List<String> names) {
+            if (alias != null && vertices.containsKey(alias))
+                return vertices.get(alias);
+            names.add(alias);
+            if (alias != null)
+                vertices.put(alias, names.size() - 1);
+            return names.size() - 1;
+        }
+
+        /** @return the tables joined to some table of s, and not in s */
+        long neighbours(long s) {
+            long n = 0;
+            for (long bits = s; bits != 0; bits &= bits - 1)
+                n |= neighbours[Long.numberOfTrailingZeros(bits)];
+            return n & ~s;
+        }
+
+        /** @return the sets of tables connected by joins */
+        List<Long> components() {
+            List<Long> components = new ArrayList<>();
+            long seen = 0;
+            for (int v = 0; v < size; v++) {
+                if ((seen & (1L << v)) != 0)
+                    continue;
+                long c = 1L << v, n;
+                while ((n = neighbours(c)) != 0)
+                    c |= n;
+                components.add(c);
+                seen |= c;
             }
+            return components;
+        }
+    }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+    /** @return whether the set of tables s holds table v */
+    private static boolean in(long s, int v) {
+        return (s & (1L << v)) != 0;
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+    /**
+     * Find the best left-deep plans of the connected set of tables
+     * component: each connected set of its tables, smallest first, is
+     * extended by each table joined to it.
+     */
+    private void enumerateLeftDeep(JoinGraph g, PlanCache pc, long component) {
+        List<Long> level = new ArrayList<>();
+        for (long bits = component; bits != 0; bits &= bits - 1)
+            level.add(bits & -bits);
+        for (int size = 1; size < Long.bitCount(component); size++) {
+            Set<Long> next = new LinkedHashSet<>();
+            for (long s : level) {
+                for (long n = g.neighbours(s); n != 0; n &= n - 1) {
+                    long t = n & -n;
+                    considerJoin(g, pc, s, t);
+                    next.add(s | t);
+                }
+            }
+            level = new ArrayList<>(next);
+        }
+    }
+
+    /**
+     * Order the joins of the connected set of tables component greedily
+     * (GOO, Fegaras): make the cheapest join of two plans, until a single
+     * plan is left. Left-deep plans start from the cheapest join of two
+     * tables, and add to it the table that is cheapest to join.
+     *
+     * @param random
+     *            null, or a source of noise that each join's cost is
+     *            multiplied by, between 1 and 2, to explore other plans
+     */
+    private void orderGreedily(JoinGraph g, PlanCache pc, long component, Random random) {
+        List<Long> plans = new ArrayList<>();
+        for (long bits = component; bits != 0; bits &= bits - 1)
+            plans.add(bits & -bits);
+        long deep = 0;
+        while (plans.size() > 1) {
+            int best1 = -1, best2 = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int i = 0; i < plans.size(); i++) {
+                long s1 = plans.get(i);
+                if (!bushy && deep != 0 && s1 != deep)
+                    continue;
+                long n = g.neighbours(s1);
+                for (int k = 0; k < plans.size(); k++) {
+                    long s2 = plans.get(k);
+                    if ((n & s2) == 0 || (k < i && (bushy || deep == 0)))
+                        continue;
+                    considerJoin(g, pc, s1, s2);
+                    double cost = pc.getCost(s1 | s2) * (random == null ? 1 : 1 + random.nextDouble());
+                    if (cost < bestCost) {
+                        best1 = i;
+                        best2 = k;
+                        bestCost = cost;
+                    }
+                }
             }
+            long s = plans.get(best1) | plans.get(best2);
+            plans.remove(Math.max(best1, best2));
+            plans.set(Math.min(best1, best2), s);
+            deep = s;
         }
+    }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+    /**
+     * Look for a cheaper plan of the connected set of tables component than
+     * the one in pc, until the deadline. Left-deep plans are improved
+     * iteratively: starting from random orders of its tables, move one table
+     * to another place in the order while that makes the plan cheaper, and
+     * start again from another random order once no move does. Every prefix
+     * of an order is connected, so no plan has a cross product. Bushy plans
+     * are also looked for by greedy ordering with random noise, in turn.
+     */
+    private void improve(JoinGraph g, PlanCache pc, long component, long deadline) {
+        int n = Long.bitCount(component);
+        Random random = new Random(component);
+        int[] best = null;
+        double bestCost = pc.getCost(component);
+        for (int round = 0; System.nanoTime() < deadline; round++) {
+            if (bushy && round % 2 == 1) {
+                // bushy plans are looked for greedily, with some noise
+                orderGreedily(g, pc, component, random);
+                continue;
+            }
+            int[] order = randomOrder(g, component, random);
+            double cost = leftDeepCost(g, order);
+            // a local minimum is an order none of whose n * n moves makes
+            // cheaper, though they are tried at random
+            for (int failures = 0; failures < n * n && System.nanoTime() < deadline; failures++) {
+                int from = random.nextInt(n), to = random.nextInt(n);
+                if (from == to)
+                    continue;
+                int[] next = move(order, from, to);
+                if (!connected(g, next))
+                    continue;
+                double nextCost = leftDeepCost(g, next);
+                if (nextCost < cost) {
+                    order = next;
+                    cost = nextCost;
+                    failures = -1;
+                }
+            }
+            if (cost < bestCost) {
+                best = order;
+                bestCost = cost;
+            }
+        }
+        if (best != null) {
+            long s = 1L << best[0];
+            for (int i = 1; i < n; i++) {
+                considerJoin(g, pc, s, 1L << best[i]);
+                s |= 1L << best[i];
+            }
+        }
+    }
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+    /** @return the tables of component in a random order, each joined to one before it */
+    private static int[] randomOrder(JoinGraph g, long component, Random random) {
+        int[] order = new int[Long.bitCount(component)];
+        long s = 0, candidates = component;
+        for (int i = 0; i < order.length; i++) {
+            long bits = candidates;
+            for (int skip = random.nextInt(Long.bitCount(candidates)); skip > 0; skip--)
+                bits &= bits - 1;
+            order[i] = Long.numberOfTrailingZeros(bits);
+            s |= 1L << order[i];
+            candidates = g.neighbours(s);
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
+        return order;
+    }
 
-        CostCard cc = new CostCard();
+    /** @return a copy of order with the table at from moved to to */
+    private static int[] move(int[] order, int from, int to) {
+        int[] next = order.clone();
+        int v = next[from];
+        if (from < to)
+            System.arraycopy(next, from + 1, next, from, to - from);
+        else
+            System.arraycopy(next, to, next, to + 1, from - to);
+        next[to] = v;
+        return next;
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
-        return cc;
+    /** @return whether each table of order is joined to one before it */
+    private static boolean connected(JoinGraph g, int[] order) {
+        long n = g.neighbours[order[0]];
+        for (int i = 1; i < order.length; i++) {
+            if (!in(n, order[i]))
+                return false;
+            n |= g.neighbours[order[i]];
+        }
+        return true;
+    }
+
+    /** @return the cost of the left-deep plan that joins the tables in order */
+    private double leftDeepCost(JoinGraph g, int[] order) {
+        PlanCache pc = new PlanCache();
+        for (int v : order)
+            pc.addPlan(1L << v, g.cost[v], g.card[v], Collections.emptyList());
+        long s = 1L << order[0];
+        for (int i = 1; i < order.length; i++) {
+            considerJoin(g, pc, s, 1L << order[i]);
+            s |= 1L << order[i];
+        }
+        return pc.getCost(s);
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Find the best bushy plans, by joining each pair of disjoint connected
+     * sets of tables that are joined to each other (each csg-cmp pair of
+     * DPccp) of the connected set of tables component once, after the
+     * pairs that make up each of them.
+     */
+    private void enumerateBushy(JoinGraph g, PlanCache pc, long component) {
+        for (long bits = component; bits != 0; bits &= ~Long.highestOneBit(bits)) {
+            long v = Long.highestOneBit(bits);
+            emitCsg(g, pc, v);
+            enumerateCsgRec(g, pc, v, (v << 1) - 1);
+        }
+    }
+
+    /**
+     * Extend the connected set s by every set of its neighbours that are not
+     * in x, subsets first.
+     */
+    private void enumerateCsgRec(JoinGraph g, PlanCache pc, long s, long x) {
+        long n = g.neighbours(s) & ~x;
+        if (n == 0)
+            return;
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            emitCsg(g, pc, s | sub);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCsgRec(g, pc, s | sub, x | n);
+    }
+
+    /**
+     * Join the connected set s1 to each connected set joined to it whose
+     * lowest table comes after the lowest table of s1.
+     */
+    private void emitCsg(JoinGraph g, PlanCache pc, long s1) {
+        long lowest = s1 & -s1;
+        long x = s1 | (lowest - 1) | lowest;
+        long n = g.neighbours(s1) & ~x;
+        while (n != 0) {
+            long v = Long.highestOneBit(n);
+            considerJoin(g, pc, s1, v);
+            enumerateCmpRec(g, pc, s1, v, x | (n & ((v << 1) - 1)));
+            n &= ~v;
+        }
+    }
+
+    /** Join s1 to every connected extension of s2 that avoids x, subsets first */
+    private void enumerateCmpRec(JoinGraph g, PlanCache pc, long s1, long s2, long x) {
+        long n = g.neighbours(s2) & ~x;
+        if (n == 0)
+            return;
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            considerJoin(g, pc, s1, s2 | sub);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCmpRec(g, pc, s1, s2 | sub, x | n);
+    }
+
+    /**
+     * Consider joining the best plans of two disjoint sets of tables that are
+     * joined to each other, either way round, and keep the result in pc if it
+     * is the best plan for their union so far. The first join between the
+     * two sets is performed by the join operator; any others, which close
+     * cycles in the join graph, follow it in the plan.
+     */
+    private void considerJoin(JoinGraph g, PlanCache pc, long s1, long s2) {
+        joinsConsidered++;
+        // the joins between the two sets, found from the edges of the smaller
+        int first = Integer.MAX_VALUE;
+        List<Integer> others = null;
+        long from = Long.bitCount(s1) <= Long.bitCount(s2) ? s1 : s2, to = s1 ^ s2 ^ from;
+        for (long bits = from; bits != 0; bits &= bits - 1) {
+            int v = Long.numberOfTrailingZeros(bits);
+            if ((g.neighbours[v] & to) == 0)
+                continue;
+            for (int e : g.edges[v]) {
+                if (!in(to, g.left[e] == v ? g.right[e] : g.left[e]))
+                    continue;
+                if (first == Integer.MAX_VALUE) {
+                    first = e;
+                } else {
+                    if (others == null)
+                        others = new ArrayList<>();
+                    others.add(Math.max(first, e));
+                    first = Math.min(first, e);
+                }
+            }
+        }
+        if (first == Integer.MAX_VALUE)
+            return;
+        if (others == null)
+            others = Collections.emptyList();
+        else
+            Collections.sort(others);
+
+        boolean subquery = joins.get(first) instanceof LogicalSubplanJoinNode;
+        if (subquery && in(s2, g.left[first])) {
+            // the subquery of a join with one can only be its inner side
+            long t = s1;
+            s1 = s2;
+            s2 = t;
+        }
+        LogicalJoinNode j = in(s1, g.left[first]) ? joins.get(first) : g.swapped[first];
+        int card1 = pc.getCard(s1), card2 = pc.getCard(s2);
+        double cost1 = pc.getCost(s1), cost2 = pc.getCost(s2);
+        // a subquery is joined to each tuple of the other side at most once
+        double card = subquery ? card1 : (double) card1 * card2 * g.selectivity[first];
+        for (int e : others)
+            card *= g.selectivity[e];
+
+        boolean forward = j == joins.get(first);
+        JoinAlgorithm algorithm = chooseJoinAlgorithm(j, card1, card2, cost1, cost2,
+                Long.bitCount(s2) == 1 && (forward ? g.indexed2[first] : g.indexed1[first]));
+        double cost = estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+        if (!subquery) {
+            LogicalJoinNode j2 = forward ? g.swapped[first] : joins.get(first);
+            JoinAlgorithm algorithm2 = chooseJoinAlgorithm(j2, card2, card1, cost2, cost1,
+                    Long.bitCount(s1) == 1 && (forward ? g.indexed1[first] : g.indexed2[first]));
+            double cost2way = estimateJoinCost(j2, algorithm2, card2, card1, cost2, cost1);
+            // when the costs are equal, the smaller side is the outer one
+            if (cost2way < cost || (cost2way == cost && card2 < card1)) {
+                j = j2;
+                algorithm = algorithm2;
+                cost = cost2way;
+            }
+        }
+
+        long s = s1 | s2;
+        if (pc.contains(s) && cost >= pc.getCost(s))
+            return;
+        List<LogicalJoinNode> order = new ArrayList<>(pc.getOrder(s1));
+        order.addAll(pc.getOrder(s2));
+        order.add(subquery ? j : j.withAlgorithm(algorithm));
+        for (int e : others)
+            order.add(joins.get(e));
+        pc.addPlan(s, cost, (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(card))), order);
+    }
+
+    /**
+     * Choose the cheapest join algorithm for a join whose inner side may be
+     * the result of other joins, rather than a table that can be read
+     * through an index.
+     *
+     * @param indexed
+     *            whether the inner side is a table with an index on the join
+     *            field
+     */
+    private JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean indexed) {
+        JoinAlgorithm best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (JoinAlgorithm algorithm : ALGORITHMS) {
+            if (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP && !indexed)
+                continue;
+            double cost = estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+            if (cost < bestCost) {
+                best = algorithm;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return whether an IndexNestedLoopJoin can probe the field of the
+     *         specified table
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private boolean isIndexed(String tableAlias, String field) {
+        int tableid = p.getTableId(tableAlias);
+        try {
+            return IndexNestedLoopJoin.hasIndex(tableid,
+                    Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(field));
+        } catch (NoSuchElementException e) {
+            return false;
         }
-        return false;
     }
 
     /**
@@ -417,21 +1136,7 @@ public class JoinOptimizer {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
-        return pkey1.equals(field);
-    }
-
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
+        return field.equals(pkey1);
     }
 
     /**
@@ -443,6 +1148,8 @@ public class JoinOptimizer {
      *            the join plan to visualize
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
+     * @param g
+     *            the join graph whose sets of tables pc is indexed by
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -450,7 +1157,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(List<LogicalJoinNode> js, PlanCache pc, JoinGraph g,
             Map<String, TableStats> stats,
             Map<String, Double> selectivities) {
 
@@ -470,13 +1177,31 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
+        // the set of tables joined so far with each table
+        Map<String, Long> pathSoFar = new HashMap<>();
+        for (int v = 0; v < g.size; v++) {
+            if (g.aliases[v] != null)
+                pathSoFar.put(g.aliases[v], 1L << v);
+        }
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            long joined = pathSoFar.get(j.t1Alias);
+            if (j.t2Alias != null) {
+                joined |= pathSoFar.get(j.t2Alias);
+            } else {
+                for (int e = 0; e < joins.size(); e++) {
+                    if (joins.get(e) == j)
+                        joined |= 1L << g.right[e];
+                }
+            }
+            for (long bits = joined; bits != 0; bits &= bits - 1) {
+                String alias = g.aliases[Long.numberOfTrailingZeros(bits)];
+                if (alias != null)
+                    pathSoFar.put(alias, joined);
+            }
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(joined));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
@@ -487,8 +1212,8 @@ public class JoinOptimizer {
             neither = true;
 
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+                    + pc.getCost(joined) + ", card = "
+                    + pc.getCard(joined) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
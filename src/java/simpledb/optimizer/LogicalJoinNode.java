@@ -25,6 +25,12 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /**
+     * The physical join algorithm chosen by the optimizer, or null to let
+     * JoinOptimizer.instantiateJoin choose one from the predicate
+     */
+    public JoinOptimizer.JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -64,6 +70,20 @@ public class LogicalJoinNode {
         return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
     }
     
+    /** Return a copy of this LogicalJoinNode that uses the specified join algorithm. */
+    public LogicalJoinNode withAlgorithm(JoinOptimizer.JoinAlgorithm algorithm) {
+        LogicalJoinNode j = new LogicalJoinNode();
+        j.t1Alias = t1Alias;
+        j.t2Alias = t2Alias;
+        j.f1PureName = f1PureName;
+        j.f2PureName = f2PureName;
+        j.f1QuantifiedName = f1QuantifiedName;
+        j.f2QuantifiedName = f2QuantifiedName;
+        j.p = p;
+        j.algorithm = algorithm;
+        return j;
+    }
+
     @Override public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
         LogicalJoinNode j2 =(LogicalJoinNode)o;
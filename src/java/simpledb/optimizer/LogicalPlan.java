@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -25,6 +26,15 @@ import java.io.File;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /** Filters estimated to select at most this fraction of a table are
+     *  evaluated with an index scan when an index on their field exists.
+     *  Equality filters always use an available index. */
+    public static final double INDEX_SCAN_SELECTIVITY = 0.1;
+
+    /** Tables of at least this many pages are scanned in parallel, with their
+     *  filters run on each partition of the scan. */
+    public static final int PARALLEL_SCAN_PAGES = 64;
+
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
@@ -34,11 +44,19 @@ public class LogicalPlan {
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private int limit = -1, offset = 0;
+    private int degree = Gather.DEFAULT_DEGREE;
+    private boolean bushy = false;
+    private int dpLimit = JoinOptimizer.DEFAULT_DP_LIMIT;
     private String query;
+    /** The indexes in filters of the filters against parameters, in parameter order */
+    private final List<Integer> parameters = new ArrayList<>();
+    private boolean reuseJoinOrder = false;
+    private boolean joinsOrdered = false;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -108,6 +126,54 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Add a filter comparing a field with a parameter, whose value is
+     *  bound by {@link #bindParameters} before the plan is made physical.
+     *  Parameters are numbered in the order their filters are added.
+     *  @throws ParsingException as {@link #addFilter} does
+     */
+    public void addParameterFilter(String field, Predicate.Op p) throws ParsingException {
+        addFilter(field, p, null);
+        parameters.add(filters.size() - 1);
+    }
+
+    /** @return the number of parameters added by {@link #addParameterFilter} */
+    public int getParameterCount() {
+        return parameters.size();
+    }
+
+    /** Bind a value to each parameter of this plan, replacing any values
+     *  bound before.
+     *  @param values the value of each parameter, in the form
+     *  {@link #addFilter} takes constants in
+     *  @throws ParsingException if there are not as many values as parameters
+     */
+    public void bindParameters(List<String> values) throws ParsingException {
+        if (values.size() != parameters.size())
+            throw new ParsingException("Expected " + parameters.size() + " parameter values, got " + values.size());
+        for (int i = 0; i < values.size(); i++) {
+            int f = parameters.get(i);
+            LogicalFilterNode lf = filters.get(f);
+            filters.set(f, new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p, values.get(i)));
+        }
+    }
+
+    /** Set whether the join order chosen the first time this plan is made
+     *  physical is kept for the times it is made physical again, with other
+     *  parameter values, rather than the joins being ordered again. */
+    public void setReuseJoinOrder(boolean reuse) {
+        this.reuseJoinOrder = reuse;
+    }
+
+    /** @return whether this plan joins the result of a subquery, whose plan
+     *  is made physical, for one transaction, as the query is parsed */
+    public boolean hasSubqueries() {
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -189,8 +255,8 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  SimpleDb supports any number of aggregate expressions,
+        all with the same GROUP BY field, which are computed in one pass.
         @param op the aggregation operator
         @param afield the field to aggregate over
         @param gfield the field to group by
@@ -200,23 +266,76 @@ public class LogicalPlan {
         afield=disambiguateName(afield);
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        if (hasAgg && !Objects.equals(gfield, groupByField))
+            throw new ParsingException("All aggregates must have the same GROUP BY field");
+        aggOps.add(op);
+        aggFields.add(afield);
         groupByField = gfield;
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  When called more
+        than once, each field only orders tuples equal on the fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Add a LIMIT ... OFFSET clause, so that the first offset result tuples are skipped and no more than
+        limit of the rest are returned.
+        @param limit the largest number of tuples to return
+        @param offset the number of tuples to skip
+     * @throws ParsingException if limit or offset is negative, or their sum does not fit in an int
+    */
+    public void setLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        if ((long) limit + offset > Integer.MAX_VALUE)
+            throw new ParsingException("LIMIT and OFFSET out of range");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** Set the largest number of threads the plan of this query runs on.
+     *  Scans, hash joins and aggregates of large enough tables are divided
+     *  among that many threads; 1 runs the whole plan on the calling thread.
+     *  @throws IllegalArgumentException if degree is not positive
+     */
+    public void setDegreeOfParallelism(int degree) {
+        if (degree <= 0)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.degree = degree;
+    }
+
+    /** Get the degree of parallelism set via {@link #setDegreeOfParallelism};
+     *  by default, the number of cores.
+     */
+    public int getDegreeOfParallelism() {
+        return degree;
+    }
+
+    /** Set whether the joins of this plan may be ordered into bushy plans,
+     *  in which both sides of a join may be the result of other joins,
+     *  rather than only left-deep ones.
+     *  @see JoinOptimizer#setBushy
+     */
+    public void setBushyJoins(boolean bushy) {
+        this.bushy = bushy;
+    }
+
+    /** Set the largest number of tables whose joins are ordered by dynamic
+     *  programming; the joins of more tables are ordered greedily.
+     *  @see JoinOptimizer#setDpLimit
+     */
+    public void setJoinDpLimit(int tables) {
+        if (tables < 2)
+            throw new IllegalArgumentException("the dynamic programming limit must be at least 2 tables");
+        this.dpLimit = tables;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -261,9 +380,163 @@ public class LogicalPlan {
 
     }
 
+    /** Return a secondary index that can evaluate predicate p over the table
+     *  with the specified alias, or null if there is none.
+     */
+    private SecondaryIndex indexFor(String alias, Predicate p) {
+        switch (p.getOp()) {
+        case EQUALS: case LESS_THAN: case LESS_THAN_OR_EQ: case GREATER_THAN: case GREATER_THAN_OR_EQ:
+            break;
+        default:
+            return null;
+        }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(getTableId(alias))) {
+            if (index.getField() == p.getField())
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * @return the specified scan of a table, with any predicates and filters
+     *   over it, run as a parallel scan with the predicates and filters in
+     *   each partition, if the scan is
+     *   a SeqScan of at least PARALLEL_SCAN_PAGES pages; otherwise, the
+     *   specified plan
+     */
+    private static OpIterator parallelScan(TransactionId t, OpIterator plan, int degree) {
+        List<Predicate> preds = new ArrayList<>();
+        OpIterator scan = plan;
+        while (scan instanceof Filter) {
+            preds.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        if (degree <= 1 || !(scan instanceof SeqScan))
+            return plan;
+        SeqScan ss = (SeqScan) scan;
+        DbFile file = Database.getCatalog().getDatabaseFile(ss.getTableId());
+        if (ss.getEndPage() >= 0 || !(file instanceof HeapFile)
+                || ((HeapFile) file).numPages() < PARALLEL_SCAN_PAGES)
+            return plan;
+        List<SeqScan> scans = SeqScan.partitions(t, ss.getTableId(), ss.getAlias(), ss.getFields(),
+                ss.getPredicates(), degree);
+        OpIterator[] parts = new OpIterator[scans.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = scans.get(i);
+            for (int k = preds.size() - 1; k >= 0; k--)
+                parts[i] = new Filter(preds.get(k), parts[i]);
+        }
+        return new Gather(parts);
+    }
+
+    /**
+     * @return the specified plan, with each hash join that has a parallel
+     *   input run as degree joins on threads of their own, each of the part
+     *   of both inputs shuffled to it by the hash of the join fields
+     */
+    private static OpIterator parallelJoins(OpIterator plan, int degree) {
+        if (!(plan instanceof HashEquiJoin))
+            return plan;
+        HashEquiJoin j = (HashEquiJoin) plan;
+        OpIterator[] children = j.getChildren();
+        OpIterator child1 = parallelJoins(children[0], degree);
+        OpIterator child2 = parallelJoins(children[1], degree);
+        if (!(child1 instanceof Gather) && !(child2 instanceof Gather)) {
+            j.setChildren(new OpIterator[] { child1, child2 });
+            return j;
+        }
+        JoinPredicate p = j.getJoinPredicate();
+        Shuffle[] in1 = Shuffle.outputs(child1, p.getField1(), degree);
+        Shuffle[] in2 = Shuffle.outputs(child2, p.getField2(), degree);
+        int memoryTuples = Math.max(1, j.getMemoryTuples() / degree);
+        OpIterator[] parts = new OpIterator[degree];
+        for (int i = 0; i < degree; i++)
+            parts[i] = new HashEquiJoin(p, in1[i], in2[i], memoryTuples);
+        return new Gather(parts);
+    }
+
+    /**
+     * @return the indexes of the fields of td, the output of the joins of the
+     *   plan, in the order of the tables in the FROM clause, whatever order
+     *   the tables were joined in; the fields of subqueries come last
+     */
+    private List<Integer> fieldsInFromOrder(TupleDesc td) {
+        List<Integer> fields = new ArrayList<>();
+        boolean[] listed = new boolean[td.numFields()];
+        for (LogicalScanNode table : tables) {
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(table.t);
+            for (int i = 0; i < tableTd.numFields(); i++) {
+                int id;
+                try {
+                    id = td.fieldNameToIndex(table.alias + "." + tableTd.getFieldName(i));
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (!listed[id]) {
+                    fields.add(id);
+                    listed[id] = true;
+                }
+            }
+        }
+        for (int i = 0; i < listed.length; i++) {
+            if (!listed[i])
+                fields.add(i);
+        }
+        return fields;
+    }
+
+    /**
+     * @return for each alias of a table of which the plan uses only some
+     *   fields above the scan of the table, the indexes of those fields, in
+     *   the order of the table: the fields in the select list, aggregated,
+     *   grouped or ordered by, or joined on. Filters are evaluated by the
+     *   scans, on every field of their tables.
+     */
+    private Map<String,int[]> scanFields() {
+        Map<String,int[]> scanFields = new HashMap<>();
+        Set<String> used = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return scanFields;
+            used.add(si.fname);
+        }
+        used.addAll(aggFields);
+        if (groupByField != null)
+            used.add(groupByField);
+        used.addAll(oByFields);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                used.add(lj.f2QuantifiedName);
+        }
+        for (LogicalScanNode table : tables) {
+            TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+            List<Integer> fields = new ArrayList<>();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (used.contains(table.alias + "." + td.getFieldName(i)))
+                    fields.add(i);
+            }
+            // a scan returns at least one field
+            if (fields.isEmpty())
+                fields.add(0);
+            if (fields.size() < td.numFields())
+                scanFields.put(table.alias, fields.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return scanFields;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
+    /** @return the position, among the aggregates of the query, of the aggregate in the specified select list entry */
+    private int aggregateIndex(LogicalSelectListNode si) throws ParsingException {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(si.aggOp) && aggFields.get(i).equals(si.fname))
+                return i;
+        }
+        throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+    }
+
     static Aggregator.Op getAggOp(String s) throws ParsingException {
         s = s.toUpperCase();
         if (s.equals("AVG")) return Aggregator.Op.AVG;
@@ -309,6 +582,8 @@ public class LogicalPlan {
 
         }
 
+        List<Predicate> filterPreds = new ArrayList<>();
+        List<Double> filterSels = new ArrayList<>();
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -324,10 +599,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            if (lf.c == null)
+                throw new ParsingException("No value bound to the parameter compared with " + lf.fieldQuantifiedName);
+            try {
+                f = ftyp.parseText(lf.c);
+            } catch (java.text.ParseException e) {
+                throw new ParsingException("Bad constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -335,19 +613,78 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
             double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            filterPreds.add(p);
+            filterSels.add(sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // replace the scan of each table with an index scan on its most
+        // selective indexable filter, if that filter is selective enough
+        Map<String,Integer> indexFilters = new HashMap<>();
+        for (int i = 0; i < filters.size(); i++) {
+            String alias = filters.get(i).tableAlias;
+            if (indexFor(alias, filterPreds.get(i)) == null)
+                continue;
+            if (filterSels.get(i) > INDEX_SCAN_SELECTIVITY && filterPreds.get(i).getOp() != Predicate.Op.EQUALS)
+                continue;
+            Integer best = indexFilters.get(alias);
+            if (best == null || filterSels.get(i) < filterSels.get(best))
+                indexFilters.put(alias, i);
+        }
+        for (Map.Entry<String,Integer> e : indexFilters.entrySet()) {
+            Predicate p = filterPreds.get(e.getValue());
+            subplanMap.put(e.getKey(), new IndexScan(t, indexFor(e.getKey(), p), e.getKey(),
+                    new IndexPredicate(p.getOp(), p.getOperand())));
+        }
+        // the other filters of a table that is scanned sequentially are
+        // evaluated by the scan, on the bytes of its pages
+        Map<String,List<Predicate>> scanPreds = new HashMap<>();
+        for (int i = 0; i < filters.size(); i++) {
+            String alias = filters.get(i).tableAlias;
+            if (indexFilters.containsKey(alias) && indexFilters.get(alias) == i)
+                continue;
+            if (subplanMap.get(alias) instanceof SeqScan)
+                scanPreds.computeIfAbsent(alias, k -> new ArrayList<>()).add(filterPreds.get(i));
+            else
+                subplanMap.put(alias, new Filter(filterPreds.get(i), subplanMap.get(alias)));
+        }
+        // and only the fields used above a sequential scan are decoded
+        Map<String,int[]> scanFields = scanFields();
+        for (LogicalScanNode table : tables) {
+            if (!(subplanMap.get(table.alias) instanceof SeqScan))
+                continue;
+            List<Predicate> preds = scanPreds.get(table.alias);
+            SeqScan ss = (SeqScan) subplanMap.get(table.alias);
+            subplanMap.put(table.alias, new SeqScan(t, ss.getTableId(), ss.getAlias(), scanFields.get(table.alias),
+                    preds == null ? null : preds.toArray(new Predicate[0])));
+        }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        if (!(reuseJoinOrder && joinsOrdered)) {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
+            jo.setBushy(bushy);
+            jo.setDpLimit(dpLimit);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joinsOrdered = true;
+        }
+
+        // the inner table of an index join is read through its index, so it
+        // is not worth scanning in parallel
+        Set<String> indexed = new HashSet<>();
+        for (LogicalJoinNode lj : joins) {
+            if (lj.algorithm == JoinOptimizer.JoinAlgorithm.INDEX_NESTED_LOOP)
+                indexed.add(lj.t2Alias);
+        }
+        for (LogicalScanNode table : tables) {
+            if (!indexed.contains(table.alias))
+                subplanMap.put(table.alias, parallelScan(t, subplanMap.get(table.alias), degree));
+        }
 
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
@@ -406,6 +743,8 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        if (degree > 1)
+            node = parallelJoins(node, degree);
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
@@ -413,16 +752,16 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = aggregateIndex(si);
+                outFields.add((groupByField!=null?1:0) + agg);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outTypes.add(Aggregate.resultType(td.getFieldType(id), getAggOp(si.aggOp)));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
@@ -439,9 +778,9 @@ public class LogicalPlan {
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
-                    for ( i = 0; i < td.numFields(); i++) {
-                        outFields.add(i);
-                        outTypes.add(td.getFieldType(i));
+                    for (int id : fieldsInFromOrder(td)) {
+                        outFields.add(id);
+                        outTypes.add(td.getFieldType(id));
                     }
             } else  {
                     TupleDesc td = node.getTupleDesc();
@@ -461,18 +800,50 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (node instanceof Gather) {
+                    // aggregate each partition on its own thread, and merge
+                    // their partial aggregates
+                    OpIterator[] parts = ((Gather) node).getChildren();
+                    Aggregate partial = null;
+                    int memoryGroups = Math.max(1, Aggregate.DEFAULT_MEMORY_GROUPS / parts.length);
+                    for (int i = 0; i < parts.length; i++) {
+                        partial = Aggregate.partial(parts[i], afields, gfield, aops, memoryGroups);
+                        parts[i] = partial;
+                    }
+                    aggNode = partial.finalAggregate(new Gather(parts));
+                } else {
+                    aggNode = new Aggregate(node, afields, gfield, aops);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                ascs[i] = oByAscs.get(i);
+            }
+            // with a LIMIT, only the first limit + offset tuples need sorting,
+            // in memory if they fit in the budget of an external sort
+            if (limit >= 0 && limit + offset <= ExternalSort.DEFAULT_MEMORY_TUPLES)
+                node = new TopN(fields, ascs, limit, offset, node);
+            else if (limit >= 0)
+                node = new Limit(limit, offset, new OrderBy(fields, ascs, node));
+            else
+                node = new OrderBy(fields, ascs, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
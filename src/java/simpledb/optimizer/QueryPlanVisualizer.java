@@ -4,7 +4,9 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,14 +14,31 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "\u2A1D";
     static final String HASH_JOIN = "\u2A1D(hash)";
+    static final String MERGE_JOIN = "\u2A1D(merge)";
+    static final String INDEX_JOIN = "\u2A1D(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "\u03C1";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
+    static final String TOPN = "top";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    /** whether to show the actual cardinality of each node next to its estimate */
+    private boolean analyze = false;
+
+    /**
+     * @return the estimated cardinality of an operator, followed by the
+     *         number of tuples it returned in EXPLAIN ANALYZE output
+     */
+    private String card(Operator o) {
+        return analyze ? o.getEstimatedCardinality() + ",act:" + o.getActualCardinality()
+                : Integer.toString(o.getEstimatedCardinality());
+    }
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -29,7 +48,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof SortMergeJoin
+                || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -67,17 +87,48 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan
+                || queryPlan instanceof BTreeScan) {
+            String tableName, alias, cond = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                // predicates evaluated by the scan itself
+                if (s.getPredicates() != null) {
+                    TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+                    for (Predicate p : s.getPredicates())
+                        cond += String.format(", %1$s.%2$s%3$s%4$s", alias,
+                                td.getFieldName(p.getField()), p.getOp(), p.getOperand());
+                }
+            } else if (queryPlan instanceof BTreeScan) {
+                BTreeScan s = (BTreeScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ipred = s.getIndexPredicate();
+                // the probe of an index nested-loop join has no predicate
+                // of its own
+                if (ipred != null)
+                    cond = String.format(", %1$s %2$s %3$s", s.getTupleDesc()
+                            .getFieldName(s.getIndex().getField()), ipred.getOp(),
+                            ipred.getField());
+            }
+            if (analyze && queryPlan instanceof SeqScan)
+                cond += ",act:" + ((SeqScan) queryPlan).getActualCardinality();
+            else if (analyze && queryPlan instanceof IndexScan)
+                cond += ",act:" + ((IndexScan) queryPlan).getActualCardinality();
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+            thisNode.text = String.format("%1$s(%2$s)",
+                    queryPlan instanceof SeqScan ? SCAN : INDEX_SCAN,
+                    tableName + alias + cond);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -116,8 +167,8 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$s", JOIN,
+                        field1 + jp.getOperator() + field2,card(j));
                 int upBarShift = parentUpperBarStartShift;
                 if (JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = JOIN.length() / 2;
@@ -138,18 +189,29 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof SortMergeJoin
+                    || plan instanceof IndexNestedLoopJoin) {
+                JoinPredicate jp;
+                String symbol;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    symbol = HASH_JOIN;
+                } else if (plan instanceof SortMergeJoin) {
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                    symbol = MERGE_JOIN;
+                } else {
+                    jp = ((IndexNestedLoopJoin) plan).getJoinPredicate();
+                    symbol = INDEX_JOIN;
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$s", symbol, field1
+                        + jp.getOperator() + field2,card(plan));
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -158,7 +220,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - symbol.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -174,14 +236,24 @@ public class QueryPlanVisualizer {
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
 
+                StringBuilder aggs = new StringBuilder();
+                int[] afields = a.aggregateFields();
+                Aggregator.Op[] aops = a.aggregateOps();
+                for (int i = 0; i < afields.length; i++) {
+                    if (i > 0)
+                        aggs.append(", ");
+                    aggs.append(String.format("%1$s(%2$s)", aops[i],
+                            children[0].getTupleDesc().getFieldName(afields[i])));
+                }
+
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$s",
+                            aggs, card(a));
                     alignTxt = td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$s",
+                            GROUPBY, a.groupFieldName(), aggs,
+                            card(a));
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -201,10 +273,10 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
                 Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
+                thisNode.text = String.format("%1$s(%2$s),card:%3$s", SELECT, children[0]
                         .getTupleDesc().getFieldName(p.getField())
                         + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                        + p.getOperand(),card(f));
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -221,11 +293,20 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                StringBuilder fields = new StringBuilder();
+                int[] oFields = o.getOrderByFields();
+                boolean[] oAscs = o.getOrderByAsc();
+                for (int i = 0; i < oFields.length; i++) {
+                    if (i > 0)
+                        fields.append(",");
+                    fields.append(children[0].getTupleDesc().getFieldName(oFields[i]));
+                    if (!oAscs[i])
+                        fields.append(" desc");
+                }
                 thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
+                        "%1$s(%2$s),card:%3$s",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        fields,card(o));
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +321,44 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Limit || plan instanceof TopN) {
+                String symbol;
+                String args;
+                if (plan instanceof Limit) {
+                    Limit l = (Limit) plan;
+                    symbol = LIMIT;
+                    args = l.getLimit() + (l.getOffset() > 0 ? " offset " + l.getOffset() : "");
+                } else {
+                    TopN t = (TopN) plan;
+                    symbol = TOPN;
+                    StringBuilder fields = new StringBuilder();
+                    int[] tFields = t.getOrderByFields();
+                    boolean[] tAscs = t.getOrderByAsc();
+                    for (int i = 0; i < tFields.length; i++) {
+                        fields.append(children[0].getTupleDesc().getFieldName(tFields[i]));
+                        if (!tAscs[i])
+                            fields.append(" desc");
+                        fields.append(",");
+                    }
+                    args = fields + "limit " + t.getLimit()
+                            + (t.getOffset() > 0 ? " offset " + t.getOffset() : "");
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$s", symbol,
+                        args, card(plan));
+                int upBarShift = parentUpperBarStartShift;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - symbol.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -247,7 +366,7 @@ public class QueryPlanVisualizer {
                 while (it.hasNext())
                     fields.append(it.next().fieldName).append(",");
                 fields = new StringBuilder(fields.substring(0, fields.length() - 1));
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$s", PROJECT, fields.toString(),card(p));
                 int upBarShift = parentUpperBarStartShift;
                 if (PROJECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = PROJECT.length() / 2;
@@ -263,17 +382,16 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Exchange
+                    || plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
-                int card=0;
                 try {
                     name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
                 } catch (Exception e) {
                     e.printStackTrace();
                 } 
 
-                thisNode.text = String.format("%1$s,card:%2$d", name,card);
+                thisNode.text = String.format("%1$s,card:%2$s", name,card(plan));
                 int upBarShift = parentUpperBarStartShift;
                 if (name.length() / 2 > parentUpperBarStartShift)
                     upBarShift = name.length() / 2;
@@ -308,7 +426,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
                 String oldName = plan.getChildren()[0].getTupleDesc().getFieldName(fieldIdx);
-                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$s", RENAME,oldName,newName,card(plan));
                 int upBarShift = parentUpperBarStartShift;
                 if (RENAME.length() / 2 > parentUpperBarStartShift)
                     upBarShift = RENAME.length() / 2;
@@ -362,6 +480,15 @@ public class QueryPlanVisualizer {
     }
 
     public String getQueryPlanTree(OpIterator physicalPlan) {
+        return getQueryPlanTree(physicalPlan, false);
+    }
+
+    /**
+     * @param analyze whether the plan has been run, and the number of tuples
+     *                each node returned is to be shown next to its estimate
+     */
+    public String getQueryPlanTree(OpIterator physicalPlan, boolean analyze) {
+        this.analyze = analyze;
         int queryPlanDepth = this.calculateQueryPlanTreeDepth(physicalPlan) - 1;
 
         SubTreeDescriptor root = this.buildTree(queryPlanDepth, 0,
@@ -393,10 +520,15 @@ public class QueryPlanVisualizer {
     }
 
     public void printQueryPlanTree(OpIterator physicalPlan, PrintStream out) {
+        printQueryPlanTree(physicalPlan, out, false);
+    }
+
+    /** @see #getQueryPlanTree(OpIterator, boolean) */
+    public void printQueryPlanTree(OpIterator physicalPlan, PrintStream out, boolean analyze) {
         if (out == null)
             out = System.out;
 
-        String tree = this.getQueryPlanTree(physicalPlan);
+        String tree = this.getQueryPlanTree(physicalPlan, analyze);
 
         out.println(tree);
     }
@@ -0,0 +1,109 @@
+package simpledb.optimizer;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Chooses a uniform random sample of a fixed number of values from a stream
+ * of unknown length, in one pass (reservoir sampling). The first capacity
+ * values fill the sample; after that, each value replaces a random one with
+ * probability capacity / (values seen so far).
+ * <p>
+ * Rather than drawing a random number for every value, the sampler draws the
+ * number of values to skip before the next one that is sampled (Li's
+ * "Algorithm L"), so that adding a value that is not sampled costs a counter
+ * increment, and whole runs of values can be skipped at once.
+ * <p>
+ * The random numbers come from a fixed seed, so that statistics, and the
+ * plans chosen from them, are the same each time a table is analyzed.
+ * Samplers with the same capacity, offered the same number of values, choose
+ * the same positions; the histograms of the columns of a table are therefore
+ * built from the same sample of its rows.
+ */
+final class ReservoirSampler implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long SEED = 0x5eed5eedL;
+
+    private final int capacity;
+    private final Random random = new Random(SEED);
+    /** The number of values offered so far */
+    private long seen;
+    /** The position of the next value to sample, once the sample is full */
+    private long next;
+    private double w;
+
+    /**
+     * @param capacity the number of values to sample
+     */
+    ReservoirSampler(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("a sample must hold at least one value");
+        this.capacity = capacity;
+    }
+
+    /** @return a random number in (0, 1) */
+    private double uniform() {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u == 0.0);
+        return u;
+    }
+
+    /** Choose the position of the next value to sample after position seen */
+    private void advance() {
+        w *= Math.exp(Math.log(uniform()) / capacity);
+        double skip = Math.floor(Math.log(uniform()) / Math.log1p(-w));
+        next = seen + (skip < Long.MAX_VALUE / 2 ? (long) skip : Long.MAX_VALUE / 2) + 1;
+    }
+
+    /**
+     * Offer the next value of the stream.
+     *
+     * @return the slot of the sample the value goes to, or -1 if it is not
+     *         sampled
+     */
+    int offer() {
+        seen++;
+        if (seen <= capacity) {
+            if (seen == capacity) {
+                w = 1.0;
+                advance();
+            }
+            return (int) seen - 1;
+        }
+        if (seen < next)
+            return -1;
+        int slot = random.nextInt(capacity);
+        advance();
+        return slot;
+    }
+
+    /**
+     * @return the number of values that can be offered before the next one
+     *         that will be sampled; they can be passed over with {@link #skip}
+     */
+    long gap() {
+        return seen < capacity ? 0 : next - seen - 1;
+    }
+
+    /**
+     * Pass over the specified number of values, which must be at most
+     * {@link #gap()}, without offering them one by one.
+     */
+    void skip(long n) {
+        seen += n;
+    }
+
+    /** @return the number of values offered so far */
+    long seen() {
+        return seen;
+    }
+
+    /** @return the number of values in the sample */
+    int size() {
+        return (int) Math.min(seen, capacity);
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.Field;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The selectivities of the predicates of the scans of the queries run so far,
+ * as counted by the last pass of each scan, which
+ * {@link TableStats#estimateSelectivity} uses in place of those of its
+ * histograms. Only scans read to their end are learned from: a scan cut short
+ * by a LIMIT, or by a join with nothing left to join, has not counted every
+ * tuple that satisfies its predicates. The
+ * selectivity observed for a conjunction of predicates is shared out among
+ * them in proportion to the logarithms of their estimates, so that the
+ * product of the learned selectivities is the observed one. Each observation
+ * is averaged with the one learned before, and the least recently used
+ * predicate is forgotten once the store is full.
+ */
+public class SelectivityFeedback {
+
+    /** The number of predicates whose selectivity is remembered */
+    public static final int CAPACITY = 1024;
+
+    /**
+     * The factor by which a learned selectivity must differ from the estimate
+     * it replaces for the plans optimized with that estimate to be optimized
+     * again
+     */
+    static final double REPLAN_FACTOR = 2.0;
+
+    private static final Map<String, Double> selectivities = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private static String key(int tableid, int field, Predicate.Op op, Field constant) {
+        return tableid + "." + field + " " + op + " " + constant;
+    }
+
+    /**
+     * @return the selectivity of predicate <tt>field op constant</tt> on the
+     *         specified table observed by the queries run so far, or null if
+     *         none has been
+     */
+    public static synchronized Double get(int tableid, int field, Predicate.Op op, Field constant) {
+        return selectivities.get(key(tableid, field, op, constant));
+    }
+
+    public static synchronized int size() {
+        return selectivities.size();
+    }
+
+    public static synchronized void clear() {
+        selectivities.clear();
+    }
+
+    /**
+     * Learn the selectivities of the predicates of the scans of a plan that
+     * has been run.
+     *
+     * @param plan
+     *            the plan, closed or not, whose operators have counted the
+     *            tuples they returned
+     * @param tableStats
+     *            the statistics of the tables, by name
+     */
+    public static void record(OpIterator plan, Map<String, TableStats> tableStats) {
+        // the partitions of a parallel scan count the tuples of the table
+        // together
+        Map<String, List<SeqScan>> scans = new LinkedHashMap<>();
+        List<IndexScan> indexScans = new ArrayList<>();
+        collect(plan, scans, indexScans);
+
+        boolean changed = false;
+        for (List<SeqScan> parts : scans.values()) {
+            SeqScan first = parts.get(0);
+            TableStats stats = tableStats.get(first.getTableName());
+            if (stats == null)
+                continue;
+            long actual = 0;
+            boolean exhausted = true;
+            for (SeqScan part : parts) {
+                actual += part.getLastPassCardinality();
+                exhausted &= part.isExhausted();
+            }
+            if (exhausted)
+                changed |= learn(first.getTableId(), stats, first.getPredicates(), actual);
+        }
+        for (IndexScan scan : indexScans) {
+            TableStats stats = tableStats.get(scan.getTableName());
+            IndexPredicate ipred = scan.getIndexPredicate();
+            if (stats == null || !scan.isExhausted())
+                continue;
+            Predicate p = new Predicate(scan.getIndex().getField(), ipred.getOp(), ipred.getField());
+            changed |= learn(scan.getIndex().getTableId(), stats, new Predicate[] { p },
+                    scan.getLastPassCardinality());
+        }
+        if (changed)
+            TableStats.invalidatePlans();
+    }
+
+    private static void collect(OpIterator it, Map<String, List<SeqScan>> scans, List<IndexScan> indexScans) {
+        if (it instanceof SeqScan) {
+            SeqScan scan = (SeqScan) it;
+            if (scan.getPredicates() != null)
+                scans.computeIfAbsent(scan.getAlias() + "." + scan.getTableId(), k -> new ArrayList<>()).add(scan);
+        } else if (it instanceof IndexScan) {
+            if (((IndexScan) it).getIndexPredicate() != null)
+                indexScans.add((IndexScan) it);
+        } else if (it instanceof IndexNestedLoopJoin) {
+            // the index is probed once for each outer tuple, with its value
+            collect(((Operator) it).getChildren()[0], scans, indexScans);
+        } else if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren())
+                collect(child, scans, indexScans);
+        }
+    }
+
+    /**
+     * @return whether a learned selectivity differs from the estimate it
+     *         replaces by more than REPLAN_FACTOR
+     */
+    private static boolean learn(int tableid, TableStats stats, Predicate[] preds, long actual) {
+        int card = stats.estimateTableCardinality(1.0);
+        if (card <= 0)
+            return false;
+        // no tuple at all is taken for half a tuple, which keeps the
+        // estimates, and the costs that multiply them, above zero
+        double observed = Math.min(1.0, Math.max(actual, 0.5) / card);
+        double[] base = new double[preds.length];
+        double logBase = 0;
+        for (int i = 0; i < preds.length; i++) {
+            Predicate p = preds[i];
+            base[i] = Math.max(stats.histogramSelectivity(p.getField(), p.getOp(), p.getOperand()), 0.5 / card);
+            logBase += Math.log(base[i]);
+        }
+
+        boolean changed = false;
+        synchronized (SelectivityFeedback.class) {
+            for (int i = 0; i < preds.length; i++) {
+                Predicate p = preds[i];
+                double learned = preds.length == 1 || logBase == 0
+                        ? Math.pow(observed, 1.0 / preds.length)
+                        : Math.exp(Math.log(observed) * Math.log(base[i]) / logBase);
+                String key = key(tableid, p.getField(), p.getOp(), p.getOperand());
+                Double previous = selectivities.get(key);
+                double estimate = previous != null ? previous : base[i];
+                if (previous != null)
+                    learned = Math.sqrt(previous * learned);
+                selectivities.put(key, learned);
+                changed |= Math.max(learned, estimate) > REPLAN_FACTOR * Math.min(learned, estimate);
+            }
+        }
+        return changed;
+    }
+}
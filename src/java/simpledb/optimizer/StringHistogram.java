@@ -2,93 +2,151 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.Serializable;
+import java.util.Arrays;
+
 /**
- * A class to represent a fixed-width histogram over a single String-based
+ * A class to represent an equi-depth histogram over a single String-based
  * field.
+ * <p>
+ * Like IntHistogram, it is built in one pass from a fixed-size random sample
+ * of the values. Strings are placed in the histogram by their rank among the
+ * distinct strings of the sample, rather than by a number made of their first
+ * few characters, so strings with long common prefixes are told apart. A
+ * string that is not in the sample gets a rank between those of its
+ * neighbours, interpolated from the characters that follow their common
+ * prefix.
  */
-public class StringHistogram {
-    final IntHistogram hist;
+public class StringHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of values the histogram samples */
+    static final int SAMPLE_SIZE = 1 << 12;
+
+    private final int buckets;
+    private final ReservoirSampler sampler = new ReservoirSampler(SAMPLE_SIZE);
+    private final String[] sample = new String[SAMPLE_SIZE];
+    /** The buckets, rebuilt from the sample when they are needed */
+    private transient EquiDepthBuckets hist;
+    private long population;
+    /** The distinct strings of the sample, in order; the rank of each is its position */
+    private transient String[] ranked;
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
-     * <p>
-     * Our implementation is written in terms of an IntHistogram by converting
-     * each String to an integer.
-     * 
+     *
      * @param buckets
-     *            the number of buckets
+     *            the largest number of buckets
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        this.buckets = Math.max(1, buckets);
     }
 
-    /**
-     * Convert a string to an integer, with the property that if the return
-     * value(s1) < return value(s2), then s1 < s2
-     */
-    private int stringToInt(String s) {
-        int i;
-        int v = 0;
-        for (i = 3; i >= 0; i--) {
-            if (s.length() > 3 - i) {
-                int ci = s.charAt(3 - i);
-                v += (ci) << (i * 8);
-            }
-        }
-
-        // XXX: hack to avoid getting wrong results for
-        // strings which don't output in the range min to max
-        if (!(s.equals("") || s.equals("zzzz"))) {
-            if (v < minVal()) {
-                v = minVal();
-            }
+    /** Add a new value to the histogram */
+    public void addValue(String s) {
+        int slot = sampler.offer();
+        if (slot >= 0)
+            sample[slot] = s;
+        hist = null;
+    }
 
-            if (v > maxVal()) {
-                v = maxVal();
-            }
-        }
+    /** @see IntHistogram#setPopulation */
+    void setPopulation(long population) {
+        this.population = population;
+        hist = null;
+    }
 
-        return v;
+    /** @return the number of values the estimates are for */
+    private long population() {
+        return Math.max(population, sampler.seen());
     }
 
-    /** @return the maximum value indexed by the histogram */
-    int maxVal() {
-        return stringToInt("zzzz");
+    private EquiDepthBuckets buckets() {
+        if (hist == null) {
+            int n = sampler.size();
+            String[] sorted = Arrays.copyOf(sample, n);
+            Arrays.sort(sorted);
+            double[] ranks = new double[n];
+            String[] distinct = new String[n];
+            int runs = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || !sorted[i].equals(sorted[i - 1]))
+                    distinct[runs++] = sorted[i];
+                ranks[i] = runs - 1;
+            }
+            ranked = Arrays.copyOf(distinct, runs);
+            hist = new EquiDepthBuckets(ranks, n, population(), buckets);
+        }
+        return hist;
     }
 
-    /** @return the minimum value indexed by the histogram */
-    int minVal() {
-        return stringToInt("");
+    /**
+     * @return the first few characters of s from position from on, as a
+     *         fraction in [0, 1) that grows with them
+     */
+    private static double code(String s, int from) {
+        double c = 0, scale = 1;
+        for (int i = from; i < from + 3; i++) {
+            scale /= 65537;
+            if (i < s.length())
+                c += (s.charAt(i) + 1) * scale;
+        }
+        return c;
     }
 
-    /** Add a new value to thte histogram */
-    public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+    /** @return the rank s would have among the distinct strings of the sample */
+    private double rank(String s) {
+        int pos = Arrays.binarySearch(ranked, s);
+        if (pos >= 0)
+            return pos;
+        int after = -pos - 1;
+        if (after == 0)
+            return -1;
+        if (after == ranked.length)
+            return ranked.length;
+        String a = ranked[after - 1], b = ranked[after];
+        int prefix = 0;
+        while (prefix < a.length() && prefix < b.length() && a.charAt(prefix) == b.charAt(prefix))
+            prefix++;
+        double ca = code(a, prefix), cb = code(b, prefix);
+        double between = cb > ca ? (code(s, prefix) - ca) / (cb - ca) : 0.5;
+        return after - 1 + Math.max(0.001, Math.min(0.999, between));
     }
 
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
-     * 
+     *
      * @param op
      *            The operation being applied
      * @param s
      *            The string to apply op to
      */
     public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
+        EquiDepthBuckets b = buckets();
+        return b.estimateSelectivity(op, rank(s));
     }
 
     /**
-     * @return the average selectivity of this histogram.
-     * 
-     *         This is not an indispensable method to implement the basic join
-     *         optimization. It may be needed if you want to implement a more
-     *         efficient optimization
-     * */
+     * @return the average selectivity of an equality predicate on a value in
+     *         this histogram
+     */
     public double avgSelectivity() {
-        return hist.avgSelectivity();
+        return buckets().avgSelectivity();
+    }
+
+    /**
+     * @return the estimated number of distinct values added to this histogram
+     */
+    public double numDistinct() {
+        return buckets().numDistinct();
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "StringHistogram(" + sampler.seen() + " values, ranks): " + buckets();
     }
 }
@@ -1,36 +1,89 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
-import simpledb.common.Type;
+import simpledb.common.DbException;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
- * 
- * This class is not needed in implementing lab1 and lab2.
+ * query: the number of tuples and pages of a table, and an equi-depth
+ * histogram of each of its fields, from which the selectivity of predicates
+ * and the number of distinct values of fields are estimated.
+ * <p>
+ * The statistics of a large table are computed from a random sample of its
+ * pages, and the number of distinct values of each field is counted with a
+ * HyperLogLog sketch of the values read. Statistics can be saved to a file,
+ * and loaded back as long as the tables they describe have not changed.
+ * <p>
+ * The BufferPool reports every tuple it inserts or deletes, and the
+ * statistics of the table are kept up to date: its number of tuples and
+ * pages, and the histograms and sketches of its fields, which inserted tuples
+ * are added to (at the rate the tuples of the table were sampled). Deleted
+ * tuples cannot be taken out of a sample or a sketch, so once a table has
+ * been modified enough since it was analyzed, by inserts or deletes, it is
+ * analyzed again in the background, after the transaction that modified it
+ * commits. Modifications by transactions that abort are counted as well.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    private static final long serialVersionUID = 2L;
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * A table is analyzed again once it has had this fraction of its tuples
+     * inserted or deleted since it was analyzed, and at least
+     * REANALYZE_MIN_MODIFICATIONS of them
+     */
+    static final double REANALYZE_FRACTION = 0.2;
+    static final int REANALYZE_MIN_MODIFICATIONS = 500;
+
+    /** Analyzes tables again, one at a time, without holding up queries */
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "table-stats");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Incremented whenever the statistics of a table are replaced, by
+     * computing or analyzing them again, or the selectivities learned by
+     * {@link SelectivityFeedback} change an estimate by much; not by the
+     * updates made for each tuple inserted or deleted
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /** Whether some table is due to be analyzed again */
+    private static volatile boolean anyStale;
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
     }
     
     public static void setStatsMap(Map<String,TableStats> s)
@@ -39,26 +92,148 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            version.incrementAndGet();
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
 
     }
 
+    /** @return a number that changes whenever the statistics of a table are replaced */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /** Make the plans optimized against the current statistics out of date */
+    static void invalidatePlans() {
+        version.incrementAndGet();
+    }
+
     public static Map<String, TableStats> getStatsMap() {
         return statsMap;
     }
 
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        computeStatistics(null, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Compute the statistics of every table of the catalog. The statistics
+     * saved in statsFile that are still current are used as they are; those
+     * of the other tables are computed, and the file is then rewritten.
+     *
+     * @param statsFile
+     *            the file the statistics are saved in, or null not to save them
+     * @param sampleRate
+     *            the fraction of the pages of large tables to read
+     */
+    public static void computeStatistics(File statsFile, double sampleRate) {
+        Map<String, TableStats> saved = new HashMap<>();
+        if (statsFile != null && statsFile.exists()) {
+            try {
+                saved = readStatistics(statsFile);
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable table stats in " + statsFile + ": " + e);
+            }
+        }
 
         System.out.println("Computing table stats.");
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        int computed = 0;
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s == null || !s.isCurrent(tableid, sampleRate)) {
+                s = new TableStats(tableid, IOCOSTPERPAGE, sampleRate);
+                computed++;
+            }
+            setTableStats(name, s);
+        }
+        if (statsFile != null && computed > 0) {
+            try {
+                writeStatistics(statsFile);
+            } catch (IOException e) {
+                System.out.println("Cannot save table stats to " + statsFile + ": " + e);
+            }
+        }
+        System.out.println("Done (" + computed + " of " + statsMap.size() + " tables analyzed).");
+    }
+
+    /** @return the statistics of a table, if they are those of that table id */
+    private static TableStats statsOf(int tableid) {
+        TableStats s;
+        try {
+            s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return s != null && s.tableid == tableid ? s : null;
+    }
+
+    /** Update the statistics of a table for a tuple inserted into it */
+    public static void tupleInserted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null)
+            s.inserted(t);
+    }
+
+    /** Update the statistics of a table for a tuple deleted from it */
+    public static void tupleDeleted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null)
+            s.deleted();
+    }
+
+    /**
+     * Start analyzing again, in the background, the tables that have been
+     * modified enough since they were analyzed. Called when a transaction
+     * commits, so that the pages it wrote are on disk.
+     */
+    public static void analyzeStaleTables() {
+        if (!anyStale)
+            return;
+        anyStale = false;
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            TableStats s = e.getValue();
+            if (s.claimStale())
+                analyzer.execute(() -> s.reanalyze(e.getKey()));
+        }
+    }
+
+    /**
+     * @return the file the statistics of the tables of a catalog are saved
+     *         in: the catalog file, with the extension .stats
+     */
+    public static File statsFileFor(String catalogFile) {
+        File catalog = new File(catalogFile).getAbsoluteFile();
+        String name = catalog.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(catalog.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".stats");
+    }
+
+    /** Save the statistics of all the tables to a file */
+    public static void writeStatistics(File statsFile) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(statsFile)))) {
+            out.writeObject(new HashMap<>(statsMap));
+        }
+    }
+
+    /**
+     * @return the statistics saved in a file by {@link #writeStatistics},
+     *         by table name
+     * @throws IOException if the file cannot be read, or does not hold
+     *         statistics of this version
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, TableStats> readStatistics(File statsFile) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(statsFile)))) {
+            return (Map<String, TableStats>) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("not a table stats file", e);
         }
-        System.out.println("Done.");
     }
 
     /**
@@ -68,9 +243,52 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /** The fraction of the pages of a large table read to compute its statistics */
+    public static final double DEFAULT_SAMPLE_RATE = 0.05;
+
+    /** Tables of at most this many pages are read whole */
+    static final int MIN_SAMPLE_PAGES = 256;
+
+    private final int tableid;
+    private final int ioCostPerPage;
+    private int numPages;
+    private final TupleDesc td;
+    private int numTuples;
+    /** The number of pages read, and of tuples on them */
+    private int sampledPages;
+    private int sampledTuples;
+    /**
+     * The fraction of the tuples of the table that were read, and the share
+     * of an inserted tuple owed to the sample so far
+     */
+    private double sampleFraction = 1.0;
+    private double sampleCredit;
+    /** The tuples when the table was analyzed, and those inserted or deleted since */
+    private int analyzedTuples;
+    private int modifications;
+    /** Whether the table is due to be analyzed again, or being analyzed */
+    private transient boolean stale;
+    private transient boolean analyzing;
+    /**
+     * The estimated number of distinct values of each field, or null until
+     * they are asked for again; the optimizer asks for them many times
+     */
+    private transient double[] distinct;
+    /** The histogram of each field, of the class that suits its type */
+    private final IntHistogram[] intHists;
+    private final DoubleHistogram[] doubleHists;
+    private final StringHistogram[] stringHists;
+    /** The distinct values read of each field */
+    private final HyperLogLog[] sketches;
+    /** What the statistics were computed from, to tell when they are stale */
+    private final double sampleRate;
+    private final long fileLength;
+    private final long fileModified;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
-     * column of a table
+     * column of a table. The histograms of all the columns are built in a
+     * single scan of the table, or of a sample of its pages.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -79,14 +297,289 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Create a new TableStats object from a random sample of the pages of a
+     * table: the specified fraction of them, but at least
+     * {@link #MIN_SAMPLE_PAGES}. The pages are chosen the same way each time,
+     * and read in order. Tables that are not heap files are read whole.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO.
+     * @param sampleRate
+     *            the fraction of the pages to read, in (0, 1]
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleRate) {
+        this(tableid, ioCostPerPage, sampleRate, false);
+    }
+
+    /**
+     * @param fromDisk
+     *            whether to read the pages of the table, which must be a heap
+     *            file, from disk rather than through the BufferPool. No locks
+     *            are taken, so that analyzing the table does not block, or
+     *            abort, transactions; the tuples read are those of the
+     *            transactions that have committed.
+     */
+    private TableStats(int tableid, int ioCostPerPage, double sampleRate, boolean fromDisk) {
+        if (!(sampleRate > 0 && sampleRate <= 1))
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + sampleRate);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = pagesOf(file);
+        this.td = file.getTupleDesc();
+        this.sampleRate = sampleRate;
+        File data = dataFileOf(file);
+        this.fileLength = data == null ? -1 : data.length();
+        this.fileModified = data == null ? -1 : data.lastModified();
+        int n = td.numFields();
+        this.intHists = new IntHistogram[n];
+        this.doubleHists = new DoubleHistogram[n];
+        this.stringHists = new StringHistogram[n];
+        this.sketches = new HyperLogLog[n];
+        for (int j = 0; j < n; j++) {
+            sketches[j] = new HyperLogLog();
+            switch (td.getFieldType(j)) {
+                case INT_TYPE:
+                    intHists[j] = new IntHistogram(NUM_HIST_BINS);
+                    break;
+                case STRING_TYPE:
+                    stringHists[j] = new StringHistogram(NUM_HIST_BINS);
+                    break;
+                default:
+                    doubleHists[j] = new DoubleHistogram(NUM_HIST_BINS);
+                    break;
+            }
+        }
+
+        BitSet sample = samplePages(file, tableid);
+        if (fromDisk) {
+            readPages((HeapFile) file, sample);
+        } else {
+            scan(tableid, sample);
+        }
+
+        numTuples = sampledTuples;
+        if (sampledPages < numPages) {
+            numTuples = (int) Math.round((double) sampledTuples * numPages / Math.max(1, sampledPages));
+            sampleFraction = (double) sampledTuples / Math.max(1, numTuples);
+            setPopulation();
+        }
+        analyzedTuples = numTuples;
+    }
+
+    /** Read the pages of the sample, or all of them, through the BufferPool */
+    private void scan(int tableid, BitSet sample) {
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            if (sample == null) {
+                sampledPages = numPages;
+                scan(new SeqScan(t.getId(), tableid));
+            } else {
+                // each run of consecutive sampled pages is read in one scan
+                String alias = Database.getCatalog().getTableName(tableid);
+                for (int p = sample.nextSetBit(0); p >= 0; ) {
+                    int end = sample.nextClearBit(p);
+                    scan(new SeqScan(t.getId(), tableid, alias, null, p, end));
+                    sampledPages += end - p;
+                    p = sample.nextSetBit(end);
+                }
+            }
+            t.commit();
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException("cannot compute the statistics of table " + tableid, e);
+        }
+    }
+
+    /** Read the pages of the sample, or all of them, from disk */
+    private void readPages(HeapFile file, BitSet sample) {
+        for (int p = 0; p < numPages; p++) {
+            if (sample != null && !sample.get(p))
+                continue;
+            HeapPage page = (HeapPage) file.readPage(new HeapPageId(tableid, p));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext())
+                addTuple(it.next());
+            sampledPages++;
+        }
+    }
+
+    /** Tell the histograms how many tuples the sample stands for */
+    private void setPopulation() {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (intHists[j] != null)
+                intHists[j].setPopulation(numTuples);
+            else if (stringHists[j] != null)
+                stringHists[j].setPopulation(numTuples);
+            else
+                doubleHists[j].setPopulation(numTuples);
+        }
+    }
+
+    /**
+     * @return the pages of the table to read, or null to read them all: a
+     *         random set of them, chosen from a seed that is the table id
+     */
+    private BitSet samplePages(DbFile file, int tableid) {
+        int k = Math.max(MIN_SAMPLE_PAGES, (int) Math.ceil(numPages * sampleRate));
+        if (!(file instanceof HeapFile) || k >= numPages)
+            return null;
+        // k distinct pages, each set of them equally likely (Floyd's algorithm)
+        Random random = new Random(tableid);
+        BitSet pages = new BitSet(numPages);
+        for (int j = numPages - k; j < numPages; j++) {
+            int p = random.nextInt(j + 1);
+            pages.set(pages.get(p) ? j : p);
+        }
+        return pages;
+    }
+
+    private void scan(SeqScan scan) throws DbException, TransactionAbortedException {
+        scan.open();
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null)
+            addBatch(batch);
+        scan.close();
+    }
+
+    private static int pagesOf(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages();
+        return 0;
+    }
+
+    private static File dataFileOf(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).getFile();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).getFile();
+        return null;
+    }
+
+    /**
+     * @return whether these statistics, loaded from a file, are still those
+     *         of the table: it has the same fields, and its data file has
+     *         not been written since they were computed at this sample rate
+     */
+    boolean isCurrent(int tableid, double sampleRate) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        File data = dataFileOf(file);
+        return data != null && this.sampleRate == sampleRate && td.equals(file.getTupleDesc())
+                && numPages == pagesOf(file) && fileLength == data.length()
+                && fileModified == data.lastModified();
+    }
+
+    /** Add the values of each field of a batch to its histogram and sketch */
+    private void addBatch(TupleBatch batch) {
+        int rows = batch.numRows();
+        if (rows == 0)
+            return;
+        sampledTuples += rows;
+        // the rows of an unfiltered batch are its first positions, and INT
+        // columns can then be added without looking at the rows that are
+        // not sampled
+        boolean contiguous = batch.row(rows - 1) == rows - 1;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (intHists[j] != null && batch.isIntColumn(j) && contiguous) {
+                intHists[j].addValues(batch.getIntColumn(j), rows);
+                sketches[j].addValues(batch.getIntColumn(j), rows);
+                continue;
+            }
+            for (int k = 0; k < rows; k++) {
+                Field f = batch.getField(j, batch.row(k));
+                sketches[j].addValue(f);
+                if (intHists[j] != null)
+                    intHists[j].addValue(((IntField) f).getValue());
+                else if (stringHists[j] != null)
+                    stringHists[j].addValue(((StringField) f).getValue());
+                else
+                    doubleHists[j].addValue(DoubleHistogram.toDouble(f));
+            }
+        }
+    }
+
+    /** Add the values of each field of a tuple to its histogram and sketch */
+    private void addTuple(Tuple t) {
+        sampledTuples++;
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            sketches[j].addValue(f);
+            if (intHists[j] != null)
+                intHists[j].addValue(((IntField) f).getValue());
+            else if (stringHists[j] != null)
+                stringHists[j].addValue(((StringField) f).getValue());
+            else
+                doubleHists[j].addValue(DoubleHistogram.toDouble(f));
+        }
+    }
+
+    private synchronized void inserted(Tuple t) {
+        numTuples++;
+        // an inserted tuple is sampled as often as those of the table were
+        sampleCredit += sampleFraction;
+        if (sampleCredit >= 1.0) {
+            sampleCredit -= 1.0;
+            addTuple(t);
+        }
+        if (sampleFraction < 1.0)
+            setPopulation();
+        numPages = Math.max(numPages, pagesOf(Database.getCatalog().getDatabaseFile(tableid)));
+        modified();
+    }
+
+    private synchronized void deleted() {
+        numTuples = Math.max(0, numTuples - 1);
+        if (sampleFraction < 1.0)
+            setPopulation();
+        modified();
+    }
+
+    private void modified() {
+        modifications++;
+        distinct = null;
+        if (!stale && !analyzing && modifications >= Math.max(REANALYZE_MIN_MODIFICATIONS,
+                REANALYZE_FRACTION * analyzedTuples)) {
+            stale = true;
+            anyStale = true;
+        }
+    }
+
+    /** @return whether the table is due to be analyzed, which it now is being */
+    private synchronized boolean claimStale() {
+        if (!stale)
+            return false;
+        stale = false;
+        analyzing = true;
+        return true;
+    }
+
+    /** Analyze the table again, and replace these statistics if they are still used */
+    private void reanalyze(String name) {
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+            if (file instanceof HeapFile) {
+                if (statsMap.replace(name, this, new TableStats(tableid, ioCostPerPage, sampleRate, true)))
+                    version.incrementAndGet();
+                return;
+            }
+            // other files can only be read through the BufferPool, and are
+            // analyzed when the statistics are computed again
+        } catch (RuntimeException e) {
+            // the table has been dropped, or could not be read; try again
+            // after as many modifications
+        }
+        synchronized (this) {
+            modifications = 0;
+            analyzing = false;
+        }
     }
 
     /**
@@ -101,9 +594,8 @@ public class TableStats {
      * 
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
-        // some code goes here
-        return 0;
+    public synchronized double estimateScanCost() {
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -115,9 +607,8 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -130,9 +621,27 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
+        double eq;
+        if (intHists[field] != null)
+            eq = intHists[field].avgSelectivity();
+        else if (stringHists[field] != null)
+            eq = stringHists[field].avgSelectivity();
+        else
+            eq = doubleHists[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            case LESS_THAN:
+            case GREATER_THAN:
+                // of two unequal values, each is the smaller one half the time
+                return (1.0 - eq) / 2;
+            default:
+                return (1.0 - eq) / 2 + eq;
+        }
     }
 
     /**
@@ -146,19 +655,86 @@ public class TableStats {
      * @param constant
      *            The value against which the field is compared
      * @return The estimated selectivity (fraction of tuples that satisfy) the
-     *         predicate
+     *         predicate: the one observed by the last queries that ran it, if
+     *         {@link SelectivityFeedback} remembers it, and the one of the
+     *         histograms otherwise
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        Double observed = SelectivityFeedback.get(tableid, field, op, constant);
+        return observed != null ? observed : histogramSelectivity(field, op, constant);
+    }
+
+    /**
+     * @return the selectivity of predicate <tt>field op constant</tt> on the
+     *         table that the histograms estimate
+     */
+    synchronized double histogramSelectivity(int field, Predicate.Op op, Field constant) {
+        if (intHists[field] != null && constant instanceof IntField)
+            return intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        if (stringHists[field] != null)
+            return stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
+        double v = DoubleHistogram.toDouble(constant);
+        if (intHists[field] != null) {
+            // a fractional bound on an INT field: compare with the nearest
+            // integer on the side the predicate is open
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return v == Math.rint(v) ? intHists[field].estimateSelectivity(op, (int) v) : 0.0;
+                case NOT_EQUALS:
+                    return v == Math.rint(v) ? intHists[field].estimateSelectivity(op, (int) v) : 1.0;
+                case LESS_THAN:
+                case GREATER_THAN_OR_EQ:
+                    return intHists[field].estimateSelectivity(op, (int) Math.ceil(v));
+                default:
+                    return intHists[field].estimateSelectivity(op, (int) Math.floor(v));
+            }
+        }
+        return doubleHists[field].estimateSelectivity(op, v);
+    }
+
+    /**
+     * @return the estimated number of distinct values of the field, at most
+     *         the number of tuples of the table
+     */
+    public synchronized double numDistinctValues(int field) {
+        if (distinct == null) {
+            distinct = new double[td.numFields()];
+            Arrays.fill(distinct, -1);
+        }
+        if (distinct[field] < 0)
+            distinct[field] = estimateDistinct(field);
+        return Math.min(distinct[field], numTuples);
+    }
+
+    private double estimateDistinct(int field) {
+        double sampled;
+        int sampleSize;
+        if (intHists[field] != null) {
+            sampled = intHists[field].numDistinct();
+            sampleSize = IntHistogram.SAMPLE_SIZE;
+        } else if (stringHists[field] != null) {
+            sampled = stringHists[field].numDistinct();
+            sampleSize = StringHistogram.SAMPLE_SIZE;
+        } else {
+            sampled = doubleHists[field].numDistinct();
+            sampleSize = IntHistogram.SAMPLE_SIZE;
+        }
+        if (sampleFraction < 1.0)
+            // the sketch counts the values of the pages read, and the
+            // histogram extrapolates from them to the whole table
+            return Math.max(sketches[field].estimate(), sampled);
+        if (sampledTuples <= sampleSize)
+            // the histogram holds every value, and its count is exact
+            return sampled;
+        return sketches[field].estimate();
     }
 
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-        // some code goes here
-        return 0;
+    public synchronized int totalTuples() {
+        return numTuples;
     }
 
 }
@@ -25,6 +25,16 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    /**
+     * @return the tuple read ahead by hasNext() and not yet returned, if any,
+     *         which the caller now returns in place of this iterator
+     */
+    protected Tuple takeNext() {
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.TableStats;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -11,6 +13,7 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -56,6 +59,11 @@ public class BufferPool {
         this.pages = new ConcurrentHashMap<>(numPages);
     }
 
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getNumPages() {
+        return numPages;
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -172,7 +180,12 @@ public class BufferPool {
             for (PageId pageId : pageIds)
                 this.discardPage(pageId);
         }
-        this.lockManager.releaseAllLocks(tid);   
+        this.lockManager.releaseAllLocks(tid);
+        if (commit) {
+            // the pages the transaction wrote are now on disk, where tables
+            // are analyzed from
+            TableStats.analyzeStaleTables();
+        }
     }
 
     /**
@@ -192,17 +205,16 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        // looked up first, so that the file of an index, which is not a
+        // table, is refused before it is modified
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
         DbFile dbfile = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> pageArray = (ArrayList<Page>) dbfile.insertTuple(tid, t);
+        this.cacheDirtyPages(tid, dbfile.insertTuple(tid, t));
 
-        for (Page page : pageArray) {
-            page.markDirty(true, tid);
-            if (!this.pages.containsKey(page.getId()) && this.pages.size() >= this.numPages) {
-                this.evictPage();
-            }
-            this.pages.remove(page.getId());
-            this.pages.put(page.getId(), page);
+        for (SecondaryIndex index : indexes) {
+            this.cacheDirtyPages(tid, index.insertEntry(tid, t));
         }
+        TableStats.tupleInserted(tableId, t);
     }
 
     /**
@@ -221,10 +233,23 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         int tableId = t.getRecordId().getPageId().getTableId();
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
         DbFile dbfile = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> pageArray = (ArrayList<Page>) dbfile.deleteTuple(tid, t);
+        // index entries are located through the tuple's RecordId, so remove
+        // them before the base tuple is deleted
+        for (SecondaryIndex index : indexes) {
+            this.cacheDirtyPages(tid, index.deleteEntry(tid, t));
+        }
+        this.cacheDirtyPages(tid, dbfile.deleteTuple(tid, t));
+        TableStats.tupleDeleted(tableId, t);
+    }
 
-        for (Page page : pageArray) {
+    /**
+     * Mark the pages dirtied by an insert or delete as dirty and add them to
+     * the cache, replacing any existing versions of those pages.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> dirtied) throws DbException {
+        for (Page page : dirtied) {
             page.markDirty(true, tid);
             if (!this.pages.containsKey(page.getId()) && this.pages.size() >= this.numPages) {
                 this.evictPage();
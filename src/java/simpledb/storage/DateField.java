@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.time.LocalDate;
+
+/**
+ * Instance of Field that stores a single calendar date, as the number of days
+ * since 1970-01-01. Dates are written out and parsed in the ISO format
+ * yyyy-mm-dd.
+ */
+public class DateField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int epochDay;
+
+    /**
+     * @return the number of days between 1970-01-01 and this date
+     */
+    public int getValue() {
+        return epochDay;
+    }
+
+    public LocalDate getDate() {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param epochDay The number of days between 1970-01-01 and the value of
+     *                 this field.
+     */
+    public DateField(int epochDay) {
+        this.epochDay = epochDay;
+    }
+
+    /**
+     * @return the DateField for the date written as yyyy-mm-dd in s
+     * @throws java.time.format.DateTimeParseException if s is not such a date
+     */
+    public static DateField valueOf(String s) {
+        return new DateField(Math.toIntExact(LocalDate.parse(s).toEpochDay()));
+    }
+
+    public String toString() {
+        return getDate().toString();
+    }
+
+    public int hashCode() {
+        return epochDay;
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof DateField)) return false;
+        return ((DateField) field).epochDay == epochDay;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(epochDay);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DateField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DateField dVal = (DateField) val;
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return epochDay == dVal.epochDay;
+            case NOT_EQUALS:
+                return epochDay != dVal.epochDay;
+            case GREATER_THAN:
+                return epochDay > dVal.epochDay;
+            case GREATER_THAN_OR_EQ:
+                return epochDay >= dVal.epochDay;
+            case LESS_THAN:
+                return epochDay < dVal.epochDay;
+            case LESS_THAN_OR_EQ:
+                return epochDay <= dVal.epochDay;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
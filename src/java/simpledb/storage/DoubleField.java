@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single double precision floating point number.
+ * Two DoubleFields are equal when their values have the same bits, like
+ * Double.equals, so that equal fields also have equal hash codes.
+ */
+public class DoubleField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param d The value of this field.
+     */
+    public DoubleField(double d) {
+        value = d;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof DoubleField)) return false;
+        return Double.doubleToLongBits(((DoubleField) field).value) == Double.doubleToLongBits(value);
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DoubleField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DoubleField dVal = (DoubleField) val;
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return value == dVal.value;
+            case NOT_EQUALS:
+                return value != dVal.value;
+            case GREATER_THAN:
+                return value > dVal.value;
+            case GREATER_THAN_OR_EQ:
+                return value >= dVal.value;
+            case LESS_THAN:
+                return value < dVal.value;
+            case LESS_THAN_OR_EQ:
+                return value <= dVal.value;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return Type.DOUBLE_TYPE
+     */
+    public Type getType() {
+        return Type.DOUBLE_TYPE;
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+/**
+ * HashPartitioner divides tuples into partitions by the hash of a field, for
+ * operators that write out the partitions that do not fit in memory to
+ * SpillFiles and process them one at a time. A partition that still does not
+ * fit is partitioned again at the next level, which uses different bits of
+ * the hash, until MAX_LEVEL is reached.
+ *
+ * @see SpillFile
+ */
+public final class HashPartitioner {
+
+    /** Each level of partitioning uses PARTITION_BITS bits of the hash */
+    public static final int PARTITION_BITS = 4;
+
+    /** The number of partitions at each level */
+    public static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    /**
+     * Partitions at this level are processed in memory whatever their size,
+     * as all their tuples may have the same value
+     */
+    public static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+    private HashPartitioner() {
+    }
+
+    /**
+     * @return the partition of the specified value at the specified level;
+     *         each level uses different bits of the hash
+     */
+    public static int partition(Field key, int level) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> (level * PARTITION_BITS)) & (NUM_PARTITIONS - 1);
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -17,14 +18,45 @@ import javax.xml.crypto.Data;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. The layout of the file selects other page formats: a slotted
+ * HeapFile stores its tuples as variable-length records on SlottedHeapPages, and
+ * a PAX HeapFile stores them column by column on PaxPages.
  * 
  * @see HeapPage#HeapPage
+ * @see SlottedHeapPage
+ * @see PaxPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+
+    /**
+     * The page formats a HeapFile can store its tuples in.
+     */
+    public enum Layout {
+        /** fixed-length tuples stored row by row, on HeapPages */
+        ROW,
+        /** variable-length records, on SlottedHeapPages */
+        SLOTTED,
+        /** fixed-length values stored column by column, on PaxPages */
+        PAX;
+
+        /**
+         * @return the layout with the specified name, as used in schema files
+         *         (ignoring case)
+         * @throws NoSuchElementException if there is no layout with that name
+         */
+        public static Layout forName(String name) throws NoSuchElementException {
+            for (Layout l : values()) {
+                if (l.name().equalsIgnoreCase(name.trim()))
+                    return l;
+            }
+            throw new NoSuchElementException("unknown layout " + name);
+        }
+    }
+
     private final File file;
     private final TupleDesc tupledesc;
+    private final Layout layout;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -34,9 +66,40 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, Layout.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *          the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param layout
+     *          the format of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, Layout layout) {
         this.file = f;
         this.tupledesc = td;
+        this.layout = layout;
+    }
 
+    /**
+     * @return the format of the pages of this file
+     */
+    public Layout getLayout() {
+        return this.layout;
+    }
+
+    private HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        switch (this.layout) {
+            case SLOTTED:
+                return new SlottedHeapPage(pid, data);
+            case PAX:
+                return new PaxPage(pid, data);
+            default:
+                return new HeapPage(pid, data);
+        }
     }
 
     /**
@@ -81,7 +144,7 @@ public class HeapFile implements DbFile {
 
         try {
             if (pid.getPageNumber() == this.numPages()) {
-                Page p = new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+                Page p = newPage((HeapPageId) pid, HeapPage.createEmptyPageData());
                 this.writePage(p);
                 return p;
             } else {
@@ -89,7 +152,7 @@ public class HeapFile implements DbFile {
                 raf.seek(offset);
                 raf.read(data, 0, pageSize);
                 raf.close();
-                return new HeapPage((HeapPageId) pid, data);
+                return newPage((HeapPageId) pid, data);
 
             }
         } catch (IllegalArgumentException | IOException e) {
@@ -120,21 +183,24 @@ public class HeapFile implements DbFile {
         // Find a page that has an space for a new tuple
         for (int currentPageNo = 0; currentPageNo < this.numPages(); currentPageNo++) {
             HeapPageId pageId = new HeapPageId(this.getId(), currentPageNo);
+            boolean held = Database.getBufferPool().holdsLock(tid, pageId);
             HeapPage currentPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            if (currentPage.getNumEmptySlots() > 0) {
+            if (currentPage.hasRoomFor(t)) {
                 // Upgrade read lock to write lock
                 currentPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
                 currentPage.insertTuple(t);
                 modifiedPages.add(currentPage);
                 break;
-            } else {
+            } else if (!held) {
+                // a page this transaction already locked may hold its
+                // writes, which must be flushed when it commits
                 Database.getBufferPool().unsafeReleasePage(tid, pageId);
             }
         }
 
         // If there are no existing pages, create a new page and add in the tuple
         if (modifiedPages.isEmpty()) {
-            HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()), new byte[BufferPool.getPageSize()]);
+            HeapPage newPage = newPage(new HeapPageId(getId(), numPages()), new byte[BufferPool.getPageSize()]);
             newPage.insertTuple(t);
             this.writePage(newPage);
             modifiedPages.add(newPage);
@@ -166,4 +232,43 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this.getId(), tid, this.numPages());
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that keeps only the
+     * specified fields of each tuple, in that order. On a PAX file only those
+     * fields are decoded.
+     *
+     * @param fields the indexes of the fields to return
+     * @see HeapPage#iterator(int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new HeapFileIterator(this.getId(), tid, this.numPages(), fields);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file,
+     * so that parts of the file can be scanned separately.
+     *
+     * @param firstPage the number of the first page to read
+     * @param endPage   one more than the number of the last page to read
+     * @param fields    the indexes of the fields to return, or null to return
+     *                  whole tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, int[] fields) {
+        return iterator(tid, firstPage, endPage, fields, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file
+     * that satisfy the specified predicates, which are compared on the bytes
+     * of each page before its tuples are decoded.
+     *
+     * @param predicates predicates over the fields of the table, or null
+     * @see #iterator(TransactionId, int, int, int[])
+     * @see HeapPage#iterator(int[], Predicate[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, int[] fields,
+            Predicate[] predicates) {
+        return new HeapFileIterator(this.getId(), tid, firstPage, endPage, fields, predicates);
+    }
+
 }
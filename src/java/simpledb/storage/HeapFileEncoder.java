@@ -4,8 +4,11 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -140,14 +143,7 @@ public class HeapFileEncoder {
             first = false;
         if (c == fieldSeparator || c == '\n' || c == '\r') {
             String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
+            if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
                 if (overflow < 0) {
@@ -158,6 +154,13 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                try {
+                    typeAr[fieldNo].parseText(s.trim()).serialize(pageStream);
+                } catch (ParseException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -224,4 +227,143 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file of
+   * SlottedHeapPages, in which each tuple is stored as a variable-length record.
+   * The input file has the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}; lines that cannot be
+   * parsed are skipped.
+   *
+   * @see SlottedHeapPage
+   * @see HeapFile.Layout#SLOTTED
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character separating fields on a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      convertSlotted(readTuples(inFile, td, fieldSeparator), td, outFile, npagebytes);
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * PaxPages, in which the values of each field are stored together.
+   * The input file has the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}; lines that cannot be
+   * parsed are skipped.
+   *
+   * @see PaxPage
+   * @see HeapFile.Layout#PAX
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character separating fields on a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      convertPax(readTuples(inFile, td, fieldSeparator), td, outFile, npagebytes);
+  }
+
+  /** Read the tuples of the specified input text file, one per line, skipping
+   * (and reporting) lines that cannot be parsed as tuples with the specified
+   * TupleDesc.
+   */
+  private static List<Tuple> readTuples(File inFile, TupleDesc td, char fieldSeparator)
+      throws IOException {
+      int numFields = td.numFields();
+      List<Tuple> tuples = new ArrayList<>();
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+              if (values.length != numFields) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              Tuple t = new Tuple(td);
+              try {
+                  for (int i = 0; i < numFields; i++) {
+                      t.setField(i, td.getFieldType(i).parseText(values[i].trim()));
+                  }
+              } catch (ParseException e) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              tuples.add(t);
+          }
+      }
+      return tuples;
+  }
+
+  /** Write the specified tuples to a binary page file of SlottedHeapPages, filling
+   * each page with as many tuples as fit before starting the next one.
+   *
+   * @see SlottedHeapPage
+   * @param tuples the tuples to write
+   * @param td the TupleDesc of the tuples
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @throws IOException if the output file can't be opened
+   */
+  public static void convertSlotted(List<Tuple> tuples, TupleDesc td, File outFile, int npagebytes)
+      throws IOException {
+      int maxSlots = SlottedHeapPage.getMaxSlots(td, npagebytes);
+      try (FileOutputStream os = new FileOutputStream(outFile)) {
+          List<Tuple> page = new ArrayList<>();
+          int used = SlottedHeapPage.HEADER_SIZE;
+          int npages = 0;
+          for (Tuple t : tuples) {
+              int needed = td.getSize(t) + SlottedHeapPage.SLOT_SIZE;
+              if (used + needed > npagebytes || page.size() == maxSlots) {
+                  os.write(SlottedHeapPage.createPageData(page.toArray(new Tuple[0]), td, npagebytes));
+                  npages++;
+                  page.clear();
+                  used = SlottedHeapPage.HEADER_SIZE;
+              }
+              page.add(t);
+              used += needed;
+          }
+          // write out the last page, or an empty page if there are no tuples
+          if (!page.isEmpty() || npages == 0)
+              os.write(SlottedHeapPage.createPageData(page.toArray(new Tuple[0]), td, npagebytes));
+      }
+  }
+
+  /** Write the specified tuples to a binary page file of PaxPages, filling
+   * each page with as many tuples as it has slots before starting the next one.
+   *
+   * @see PaxPage
+   * @param tuples the tuples to write
+   * @param td the TupleDesc of the tuples
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @throws IOException if the output file can't be opened
+   */
+  public static void convertPax(List<Tuple> tuples, TupleDesc td, File outFile, int npagebytes)
+      throws IOException {
+      int numSlots = PaxPage.getNumSlots(td, npagebytes);
+      try (FileOutputStream os = new FileOutputStream(outFile)) {
+          int npages = 0;
+          for (int start = 0; start < tuples.size(); start += numSlots) {
+              List<Tuple> page = tuples.subList(start, Math.min(tuples.size(), start + numSlots));
+              os.write(PaxPage.createPageData(page.toArray(new Tuple[0]), td, npagebytes));
+              npages++;
+          }
+          // write an empty page if there are no tuples
+          if (npages == 0)
+              os.write(PaxPage.createPageData(new Tuple[0], td, npagebytes));
+      }
+  }
 }
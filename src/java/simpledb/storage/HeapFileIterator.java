@@ -3,60 +3,153 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 
 /**
- * Helper class that implements the DbFileIterator for HeapFiles
+ * Helper class that implements the DbFileIterator for HeapFiles, over all
+ * their pages or a range of them
  */
 public class HeapFileIterator extends AbstractDbFileIterator {
     private int pageIdx;
     private final TransactionId tid;
     private final int tableId;
-    private final int pageNum;
+    private final int firstPage;
+    private final int endPage;
+    private final int[] fields;
+    private final Predicate[] predicates;
+    /** the page being read, or null once past the last page */
+    private HeapPage page;
+    /** the tuples of the page for readNext, created when first needed */
     private Iterator<Tuple> iter;
+    /** the slot of the page that nextBatch reads next */
+    private int slot;
 
     public HeapFileIterator(int tableId, TransactionId tid, int pageNum) {
+        this(tableId, tid, pageNum, null);
+    }
+
+    /**
+     * @param fields the indexes of the fields of each tuple to return, or null
+     *               to return whole tuples
+     */
+    public HeapFileIterator(int tableId, TransactionId tid, int pageNum, int[] fields) {
+        this(tableId, tid, 0, pageNum, fields);
+    }
+
+    /**
+     * @param firstPage the number of the first page to read
+     * @param endPage   one more than the number of the last page to read
+     * @param fields    the indexes of the fields of each tuple to return, or
+     *                  null to return whole tuples
+     */
+    public HeapFileIterator(int tableId, TransactionId tid, int firstPage, int endPage, int[] fields) {
+        this(tableId, tid, firstPage, endPage, fields, null);
+    }
+
+    /**
+     * @param firstPage  the number of the first page to read
+     * @param endPage    one more than the number of the last page to read
+     * @param fields     the indexes of the fields of each tuple to return, or
+     *                   null to return whole tuples
+     * @param predicates predicates over the fields of the table that the
+     *                   tuples returned satisfy, or null to return them all
+     * @see HeapPage#iterator(int[], Predicate[])
+     */
+    public HeapFileIterator(int tableId, TransactionId tid, int firstPage, int endPage, int[] fields,
+            Predicate[] predicates) {
         this.tid = tid;
         this.tableId = tableId;
-        this.pageNum = pageNum;
-        pageIdx = 0;
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+        this.fields = fields;
+        this.predicates = predicates;
+        pageIdx = firstPage;
     }
 
     @Override
     protected Tuple readNext() throws DbException, TransactionAbortedException {
-        if (iter == null)
-            return null;
-
-        if (iter.hasNext())
-            return iter.next();
-
-        while (pageIdx < pageNum - 1) {
-            pageIdx++;
-            open();
-            if (iter == null)
-                return null;
+        while (page != null) {
+            if (iter == null) {
+                if (predicates != null)
+                    iter = page.iterator(fields, predicates);
+                else
+                    iter = fields == null ? page.iterator() : page.iterator(fields);
+            }
             if (iter.hasNext())
                 return iter.next();
+            nextPage();
         }
-
         return null;
     }
 
+    /**
+     * Returns the next tuples of the file in a batch, copying their fields
+     * straight out of the pages rather than returning them as Tuples.
+     *
+     * @param td the schema of the batch: the fields returned by this iterator
+     * @return the next batch of tuples, or null if there are no more tuples
+     * @see HeapPage#fillBatch
+     */
+    public TupleBatch nextBatch(TupleDesc td) throws DbException, TransactionAbortedException {
+        TupleBatch batch = new TupleBatch(td);
+        // the tuples already taken from the current page as Tuples come first
+        Tuple pending = takeNext();
+        if (pending != null)
+            batch.addTuple(pending);
+        if (iter != null) {
+            while (!batch.isFull() && iter.hasNext())
+                batch.addTuple(iter.next());
+            if (!iter.hasNext())
+                nextPage();
+        }
+        while (page != null && !batch.isFull()) {
+            slot = page.fillBatch(batch, slot, fields, predicates);
+            if (slot < 0)
+                nextPage();
+        }
+        return batch.numRows() > 0 ? batch : null;
+    }
+
     @Override
     public void open() throws DbException, TransactionAbortedException {
+        pageIdx = firstPage;
+        if (firstPage > 0 && firstPage >= endPage) {
+            // an empty range of pages; a whole empty file still reads page 0
+            page = null;
+            iter = null;
+            return;
+        }
+        readPage();
+    }
+
+    private void readPage() throws DbException, TransactionAbortedException {
         PageId pid = new HeapPageId(tableId, pageIdx);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-        iter = page.iterator();
+        page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        iter = null;
+        slot = 0;
+    }
+
+    /** Move on to the next page of the range, if there is one */
+    private void nextPage() throws DbException, TransactionAbortedException {
+        if (pageIdx < endPage - 1) {
+            pageIdx++;
+            readPage();
+        } else {
+            page = null;
+            iter = null;
+        }
     }
 
     @Override
     public void close() {
         super.close();
+        page = null;
         iter = null;
-        pageIdx = 0;
+        pageIdx = firstPage;
     }
 
     @Override
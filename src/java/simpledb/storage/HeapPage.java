@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -31,7 +33,12 @@ public class HeapPage implements Page {
     private long lastAccessTimestamp;
 
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    final Object oldDataLock = new Object();
+
+    /** the bytes this page was read from, or null once the tuples are decoded */
+    private volatile byte[] data;
+    /** the offset of each field in a tuple, or null if not read from bytes */
+    private final int[] fieldOffsets;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -47,7 +54,10 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
-     * 
+     * Only the header is read when the page is created; the tuples are
+     * decoded the first time they are needed, so that a scan with predicates
+     * can compare fields on the bytes and decode only the tuples that match.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -56,24 +66,50 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        System.arraycopy(data, 0, header, 0, header.length);
 
         tuples = new Tuple[numSlots];
+        this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Create a HeapPage with the specified number of empty slots, for subclasses
+     * which store their tuples in a different format. The subclass is responsible
+     * for filling in the slots and calling setBeforeImage.
+     *
+     * @see SlottedHeapPage
+     */
+    protected HeapPage(HeapPageId id, int numSlots) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots;
+        this.header = new byte[(numSlots + 7) / 8];
+        this.tuples = new Tuple[numSlots];
+        this.fieldOffsets = null;
+    }
+
+    /** Decode all the tuples of the page from its bytes, if not done yet */
+    private synchronized void decode() {
+        if (data == null)
+            return;
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data, header.length, data.length - header.length));
         try {
-            // allocate and read the actual records of this page
+            // read the actual records of this page
             for (int i = 0; i < tuples.length; i++)
                 tuples[i] = readNextTuple(dis, i);
         } catch (NoSuchElementException e) {
             e.printStackTrace();
         }
-        dis.close();
-
-        setBeforeImage();
+        data = null;
     }
 
     /**
@@ -180,6 +216,9 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        byte[] raw = data;
+        if (raw != null)
+            return raw.clone();
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -265,6 +304,7 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
+        decode();
         RecordId rid = t.getRecordId();
 
         if (rid == null)
@@ -287,6 +327,7 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
+        decode();
         if (this.getNumEmptySlots() == 0)
             throw new DbException("The page is full.");
         if (!t.getTupleDesc().equals(this.td)) {
@@ -340,6 +381,13 @@ public class HeapPage implements Page {
         return emptySlots;
     }
 
+    /**
+     * Returns true if the specified tuple can be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -353,7 +401,7 @@ public class HeapPage implements Page {
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    void markSlotUsed(int i, boolean value) {
         if (isSlotUsed(i) != value) {
             if (value) {
                 header[i / 8] |= (1 << (i % 8));
@@ -363,6 +411,18 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Returns the tuple stored in the specified slot, or null if the slot is
+     * not in use (or out of range).
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            return null;
+        }
+        decode();
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this
      *         iterator throws an UnsupportedOperationException)
@@ -370,6 +430,7 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        decode();
         ArrayList<Tuple> tupleList = new ArrayList<>();
         for (int i = 0; i < numSlots; i++) {
             if (isSlotUsed(i)) {
@@ -380,4 +441,170 @@ public class HeapPage implements Page {
         // default implementation of iterator throws an UnsupportedOperationException
     }
 
+    /**
+     * @return an iterator over all tuples on this page, keeping only the
+     *         specified fields (in that order) of each tuple. The returned
+     *         tuples keep the RecordIds of the tuples they were taken from.
+     * @param fields the indexes of the fields to return
+     */
+    public Iterator<Tuple> iterator(int[] fields) {
+        TupleDesc projected = td.project(fields);
+        ArrayList<Tuple> tupleList = new ArrayList<>();
+        Iterator<Tuple> it = iterator();
+        while (it.hasNext()) {
+            tupleList.add(project(it.next(), fields, projected));
+        }
+        return tupleList.iterator();
+    }
+
+    private static Tuple project(Tuple t, int[] fields, TupleDesc projected) {
+        Tuple p = new Tuple(projected);
+        for (int j = 0; j < fields.length; j++) {
+            p.setField(j, t.getField(fields[j]));
+        }
+        p.setRecordId(t.getRecordId());
+        return p;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy all the
+     *         specified predicates, keeping only the specified fields of
+     *         each. While the page has not been decoded, the predicates are
+     *         evaluated on its bytes, and only the fields of the tuples that
+     *         satisfy them are decoded.
+     * @param fields     the indexes of the fields to return, or null to
+     *                   return whole tuples
+     * @param predicates predicates over the fields of the table, or null
+     */
+    public synchronized Iterator<Tuple> iterator(int[] fields, Predicate[] predicates) {
+        if (predicates == null || predicates.length == 0)
+            return fields == null ? iterator() : iterator(fields);
+        TupleDesc projected = fields == null ? td : td.project(fields);
+        ArrayList<Tuple> tupleList = new ArrayList<>();
+        byte[] raw = getRawData();
+        if (raw == null) {
+            Iterator<Tuple> it = iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (matches(t, predicates))
+                    tupleList.add(fields == null ? t : project(t, fields, projected));
+            }
+            return tupleList.iterator();
+        }
+        try {
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i) || !matches(raw, i, predicates))
+                    continue;
+                Tuple t = new Tuple(projected);
+                t.setRecordId(new RecordId(pid, i));
+                for (int k = 0; k < projected.numFields(); k++) {
+                    int field = fields == null ? k : fields[k];
+                    Type type = td.getFieldType(field);
+                    t.setField(k, type.parse(new DataInputStream(
+                            new ByteArrayInputStream(raw, getFieldOffset(i, field), type.getLen()))));
+                }
+                tupleList.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return tupleList.iterator();
+    }
+
+    /**
+     * Adds the tuples on this page that satisfy all the specified predicates
+     * to a batch, starting at the specified slot, until the batch is full.
+     * While the page has not been decoded, the predicates are evaluated on
+     * its bytes and the fields are copied from them into the columns of the
+     * batch, without creating a Tuple, or a Field for INT values.
+     *
+     * @param batch      the batch to add the tuples to, whose fields are the
+     *                   specified fields of the table
+     * @param slot       the first slot to read
+     * @param fields     the indexes of the fields to add, or null to add
+     *                   every field
+     * @param predicates predicates over the fields of the table, or null
+     * @return the slot to read next, or -1 once every slot has been read
+     */
+    public synchronized int fillBatch(TupleBatch batch, int slot, int[] fields, Predicate[] predicates) {
+        int n = fields == null ? td.numFields() : fields.length;
+        byte[] raw = getRawData();
+        try {
+            for (; slot < numSlots; slot++) {
+                if (batch.isFull())
+                    return slot;
+                if (!isSlotUsed(slot))
+                    continue;
+                if (raw == null) {
+                    Tuple t = getTuple(slot);
+                    if (predicates != null && !matches(t, predicates))
+                        continue;
+                    int row = batch.addRow();
+                    for (int k = 0; k < n; k++)
+                        batch.setField(k, row, t.getField(fields == null ? k : fields[k]));
+                    batch.setRecordId(row, t.getRecordId());
+                    continue;
+                }
+                if (predicates != null && !matches(raw, slot, predicates))
+                    continue;
+                int row = batch.addRow();
+                for (int k = 0; k < n; k++) {
+                    int field = fields == null ? k : fields[k];
+                    Type type = td.getFieldType(field);
+                    int offset = getFieldOffset(slot, field);
+                    if (batch.isIntColumn(k))
+                        batch.setInt(k, row, intAt(raw, offset));
+                    else
+                        batch.setField(k, row, type.parse(new DataInputStream(
+                                new ByteArrayInputStream(raw, offset, type.getLen()))));
+                }
+                batch.setRecordId(row, new RecordId(pid, slot));
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return -1;
+    }
+
+    /** @return the INT value stored at the specified offset of data */
+    private static int intAt(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static boolean matches(Tuple t, Predicate[] predicates) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean matches(byte[] raw, int slot, Predicate[] predicates) {
+        for (Predicate p : predicates) {
+            if (!td.getFieldType(p.getField()).compare(raw, getFieldOffset(slot, p.getField()), p.getOp(),
+                    p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the bytes this page was read from, if its tuples have not been
+     *         decoded yet, or null
+     */
+    protected byte[] getRawData() {
+        return data;
+    }
+
+    /**
+     * @return the offset, in the bytes returned by getRawData, of the
+     *         specified field of the tuple in the specified slot
+     */
+    protected int getFieldOffset(int slot, int field) {
+        return header.length + slot * td.getSize() + fieldOffsets[field];
+    }
+
 }
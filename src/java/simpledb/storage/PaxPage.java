@@ -0,0 +1,241 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxPage is a HeapPage that stores its tuples column by column (the PAX
+ * layout): after the same header of used-slot bits as a HeapPage, the page
+ * holds one minipage per field, and the minipage of field j holds the values
+ * of field j of every slot, one after another.
+ * <p>
+ * A PaxPage has as many slots as a HeapPage of the same table. It keeps the
+ * bytes it was read from, and only decodes whole tuples when they are asked
+ * for or the page is modified; {@link #iterator(int[])} decodes just the
+ * minipages of the requested fields, so a scan that needs few fields of a wide
+ * table skips the bytes of all the others, and the predicates of a scan are
+ * compared on the values of their minipages.
+ *
+ * @see HeapFile
+ */
+public class PaxPage extends HeapPage {
+
+    /** the bytes this page was read from, or null once the tuples are decoded */
+    private byte[] data;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above.
+     *
+     * @see Database#getCatalog
+     * @see BufferPool#getPageSize()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, getNumSlots(Database.getCatalog().getTupleDesc(id.getTableId()), BufferPool.getPageSize()));
+        System.arraycopy(data, 0, header, 0, header.length);
+        this.data = data.clone();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of slots on a page of the specified size holding
+     *         tuples with the specified TupleDesc, the same as for a HeapPage
+     */
+    public static int getNumSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the offset in the page of the minipage of the specified field
+     */
+    private static int getMinipageOffset(TupleDesc td, int numSlots, int field) {
+        int offset = (numSlots + 7) / 8;
+        for (int j = 0; j < field; j++) {
+            offset += td.getFieldType(j).getLen() * numSlots;
+        }
+        return offset;
+    }
+
+    /** Decode all the tuples of the page from its bytes, if not done yet */
+    private synchronized void decode() {
+        if (data == null)
+            return;
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                DataInputStream dis = minipage(j);
+                int len = td.getFieldType(j).getLen();
+                for (int i = 0; i < numSlots; i++) {
+                    if (!isSlotUsed(i)) {
+                        dis.skipBytes(len);
+                        continue;
+                    }
+                    if (tuples[i] == null) {
+                        tuples[i] = new Tuple(td);
+                        tuples[i].setRecordId(new RecordId(pid, i));
+                    }
+                    tuples[i].setField(j, td.getFieldType(j).parse(dis));
+                }
+            }
+        } catch (IOException | java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        data = null;
+    }
+
+    private DataInputStream minipage(int field) {
+        int offset = getMinipageOffset(td, numSlots, field);
+        return new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+    }
+
+    @Override
+    protected byte[] getRawData() {
+        return data;
+    }
+
+    @Override
+    protected int getFieldOffset(int slot, int field) {
+        return getMinipageOffset(td, numSlots, field) + slot * td.getFieldType(field).getLen();
+    }
+
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format described in the class comment.
+     *
+     * @see #PaxPage
+     */
+    public synchronized byte[] getPageData() {
+        if (data != null)
+            return data.clone();
+        Tuple[] slots = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                slots[i] = tuples[i];
+        }
+        return createPageData(slots, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates the contents of a PaxPage holding the specified tuples, where
+     * the tuple at index i (if not null) is stored in slot i.
+     *
+     * @param slots the tuples of the page, or null for empty slots; there may
+     *              be fewer of them than slots on the page
+     * @param td the TupleDesc of the tuples
+     * @param pageSize the number of bytes in the page
+     * @return the contents of the page
+     */
+    public static byte[] createPageData(Tuple[] slots, TupleDesc td, int pageSize) {
+        int numSlots = getNumSlots(td, pageSize);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            byte[] header = new byte[(numSlots + 7) / 8];
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null)
+                    header[i / 8] |= (1 << (i % 8));
+            }
+            dos.write(header);
+            for (int j = 0; j < td.numFields(); j++) {
+                int len = td.getFieldType(j).getLen();
+                for (int i = 0; i < numSlots; i++) {
+                    if (i < slots.length && slots[i] != null)
+                        slots[i].getField(j).serialize(dos);
+                    else
+                        dos.write(new byte[len]);
+                }
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        decode();
+        super.deleteTuple(t);
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        decode();
+        super.insertTuple(t);
+    }
+
+    public Tuple getTuple(int i) {
+        decode();
+        return super.getTuple(i);
+    }
+
+    public Iterator<Tuple> iterator() {
+        decode();
+        return super.iterator();
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, keeping only the
+     *         specified fields (in that order) of each tuple. Only the
+     *         minipages of those fields are decoded.
+     * @param fields the indexes of the fields to return
+     */
+    public synchronized Iterator<Tuple> iterator(int[] fields) {
+        if (data == null)
+            return super.iterator(fields);
+        TupleDesc projected = td.project(fields);
+        Tuple[] result = new Tuple[numSlots];
+        try {
+            for (int k = 0; k < fields.length; k++) {
+                DataInputStream dis = minipage(fields[k]);
+                int len = td.getFieldType(fields[k]).getLen();
+                for (int i = 0; i < numSlots; i++) {
+                    if (!isSlotUsed(i)) {
+                        dis.skipBytes(len);
+                        continue;
+                    }
+                    if (result[i] == null) {
+                        result[i] = new Tuple(projected);
+                        result[i].setRecordId(new RecordId(pid, i));
+                    }
+                    result[i].setField(k, td.getFieldType(fields[k]).parse(dis));
+                }
+            }
+        } catch (IOException | java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        ArrayList<Tuple> tupleList = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                if (result[i] == null) {
+                    // no fields were requested
+                    result[i] = new Tuple(projected);
+                    result[i].setRecordId(new RecordId(pid, i));
+                }
+                tupleList.add(result[i]);
+            }
+        }
+        return tupleList.iterator();
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores tuples as variable-length records,
+ * so that string fields only take as many bytes as their actual length rather
+ * than Type.STRING_LEN.
+ * <p>
+ * The page starts with the number of entries in its slot directory and a pointer
+ * to the start of the record area (the free space ends there), followed by the
+ * slot directory itself. Each directory entry holds the offset and length of one
+ * record, and an offset of 0 marks an empty slot. Records are packed at the end of
+ * the page, growing towards the directory, and each field of a record is written
+ * with Type.serializeVarLen.
+ * <p>
+ * Slots keep their numbers while other tuples come and go, so RecordIds stay
+ * valid; the record area is compacted whenever the page is written out.
+ *
+ * @see HeapFile
+ * @see TupleDesc#getSize(Tuple)
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** bytes taken by the number of directory entries and the free space pointer */
+    static final int HEADER_SIZE = 4;
+    /** bytes taken by each directory entry: the offset and length of a record */
+    static final int SLOT_SIZE = 4;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk, in the
+     * format described above.
+     *
+     * @see Database#getCatalog
+     * @see BufferPool#getPageSize()
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, getMaxSlots(Database.getCatalog().getTupleDesc(id.getTableId()), BufferPool.getPageSize()));
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        int n = dis.readUnsignedShort();
+        dis.readUnsignedShort(); // start of the record area, implied by the directory
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = dis.readUnsignedShort();
+            lengths[i] = dis.readUnsignedShort();
+        }
+        dis.close();
+
+        try {
+            for (int i = 0; i < n; i++) {
+                if (offsets[i] == 0)
+                    continue;
+                tuples[i] = readRecord(new DataInputStream(
+                        new ByteArrayInputStream(data, offsets[i], lengths[i])), i);
+                markSlotUsed(i, true);
+            }
+        } catch (NoSuchElementException e) {
+            e.printStackTrace();
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the largest number of tuples with the specified TupleDesc that fit
+     *         on a page of the specified size, when every record is as short as
+     *         possible
+     */
+    static int getMaxSlots(TupleDesc td, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (SLOT_SIZE + td.getMinSize());
+    }
+
+    private Tuple readRecord(DataInputStream dis, int slotId) throws NoSuchElementException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parseVarLen(dis));
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format described in the class comment.
+     *
+     * @see #SlottedHeapPage
+     */
+    public byte[] getPageData() {
+        return createPageData(tuples, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates the contents of a page holding the specified tuples, where the
+     * tuple at index i (if not null) is stored in slot i.
+     *
+     * @param slots the tuples of the page, or null for empty slots
+     * @param td the TupleDesc of the tuples
+     * @param pageSize the number of bytes in the page
+     * @return the contents of the page
+     * @throws IllegalArgumentException if the tuples do not fit on the page
+     */
+    static byte[] createPageData(Tuple[] slots, TupleDesc td, int pageSize) {
+        int n = getNumDirectoryEntries(slots);
+        byte[] data = new byte[pageSize];
+        int recordStart = pageSize;
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                if (slots[i] == null)
+                    continue;
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize(slots[i]));
+                DataOutputStream dos = new DataOutputStream(baos);
+                for (int j = 0; j < td.numFields(); j++) {
+                    td.getFieldType(j).serializeVarLen(slots[i].getField(j), dos);
+                }
+                dos.flush();
+                byte[] record = baos.toByteArray();
+                recordStart -= record.length;
+                if (recordStart < HEADER_SIZE + SLOT_SIZE * n)
+                    throw new IllegalArgumentException("tuples do not fit on the page");
+                System.arraycopy(record, 0, data, recordStart, record.length);
+                offsets[i] = recordStart;
+                lengths[i] = record.length;
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE + SLOT_SIZE * n);
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeShort(n);
+            dos.writeShort(recordStart);
+            for (int i = 0; i < n; i++) {
+                dos.writeShort(offsets[i]);
+                dos.writeShort(lengths[i]);
+            }
+            dos.flush();
+            System.arraycopy(baos.toByteArray(), 0, data, 0, baos.size());
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return data;
+    }
+
+    /**
+     * @return the number of entries in the slot directory of a page holding
+     *         the specified slots, which ends at the last used slot
+     */
+    private static int getNumDirectoryEntries(Tuple[] slots) {
+        int n = slots.length;
+        while (n > 0 && slots[n - 1] == null)
+            n--;
+        return n;
+    }
+
+    /**
+     * @return the number of bytes of this page not used by the header, the
+     *         slot directory or the records
+     */
+    public int getNumFreeBytes() {
+        int used = HEADER_SIZE + SLOT_SIZE * getNumDirectoryEntries(tuples);
+        for (Tuple t : tuples) {
+            if (t != null)
+                used += td.getSize(t);
+        }
+        return BufferPool.getPageSize() - used;
+    }
+
+    /**
+     * Adds the specified tuple to the page in the first empty slot, if its record
+     * fits in the free space of the page.
+     *
+     * @throws DbException if the page does not have room for the tuple or tupledesc
+     *                     is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("The tuple's descriptor does match the page's tuple descriptor.");
+        }
+        int slot = firstEmptySlot();
+        if (slot == -1 || bytesNeeded(t, slot) > getNumFreeBytes())
+            throw new DbException("The page is full.");
+
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    /** @return the first empty slot of this page, or -1 if there is none */
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the bytes of free space that storing the specified tuple in the
+     *         specified empty slot takes, including a new directory entry if
+     *         the slot has none yet
+     */
+    private int bytesNeeded(Tuple t, int slot) {
+        int needed = td.getSize(t);
+        if (slot >= getNumDirectoryEntries(tuples))
+            needed += SLOT_SIZE;
+        return needed;
+    }
+
+    /**
+     * Returns true if the specified tuple, at its actual size, fits in the
+     * free space of this page.
+     */
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int slot = firstEmptySlot();
+        return slot != -1 && bytesNeeded(t, slot) <= getNumFreeBytes();
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that can still
+     * be inserted into this page. Shorter tuples may fit even when this is 0;
+     * see {@link #hasRoomFor}.
+     */
+    public int getNumEmptySlots() {
+        int free = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                free++;
+        }
+        return Math.min(free, Math.max(0, getNumFreeBytes()) / (td.getSize() + SLOT_SIZE));
+    }
+}
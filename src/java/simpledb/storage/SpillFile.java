@@ -0,0 +1,159 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples, used by operators that run out of
+ * memory to write out part of their input and read it back later. Tuples are
+ * appended with add, and once finishWriting has been called they can be read
+ * back, in the order they were added, any number of times with iterator.
+ * <p>
+ * Each tuple is stored as its serialized fields, with no page structure and
+ * no RecordId; spill files never go through the BufferPool.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Create a new, empty spill file in the default temporary directory. The
+     * file is deleted when delete is called or the JVM exits.
+     *
+     * @param td the TupleDesc of the tuples the file holds
+     * @throws DbException if the file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+        this.size = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added to this file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a tuple to this file.
+     *
+     * @throws DbException if the tuple cannot be written
+     * @throws IllegalStateException if finishWriting has been called
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is no longer writable");
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Flush the tuples added so far, after which no more tuples can be added
+     * and the file can be read.
+     *
+     * @throws DbException if the file cannot be written
+     */
+    public void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they were
+     *         added
+     * @throws IllegalStateException if finishWriting has not been called
+     */
+    public DbFileIterator iterator() {
+        if (out != null)
+            throw new IllegalStateException("spill file is still being written");
+        return new SpillFileIterator();
+    }
+
+    /** Delete this file from disk */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is being deleted anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillFileIterator extends AbstractDbFileIterator {
+        private DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (in == null || read == size)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (java.text.ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing more to read
+                }
+            }
+            in = null;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows with the same schema, stored
+ * column by column, for operators that process many rows per call rather than
+ * one Tuple at a time.
+ * <p>
+ * INT columns are stored as int arrays, so that predicates and aggregates over
+ * them can run tight loops without touching Field objects; other columns are
+ * stored as Field arrays. A batch also has a selection vector: the rows that
+ * are still part of the batch after filtering, in increasing order. Operators
+ * that filter a batch only shrink its selection, and never move its values.
+ *
+ * @see simpledb.execution.OpIterator#nextBatch()
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of rows in the batches produced by operators */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final RecordId[] rids;
+    private int size;
+    private int[] sel;
+    private int numSelected;
+
+    /**
+     * Create an empty batch with room for DEFAULT_SIZE rows.
+     *
+     * @param td the schema of the rows of the batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows of the batch
+     * @param capacity the largest number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                this.ints[j] = new int[capacity];
+            else
+                this.fields[j] = new Field[capacity];
+        }
+        this.rids = new RecordId[capacity];
+        this.size = 0;
+        this.sel = null;
+        this.numSelected = 0;
+    }
+
+    /** Create a batch that shares the columns and selection of another */
+    private TupleBatch(TupleDesc td, TupleBatch src, int[] columns) {
+        this.td = td;
+        this.capacity = src.capacity;
+        this.ints = new int[columns.length][];
+        this.fields = new Field[columns.length][];
+        for (int j = 0; j < columns.length; j++) {
+            this.ints[j] = src.ints[columns[j]];
+            this.fields[j] = src.fields[columns[j]];
+        }
+        this.rids = src.rids;
+        this.size = src.size;
+        this.sel = src.sel;
+        this.numSelected = src.numSelected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of selected rows of this batch
+     */
+    public int numRows() {
+        return sel == null ? size : numSelected;
+    }
+
+    /**
+     * @return true if no more rows can be added to this batch
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the position in the column arrays of the kth selected row of this
+     *         batch, for 0 <= k < numRows()
+     */
+    public int row(int k) {
+        return sel == null ? k : sel[k];
+    }
+
+    /**
+     * Select only the rows at the specified positions of the column arrays.
+     *
+     * @param rows the positions of the rows to keep, in increasing order; the
+     *             batch takes ownership of the array
+     * @param n the number of entries of rows that are used
+     */
+    public void select(int[] rows, int n) {
+        this.sel = rows;
+        this.numSelected = n;
+    }
+
+    /** Remove all rows from this batch */
+    public void clear() {
+        size = 0;
+        sel = null;
+        numSelected = 0;
+    }
+
+    /**
+     * @return true if field j is stored in an int array
+     * @see #getIntColumn
+     */
+    public boolean isIntColumn(int j) {
+        return ints[j] != null;
+    }
+
+    /**
+     * @return the values of INT field j, indexed by row position; only the
+     *         positions returned by {@link #row} hold selected rows
+     */
+    public int[] getIntColumn(int j) {
+        return ints[j];
+    }
+
+    /**
+     * @return the value of INT field j at the specified row position
+     */
+    public int getInt(int j, int row) {
+        return ints[j][row];
+    }
+
+    /**
+     * @return the value of field j at the specified row position
+     */
+    public Field getField(int j, int row) {
+        return ints[j] != null ? new IntField(ints[j][row]) : fields[j][row];
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /**
+     * Add a row to the end of this batch and select it. Its values must then
+     * be set with setField or copyField.
+     *
+     * @return the position of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (sel != null) {
+            if (numSelected == sel.length)
+                sel = java.util.Arrays.copyOf(sel, capacity);
+            sel[numSelected++] = size;
+        }
+        rids[size] = null;
+        return size++;
+    }
+
+    /**
+     * Add the specified tuple to the end of this batch, keeping its RecordId.
+     *
+     * @return the position of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addTuple(Tuple t) {
+        int row = addRow();
+        for (int j = 0; j < td.numFields(); j++) {
+            setField(j, row, t.getField(j));
+        }
+        rids[row] = t.getRecordId();
+        return row;
+    }
+
+    public void setField(int j, int row, Field f) {
+        if (ints[j] != null)
+            ints[j][row] = ((IntField) f).getValue();
+        else
+            fields[j][row] = f;
+    }
+
+    /** Set INT field j of the specified row, without creating a Field */
+    public void setInt(int j, int row, int value) {
+        ints[j][row] = value;
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /**
+     * Set field j of the specified row to field srcj of row srcRow of src,
+     * without creating a Field for INT values.
+     */
+    public void copyField(int j, int row, TupleBatch src, int srcj, int srcRow) {
+        if (ints[j] != null && src.ints[srcj] != null)
+            ints[j][row] = src.ints[srcj][srcRow];
+        else
+            setField(j, row, src.getField(srcj, srcRow));
+    }
+
+    /**
+     * @return the kth selected row of this batch as a Tuple
+     */
+    public Tuple getTuple(int k) {
+        int row = row(k);
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, getField(j, row));
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Returns a batch holding only the specified fields of this one, in that
+     * order. The new batch shares the values and selection of this one
+     * rather than copying them.
+     *
+     * @param td the schema of the new batch
+     * @param columns the fields of this batch that make up the new batch
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        return new TupleBatch(td, this, columns);
+    }
+}
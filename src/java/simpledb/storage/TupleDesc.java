@@ -178,6 +178,53 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return The size (in bytes) of the specified tuple when it is stored as a
+     *         variable-length record, in which string fields only take as many
+     *         bytes as their actual length.
+     * @see SlottedHeapPage
+     */
+    public int getSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < this.tdItems.size(); i++) {
+            size += this.tdItems.get(i).fieldType.getVarLen(t.getField(i));
+        }
+        return size;
+    }
+
+    /**
+     * @return The smallest size (in bytes) of a variable-length record of
+     *         tuples corresponding to this TupleDesc.
+     * @see SlottedHeapPage
+     */
+    public int getMinSize() {
+        int size = 0;
+        for (TDItem item: this.tdItems) {
+            size += item.fieldType.getMinVarLen();
+        }
+        return size;
+    }
+
+    /**
+     * Returns a TupleDesc with only the specified fields of this one, in the
+     * specified order.
+     *
+     * @param fields
+     *            the indexes of the fields to keep
+     * @return the projected TupleDesc
+     * @throws NoSuchElementException
+     *             if a field index is not a valid field reference.
+     */
+    public TupleDesc project(int[] fields) throws NoSuchElementException {
+        Type[] typeAr = new Type[fields.length];
+        String[] fieldAr = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            typeAr[i] = getFieldType(fields[i]);
+            fieldAr[i] = getFieldName(fields[i]);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
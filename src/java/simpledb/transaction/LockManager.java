@@ -13,12 +13,14 @@ import simpledb.transaction.ReadWriteLock;
  */
 public class LockManager {
     HashMap<PageId, ReadWriteLock> pageLock;
-    HashMap<TransactionId, Set<TransactionId>> dependencyGraph;
+    // the transactions each thread of a transaction waits for: the threads
+    // of a parallel query wait for locks, and get them, independently
+    HashMap<TransactionId, Map<Thread, Set<TransactionId>>> dependencyGraph;
     HashMap<TransactionId, Set<PageId>> pagesTid;
 
     public LockManager() {
         this.pageLock = new HashMap<PageId, ReadWriteLock>();
-        this.dependencyGraph = new HashMap<TransactionId, Set<TransactionId>>();
+        this.dependencyGraph = new HashMap<TransactionId, Map<Thread, Set<TransactionId>>>();
         this.pagesTid = new HashMap<TransactionId, Set<PageId>>();
     }
 
@@ -38,6 +40,22 @@ public class LockManager {
         return this.pagesTid.get(tid);
     }
 
+    private void addWait(TransactionId tid, Set<TransactionId> holders) {
+        this.dependencyGraph.computeIfAbsent(tid, k -> new HashMap<Thread, Set<TransactionId>>())
+                .put(Thread.currentThread(), holders);
+    }
+
+    private void removeWait(TransactionId tid) {
+        Map<Thread, Set<TransactionId>> waits = this.dependencyGraph.get(tid);
+        if (waits == null) {
+            return;
+        }
+        waits.remove(Thread.currentThread());
+        if (waits.isEmpty()) {
+            this.dependencyGraph.remove(tid);
+        }
+    }
+
     public Set<PageId> getPagesHeldByLock(TransactionId tid) {
         if (this.pagesTid.containsKey(tid)) {
             return this.pagesTid.get(tid);
@@ -55,9 +73,9 @@ public class LockManager {
             } 
 
             if (!lock.getHolders().isEmpty() && lock.isLockedExclusively()) {
-                this.dependencyGraph.put(tid, lock.getHolders());
+                this.addWait(tid, lock.getHolders());
                 if (this.deadlock(tid)) {
-                    this.dependencyGraph.remove(tid);
+                    this.removeWait(tid);
                     throw new TransactionAbortedException();
                 }
             }
@@ -65,7 +83,7 @@ public class LockManager {
 
         lock.readLock(tid);
         synchronized (this) {
-            this.dependencyGraph.remove(tid);
+            this.removeWait(tid);
             this.getPages(tid).add(pid);
         }
     }
@@ -79,9 +97,9 @@ public class LockManager {
                 return;
             }
             if (!lock.getHolders().isEmpty()){
-                this.dependencyGraph.put(tid, lock.getHolders());
+                this.addWait(tid, lock.getHolders());
                 if (this.deadlock(tid)) {
-                    this.dependencyGraph.remove(tid);
+                    this.removeWait(tid);
                     throw new TransactionAbortedException();
                 }
             }
@@ -89,7 +107,7 @@ public class LockManager {
 
         lock.writeLock(tid);
         synchronized (this) {
-            this.dependencyGraph.remove(tid);
+            this.removeWait(tid);
             this.getPages(tid).add(pid);
         }
     }
@@ -131,7 +149,12 @@ public class LockManager {
                 continue;
             }
 
-            for (TransactionId adj: this.dependencyGraph.get(head)) {
+            // the threads of a transaction may wait for the same holders
+            Set<TransactionId> waitsFor = new HashSet<TransactionId>();
+            for (Set<TransactionId> holders: this.dependencyGraph.get(head).values()) {
+                waitsFor.addAll(holders);
+            }
+            for (TransactionId adj: waitsFor) {
                 if (adj.equals(head)) {
                     continue;
                 } 
@@ -12,7 +12,8 @@ public class ReadWriteLock {
     private int rnum; // number of transactions holding read locks
     private int wrnum; // number of transactions holding write locks
 
-    // implements an exclusive lock and multiple shared locks
+    // implements an exclusive lock and multiple shared locks; the threads of
+    // a parallel query may take and release it for the same transaction at once
     public ReadWriteLock() {
         this.hold = new HashSet<TransactionId>();
         this.acqs = new HashMap<TransactionId, Boolean>();
@@ -37,7 +38,7 @@ public class ReadWriteLock {
         return this.hold.contains(tid);
     }
 
-    public void readLock(TransactionId tid) {
+    public synchronized void readLock(TransactionId tid) {
         if (this.hold.contains(tid) && !this.lockedExclusively) {
             return;
         } 
@@ -45,12 +46,16 @@ public class ReadWriteLock {
         this.acqs.put(tid, false); // false means read lock
         synchronized (this) {
             try {
-                while (this.wrnum != 0) {
+                // another thread of the transaction may have taken the lock
+                // while this one waited
+                while (this.wrnum != 0 && !this.hold.contains(tid)) {
                     this.wait();
                 }
-                ++this.rnum; // rnum is the number of transactions holding read locks
-                this.hold.add(tid);
-                this.lockedExclusively = false;
+                if (!this.hold.contains(tid)) {
+                    ++this.rnum; // rnum is the number of transactions holding read locks
+                    this.hold.add(tid);
+                    this.lockedExclusively = false;
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -58,31 +63,28 @@ public class ReadWriteLock {
         this.acqs.remove(tid);
     }
 
-    public void writeLock(TransactionId tid) {
+    public synchronized void writeLock(TransactionId tid) {
         if (this.hold.contains(tid) && this.lockedExclusively) {
             return;
         } 
 
-        if (this.acqs.containsKey(tid) && this.acqs.get(tid)) {
-            return;
-        }
-
         this.acqs.put(tid, true);
         synchronized (this) {
             try {
-                if (this.hold.contains(tid)) {
-                    while (this.hold.size() > 1) {
-                        this.wait();
-                    }
-                    readUnlockNoNotify(tid);
-                }
-
-                while (this.rnum != 0 || this.wrnum != 0) {
+                // waits for the other transactions only: another thread of
+                // this one may take the lock, or the read lock it upgrades,
+                // while this one waits
+                while (this.hold.size() > (this.hold.contains(tid) ? 1 : 0)) {
                     this.wait();
                 }
-                ++this.wrnum;
-                this.hold.add(tid);
-                this.lockedExclusively = true;
+                if (!this.hold.contains(tid) || !this.lockedExclusively) {
+                    if (this.hold.contains(tid)) {
+                        --this.rnum; // upgraded
+                    }
+                    ++this.wrnum;
+                    this.hold.add(tid);
+                    this.lockedExclusively = true;
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -90,18 +92,7 @@ public class ReadWriteLock {
         this.acqs.remove(tid);
     }
 
-    private void readUnlockNoNotify(TransactionId tid) {
-        if (!this.hold.contains(tid)) {
-            return;
-        }
-
-        synchronized (this) {
-            --this.rnum;
-            this.hold.remove(tid);
-        }
-    }
-
-    public void readUnlock(TransactionId tid) {
+    public synchronized void readUnlock(TransactionId tid) {
         if (!this.hold.contains(tid)) {
             return;
         }
@@ -113,7 +104,7 @@ public class ReadWriteLock {
         }
     }
 
-    public void writeUnlock(TransactionId tid) {
+    public synchronized void writeUnlock(TransactionId tid) {
         if (!this.hold.contains(tid)) {
             return;
         }
@@ -129,7 +120,7 @@ public class ReadWriteLock {
         }
     }
 
-    public void unlock(TransactionId tid) {
+    public synchronized void unlock(TransactionId tid) {
         if (!this.lockedExclusively) {
             readUnlock(tid);
         }
@@ -60,14 +60,15 @@ public class AggregateTest extends SimpleDbTestBase {
                     "b", 6,
                     "c", 7 });
 
+    // the SUM of INTs is a LONG
     this.sum = TestUtil.createTupleList(width1,
-        new int[] { 1, 12,
-                    3, 12,
-                    5, 7 });
+        new Object[] { 1, 12L,
+                    3, 12L,
+                    5, 7L });
     this.sumstring = TestUtil.createTupleList(width1,
-        new Object[] { "a", 12,
-                    "b", 12,
-                    "c", 7 });
+        new Object[] { "a", 12L,
+                    "b", 12L,
+                    "c", 7L });
 
     this.avg = TestUtil.createTupleList(width1,
         new int[] { 1, 4,
@@ -0,0 +1,221 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.SelectivityFeedback;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests the counts of the tuples operators return, EXPLAIN ANALYZE, and the
+ * selectivities SelectivityFeedback learns from them.
+ */
+public class CardinalityFeedbackTest extends SimpleDbTestBase {
+
+    private final TransactionId tid = new TransactionId();
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private HeapFile f;
+
+    /** Table t, of 2000 rows of values in [0, 100) */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        SelectivityFeedback.clear();
+        f = SystemTestUtil.createRandomHeapFile(3, 2000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats.setTableStats("t", new TableStats(f.getId(), 1000));
+    }
+
+    @After public void clearFeedback() {
+        SelectivityFeedback.clear();
+    }
+
+    private int count(int field, Predicate.Op op, int value) {
+        int n = 0;
+        for (List<Integer> t : tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(value)))
+                n++;
+        }
+        return n;
+    }
+
+    private static void drain(OpIterator it) throws Exception {
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    /** Operators count the tuples they return, one at a time or by batch */
+    @Test public void actualCardinality() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        int expected = count(0, Predicate.Op.LESS_THAN, 30);
+
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        Filter filter = new Filter(p, scan);
+        filter.open();
+        while (filter.hasNext())
+            filter.next();
+        assertEquals(expected, filter.getActualCardinality());
+        assertEquals(tuples.size(), scan.getActualCardinality());
+        assertTrue(scan.isExhausted());
+
+        // counted over every pass since opened, by operators and scans alike
+        filter.rewind();
+        TupleBatch batch;
+        while ((batch = filter.nextBatch()) != null)
+            assertTrue(batch.numRows() > 0);
+        assertEquals(2 * expected, filter.getActualCardinality());
+        assertEquals(2 * tuples.size(), scan.getActualCardinality());
+        assertEquals(tuples.size(), scan.getLastPassCardinality());
+        filter.close();
+
+        SeqScan partial = new SeqScan(tid, f.getId(), "t");
+        partial.open();
+        partial.next();
+        assertEquals(1, partial.getActualCardinality());
+        assertEquals(1, partial.getLastPassCardinality());
+        assertFalse(partial.isExhausted());
+        partial.close();
+    }
+
+    /** The selectivity a scan observes replaces the estimate of its predicate */
+    @Test public void singlePredicate() throws Exception {
+        TableStats stats = TableStats.getTableStats("t");
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", null,
+                new Predicate[] { new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(70)) });
+        drain(scan);
+        SelectivityFeedback.record(scan, TableStats.getStatsMap());
+
+        double observed = count(1, Predicate.Op.GREATER_THAN, 70) / 2000.0;
+        assertEquals(observed, stats.estimateSelectivity(1, Predicate.Op.GREATER_THAN, new IntField(70)), 1e-9);
+        assertNull(SelectivityFeedback.get(f.getId(), 1, Predicate.Op.GREATER_THAN, new IntField(71)));
+    }
+
+    /** The selectivity of a conjunction is shared out among its predicates */
+    @Test public void conjunction() throws Exception {
+        Predicate[] preds = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(7)) };
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[] { 1 }, preds);
+        drain(scan);
+        SelectivityFeedback.record(scan, TableStats.getStatsMap());
+        assertEquals(2, SelectivityFeedback.size());
+
+        double product = 1;
+        for (Predicate p : preds)
+            product *= TableStats.getTableStats("t").estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        assertEquals(Math.max(scan.getActualCardinality(), 0.5) / 2000.0, product, 1e-9);
+    }
+
+    /** A scan rewound several times is learned from by its last pass */
+    @Test public void rewoundScan() throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", null,
+                new Predicate[] { new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(70)) });
+        scan.open();
+        for (int pass = 0; pass < 3; pass++) {
+            scan.rewind();
+            while (scan.hasNext())
+                scan.next();
+        }
+        SelectivityFeedback.record(scan, TableStats.getStatsMap());
+        scan.close();
+
+        int expected = count(1, Predicate.Op.GREATER_THAN, 70);
+        assertEquals(3 * expected, scan.getActualCardinality());
+        assertEquals(expected / 2000.0,
+                SelectivityFeedback.get(f.getId(), 1, Predicate.Op.GREATER_THAN, new IntField(70)), 1e-9);
+    }
+
+    /** Nothing is learned from a scan that was not read to its end */
+    @Test public void partialScan() throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", null,
+                new Predicate[] { new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10)) });
+        scan.open();
+        scan.next();
+        SelectivityFeedback.record(scan, TableStats.getStatsMap());
+        scan.close();
+        assertEquals(0, SelectivityFeedback.size());
+    }
+
+    /** A selectivity far from its estimate makes the prepared queries be optimized again */
+    @Test public void invalidation() throws Exception {
+        PreparedStatement ps = new Parser().prepare("SELECT * FROM t WHERE t.c1 < ?;");
+        assertTrue(ps.isCurrent());
+        // contradictory predicates, each estimated to hold for half the
+        // tuples, and which hold for none together
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", null,
+                new Predicate[] { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+                        new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)) });
+        drain(scan);
+        SelectivityFeedback.record(scan, TableStats.getStatsMap());
+        assertFalse(ps.isCurrent());
+    }
+
+    private static String captureOutput(Runnable r) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buf, true));
+        try {
+            r.run();
+        } finally {
+            System.setOut(out);
+        }
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** The visualizer shows the actual cardinality of each node next to its estimate */
+    @Test public void visualizer() throws Exception {
+        Parser parser = new Parser();
+        LogicalPlan lp = parser.generateLogicalPlan(tid, "SELECT t.c0, COUNT(t.c1) FROM t WHERE t.c2 < 40 GROUP BY t.c0;");
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        drain(plan);
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, lp.getTableAliasToIdMapping(),
+                TableStats.getStatsMap());
+        String tree = new QueryPlanVisualizer().getQueryPlanTree(plan, true);
+        assertTrue(tree, tree.contains(",act:" + count(2, Predicate.Op.LESS_THAN, 40)));
+        assertFalse(new QueryPlanVisualizer().getQueryPlanTree(plan).contains("act:"));
+    }
+
+    /** EXPLAIN ANALYZE prints the plan with actual cardinalities, and learns from it */
+    @Test public void explainAnalyze() throws Exception {
+        Parser parser = new Parser();
+        String output = captureOutput(
+                () -> parser.processNextStatement("explain analyze SELECT * FROM t WHERE t.c1 >= 90;"));
+        int expected = count(1, Predicate.Op.GREATER_THAN_OR_EQ, 90);
+        assertTrue(output, output.contains(",act:" + expected));
+        assertTrue(output, output.contains(expected + " rows."));
+        assertNotNull(SelectivityFeedback.get(f.getId(), 1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(90)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CardinalityFeedbackTest.class);
+    }
+}
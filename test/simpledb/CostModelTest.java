@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.CostModel;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.JoinOptimizer.JoinAlgorithm;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests the calibration of CostModel, and that JoinOptimizer weighs random
+ * reads, CPU and the size of the BufferPool by it.
+ */
+public class CostModelTest extends SimpleDbTestBase {
+
+    private JoinOptimizer jo;
+    private LogicalJoinNode indexed;
+    private LogicalJoinNode unequal;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        SecondaryIndex.create(right.getId(), "c0", idx);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(left.getId(), "l");
+        lp.addScan(right.getId(), "r");
+        jo = new JoinOptimizer(lp, new ArrayList<>());
+        indexed = new LogicalJoinNode("l", "r", "l.c1", "r.c0", Predicate.Op.EQUALS);
+        unequal = new LogicalJoinNode("l", "r", "l.c1", "r.c1", Predicate.Op.NOT_EQUALS);
+    }
+
+    @After public void restoreModel() {
+        CostModel.set(CostModel.DEFAULT);
+    }
+
+    @Test public void calibrate() throws Exception {
+        CostModel model = CostModel.calibrate();
+        assertTrue(model.getRandomPageCost() >= CostModel.SEQUENTIAL_PAGE_COST);
+        assertTrue(model.getTupleCost() > 0);
+    }
+
+    @Test public void saveAndLoad() throws Exception {
+        File f = File.createTempFile("cost", ".cost");
+        f.deleteOnExit();
+        new CostModel(2500, 3.5).write(f);
+        CostModel.load(f, false);
+        assertEquals(2500, CostModel.get().getRandomPageCost(), 0);
+        assertEquals(3.5, CostModel.get().getTupleCost(), 0);
+
+        // recalibrating replaces the saved model
+        CostModel.load(f, true);
+        assertEquals(CostModel.get().getTupleCost(), CostModel.read(f).getTupleCost(), 0);
+
+        assertEquals("catalog.cost", CostModel.costFileFor("some/dir/catalog.txt").getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badCosts() {
+        new CostModel(0, 1);
+    }
+
+    /** Index probes are random reads, so they lose to a hash join when those are dear */
+    @Test public void randomReads() {
+        assertEquals(JoinAlgorithm.INDEX_NESTED_LOOP,
+                jo.chooseJoinAlgorithm(indexed, 100, 100000, 10000, 1000000));
+        CostModel.set(new CostModel(1000 * CostModel.SEQUENTIAL_PAGE_COST, 1));
+        assertEquals(JoinAlgorithm.HASH, jo.chooseJoinAlgorithm(indexed, 100, 100000, 10000, 1000000));
+    }
+
+    /** The inner side of a nested loop is only read from disk once if it fits in the BufferPool */
+    @Test public void bufferPoolFit() {
+        // 100 outer tuples, and 200 inner pages
+        Database.resetBufferPool(100);
+        double outOfPool = jo.estimateJoinCost(unequal, JoinAlgorithm.NESTED_LOOP, 100, 20000, 1000, 200000);
+        Database.resetBufferPool(1000);
+        double inPool = jo.estimateJoinCost(unequal, JoinAlgorithm.NESTED_LOOP, 100, 20000, 1000, 200000);
+        assertEquals(1000 + 100 * 200000 + 100 * 20000, outOfPool, 1);
+        assertEquals(1000 + 200000 + 99 * 20000 + 100 * 20000, inPool, 1);
+    }
+
+    /** Tuples weigh more against pages as the CPU cost of a tuple grows */
+    @Test public void tupleCost() {
+        double cheap = jo.estimateJoinCost(indexed, JoinAlgorithm.HASH, 1000, 1000, 10000, 10000);
+        CostModel.set(new CostModel(4 * CostModel.SEQUENTIAL_PAGE_COST, 10));
+        double dear = jo.estimateJoinCost(indexed, JoinAlgorithm.HASH, 1000, 1000, 10000, 10000);
+        assertEquals(20000 + 2000, cheap, 0);
+        assertEquals(20000 + 20000, dear, 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CostModelTest.class);
+    }
+}
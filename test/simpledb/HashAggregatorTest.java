@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+  static final Aggregator.Op[] ALL_OPS = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+      Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+  final int width1 = 2;
+  OpIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+  }
+
+  private static HashAggregator allOps(int gbfield, Type gbfieldtype, int afield, Type afieldtype) {
+    int[] afields = new int[ALL_OPS.length];
+    Type[] types = new Type[ALL_OPS.length];
+    for (int i = 0; i < ALL_OPS.length; i++) {
+      afields[i] = afield;
+      types[i] = afieldtype;
+    }
+    return new HashAggregator(gbfield, gbfieldtype, afields, types, ALL_OPS);
+  }
+
+  /**
+   * Test several aggregates computed in one pass through mergeTupleIntoGroup()
+   */
+  @Test public void mergeSeveral() throws Exception {
+    scan1.open();
+    HashAggregator agg = allOps(0, Type.INT_TYPE, 1, Type.INT_TYPE);
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(6,
+        new Object[] { 1, 12L, 2, 6, 4, 3,
+                       3, 12L, 2, 6, 4, 3,
+                       5, 7L, 7, 7, 7, 1 }), it);
+  }
+
+  /**
+   * Test aggregates without grouping, and that SUM and AVG do not overflow
+   */
+  @Test public void noGrouping() throws Exception {
+    HashAggregator agg = allOps(Aggregator.NO_GROUPING, null, 1, Type.INT_TYPE);
+    OpIterator it = agg.iterator();
+    it.open();
+    assertEquals(false, it.hasNext());
+
+    OpIterator big = TestUtil.createTupleList(width1,
+        new int[] { 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE - 2 });
+    big.open();
+    while (big.hasNext())
+      agg.mergeTupleIntoGroup(big.next());
+    it = agg.iterator();
+    it.open();
+    Tuple t = it.next();
+    assertEquals(Type.LONG_TYPE, it.getTupleDesc().getFieldType(0));
+    assertEquals(new LongField(2L * Integer.MAX_VALUE - 2), t.getField(0));
+    assertEquals(new IntField(Integer.MAX_VALUE - 2), t.getField(1));
+    assertEquals(new IntField(Integer.MAX_VALUE), t.getField(2));
+    assertEquals(new IntField(Integer.MAX_VALUE - 1), t.getField(3));
+    assertEquals(new IntField(2), t.getField(4));
+  }
+
+  /**
+   * Test many groups, so that the hash table grows, merged a tuple and a batch
+   * at a time
+   */
+  @Test public void manyGroups() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+    HashAggregator byTuple = allOps(0, Type.INT_TYPE, 1, Type.INT_TYPE);
+    HashAggregator byBatch = allOps(0, Type.INT_TYPE, 1, Type.INT_TYPE);
+    Map<Integer, long[]> expected = new HashMap<>();
+    TupleBatch batch = new TupleBatch(td);
+    for (int i = 0; i < 200000; i++) {
+      int key = (i * 7919) % 50000 - 25000;
+      int value = i % 1000;
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(key));
+      t.setField(1, new IntField(value));
+      byTuple.mergeTupleIntoGroup(t);
+      batch.addTuple(t);
+      if (batch.isFull()) {
+        byBatch.mergeBatchIntoGroups(batch);
+        batch.clear();
+      }
+      long[] e = expected.computeIfAbsent(key, k -> new long[] { 0, Long.MAX_VALUE, Long.MIN_VALUE, 0 });
+      e[0] += value;
+      e[1] = Math.min(e[1], value);
+      e[2] = Math.max(e[2], value);
+      e[3]++;
+    }
+    byBatch.mergeBatchIntoGroups(batch);
+    assertEquals(expected.size(), byTuple.numGroups());
+    assertEquals(expected.size(), byBatch.numGroups());
+
+    for (HashAggregator agg : new HashAggregator[] { byTuple, byBatch }) {
+      OpIterator it = agg.iterator();
+      it.open();
+      int groups = 0;
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        long[] e = expected.get(((IntField) t.getField(0)).getValue());
+        assertEquals(e[0], ((LongField) t.getField(1)).getValue());
+        assertEquals((int) e[1], ((IntField) t.getField(2)).getValue());
+        assertEquals((int) e[2], ((IntField) t.getField(3)).getValue());
+        assertEquals((int) (e[0] / e[3]), ((IntField) t.getField(4)).getValue());
+        assertEquals((int) e[3], ((IntField) t.getField(5)).getValue());
+        groups++;
+      }
+      assertEquals(expected.size(), groups);
+    }
+  }
+
+  /**
+   * Test grouping by a string field, and counting strings
+   */
+  @Test public void stringFields() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    HashAggregator agg = new HashAggregator(0, Type.STRING_TYPE, new int[] { 0, 1 },
+        new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.MAX });
+    String[] keys = { "a", "b", "a", "c", "a", "b" };
+    for (int i = 0; i < keys.length; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(keys[i], Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      agg.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new Object[] { "a", 3, 4,
+                       "b", 2, 5,
+                       "c", 1, 3 }), it);
+  }
+
+  /**
+   * Strings can only be counted
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedAggregate() {
+    new HashAggregator(Aggregator.NO_GROUPING, null, new int[] { 0 },
+        new Type[] { Type.STRING_TYPE }, new Aggregator.Op[] { Aggregator.Op.SUM });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashAggregatorTest.class);
+  }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.IntHistogram;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.StringHistogram;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests equi-depth histograms built from samples, and the distinct counts
+ * estimated from them.
+ */
+public class HistogramTest extends SimpleDbTestBase {
+
+    /**
+     * A value that makes up half of the values gets its own bucket, and the
+     * rare values are not estimated as if they shared its bucket
+     */
+    @Test public void skew() {
+        IntHistogram h = new IntHistogram(10);
+        for (int i = 0; i < 1000; i++) {
+            h.addValue(7);
+            h.addValue(1000 + i);
+        }
+        assertEquals(0.5, h.estimateSelectivity(Op.EQUALS, 7), 0.001);
+        assertEquals(0.0005, h.estimateSelectivity(Op.EQUALS, 1500), 0.0005);
+        assertEquals(0.75, h.estimateSelectivity(Op.LESS_THAN, 1500), 0.02);
+        assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN, 7), 0.001);
+        assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, 7), 0.001);
+        assertEquals(1001, h.numDistinct(), 0.0);
+    }
+
+    /** More values than the sample holds, in one pass */
+    @Test public void sampled() {
+        IntHistogram h = new IntHistogram(100);
+        Random r = new Random(1);
+        int n = 2000000;
+        int[] batch = new int[1000];
+        for (int i = 0; i < n; i += batch.length) {
+            for (int k = 0; k < batch.length; k++)
+                batch[k] = r.nextInt(1000) < 100 ? -1 : r.nextInt(1000000);
+            h.addValues(batch, batch.length);
+        }
+        assertEquals(n, h.numValues());
+        assertEquals(0.1, h.estimateSelectivity(Op.EQUALS, -1), 0.01);
+        assertEquals(0.1 + 0.45, h.estimateSelectivity(Op.LESS_THAN, 500000), 0.02);
+        // about 835,000 distinct values; estimated within a factor of 2
+        double d = h.numDistinct();
+        assertTrue(d > 417000 && d < 1670000);
+
+        // fewer distinct values, most of them in the sample
+        h = new IntHistogram(100);
+        for (int i = 0; i < n; i++)
+            h.addValue(r.nextInt(5000));
+        assertEquals(5000, h.numDistinct(), 250);
+        assertEquals(1.0 / 5000, h.avgSelectivity(), 0.00002);
+    }
+
+    /** Strings with a long common prefix are told apart */
+    @Test public void strings() {
+        StringHistogram h = new StringHistogram(100);
+        for (int i = 0; i < 1000; i++)
+            h.addValue(String.format("customer#%06d", i));
+        assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN, "customer#000500"), 0.01);
+        assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, "customer#000750"), 0.01);
+        assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, "customer#000123"), 0.001);
+        assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, "customer"), 0.001);
+        assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN, "customer#1"), 0.001);
+        assertEquals(1000, h.numDistinct(), 0.0);
+    }
+
+    /** Join cardinalities follow the distinct counts of the join fields */
+    @Test public void joinCardinality() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 50, null, tuples, "c");
+        Database.getCatalog().addTable(f, "hist_t");
+        TableStats s = new TableStats(f.getId(), 1000);
+        assertEquals(5000, s.totalTuples());
+        assertEquals(50, s.numDistinctValues(0), 0.0);
+
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("hist_t", s);
+        Map<String, Integer> aliases = new HashMap<>();
+        aliases.put("a", f.getId());
+        aliases.put("b", f.getId());
+        // every tuple matches 1/50 of the other side
+        int card = JoinOptimizer.estimateTableJoinCardinality(Op.EQUALS, "a", "b",
+                "c0", "c0", 5000, 5000, false, false, stats, aliases);
+        assertEquals(5000 * 5000 / 50, card);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HistogramTest.class);
+    }
+}
@@ -13,13 +13,16 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
 
   final int width1 = 2;
   OpIterator scan1;
-  int[][] sum = null;
+  Object[][] sum = null;
   int[][] min = null;
   int[][] max = null;
   int[][] avg = null;
@@ -37,12 +40,13 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
                     3, 6,
                     5, 7 });
 
-    // verify how the results progress after a few merges
-    this.sum = new int[][] {
-      { 1, 2 },
-      { 1, 6 },
-      { 1, 12 },
-      { 1, 12, 3, 2 }
+    // verify how the results progress after a few merges; the SUM of INTs
+    // is a LONG
+    this.sum = new Object[][] {
+      { 1, 2L },
+      { 1, 6L },
+      { 1, 12L },
+      { 1, 12L, 3, 2L }
     };
 
     this.min = new int[][] {
@@ -74,7 +78,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
     
-    for (int[] step : sum) {
+    for (Object[] step : sum) {
       agg.mergeTupleIntoGroup(scan1.next());
       OpIterator it = agg.iterator();
       it.open();
@@ -82,6 +86,28 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that SUM and AVG do not overflow
+   */
+  @Test public void sumOverflow() throws Exception {
+    IntegerAggregator sumAgg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM);
+    IntegerAggregator avgAgg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.AVG);
+    OpIterator big = TestUtil.createTupleList(width1,
+        new int[] { 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE - 2 });
+    big.open();
+    while (big.hasNext()) {
+      Tuple t = big.next();
+      sumAgg.mergeTupleIntoGroup(t);
+      avgAgg.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = sumAgg.iterator();
+    it.open();
+    assertEquals(new LongField(2L * Integer.MAX_VALUE - 2), it.next().getField(0));
+    it = avgAgg.iterator();
+    it.open();
+    assertEquals(new IntField(Integer.MAX_VALUE - 1), it.next().getField(0));
+  }
+
   /**
    * Test IntegerAggregator.mergeTupleIntoGroup() and iterator() over a min
    */
@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests the dynamic programming over connected sets of tables in
+ * JoinOptimizer.orderJoins: that, for the joins of many tables, it costs each
+ * join of two connected sets of tables once, and that its left-deep and bushy
+ * plans are plans the joins can be executed in.
+ */
+public class JoinOrderDpTest extends SimpleDbTestBase {
+
+    private static final int TABLES = 15;
+
+    private final Map<String, TableStats> stats = new HashMap<>();
+    private final Map<String, Double> filterSelectivities = new HashMap<>();
+    private final TransactionId tid = new TransactionId();
+    /** The number of joins the last call of order costed */
+    private long joinsConsidered;
+
+    /** Tables t0 to t14, of 100 to 1500 rows */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < TABLES; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i + 1), 50, null, new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 1000));
+            TableStats.setTableStats("t" + i, stats.get("t" + i));
+            filterSelectivities.put("t" + i, 1.0);
+        }
+    }
+
+    private static String from(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(i == 0 ? "" : ", ").append("t").append(i);
+        return sb.toString();
+    }
+
+    private List<LogicalJoinNode> order(List<LogicalJoinNode> nodes, String query, boolean bushy)
+            throws Exception {
+        Collections.shuffle(nodes, new Random(1));
+        JoinOptimizer jo = new JoinOptimizer(new Parser().generateLogicalPlan(tid, query), nodes);
+        jo.setBushy(bushy);
+        List<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+        joinsConsidered = jo.getJoinsConsidered();
+        return result;
+    }
+
+    /**
+     * Check that each join is between two tables not yet joined to each
+     * other, as LogicalPlan.physicalPlan executes them, and that every join
+     * is performed once.
+     */
+    static void assertExecutable(List<LogicalJoinNode> nodes, List<LogicalJoinNode> result) {
+        assertEquals(nodes.size(), result.size());
+        assertEquals(new HashSet<>(nodes), new HashSet<>(result));
+        Map<String, Set<String>> joined = new HashMap<>();
+        for (LogicalJoinNode j : result) {
+            Set<String> s1 = joined.computeIfAbsent(j.t1Alias, a -> new HashSet<>(Collections.singleton(a)));
+            Set<String> s2 = joined.computeIfAbsent(j.t2Alias, a -> new HashSet<>(Collections.singleton(a)));
+            assertNotSame(s1, s2);
+            s1.addAll(s2);
+            for (String alias : s2)
+                joined.put(alias, s1);
+        }
+    }
+
+    @Test public void enumerateSubsets() {
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new ArrayList<>());
+        List<Integer> v = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            v.add(i);
+        Set<Set<Integer>> subsets = jo.enumerateSubsets(v, 3);
+        assertEquals(120, subsets.size());
+        for (Set<Integer> s : subsets)
+            assertEquals(3, s.size());
+        assertEquals(1, jo.enumerateSubsets(v, 0).size());
+        assertEquals(1, jo.enumerateSubsets(v, 10).size());
+        assertEquals(0, jo.enumerateSubsets(v, 11).size());
+    }
+
+    /** A chain of 15 tables, left-deep and bushy */
+    @Test public void chain() throws Exception {
+        StringBuilder where = new StringBuilder();
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 0; i + 1 < TABLES; i++) {
+            nodes.add(new LogicalJoinNode("t" + i, "t" + (i + 1), "c1", "c0", Predicate.Op.EQUALS));
+            where.append(i == 0 ? "" : " AND ").append("t" + i + ".c1 = t" + (i + 1) + ".c0");
+        }
+        String query = "SELECT * FROM " + from(TABLES) + " WHERE " + where + ";";
+        for (boolean bushy : new boolean[] { false, true }) {
+            assertExecutable(nodes, order(nodes, query, bushy));
+            // each of the n(n-1)/2 runs of tables smaller than the chain is
+            // extended by each of its neighbours; bushy plans join each of
+            // the (n^3-n)/6 pairs of adjacent runs once
+            int n = TABLES;
+            assertEquals(bushy ? (n * n * n - n) / 6 : n * (n - 1), joinsConsidered);
+        }
+    }
+
+    /**
+     * A star of 15 tables, whose plans are all left-deep; every set of tables
+     * with the one at its centre is connected, so there are 2^14 of them
+     */
+    @Test public void star() throws Exception {
+        StringBuilder where = new StringBuilder();
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i < TABLES; i++) {
+            nodes.add(new LogicalJoinNode("t0", "t" + i, "c0", "c1", Predicate.Op.EQUALS));
+            where.append(i == 1 ? "" : " AND ").append("t0.c0 = t" + i + ".c1");
+        }
+        String query = "SELECT * FROM " + from(TABLES) + " WHERE " + where + ";";
+        for (boolean bushy : new boolean[] { false, true }) {
+            assertExecutable(nodes, order(nodes, query, bushy));
+            // each of the (n-1)2^(n-2) pairs of a set with the centre and a
+            // table outside it is joined once; left-deep plans also start
+            // from each of the n-1 other tables, joined to the centre
+            int n = TABLES;
+            assertEquals((n - 1) * (1L << (n - 2)) + (bushy ? 0 : n - 1), joinsConsidered);
+        }
+    }
+
+    /** Tables that are not joined to each other are left for the caller to reject */
+    @Test public void disconnected() throws Exception {
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("t0", "t1", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("t2", "t3", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("t3", "t4", "c1", "c1", Predicate.Op.EQUALS));
+        List<LogicalJoinNode> result = order(nodes,
+                "SELECT * FROM " + from(5) + " WHERE t0.c0 = t1.c0 AND t2.c0 = t3.c0 AND t3.c1 = t4.c1;", true);
+        assertExecutable(nodes, result);
+    }
+
+    /** A bushy plan of a chain gives the same result as a left-deep one */
+    @Test public void bushyPlanRuns() throws Exception {
+        String query = "SELECT * FROM t0, t1, t2, t3, t4 WHERE t0.c0 = t1.c0 AND t1.c1 = t2.c1"
+                + " AND t2.c0 = t3.c0 AND t3.c1 = t4.c1;";
+        int[] counts = new int[2];
+        for (int i = 0; i < 2; i++) {
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+            lp.setBushyJoins(i == 1);
+            OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            plan.open();
+            while (plan.hasNext()) {
+                plan.next();
+                counts[i]++;
+            }
+            plan.close();
+        }
+        assertTrue(counts[0] > 0);
+        assertEquals(counts[0], counts[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOrderDpTest.class);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests the greedy and randomized ordering of the joins of more tables than
+ * JoinOptimizer orders by dynamic programming, and compares the plans it
+ * finds with those of dynamic programming.
+ */
+public class JoinOrderFallbackTest extends SimpleDbTestBase {
+
+    private static final int TABLES = 50;
+
+    private final Map<String, TableStats> stats = new HashMap<>();
+    private final Map<String, Double> filterSelectivities = new HashMap<>();
+    private final TransactionId tid = new TransactionId();
+
+    /** Tables t0 to t49, of 50 to 500 rows over ranges of values of several sizes */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < TABLES; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50 * (i % 10 + 1), 10 + 40 * (i % 7),
+                    null, new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 1000));
+            filterSelectivities.put("t" + i, 1.0);
+        }
+    }
+
+    /** @return the joins of a random tree over tables t0 to t(n - 1) */
+    private static List<LogicalJoinNode> randomTree(int n, Random random) {
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i < n; i++) {
+            int parent = random.nextInt(i);
+            nodes.add(new LogicalJoinNode("t" + parent, "t" + i, "c" + random.nextInt(2),
+                    "c" + random.nextInt(2), Predicate.Op.EQUALS));
+        }
+        return nodes;
+    }
+
+    private JoinOptimizer optimizer(List<LogicalJoinNode> nodes, int tables) throws Exception {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ");
+        for (int i = 0; i < tables; i++)
+            sql.append(i == 0 ? "" : ", ").append("t").append(i);
+        sql.append(" WHERE ");
+        for (int i = 0; i < nodes.size(); i++) {
+            LogicalJoinNode j = nodes.get(i);
+            sql.append(i == 0 ? "" : " AND ").append(j.t1Alias + "." + j.f1PureName + " = "
+                    + j.t2Alias + "." + j.f2PureName);
+        }
+        return new JoinOptimizer(new Parser().generateLogicalPlan(tid, sql + ";"), nodes);
+    }
+
+    /**
+     * The joins of 50 tables are ordered greedily, costing a number of joins
+     * polynomial in the number of tables, and then improved; both plans can
+     * be executed
+     */
+    @Test public void huge() throws Exception {
+        List<LogicalJoinNode> tree = randomTree(TABLES, new Random(1));
+        List<LogicalJoinNode> star = new ArrayList<>();
+        for (int i = 1; i < TABLES; i++)
+            star.add(new LogicalJoinNode("t0", "t" + i, "c0", "c1", Predicate.Op.EQUALS));
+        for (List<LogicalJoinNode> nodes : Arrays.asList(tree, star)) {
+            for (boolean bushy : new boolean[] { false, true }) {
+                JoinOptimizer jo = optimizer(nodes, TABLES);
+                jo.setBushy(bushy);
+                // no time to improve the greedy plan
+                jo.setTimeBudget(0);
+                JoinOrderDpTest.assertExecutable(nodes, jo.orderJoins(stats, filterSelectivities, false));
+                // each of the n-1 joins made is chosen among at most n^2
+                assertTrue(jo.getJoinsConsidered() + " joins costed",
+                        jo.getJoinsConsidered() <= (long) TABLES * TABLES * TABLES);
+
+                jo.setTimeBudget(50);
+                JoinOrderDpTest.assertExecutable(nodes, jo.orderJoins(stats, filterSelectivities, false));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badDpLimit() throws Exception {
+        optimizer(randomTree(3, new Random(1)), 3).setDpLimit(1);
+    }
+
+    /**
+     * A benchmark of the plans found without dynamic programming, against the
+     * best plans, for random queries joining 10 tables: no plan is cheaper
+     * than the best one, and on average they cost little more. The results
+     * are printed.
+     */
+    @Test public void benchmark() throws Exception {
+        final int QUERIES = 20, N = 10;
+        for (boolean bushy : new boolean[] { false, true }) {
+            double sum = 0, worst = 0;
+            long dpNanos = 0, fallbackNanos = 0;
+            Random random = new Random(2);
+            for (int q = 0; q < QUERIES; q++) {
+                List<LogicalJoinNode> nodes = randomTree(N, random);
+                JoinOptimizer dp = optimizer(nodes, N);
+                dp.setBushy(bushy);
+                long start = System.nanoTime();
+                JoinOrderDpTest.assertExecutable(nodes, dp.orderJoins(stats, filterSelectivities, false));
+                dpNanos += System.nanoTime() - start;
+
+                JoinOptimizer fallback = optimizer(nodes, N);
+                fallback.setBushy(bushy);
+                fallback.setDpLimit(2);
+                fallback.setTimeBudget(10);
+                start = System.nanoTime();
+                JoinOrderDpTest.assertExecutable(nodes, fallback.orderJoins(stats, filterSelectivities, false));
+                fallbackNanos += System.nanoTime() - start;
+
+                // the estimated size of a join depends a little on the order
+                // its tables were joined in, so the best plan is best to
+                // within that
+                double ratio = fallback.getPlanCost() / dp.getPlanCost();
+                assertTrue("cheaper than the best plan: " + ratio, ratio > 0.99);
+                sum += ratio;
+                worst = Math.max(worst, ratio);
+            }
+            System.out.printf("%s plans of %d tables: greedy and iterative improvement cost %.3f times "
+                    + "the best on average, %.3f at worst; %.1fms to plan, against %.1fms%n",
+                    bushy ? "bushy" : "left-deep", N, sum / QUERIES, worst,
+                    fallbackNanos / 1e6 / QUERIES, dpNanos / 1e6 / QUERIES);
+            assertTrue(sum / QUERIES < 1.5);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOrderFallbackTest.class);
+    }
+}
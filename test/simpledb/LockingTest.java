@@ -3,6 +3,8 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
@@ -11,6 +13,7 @@ import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -193,6 +196,60 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Two threads of one transaction, as the producers of a parallel query,
+   * wait for the same read lock. Once the transaction releases the lock,
+   * another transaction can write lock the page.
+   */
+  @Test public void readLockFromTwoThreads() throws Exception {
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber g1 = new TestUtil.LockGrabber(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber g2 = new TestUtil.LockGrabber(tid1, p0, Permissions.READ_ONLY);
+    g1.start();
+    g2.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(g1.acquired());
+    assertFalse(g2.acquired());
+
+    bp.unsafeReleasePage(tid2, p0);
+    g1.join(TIMEOUT * 10);
+    g2.join(TIMEOUT * 10);
+    assertTrue(g1.acquired());
+    assertTrue(g2.acquired());
+
+    bp.unsafeReleasePage(tid1, p0);
+    grabLock(tid2, p0, Permissions.READ_WRITE, true);
+  }
+
+  /**
+   * A thread of a transaction that gets the lock it waited for does not
+   * hide the wait of another of its threads from deadlock detection.
+   */
+  @Test public void deadlockWithTwoThreads() throws Exception {
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    bp.getPage(tid3, p2, Permissions.READ_WRITE);
+    TestUtil.LockGrabber waiting = new TestUtil.LockGrabber(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber granted = new TestUtil.LockGrabber(tid1, p2, Permissions.READ_ONLY);
+    waiting.start();
+    granted.start();
+    Thread.sleep(TIMEOUT);
+    bp.unsafeReleasePage(tid3, p2);
+    granted.join(TIMEOUT * 10);
+    assertTrue(granted.acquired());
+    assertFalse(waiting.acquired());
+
+    // tid1 waits for tid2, which now waits for tid1
+    TestUtil.LockGrabber cycle = new TestUtil.LockGrabber(tid2, p1, Permissions.READ_WRITE);
+    cycle.start();
+    cycle.join(TIMEOUT * 10);
+    assertTrue(cycle.getError() instanceof TransactionAbortedException);
+    waiting.join(TIMEOUT * 10);
+    assertTrue(waiting.acquired());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,132 @@
+package simpledb;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.DoubleHistogram;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class NumericTypesTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE },
+            new String[] { "g", "amount", "price", "day" });
+
+    private static Tuple tuple(int g, long amount, double price, String day) throws Exception {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(g));
+        t.setField(1, new LongField(amount));
+        t.setField(2, new DoubleField(price));
+        t.setField(3, Type.DATE_TYPE.parseText(day));
+        return t;
+    }
+
+    /**
+     * Fields written with serialize are read back by Type.parse, and fields
+     * parsed from text print back as the same text.
+     */
+    @Test public void parseAndSerialize() throws Exception {
+        String[] texts = { "7", "9000000000", "-2.5", "2024-02-29" };
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < texts.length; i++) {
+            Field f = TD.getFieldType(i).parseText(texts[i]);
+            assertEquals(TD.getFieldType(i), f.getType());
+            assertEquals(texts[i], f.toString());
+            f.serialize(dos);
+        }
+        dos.flush();
+        assertEquals(TD.getSize(), baos.size());
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 0; i < texts.length; i++) {
+            assertEquals(TD.getFieldType(i).parseText(texts[i]), TD.getFieldType(i).parse(dis));
+        }
+
+        assertEquals(Type.LONG_TYPE, Type.forName("LONG"));
+        assertEquals(Type.DATE_TYPE, Type.forName("date"));
+        try {
+            Type.DATE_TYPE.parseText("2024-13-01");
+            fail("expected a ParseException");
+        } catch (java.text.ParseException e) {
+            // expected
+        }
+    }
+
+    @Test public void compare() throws Exception {
+        assertTrue(new LongField(5000000000L).compare(Predicate.Op.GREATER_THAN, new LongField(4999999999L)));
+        assertTrue(new DoubleField(0.5).compare(Predicate.Op.LESS_THAN_OR_EQ, new DoubleField(0.5)));
+        assertFalse(new DoubleField(0.5).compare(Predicate.Op.NOT_EQUALS, new DoubleField(0.5)));
+        assertTrue(DateField.valueOf("1999-12-31").compare(Predicate.Op.LESS_THAN, DateField.valueOf("2000-01-01")));
+        assertEquals(new DoubleField(1.25).hashCode(), new DoubleField(1.25).hashCode());
+    }
+
+    /**
+     * SUM and AVG over longs do not overflow, and each aggregate has the
+     * type of its input except COUNT.
+     */
+    @Test public void aggregate() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        tuples.add(tuple(1, 3000000000L, 1.5, "2020-01-05"));
+        tuples.add(tuple(1, 3000000000L, 2.5, "2020-03-01"));
+        tuples.add(tuple(2, 10, 4.0, "2019-07-04"));
+
+        assertEquals(new LongField(6000000000L), aggregate(tuples, 1, Aggregator.Op.SUM).get(1));
+        assertEquals(new LongField(3000000000L), aggregate(tuples, 1, Aggregator.Op.AVG).get(1));
+        assertEquals(new DoubleField(2.0), aggregate(tuples, 2, Aggregator.Op.AVG).get(1));
+        assertEquals(DateField.valueOf("2020-03-01"), aggregate(tuples, 3, Aggregator.Op.MAX).get(1));
+        assertEquals(new IntField(1), aggregate(tuples, 3, Aggregator.Op.COUNT).get(2));
+
+        Aggregate ag = new Aggregate(new TupleIterator(TD, tuples), 3, 0, Aggregator.Op.MIN);
+        assertEquals(Type.DATE_TYPE, ag.getTupleDesc().getFieldType(1));
+        ag = new Aggregate(new TupleIterator(TD, tuples), 3, 0, Aggregator.Op.SUM);
+        try {
+            ag.open();
+            fail("expected a DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** @return the aggregate of field afield grouped by field 0, by group */
+    private Map<Integer, Field> aggregate(List<Tuple> tuples, int afield, Aggregator.Op op) throws Exception {
+        OpIterator it = new Aggregate(new TupleIterator(TD, tuples), afield, 0, op);
+        Map<Integer, Field> result = new HashMap<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            result.put(((IntField) t.getField(0)).getValue(), t.getField(1));
+        }
+        it.close();
+        return result;
+    }
+
+    @Test public void histogram() {
+        DoubleHistogram h = new DoubleHistogram(10, 0.0, 100.0);
+        for (int i = 0; i < 1000; i++) {
+            h.addValue(i / 10.0);
+        }
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN, 50.0), 0.01);
+        assertEquals(0.25, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 75.0), 0.01);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 100.0), 0.01);
+        assertTrue(h.estimateSelectivity(Predicate.Op.EQUALS, 42.0) < 0.02);
+        assertEquals(18000.0, DoubleHistogram.toDouble(DateField.valueOf("2019-04-14")), 0.0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericTypesTest.class);
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.LONG_TYPE, Type.INT_TYPE },
+            new String[] { "id", "name", "amount", "qty" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        t.setField(2, new LongField(id * 10000000000L));
+        t.setField(3, new IntField(id % 7));
+        return t;
+    }
+
+    private static List<Tuple> tuples(int n) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(tuple(i));
+        }
+        return tuples;
+    }
+
+    /**
+     * A page holds as many tuples as a HeapPage, and the bytes written by
+     * createPageData read back as the same tuples in the same slots.
+     */
+    @Test public void roundTrip() throws Exception {
+        int numSlots = PaxPage.getNumSlots(TD, BufferPool.getPageSize());
+        Tuple[] slots = tuples(numSlots).toArray(new Tuple[0]);
+        slots[3] = null;
+        PaxPage page = new PaxPage(pid, PaxPage.createPageData(slots, TD, BufferPool.getPageSize()));
+
+        assertEquals(1, page.getNumEmptySlots());
+        assertNull(page.getTuple(3));
+        for (int i = 0; i < numSlots; i++) {
+            if (i == 3)
+                continue;
+            assertEquals(slots[i].toString(), page.getTuple(i).toString());
+            assertEquals(new RecordId(pid, i), page.getTuple(i).getRecordId());
+        }
+        assertArrayEquals(PaxPage.createPageData(slots, TD, BufferPool.getPageSize()), page.getPageData());
+    }
+
+    /**
+     * The projected iterator returns just the requested fields, in the
+     * requested order, with the RecordIds of the whole tuples.
+     */
+    @Test public void projectedIterator() throws Exception {
+        Tuple[] slots = tuples(20).toArray(new Tuple[0]);
+        PaxPage page = new PaxPage(pid, PaxPage.createPageData(slots, TD, BufferPool.getPageSize()));
+
+        Iterator<Tuple> it = page.iterator(new int[] { 3, 0 });
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(1)).getValue();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals("qty", t.getTupleDesc().getFieldName(0));
+            assertEquals(id % 7, ((IntField) t.getField(0)).getValue());
+            assertEquals(new RecordId(pid, id), t.getRecordId());
+            n++;
+        }
+        assertEquals(20, n);
+    }
+
+    /**
+     * Inserted and deleted tuples are written back out in the columnar format.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        PaxPage page = new PaxPage(pid, PaxPage.createPageData(
+                tuples(10).toArray(new Tuple[0]), TD, BufferPool.getPageSize()));
+        page.deleteTuple(page.getTuple(4));
+        Tuple t = tuple(99);
+        page.insertTuple(t);
+        assertEquals(4, t.getRecordId().getTupleNumber());
+
+        PaxPage read = new PaxPage(pid, page.getPageData());
+        Iterator<Tuple> it = read.iterator(new int[] { 2 });
+        Set<Long> amounts = new HashSet<>();
+        while (it.hasNext()) {
+            amounts.add(((LongField) it.next().getField(0)).getValue());
+        }
+        assertEquals(10, amounts.size());
+        assertTrue(amounts.contains(99 * 10000000000L));
+        assertFalse(amounts.contains(4 * 10000000000L));
+    }
+
+    /**
+     * A PAX HeapFile is recorded as such in the catalog, and an aggregate over
+     * a scan of one of its fields sees every tuple.
+     */
+    @Test public void narrowAggregate() throws Exception {
+        List<Tuple> tuples = tuples(1000);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertPax(tuples, TD, f, BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(f, TD, HeapFile.Layout.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(HeapFile.Layout.PAX, Database.getCatalog().getLayout(hf.getId()));
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", new int[] { 3 });
+        assertEquals("t.qty", scan.getTupleDesc().getFieldName(0));
+        Aggregate sum = new Aggregate(scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        int expected = 0;
+        for (int i = 0; i < 1000; i++) {
+            expected += i % 7;
+        }
+        assertEquals(expected, ((LongField) sum.next().getField(0)).getValue());
+        assertFalse(sum.hasNext());
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
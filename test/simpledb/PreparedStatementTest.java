@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Query;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests PreparedStatement, and the StatementCache of the queries a Parser
+ * runs.
+ */
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+    private final TransactionId tid = new TransactionId();
+    private Parser parser;
+
+    /** Tables a and b, of 1000 and 500 rows of values in [0, 100) */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        for (String name : new String[] { "a", "b" }) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, name.equals("a") ? 1000 : 500, 100, null,
+                    new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, name);
+            TableStats.setTableStats(name, new TableStats(f.getId(), 1000));
+        }
+        parser = new Parser();
+    }
+
+    private static int count(Query q) throws Exception {
+        int n = 0;
+        q.start();
+        while (q.hasNext()) {
+            q.next();
+            n++;
+        }
+        q.close();
+        return n;
+    }
+
+    private int count(String sql) throws Exception {
+        Query q = new Query(tid);
+        q.setPhysicalPlan(parser.generateLogicalPlan(tid, sql).physicalPlan(tid, TableStats.getStatsMap(), false));
+        return count(q);
+    }
+
+    @Test public void normalize() {
+        List<String> constants = new ArrayList<>();
+        assertEquals("SELECT * FROM t1 WHERE t1.c0 = ? AND t1.c1 > ?;",
+                StatementCache.normalize("SELECT *   FROM t1\n WHERE t1.c0 = 12 AND t1.c1 > 'it''s';;", constants));
+        assertEquals(Arrays.asList("12", "it's"), constants);
+        assertNull(StatementCache.normalize("INSERT INTO t VALUES (1, 2);", constants));
+        assertNull(StatementCache.normalize("SELECT * FROM t WHERE t.c0 = ?;", constants));
+        assertNull(StatementCache.normalize("SELECT * FROM t WHERE t.c0 = (SELECT MAX(u.c0) FROM u);", constants));
+        assertNull(StatementCache.normalize("SELECT * FROM t WHERE t.c0 = 'unterminated;", constants));
+        assertNull(StatementCache.normalize("SELECT * FROM t WHERE t.c0 = 1; SELECT * FROM u;", constants));
+        constants.clear();
+        assertEquals("SELECT * FROM t WHERE t.c1 = ?;",
+                StatementCache.normalize("SELECT * FROM t WHERE t.c1 = 'a;b';", constants));
+        assertEquals(Arrays.asList("a;b"), constants);
+    }
+
+    /** A prepared query gives the results of the query with its values written in */
+    @Test public void bind() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < ? AND b.c1 >= ?;");
+        assertEquals(2, ps.getParameterCount());
+        for (int[] values : new int[][] { { 50, 10 }, { 10, 90 }, { 100, 0 }, { 0, 0 } }) {
+            int expected = count("SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < " + values[0]
+                    + " AND b.c1 >= " + values[1] + ";");
+            assertEquals(expected, count(ps.bind(tid, "" + values[0], "" + values[1])));
+        }
+    }
+
+    @Test(expected = ParsingException.class)
+    public void wrongParameterCount() throws Exception {
+        parser.prepare("SELECT * FROM a WHERE a.c1 < ?;").bind(tid, "1", "2");
+    }
+
+    @Test(expected = ParsingException.class)
+    public void unboundParameter() throws Exception {
+        count("SELECT * FROM a WHERE a.c1 < ?;");
+    }
+
+    @Test(expected = ParsingException.class)
+    public void parameterWithoutField() throws Exception {
+        parser.prepare("SELECT * FROM a WHERE 1 < ?;");
+    }
+
+    /** New statistics, or a new table, make a prepared query be optimized again */
+    @Test public void invalidation() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT * FROM a WHERE a.c1 < ?;");
+        assertTrue(ps.isCurrent());
+        TableStats.setTableStats("a", TableStats.getTableStats("a"));
+        assertFalse(ps.isCurrent());
+        int expected = count("SELECT * FROM a WHERE a.c1 < 30;");
+        assertEquals(expected, count(ps.bind(tid, "30")));
+        assertTrue(ps.isCurrent());
+
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(1, 1, null, null), "c");
+        assertFalse(ps.isCurrent());
+    }
+
+    /** Queries that differ only in their constants are prepared once */
+    @Test public void cache() throws Exception {
+        StatementCache cache = parser.getStatementCache();
+        parser.processNextStatement("SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < 10;");
+        parser.processNextStatement("SELECT *  FROM a, b\nWHERE a.c0 = b.c0 AND a.c1 < 20;");
+        parser.processNextStatement("SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < 20 LIMIT 5;");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // a query file of several statements runs its first one, unprepared
+        parser.processNextStatement("SELECT * FROM a WHERE a.c1 < 5; SELECT * FROM b;");
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getMisses());
+
+        TableStats.setTableStats("b", TableStats.getTableStats("b"));
+        parser.processNextStatement("SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < 30;");
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test public void leastRecentlyUsedEvicted() throws Exception {
+        StatementCache cache = new StatementCache(2);
+        PreparedStatement ps = parser.prepare("SELECT * FROM a;");
+        cache.put("1", ps);
+        cache.put("2", ps);
+        cache.get("1");
+        cache.put("3", ps);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("1"));
+        assertNull(cache.get("2"));
+        assertNotNull(cache.get("3"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PreparedStatementTest.class);
+    }
+}
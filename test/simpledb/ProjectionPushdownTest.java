@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that LogicalPlan.physicalPlan scans only the fields of each table
+ * that the rest of the plan uses.
+ */
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+
+    private final TransactionId tid = new TransactionId();
+    private final Map<String, TableStats> stats = new HashMap<>();
+    private final List<List<Integer>> aTuples = new ArrayList<>();
+    private final List<List<Integer>> bTuples = new ArrayList<>();
+    private HeapFile b;
+
+    /** Tables a and b, of 5 fields each */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(5, 300, 50, null, aTuples, "c");
+        b = SystemTestUtil.createRandomHeapFile(5, 400, 50, null, bTuples, "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        stats.put("a", new TableStats(a.getId(), 1000));
+        stats.put("b", new TableStats(b.getId(), 1000));
+    }
+
+    private OpIterator plan(String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /** @return the fields read by the scan of the specified alias in the plan */
+    private static int[] scanFields(OpIterator plan, String alias) {
+        if (plan instanceof SeqScan)
+            return ((SeqScan) plan).getAlias().equals(alias) ? ((SeqScan) plan).getFields() : null;
+        if (!(plan instanceof Operator))
+            return null;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            int[] fields = scanFields(child, alias);
+            if (fields != null)
+                return fields;
+        }
+        return null;
+    }
+
+    @Test public void prunedScans() throws Exception {
+        OpIterator plan = plan("SELECT a.c4, b.c0 FROM a, b WHERE a.c1 = b.c2 AND a.c3 < 20 ORDER BY b.c1;");
+        assertArrayEquals(new int[] { 1, 4 }, scanFields(plan, "a"));
+        assertArrayEquals(new int[] { 0, 1, 2 }, scanFields(plan, "b"));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> ta : aTuples) {
+            for (List<Integer> tb : bTuples) {
+                if (ta.get(1).equals(tb.get(2)) && ta.get(3) < 20) {
+                    List<Integer> t = new ArrayList<>();
+                    t.add(ta.get(4));
+                    t.add(tb.get(0));
+                    expected.add(t);
+                }
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+    }
+
+    @Test public void aggregate() throws Exception {
+        OpIterator plan = plan("SELECT a.c2, SUM(a.c0) FROM a GROUP BY a.c2;");
+        assertArrayEquals(new int[] { 0, 2 }, scanFields(plan, "a"));
+
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : aTuples)
+            sums.merge(t.get(2), t.get(0), Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            List<Integer> t = new ArrayList<>();
+            t.add(e.getKey());
+            t.add(e.getValue());
+            expected.add(t);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+    }
+
+    /** Every field of every table is scanned for SELECT * */
+    @Test public void selectAll() throws Exception {
+        OpIterator plan = plan("SELECT * FROM a WHERE a.c0 < 10;");
+        OpIterator scan = ((Operator) plan).getChildren()[0];
+        assertTrue(scan instanceof SeqScan);
+        assertNull(((SeqScan) scan).getFields());
+    }
+
+    /** An index join replaces a pruned scan with a probe of its index, which returns every field */
+    @Test public void indexJoin() throws Exception {
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        SecondaryIndex.create(b.getId(), "c3", idx);
+        OpIterator outer = new SeqScan(tid, Database.getCatalog().getTableId("a"), "a", new int[] { 0, 2 });
+        OpIterator inner = new SeqScan(tid, b.getId(), "b", new int[] { 1, 3 },
+                new Predicate[] { new Predicate(4, Predicate.Op.GREATER_THAN, new IntField(25)) });
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c2", "b.c3", Predicate.Op.EQUALS)
+                .withAlgorithm(JoinOptimizer.JoinAlgorithm.INDEX_NESTED_LOOP);
+        OpIterator join = JoinOptimizer.instantiateJoin(lj, outer, inner);
+        OpIterator probe = join;
+        while (probe instanceof Filter)
+            probe = ((Filter) probe).getChildren()[0];
+        assertTrue(probe instanceof IndexNestedLoopJoin);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> ta : aTuples) {
+            for (List<Integer> tb : bTuples) {
+                if (ta.get(2).equals(tb.get(3)) && tb.get(4) > 25) {
+                    List<Integer> t = new ArrayList<>();
+                    t.add(ta.get(0));
+                    t.add(ta.get(2));
+                    t.addAll(tb);
+                    expected.add(t);
+                }
+            }
+        }
+        SystemTestUtil.matchTuples(join, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.HyperLogLog;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Tests statistics computed from a sample of the pages of a table, distinct
+ * counts from HyperLogLog sketches, and statistics saved to a file.
+ */
+public class SampledStatsTest extends SimpleDbTestBase {
+
+    /** Enough rows for more pages than are sampled at the default rate */
+    private static final int ROWS = 200000;
+
+    private HeapFile f;
+    private int tableId;
+
+    /** Column 0 holds unique values, and column 1 the values 0 to 999 */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> tuples = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(Arrays.asList(i, i % 1000));
+        File temp = File.createTempFile("sampled", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+        f = Utility.openHeapFile(2, "c", temp);
+        Database.getCatalog().addTable(f, "sampled_t");
+        tableId = f.getId();
+    }
+
+    @Test public void hyperLogLog() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            a.addValue(i);
+            a.addValue(i);
+            b.addValue("s" + i);
+        }
+        assertEquals(100000, a.estimate(), 5000);
+        assertEquals(100000, b.estimate(), 5000);
+        assertEquals(100, new HyperLogLog() {{
+            for (int i = 0; i < 100; i++)
+                addValue(i * 0.5);
+        }}.estimate(), 2);
+        a.merge(b);
+        assertEquals(200000, a.estimate(), 10000);
+    }
+
+    /** A sample of the pages gives the size and the distinct counts of the table */
+    @Test public void sampled() {
+        assertTrue(f.numPages() > 256);
+        TableStats s = new TableStats(tableId, 1000);
+        assertEquals(ROWS, s.totalTuples(), ROWS / 100);
+        assertEquals(f.numPages() * 1000.0, s.estimateScanCost(), 0.0);
+        assertEquals(ROWS, s.numDistinctValues(0), ROWS / 20);
+        assertEquals(1000, s.numDistinctValues(1), 50);
+        // the pages hold runs of column 0, so a range over it is estimated
+        // from the fraction of the sampled pages it covers
+        assertEquals(0.5, s.estimateSelectivity(0, Op.LESS_THAN, new IntField(ROWS / 2)), 0.06);
+        assertEquals(0.001, s.estimateSelectivity(1, Op.EQUALS, new IntField(7)), 0.0002);
+
+        // the whole table
+        s = new TableStats(tableId, 1000, 1.0);
+        assertEquals(ROWS, s.totalTuples());
+        assertEquals(ROWS, s.numDistinctValues(0), ROWS / 20);
+        assertEquals(1000, s.numDistinctValues(1), 50);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badSampleRate() {
+        new TableStats(tableId, 1000, 0.0);
+    }
+
+    /** Saved statistics are loaded while the table is unchanged */
+    @Test public void persisted() throws Exception {
+        File stats = File.createTempFile("sampled", ".stats");
+        stats.delete();
+        stats.deleteOnExit();
+
+        TableStats.computeStatistics(stats, TableStats.DEFAULT_SAMPLE_RATE);
+        assertTrue(stats.exists());
+        Map<String, TableStats> saved = TableStats.readStatistics(stats);
+        assertEquals(TableStats.getTableStats("sampled_t").totalTuples(),
+                saved.get("sampled_t").totalTuples());
+        assertEquals(1000, saved.get("sampled_t").numDistinctValues(1), 50);
+
+        // statistics that could only have come from the file
+        TableStats.setTableStats("sampled_t", new TableStats(tableId, 7));
+        TableStats.writeStatistics(stats);
+        TableStats.computeStatistics(stats, TableStats.DEFAULT_SAMPLE_RATE);
+        assertEquals(f.numPages() * 7.0, TableStats.getTableStats("sampled_t").estimateScanCost(), 0.0);
+
+        // at another sample rate, they are computed again
+        TableStats.computeStatistics(stats, 0.5);
+        assertEquals(f.numPages() * 1000.0, TableStats.getTableStats("sampled_t").estimateScanCost(), 0.0);
+
+        // and so they are when the table has been written
+        TableStats.setTableStats("sampled_t", new TableStats(tableId, 7, 0.5));
+        TableStats.writeStatistics(stats);
+        assertTrue(f.getFile().setLastModified(f.getFile().lastModified() + 2000));
+        TableStats.computeStatistics(stats, 0.5);
+        assertEquals(f.numPages() * 1000.0, TableStats.getTableStats("sampled_t").estimateScanCost(), 0.0);
+    }
+
+    /** A file that does not hold statistics is ignored, and replaced */
+    @Test public void unreadable() throws Exception {
+        File stats = File.createTempFile("sampled", ".stats");
+        stats.deleteOnExit();
+        TableStats.computeStatistics(stats, TableStats.DEFAULT_SAMPLE_RATE);
+        assertNotNull(TableStats.getTableStats("sampled_t"));
+        assertTrue(TableStats.readStatistics(stats).containsKey("sampled_t"));
+    }
+
+    @Test public void statsFileFor() {
+        assertEquals(new File("/data/catalog.stats").getAbsoluteFile(),
+                TableStats.statsFileFor("/data/catalog.txt"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SampledStatsTest.class);
+    }
+}
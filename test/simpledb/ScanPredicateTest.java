@@ -0,0 +1,211 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests scans with predicates: comparisons on the bytes of a page, the
+ * filtered iterators of HeapPage and PaxPage, and SeqScans with predicates.
+ */
+public class ScanPredicateTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.LONG_TYPE, Type.INT_TYPE },
+            new String[] { "id", "name", "amount", "qty" });
+
+    private static final Predicate[] PREDICATES = {
+            new Predicate(3, Predicate.Op.EQUALS, new IntField(2)),
+            new Predicate(2, Predicate.Op.GREATER_THAN, new LongField(-50)) };
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        t.setField(2, new LongField((id - 50) * 10000000000L));
+        t.setField(3, new IntField(id % 7));
+        return t;
+    }
+
+    private static boolean matches(Tuple t) {
+        for (Predicate p : PREDICATES) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] bytes(Field f) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    /** Comparing the bytes of a value gives the same answer as comparing the value */
+    @Test public void compareBytes() throws Exception {
+        Field[] values = { new IntField(-3), new IntField(0), new IntField(7), new IntField(Integer.MIN_VALUE),
+                new LongField(-3), new LongField(1L << 40), new StringField("abc", Type.STRING_LEN),
+                new DoubleField(2.5) };
+        for (Field value : values) {
+            byte[] data = bytes(value);
+            for (Field operand : values) {
+                if (operand.getType() != value.getType())
+                    continue;
+                for (Predicate.Op op : Predicate.Op.values())
+                    assertEquals(value + " " + op + " " + operand, value.compare(op, operand),
+                            value.getType().compare(data, 0, op, operand));
+            }
+        }
+    }
+
+    private void assertFiltered(HeapPage page, List<Tuple> slots, int[] fields) {
+        Iterator<Tuple> it = page.iterator(fields, PREDICATES);
+        for (int i = 0; i < slots.size(); i++) {
+            Tuple t = slots.get(i);
+            if (t == null || !matches(t))
+                continue;
+            assertTrue(it.hasNext());
+            Tuple r = it.next();
+            assertEquals(new RecordId(pid, i), r.getRecordId());
+            if (fields == null) {
+                assertEquals(t.toString(), r.toString());
+            } else {
+                assertEquals(fields.length, r.getTupleDesc().numFields());
+                for (int k = 0; k < fields.length; k++)
+                    assertEquals(t.getField(fields[k]), r.getField(k));
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+
+    private static List<Tuple> slots(int numSlots) {
+        List<Tuple> slots = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++)
+            slots.add(i % 5 == 1 ? null : tuple(i));
+        return slots;
+    }
+
+    /** A HeapPage evaluates predicates on its bytes, and on its tuples once decoded */
+    @Test public void heapPage() throws Exception {
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> slots = slots(empty.getNumEmptySlots());
+        for (Tuple t : slots)
+            empty.insertTuple(t == null ? tuple(0) : t);
+        for (int i = 0; i < slots.size(); i++) {
+            if (slots.get(i) == null)
+                empty.deleteTuple(empty.getTuple(i));
+        }
+        byte[] data = empty.getPageData();
+
+        HeapPage page = new HeapPage(pid, data);
+        assertFiltered(page, slots, null);
+        assertFiltered(page, slots, new int[] { 3, 0 });
+        // filtering does not decode the page
+        assertArrayEquals(data, page.getPageData());
+
+        // once decoded, and modified, the tuples are filtered
+        page.deleteTuple(page.getTuple(2));
+        slots.set(2, null);
+        assertFiltered(page, slots, null);
+        assertFiltered(page, slots, new int[] { 1 });
+    }
+
+    @Test public void paxPage() throws Exception {
+        int numSlots = PaxPage.getNumSlots(TD, BufferPool.getPageSize());
+        List<Tuple> slots = slots(numSlots);
+        PaxPage page = new PaxPage(pid, PaxPage.createPageData(slots.toArray(new Tuple[0]), TD,
+                BufferPool.getPageSize()));
+        assertFiltered(page, slots, null);
+        assertFiltered(page, slots, new int[] { 2 });
+
+        page.deleteTuple(page.getTuple(2));
+        slots.set(2, null);
+        assertFiltered(page, slots, new int[] { 2 });
+    }
+
+    /** A SeqScan with predicates returns what a Filter over a SeqScan does, whole or by page */
+    @Test public void seqScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "scanned");
+        TransactionId tid = new TransactionId();
+        Predicate[] preds = { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(5)) };
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 30 && t.get(2) != 5)
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+        }
+        SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "s", new int[] { 2, 0 }, preds), expected);
+
+        List<List<Integer>> whole = collect(
+                new Filter(preds[1], new Filter(preds[0], new SeqScan(tid, f.getId(), "s"))));
+        List<SeqScan> parts = SeqScan.partitions(tid, f.getId(), "s", null, preds, 4);
+        assertTrue(parts.size() > 1);
+        List<List<Integer>> fromParts = new ArrayList<>();
+        for (SeqScan part : parts)
+            fromParts.addAll(collect(part));
+        assertEquals(whole, fromParts);
+        SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "s", null, preds), whole);
+    }
+
+    private static List<List<Integer>> collect(OpIterator it) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return tuples;
+    }
+
+    /** The filters of a table that is scanned sequentially go into its scan */
+    @Test public void plan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, "planned");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("planned", new TableStats(f.getId(), 1000));
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM planned p WHERE p.c0 < 50 AND p.c1 > 10;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            assertFalse(scan instanceof Filter);
+            scan = ((simpledb.execution.Operator) scan).getChildren()[0];
+        }
+        assertEquals(2, ((SeqScan) scan).getPredicates().length);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanPredicateTest.class);
+    }
+}
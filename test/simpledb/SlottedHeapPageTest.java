@@ -0,0 +1,178 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Tuples written out by getPageData are read back into the same slots.
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        for (int i = 0; i < 50; i++) {
+            page.insertTuple(tuple(i, i % 3 == 0 ? "" : "name" + i));
+        }
+        page.deleteTuple(page.getTuple(7));
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        for (int i = 0; i < 50; i++) {
+            Tuple t = read.getTuple(i);
+            if (i == 7) {
+                assertNull(t);
+                continue;
+            }
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(i % 3 == 0 ? "" : "name" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
+    /**
+     * Short strings only take their actual length, so many more tuples fit than on
+     * a HeapPage, and the page refuses tuples once its free space runs out.
+     */
+    @Test public void shortStringsPackDensely() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int fixedTuples = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(n, "abcdefgh"));
+                n++;
+            }
+        } catch (DbException e) {
+            // expected once the page is full
+        }
+        assertTrue(n > 5 * fixedTuples);
+        assertEquals(0, page.getNumEmptySlots());
+        assertFalse(page.hasRoomFor(tuple(n, "abcdefgh")));
+        assertTrue(page.getNumFreeBytes() < TD.getSize(tuple(0, "abcdefgh")) + 4);
+        assertEquals(4 + 2 + 8, TD.getSize(tuple(0, "abcdefgh")));
+    }
+
+    /**
+     * Deleting tuples frees their space and slot, and leaves the RecordIds of
+     * the other tuples unchanged.
+     */
+    @Test public void deleteReusesSpace() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        Tuple longName = tuple(0, "a much longer name that takes quite a few bytes");
+        page.insertTuple(longName);
+        page.insertTuple(tuple(1, "b"));
+        int free = page.getNumFreeBytes();
+
+        page.deleteTuple(longName);
+        assertTrue(page.getNumFreeBytes() > free);
+        Tuple c = tuple(2, "c");
+        page.insertTuple(c);
+        assertEquals(0, c.getRecordId().getTupleNumber());
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals("b", ((StringField) read.getTuple(1).getField(1)).getValue());
+        assertEquals("c", ((StringField) read.getTuple(0).getField(1)).getValue());
+    }
+
+    /**
+     * A slotted HeapFile written by HeapFileEncoder scans back the same tuples
+     * from fewer pages than the fixed-length format.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tuples.add(tuple(i, "customer" + i));
+        }
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertSlotted(tuples, TD, f, BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(f, TD, HeapFile.Layout.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        int fixedTuples = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        assertTrue(hf.numPages() * 5 < (1000 + fixedTuples - 1) / fixedTuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("customer" + id, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, count);
+    }
+
+    /**
+     * Tuples inserted through the buffer pool fill each page up to their actual
+     * size, rather than stopping when a tuple of the largest size no longer fits.
+     */
+    @Test public void insertPacksPages() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, TD, HeapFile.Layout.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "abcdefgh"));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        int perPage = (BufferPool.getPageSize() - 4) / (TD.getSize(tuple(0, "abcdefgh")) + 4);
+        assertEquals((1000 + perPage - 1) / perPage, hf.numPages());
+        for (int p = 0; p < hf.numPages() - 1; p++) {
+            SlottedHeapPage page = (SlottedHeapPage) hf.readPage(new HeapPageId(hf.getId(), p));
+            assertEquals(0, page.getNumEmptySlots());
+            assertFalse(page.hasRoomFor(tuple(0, "abcdefgh")));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
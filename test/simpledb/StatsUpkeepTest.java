@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+/**
+ * Tests that the statistics of a table follow the tuples inserted into and
+ * deleted from it, and that tables modified enough are analyzed again.
+ */
+public class StatsUpkeepTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+
+    private HeapFile f;
+    private int tableId;
+
+    /** Column 0 holds the values 0 to 999, and column 1 the values 0 to 9 */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> tuples = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(Arrays.asList(i, i % 10));
+        File temp = File.createTempFile("upkeep", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+        f = Utility.openHeapFile(2, "c", temp);
+        Database.getCatalog().addTable(f, "upkeep_t");
+        tableId = f.getId();
+        TableStats.setTableStats("upkeep_t", new TableStats(tableId, 1000));
+    }
+
+    private void insert(Transaction t, int n, int first, int value) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Tuple tup = new Tuple(f.getTupleDesc());
+            tup.setField(0, new IntField(first + i));
+            tup.setField(1, new IntField(value));
+            Database.getBufferPool().insertTuple(t.getId(), tableId, tup);
+        }
+    }
+
+    @Test public void incremental() throws Exception {
+        TableStats s = TableStats.getTableStats("upkeep_t");
+        assertEquals(0.0, s.estimateSelectivity(1, Op.EQUALS, new IntField(42)), 0.0);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 200, ROWS, 42);
+        assertEquals(ROWS + 200, s.totalTuples());
+        assertEquals(200.0 / (ROWS + 200), s.estimateSelectivity(1, Op.EQUALS, new IntField(42)), 0.001);
+        assertEquals(ROWS + 200, s.numDistinctValues(0), 0.0);
+        assertEquals(11, s.numDistinctValues(1), 0.0);
+
+        // deletes are counted, though the values stay in the histograms
+        SeqScan scan = new SeqScan(t.getId(), tableId);
+        scan.open();
+        int deleted = 0;
+        while (scan.hasNext() && deleted < 100) {
+            Tuple tup = scan.next();
+            if (((IntField) tup.getField(1)).getValue() == 42) {
+                Database.getBufferPool().deleteTuple(t.getId(), tup);
+                deleted++;
+            }
+        }
+        scan.close();
+        t.commit();
+        assertEquals(ROWS + 100, s.totalTuples());
+
+        // too few modifications to analyze the table again
+        assertSame(s, TableStats.getTableStats("upkeep_t"));
+    }
+
+    /** A table that grows by half is analyzed again once the inserts commit */
+    @Test public void reanalyzed() throws Exception {
+        TableStats s = TableStats.getTableStats("upkeep_t");
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, ROWS / 2 + 100, ROWS, 42);
+        t.commit();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (TableStats.getTableStats("upkeep_t") == s && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        TableStats fresh = TableStats.getTableStats("upkeep_t");
+        assertNotSame(s, fresh);
+        assertEquals(ROWS * 3 / 2 + 100, fresh.totalTuples());
+        assertEquals(600.0 / (ROWS * 3 / 2 + 100), fresh.estimateSelectivity(1, Op.EQUALS, new IntField(42)), 0.001);
+        assertEquals(f.numPages() * 1000.0, fresh.estimateScanCost(), 0.0);
+    }
+
+    /** Statistics kept under the name of a table, but of another one, are left alone */
+    @Test public void otherTable() throws Exception {
+        TableStats other = TableStats.getTableStats("upkeep_t");
+        setUp();
+        TableStats.setTableStats("upkeep_t", other);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 10, ROWS, 42);
+        t.commit();
+        assertEquals(ROWS, other.totalTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StatsUpkeepTest.class);
+    }
+}
@@ -62,6 +62,9 @@ public class TestUtil {
             if (tupdata[j] instanceof Integer) {
                 types[j] = Type.INT_TYPE;
             }
+            if (tupdata[j] instanceof Long) {
+                types[j] = Type.LONG_TYPE;
+            }
         }
         td = new TupleDesc(types);
 
@@ -72,6 +75,8 @@ public class TestUtil {
                 Object t = tupdata[i++];
                 if (t instanceof String)
                     f = new StringField((String)t, Type.STRING_LEN); 
+                else if (t instanceof Long)
+                    f = new LongField((Long)t);
                 else
                     f = new IntField((Integer)t);
 
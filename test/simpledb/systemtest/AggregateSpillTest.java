@@ -0,0 +1,140 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests aggregation with more groups than its memory budget, and aggregation
+ * split into partial and final phases.
+ */
+public class AggregateSpillTest extends SimpleDbTestBase {
+
+    private static final int[] AFIELDS = { 1, 1, 1, 1, 1 };
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    /**
+     * @return for each group of column 0, the SUM, MIN, MAX, AVG and COUNT of
+     *         column 1, after the group if grouped
+     */
+    private static List<List<Integer>> expected(List<List<Integer>> tuples, boolean grouped) {
+        Map<Integer, long[]> groups = new LinkedHashMap<>();
+        for (List<Integer> t : tuples) {
+            int v = t.get(1);
+            long[] g = groups.computeIfAbsent(grouped ? t.get(0) : 0,
+                    k -> new long[] { 0, Long.MAX_VALUE, Long.MIN_VALUE, 0 });
+            g[0] += v;
+            g[1] = Math.min(g[1], v);
+            g[2] = Math.max(g[2], v);
+            g[3]++;
+        }
+        List<List<Integer>> result = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> e : groups.entrySet()) {
+            long[] g = e.getValue();
+            List<Integer> row = new ArrayList<>();
+            if (grouped)
+                row.add(e.getKey());
+            row.addAll(Arrays.asList((int) g[0], (int) g[1], (int) g[2], (int) (g[0] / g[3]), (int) g[3]));
+            result.add(row);
+        }
+        return result;
+    }
+
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, tuples);
+        List<List<Integer>> expected = expected(tuples, true);
+        TransactionId tid = new TransactionId();
+
+        Aggregate inMemory = new Aggregate(new SeqScan(tid, table.getId(), "t"), AFIELDS, 0, OPS);
+        SystemTestUtil.matchTuples(inMemory, expected);
+        assertEquals(0, inMemory.getNumSpilledPartitions());
+
+        Aggregate spilled = new Aggregate(new SeqScan(tid, table.getId(), "t"), AFIELDS, 0, OPS, 200);
+        SystemTestUtil.matchTuples(spilled, expected);
+        spilled.open();
+        assertTrue(spilled.getNumSpilledPartitions() > 0);
+        while (spilled.hasNext())
+            spilled.next();
+        spilled.rewind();
+        int groups = 0;
+        while (spilled.hasNext()) {
+            spilled.next();
+            groups++;
+        }
+        assertEquals(expected.size(), groups);
+        spilled.close();
+
+        // partitions with too many groups are partitioned again
+        Aggregate tiny = new Aggregate(new SeqScan(tid, table.getId(), "t"), AFIELDS, 0, OPS, 2);
+        SystemTestUtil.matchTuples(tiny, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPartialAndFinal() throws IOException, DbException, TransactionAbortedException {
+        // each table is a part of the same relation, aggregated separately
+        List<List<Integer>> all = new ArrayList<>();
+        List<HeapFile> parts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            parts.add(SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples));
+            all.addAll(tuples);
+        }
+        TransactionId tid = new TransactionId();
+
+        for (boolean grouped : new boolean[] { true, false }) {
+            int gfield = grouped ? 0 : Aggregator.NO_GROUPING;
+            List<Tuple> states = new ArrayList<>();
+            Aggregate partial = null;
+            for (HeapFile part : parts) {
+                partial = Aggregate.partial(new SeqScan(tid, part.getId(), "t"), AFIELDS, gfield, OPS, 100);
+                partial.open();
+                while (partial.hasNext())
+                    states.add(partial.next());
+                partial.close();
+            }
+            assertEquals(Aggregate.Phase.PARTIAL, partial.getPhase());
+
+            Aggregate fin = partial.finalAggregate(new TupleIterator(partial.getTupleDesc(), states));
+            Aggregate complete = new Aggregate(new SeqScan(tid, parts.get(0).getId(), "t"), AFIELDS, gfield, OPS);
+            assertEquals(complete.getTupleDesc(), fin.getTupleDesc());
+            assertEquals(complete.getTupleDesc().getFieldName(1), fin.getTupleDesc().getFieldName(1));
+            SystemTestUtil.matchTuples(fin, expected(all, grouped));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFinalOfComplete() throws IOException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Aggregate complete = new Aggregate(new SeqScan(new TransactionId(), table.getId(), "t"), AFIELDS, 0, OPS);
+        complete.finalAggregate(complete);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregateSpillTest.class);
+    }
+}
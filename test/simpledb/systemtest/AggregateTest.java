@@ -1,17 +1,23 @@
 package simpledb.systemtest;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import simpledb.Parser;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
@@ -121,6 +127,40 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** Several aggregates over different columns are computed in one pass, in a plan or directly. */
+    @Test public void testSeveralAggregates() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples, "c");
+        Database.getCatalog().addTable(table, "aggs");
+
+        Map<Integer, int[]> groups = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            int[] g = groups.computeIfAbsent(t.get(0), k -> new int[] { 0, Integer.MIN_VALUE, 0 });
+            g[0] += t.get(1);
+            g[1] = Math.max(g[1], t.get(2));
+            g[2]++;
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+            int[] g = e.getValue();
+            expected.add(Arrays.asList(e.getKey(), g[0], g[1], g[2]));
+        }
+
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), new int[] { 1, 2, 1 }, 0,
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MAX, Aggregator.Op.COUNT });
+        assertEquals(4, ag.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(ag, expected);
+
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("aggs", new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c0, SUM(a.c1), MAX(a.c2), COUNT(a.c1) FROM aggs a GROUP BY a.c0;");
+        SystemTestUtil.matchTuples(lp.physicalPlan(tid, stats, false), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
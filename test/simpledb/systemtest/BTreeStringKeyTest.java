@@ -0,0 +1,178 @@
+package simpledb.systemtest;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests B+ trees keyed on string fields, whose pages store prefix-compressed
+ * keys and suffix-truncated separators.
+ */
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = new TupleDesc(
+			new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "name", "id" });
+
+	private final Random rand = new Random(6830);
+	private TransactionId tid;
+	private BTreeFile bf;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		bf = new BTreeFile(f, 0, TD);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.reset();
+	}
+
+	private Tuple tuple(String name, int id) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, new StringField(name, Type.STRING_LEN));
+		t.setField(1, new IntField(id));
+		return t;
+	}
+
+	/** Keys with long shared prefixes, long suffixes after the part that differs, and some duplicates */
+	private String randomName() {
+		return String.format("customer-%04d-account-details", rand.nextInt(2000));
+	}
+
+	/** Scan the whole tree and check it holds exactly the expected keys, in order */
+	private void validateScan(List<String> expected) throws Exception {
+		List<String> sorted = new ArrayList<>(expected);
+		Collections.sort(sorted);
+		List<String> actual = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			actual.add(((StringField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(sorted, actual);
+	}
+
+	private int countEquals(String name) throws Exception {
+		int count = 0;
+		DbFileIterator it = bf.indexIterator(tid,
+				new IndexPredicate(Op.EQUALS, new StringField(name, Type.STRING_LEN)));
+		it.open();
+		while (it.hasNext()) {
+			assertEquals(name, ((StringField) it.next().getField(0)).getValue());
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	@Test
+	public void testInsertDelete() throws Exception {
+		List<String> names = new ArrayList<>();
+		List<Tuple> inserted = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			String name = randomName();
+			Tuple t = tuple(name, i);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+			names.add(name);
+			inserted.add(t);
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		validateScan(names);
+		assertEquals(Collections.frequency(names, names.get(17)), countEquals(names.get(17)));
+
+		// delete most of the tuples to force pages to merge and redistribute
+		Collections.shuffle(inserted, rand);
+		for (Tuple t : inserted.subList(0, 2500)) {
+			Database.getBufferPool().deleteTuple(tid, t);
+			names.remove(((StringField) t.getField(0)).getValue());
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		validateScan(names);
+
+		// the pages written to disk read back the same
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		validateScan(names);
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			String name = randomName();
+			tuples.add(tuple(name, i));
+			names.add(name);
+		}
+		tuples.sort(new BTreeFileEncoder.TupleComparator(0));
+		BTreeFileEncoder.bulkLoad(bf, tuples, BufferPool.getPageSize(),
+				new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, 0);
+		Database.resetBufferPool(1000);
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		validateScan(names);
+		assertEquals(Collections.frequency(names, names.get(5)), countEquals(names.get(5)));
+
+		// fixed-length pages would need one leaf for every 30 tuples
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+		assertTrue(leaf.isCompact());
+		assertTrue(leaf.getNumTuples() > 100);
+		assertTrue(bf.numPages() < tuples.size() / 100);
+	}
+
+	@Test
+	public void testTruncatedSeparators() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(randomName(), i));
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+				rootPtr.getRootId(), Permissions.READ_ONLY);
+		// separators only keep the full key when a run of duplicates spans two pages
+		int keys = 0;
+		int truncated = 0;
+		Iterator<BTreeEntry> it = root.iterator();
+		while (it.hasNext()) {
+			String key = ((StringField) it.next().getKey()).getValue();
+			assertTrue(key.startsWith("customer-"));
+			if (key.length() < randomName().length())
+				truncated++;
+			keys++;
+		}
+		assertTrue(keys > 1);
+		assertTrue(truncated * 2 > keys);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
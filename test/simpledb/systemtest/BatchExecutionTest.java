@@ -0,0 +1,194 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that operators return the same tuples through nextBatch as through
+ * next, including row-at-a-time operators fed through the default adapter.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static final Comparator<List<Integer>> ROW_ORDER = (a, b) -> {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    };
+
+    /** Read every tuple of the iterator through nextBatch */
+    private static List<List<Integer>> readBatches(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.numRows() > 0);
+            assertTrue(batch.numRows() <= TupleBatch.DEFAULT_SIZE);
+            for (int k = 0; k < batch.numRows(); k++) {
+                result.add(SystemTestUtil.tupleToList(batch.getTuple(k)));
+            }
+        }
+        it.close();
+        return result;
+    }
+
+    private static List<List<Integer>> readTuples(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    private static OpIterator scanFilterProject(TransactionId tid, HeapFile table, Predicate.Op op) {
+        OpIterator scan = new SeqScan(tid, table.getId(), "t");
+        OpIterator filter = new Filter(new Predicate(1, op, new IntField(500)), scan);
+        return new Project(Arrays.asList(2, 0), new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    }
+
+    @Test public void testScanFilterProject() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            List<List<Integer>> expected = readTuples(scanFilterProject(tid, table, op));
+            List<List<Integer>> actual = readBatches(scanFilterProject(tid, table, op));
+            assertEquals(expected, actual);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan fills its batches from the bytes of pages not yet decoded, and
+     * from the tuples of pages that are, with the same rows as next returns.
+     */
+    @Test public void testScanBatches() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        int[][] fields = { null, { 2, 0 } };
+        Predicate[][] predicates = { null, { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)) } };
+        for (int[] f : fields) {
+            for (Predicate[] p : predicates) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                List<List<Integer>> fromBytes = readBatches(new SeqScan(tid, table.getId(), "t", f, p));
+                List<List<Integer>> expected = readTuples(new SeqScan(tid, table.getId(), "t", f, p));
+                List<List<Integer>> fromTuples = readBatches(new SeqScan(tid, table.getId(), "t", f, p));
+                assertEquals(expected, fromBytes);
+                assertEquals(expected, fromTuples);
+            }
+        }
+
+        // a tuple read ahead by hasNext is returned in the next batch
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        assertTrue(scan.hasNext());
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null)
+            count += batch.numRows();
+        scan.close();
+        assertEquals(5000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregate() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, count = 0;
+            long sum = 0;
+            for (List<Integer> t : tuples) {
+                if (t.get(1) < 50)
+                    continue;
+                min = Math.min(min, t.get(0));
+                max = Math.max(max, t.get(0));
+                sum += t.get(0);
+                count++;
+            }
+            int expected = op == Aggregator.Op.MIN ? min : op == Aggregator.Op.MAX ? max
+                    : op == Aggregator.Op.SUM ? (int) sum : op == Aggregator.Op.AVG ? (int) (sum / count) : count;
+
+            OpIterator filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)),
+                    new SeqScan(tid, table.getId(), "t"));
+            Aggregate agg = new Aggregate(filter, 0, Aggregator.NO_GROUPING, op);
+            assertEquals(Arrays.asList(Arrays.asList(expected)), readTuples(agg));
+        }
+
+        // grouped aggregates match the row-at-a-time merge
+        OpIterator grouped = new Aggregate(new SeqScan(tid, table.getId(), "t"), 0, 1, Aggregator.Op.SUM);
+        OpIterator expected = new Aggregate(new TupleIterator(table.getTupleDesc(),
+                toTuples(table, tuples)), 0, 1, Aggregator.Op.SUM);
+        List<List<Integer>> actualRows = readTuples(grouped);
+        List<List<Integer>> expectedRows = readTuples(expected);
+        actualRows.sort(ROW_ORDER);
+        expectedRows.sort(ROW_ORDER);
+        assertEquals(expectedRows, actualRows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Tuple> toTuples(HeapFile table, List<List<Integer>> rows) {
+        List<Tuple> result = new ArrayList<>();
+        for (List<Integer> row : rows) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            for (int i = 0; i < row.size(); i++) {
+                t.setField(i, new IntField(row.get(i)));
+            }
+            result.add(t);
+        }
+        return result;
+    }
+
+    @Test public void testHashJoin() throws IOException, DbException, TransactionAbortedException {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, new ArrayList<>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 2000, 500, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        List<List<Integer>> expected = readTuples(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        List<List<Integer>> actual = readBatches(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        assertTrue(expected.size() > TupleBatch.DEFAULT_SIZE);
+        expected.sort(ROW_ORDER);
+        actual.sort(ROW_ORDER);
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
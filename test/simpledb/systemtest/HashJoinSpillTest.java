@@ -0,0 +1,177 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests HashEquiJoin with memory budgets too small for its build side, so that
+ * partitions are spilled to disk and joined afterwards.
+ */
+public class HashJoinSpillTest extends SimpleDbTestBase {
+
+    private static final Comparator<List<Integer>> ROW_ORDER = (a, b) -> {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    };
+
+    private static List<List<Integer>> nestedLoopJoin(List<List<Integer>> left, int f1,
+            List<List<Integer>> right, int f2) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t1 : left) {
+            for (List<Integer> t2 : right) {
+                if (t1.get(f1).equals(t2.get(f2))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    result.add(out);
+                }
+            }
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    private static List<List<Integer>> readAll(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    private static List<List<Integer>> readBatches(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            for (int k = 0; k < batch.numRows(); k++) {
+                result.add(SystemTestUtil.tupleToList(batch.getTuple(k)));
+            }
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    @Test public void testSpilledJoin() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 400, null, leftTuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 2000, 400, null, rightTuples);
+        List<List<Integer>> expected = nestedLoopJoin(leftTuples, 0, rightTuples, 1);
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"), 100);
+        join.open();
+        assertEquals(expected, readAll(join));
+        assertTrue(join.getNumSpilledPartitions() > 0);
+
+        // rewinding joins the spilled partitions again
+        join.rewind();
+        assertEquals(expected, readAll(join));
+        join.close();
+
+        join = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"), 100);
+        join.open();
+        assertEquals(expected, readBatches(join));
+        join.close();
+
+        // a budget large enough for the build side never spills
+        join = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        join.open();
+        assertEquals(expected, readAll(join));
+        assertEquals(0, join.getNumSpilledPartitions());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSkewedJoin() throws IOException, DbException, TransactionAbortedException {
+        // every tuple has the same join value, so partitioning cannot split
+        // the build side below the memory budget
+        Map<Integer, Integer> columnSpecification = new HashMap<>();
+        columnSpecification.put(0, 7);
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 300, columnSpecification, leftTuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 40, columnSpecification, rightTuples);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"), 50);
+        join.open();
+        List<List<Integer>> actual = readAll(join);
+        join.close();
+        assertEquals(300 * 40, actual.size());
+        assertEquals(nestedLoopJoin(leftTuples, 0, rightTuples, 0), actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBuildSide() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 2000, 300, null, leftTuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 500, 300, null, rightTuples);
+        List<List<Integer>> expected = nestedLoopJoin(leftTuples, 0, rightTuples, 0);
+
+        TransactionId tid = new TransactionId();
+        Predicate all = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        Filter l = new Filter(all, new SeqScan(tid, left.getId(), "l"));
+        Filter r = new Filter(all, new SeqScan(tid, right.getId(), "r"));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        // without estimates the left child is the build side
+        HashEquiJoin join = new HashEquiJoin(p, l, r, 100);
+        join.open();
+        assertSame(l, join.getBuildSide());
+        assertEquals(expected, readAll(join));
+        join.close();
+
+        // the smaller child is the build side, and the left child's fields
+        // still come first
+        l.setEstimatedCardinality(2000);
+        r.setEstimatedCardinality(500);
+        join = new HashEquiJoin(p, l, r, 100);
+        join.open();
+        assertSame(r, join.getBuildSide());
+        assertEquals(expected, readAll(join));
+        assertTrue(join.getNumSpilledPartitions() > 0);
+        join.close();
+
+        join = new HashEquiJoin(p, l, r, 100);
+        join.open();
+        assertEquals(expected, readBatches(join));
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinSpillTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class IndexScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 200;
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+    private SecondaryIndex index;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        index = SecondaryIndex.create(table.getId(), "c0", idx);
+    }
+
+    private List<List<Integer>> matching(Predicate.Op op, int value) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                result.add(t);
+        }
+        return result;
+    }
+
+    private void validateScan(Predicate.Op op, int value)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "t", new IndexPredicate(op, new IntField(value)));
+        SystemTestUtil.matchTuples(scan, matching(op, value));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Index scans return exactly the tuples matching the index predicate. */
+    @Test public void testScan() throws DbException, TransactionAbortedException, IOException {
+        validateScan(Predicate.Op.EQUALS, MAX_VALUE / 2);
+        validateScan(Predicate.Op.EQUALS, MAX_VALUE + 1);
+        validateScan(Predicate.Op.LESS_THAN, 10);
+        validateScan(Predicate.Op.LESS_THAN_OR_EQ, 10);
+        validateScan(Predicate.Op.GREATER_THAN, MAX_VALUE - 10);
+        validateScan(Predicate.Op.GREATER_THAN_OR_EQ, MAX_VALUE - 10);
+    }
+
+    /** Inserts and deletes through the BufferPool keep the index up to date. */
+    @Test public void testMaintenance() throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(MAX_VALUE + 5));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+
+        IndexScan scan = new IndexScan(tid, index, "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(MAX_VALUE / 2)));
+        scan.open();
+        List<Tuple> deleted = new ArrayList<>();
+        while (scan.hasNext()) {
+            deleted.add(scan.next());
+        }
+        scan.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        validateScan(Predicate.Op.EQUALS, MAX_VALUE + 5);
+        validateScan(Predicate.Op.EQUALS, MAX_VALUE / 2);
+        validateScan(Predicate.Op.GREATER_THAN, MAX_VALUE / 2 - 5);
+    }
+
+    /** The planner scans the index for an equality filter on the indexed field. */
+    @Test public void testPlannerChoosesIndex() throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("t.c1", null);
+
+        Map<String, TableStats> stats = new HashMap<>();
+        String name = Database.getCatalog().getTableName(table.getId());
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        OpIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof IndexScan);
+        assertEquals(Predicate.Op.EQUALS, ((IndexScan) child).getIndexPredicate().getOp());
+    }
+
+    /**
+     * The file of an index is not a table: it has no name to query it by, is
+     * not analyzed with the tables, and cannot be modified on its own, but
+     * its pages can still be read.
+     */
+    @Test public void testIndexFileIsNotATable() throws Exception {
+        int fileId = index.getFile().getId();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext())
+            assertNotEquals(fileId, (int) it.next());
+        try {
+            Database.getCatalog().getTableName(fileId);
+            fail("an index file has no table name");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertEquals(index.getFile().getTupleDesc(), Database.getCatalog().getTupleDesc(fileId));
+
+        TransactionId tid = new TransactionId();
+        Tuple entry = new Tuple(index.getFile().getTupleDesc());
+        entry.setField(0, new IntField(1));
+        entry.setField(1, new IntField(1));
+        entry.setField(2, new IntField(1));
+        try {
+            Database.getBufferPool().insertTuple(tid, fileId, entry);
+            fail("an index file cannot be inserted into directly");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        validateScan(Predicate.Op.EQUALS, MAX_VALUE / 2);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
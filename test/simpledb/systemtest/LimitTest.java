@@ -0,0 +1,201 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests Limit, TopN, and LIMIT ... OFFSET clauses in queries.
+ */
+public class LimitTest extends SimpleDbTestBase {
+
+    /** Passes on the tuples of its child, counting them */
+    private static class CountingOperator extends Operator {
+        private static final long serialVersionUID = 1L;
+        private OpIterator child;
+        int count = 0;
+
+        CountingOperator(OpIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+            if (!child.hasNext())
+                return null;
+            count++;
+            return child.next();
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    private static List<List<Integer>> readAll(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return result;
+    }
+
+    @Test public void testLimitStopsEarly() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        CountingOperator counter = new CountingOperator(new SeqScan(tid, table.getId(), "t"));
+        Limit limit = new Limit(10, 5, counter);
+        limit.open();
+        assertEquals(tuples.subList(5, 15), readAll(limit));
+        assertEquals(15, counter.count);
+        limit.rewind();
+        assertEquals(tuples.subList(5, 15), readAll(limit));
+        limit.close();
+
+        // an offset past the end returns nothing
+        limit = new Limit(10, 6000, new SeqScan(tid, table.getId(), "t"));
+        limit.open();
+        assertFalse(limit.hasNext());
+        limit.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testTopN() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // few distinct values, so that ties must keep the child's order
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 30, null, tuples);
+        List<List<Integer>> sorted = new ArrayList<>(tuples);
+        sorted.sort(Comparator.<List<Integer>>comparingInt(t -> t.get(0)).reversed());
+        TransactionId tid = new TransactionId();
+
+        int[][] limits = { { 10, 0 }, { 25, 40 }, { 0, 0 }, { 5000, 0 }, { 10, 2995 } };
+        for (int[] lo : limits) {
+            TopN top = new TopN(new int[] { 0 }, new boolean[] { false }, lo[0], lo[1],
+                    new SeqScan(tid, table.getId(), "t"));
+            top.open();
+            List<List<Integer>> expected = sorted.subList(Math.min(lo[1], sorted.size()),
+                    Math.min(lo[0] + lo[1], sorted.size()));
+            assertEquals(expected, readAll(top));
+            top.rewind();
+            assertEquals(expected, readAll(top));
+            top.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlans() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(table, "limit_t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("limit_t", new TableStats(table.getId(), 1000));
+        List<List<Integer>> sorted = new ArrayList<>(tuples);
+        sorted.sort(Comparator.comparingInt(t -> t.get(1)));
+        TransactionId tid = new TransactionId();
+
+        Parser parser = new Parser();
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM limit_t t ORDER BY t.c1 LIMIT 7 OFFSET 3;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), stats);
+        assertTrue(((Operator) plan).getEstimatedCardinality() <= 7);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan).contains("limit 7 offset 3"));
+        plan.open();
+        assertEquals(sorted.subList(3, 10), readAll(plan));
+        plan.close();
+
+        // more tuples than fit in memory are sorted externally, then limited
+        lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM limit_t t ORDER BY t.c1 LIMIT " + ExternalSort.DEFAULT_MEMORY_TUPLES + " OFFSET 3;");
+        plan = lp.physicalPlan(tid, stats, false);
+        OpIterator limited = ((Operator) plan).getChildren()[0];
+        assertTrue(limited instanceof Limit);
+        assertTrue(((Operator) limited).getChildren()[0] instanceof OrderBy);
+        plan.open();
+        assertEquals(sorted.subList(3, sorted.size()), readAll(plan));
+        plan.close();
+
+        try {
+            parser.generateLogicalPlan(tid, "SELECT * FROM limit_t t ORDER BY t.c1 LIMIT "
+                    + Integer.MAX_VALUE + " OFFSET 1;");
+            fail("expected a ParsingException for a LIMIT and OFFSET that overflow");
+        } catch (ParsingException e) {
+            // expected
+        }
+
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM limit_t t limit 4;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        plan.open();
+        assertEquals(tuples.subList(0, 4), readAll(plan));
+        plan.close();
+
+        // the LIMIT of one statement does not carry over to the next
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM limit_t t WHERE t.c0 > 50;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof Limit);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit() throws IOException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        new Limit(-1, 0, new SeqScan(new TransactionId(), table.getId(), "t"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests the block nested-loop Join and IndexNestedLoopJoin against a
+ * tuple-at-a-time nested loop, and the choice between join algorithms made by
+ * JoinOptimizer.
+ */
+public class NestedLoopJoinVariantsTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private static final Comparator<List<Integer>> ROW_ORDER = (a, b) -> {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    };
+
+    private static boolean matches(int v1, Predicate.Op op, int v2) {
+        switch (op) {
+            case EQUALS: return v1 == v2;
+            case NOT_EQUALS: return v1 != v2;
+            case LESS_THAN: return v1 < v2;
+            case LESS_THAN_OR_EQ: return v1 <= v2;
+            case GREATER_THAN: return v1 > v2;
+            case GREATER_THAN_OR_EQ: return v1 >= v2;
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    private static List<List<Integer>> nestedLoopJoin(List<List<Integer>> left, int f1, Predicate.Op op,
+            List<List<Integer>> right, int f2) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t1 : left) {
+            for (List<Integer> t2 : right) {
+                if (matches(t1.get(f1), op, t2.get(f2))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    result.add(out);
+                }
+            }
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    private static List<List<Integer>> readAll(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    @Test public void testBlockNestedLoop() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        // several pages of child1, so a block of one page does not hold it all
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, leftTuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 150, 100, null, rightTuples);
+        TransactionId tid = new TransactionId();
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN };
+        for (Predicate.Op op : ops) {
+            List<List<Integer>> expected = nestedLoopJoin(leftTuples, 1, op, rightTuples, 2);
+            for (int blockPages : new int[] { 1, 3, Join.DEFAULT_BLOCK_PAGES }) {
+                Join join = new Join(new JoinPredicate(1, op, 2), new SeqScan(tid, left.getId(), "l"),
+                        new SeqScan(tid, right.getId(), "r"), blockPages);
+                assertTrue(join.getBlockTuples() >= blockPages);
+                join.open();
+                assertEquals(op.toString(), expected, readAll(join));
+                join.rewind();
+                assertEquals(op.toString(), expected, readAll(join));
+                join.close();
+            }
+        }
+
+        // the two-argument constructor joins one tuple of child1 at a time
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        assertEquals(1, join.getBlockTuples());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexNestedLoop() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 60, 200, null, leftTuples);
+        BTreeFile right = BTreeUtility.createRandomBTreeFile(2, 1500, 200, null, rightTuples, 1);
+        TransactionId tid = new TransactionId();
+
+        assertTrue(IndexNestedLoopJoin.isClustered(right.getId(), 1));
+        assertFalse(IndexNestedLoopJoin.hasIndex(right.getId(), 0));
+        for (Predicate.Op op : OPS) {
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, op, 1),
+                    new SeqScan(tid, left.getId(), "l"), new BTreeScan(tid, right.getId(), "r", null));
+            join.open();
+            assertEquals(op.toString(), nestedLoopJoin(leftTuples, 0, op, rightTuples, 1), readAll(join));
+            join.rewind();
+            assertEquals(op.toString(), nestedLoopJoin(leftTuples, 0, op, rightTuples, 1), readAll(join));
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSecondaryIndexProbe() throws Exception {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 80, 300, null, leftTuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 2000, 300, null, rightTuples, "c");
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        SecondaryIndex.create(right.getId(), "c0", idx);
+        TransactionId tid = new TransactionId();
+
+        SeqScan scan = new SeqScan(tid, right.getId(), "r");
+        assertNull(IndexNestedLoopJoin.indexFor(scan, 1));
+        for (Predicate.Op op : OPS) {
+            IndexOpIterator probe = IndexNestedLoopJoin.indexFor(scan, 0);
+            assertTrue(probe instanceof IndexScan);
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(1, op, 0),
+                    new SeqScan(tid, left.getId(), "l"), probe);
+            join.open();
+            assertEquals(op.toString(), nestedLoopJoin(leftTuples, 1, op, rightTuples, 0), readAll(join));
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedIndexPredicate() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BTreeFile right = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+        TransactionId tid = new TransactionId();
+        new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new BTreeScan(tid, right.getId(), "r", null));
+    }
+
+    @Test public void testChooseJoinAlgorithm() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        SecondaryIndex.create(right.getId(), "c0", idx);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(left.getId(), "l");
+        lp.addScan(right.getId(), "r");
+        JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+        LogicalJoinNode indexed = new LogicalJoinNode("l", "r", "l.c1", "r.c0", Predicate.Op.EQUALS);
+        LogicalJoinNode unindexed = new LogicalJoinNode("l", "r", "l.c1", "r.c1", Predicate.Op.EQUALS);
+        LogicalJoinNode unequal = new LogicalJoinNode("l", "r", "l.c1", "r.c1", Predicate.Op.NOT_EQUALS);
+
+        // equally large inputs are cheapest to hash
+        assertEquals(JoinOptimizer.JoinAlgorithm.HASH,
+                jo.chooseJoinAlgorithm(indexed, 10000, 10000, 100000, 100000));
+        // a few outer tuples are cheapest to look up in the index of a large
+        // inner table, but only if there is one
+        assertEquals(JoinOptimizer.JoinAlgorithm.INDEX_NESTED_LOOP,
+                jo.chooseJoinAlgorithm(indexed, 2, 100000, 1000, 1000000));
+        assertEquals(JoinOptimizer.JoinAlgorithm.HASH,
+                jo.chooseJoinAlgorithm(unindexed, 2, 100000, 1000, 1000000));
+        assertEquals(Double.MAX_VALUE, jo.estimateJoinCost(unindexed,
+                JoinOptimizer.JoinAlgorithm.INDEX_NESTED_LOOP, 2, 100000, 1000, 1000000), 0);
+        // only nested loops can join on NOT_EQUALS, and reading child1 in
+        // blocks scans child2 fewer times
+        assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+                jo.chooseJoinAlgorithm(unequal, 10000, 10000, 100000, 100000));
+        assertTrue(jo.estimateJoinCost(unequal, JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+                10000, 10000, 100000, 100000) < jo.estimateJoinCost(unequal,
+                JoinOptimizer.JoinAlgorithm.NESTED_LOOP, 10000, 10000, 100000, 100000));
+        assertEquals(jo.estimateJoinCost(unequal, JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+                10000, 10000, 100000, 100000), jo.estimateJoinCost(unequal, 10000, 10000, 100000, 100000), 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NestedLoopJoinVariantsTest.class);
+    }
+}
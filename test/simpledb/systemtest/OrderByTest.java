@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.ExternalSort;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests OrderBy on several fields, with memory budgets small enough that it
+ * sorts externally.
+ */
+public class OrderByTest extends SimpleDbTestBase {
+
+    /** c0 ascending, then c1 descending, then c2 ascending */
+    private static final Comparator<List<Integer>> MIXED_ORDER = Comparator
+            .<List<Integer>>comparingInt(t -> t.get(0))
+            .thenComparing(Comparator.<List<Integer>>comparingInt(t -> t.get(1)).reversed())
+            .thenComparingInt(t -> t.get(2));
+
+    private static List<List<Integer>> readAll(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return result;
+    }
+
+    private static OrderBy mixedOrder(TransactionId tid, HeapFile table, int memoryTuples) {
+        return new OrderBy(new int[] { 0, 1, 2 }, new boolean[] { true, false, true },
+                new SeqScan(tid, table.getId(), "t"), memoryTuples);
+    }
+
+    @Test public void testExternalSort() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 6000, 40, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(MIXED_ORDER);
+        TransactionId tid = new TransactionId();
+
+        // more runs than can be merged at once
+        for (int memoryTuples : new int[] { 40, 1000, 100000 }) {
+            OrderBy sort = mixedOrder(tid, table, memoryTuples);
+            sort.open();
+            assertEquals(expected, readAll(sort));
+            assertEquals(memoryTuples < tuples.size(), sort.getNumRuns() > 0);
+            sort.rewind();
+            assertEquals(expected, readAll(sort));
+            sort.close();
+
+            // reopening sorts the child again
+            sort.open();
+            assertEquals(expected, readAll(sort));
+            sort.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples that compare equal come out in the order the child returned
+     * them, also when there are so many runs that some are merged first.
+     */
+    @Test public void testStable() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 6000, 10, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(Comparator.comparingInt(t -> t.get(0)));
+        TransactionId tid = new TransactionId();
+
+        // about twice as many runs as can be merged at once
+        int memoryTuples = 6000 / (ExternalSort.MAX_FAN_IN * 2);
+        OrderBy sort = new OrderBy(new int[] { 0 }, new boolean[] { true },
+                new SeqScan(tid, table.getId(), "t"), memoryTuples);
+        sort.open();
+        assertEquals(expected, readAll(sort));
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSingleField() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        OrderBy sort = new OrderBy(1, false, new SeqScan(tid, table.getId(), "t"));
+        assertEquals(1, sort.getOrderByField());
+        assertFalse(sort.isASC());
+        sort.open();
+        List<List<Integer>> actual = readAll(sort);
+        sort.close();
+        assertEquals(tuples.size(), actual.size());
+        for (int i = 1; i < actual.size(); i++) {
+            assertTrue(actual.get(i - 1).get(1) >= actual.get(i).get(1));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedOrders() throws IOException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        new OrderBy(new int[] { 0, 1 }, new boolean[] { true },
+                new SeqScan(new TransactionId(), table.getId(), "t"));
+    }
+
+    /** A plan with several ORDER BY fields sorts on all of them. */
+    @Test public void testPlanOrdersOnAllFields()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 1000, 20, null, tuples, "c");
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(MIXED_ORDER);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        lp.addProjectField("t.c2", null);
+        lp.addOrderBy("t.c0", true);
+        lp.addOrderBy("t.c1", false);
+        lp.addOrderBy("t.c2", true);
+
+        Map<String, TableStats> stats = new HashMap<>();
+        String name = Database.getCatalog().getTableName(table.getId());
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertEquals(expected, readAll(plan));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests hash joins and aggregates run on several threads, with their inputs
+ * shuffled among them.
+ */
+public class ParallelJoinTest extends SimpleDbTestBase {
+
+    private static final int DEGREE = 4;
+
+    private static List<Integer> row(Integer... values) {
+        List<Integer> row = new ArrayList<>();
+        for (Integer v : values)
+            row.add(v);
+        return row;
+    }
+
+    @Test public void testShuffle() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 500, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        Shuffle[] outputs = Shuffle.outputs(Gather.parallelScan(tid, table.getId(), "t", 3), 0, DEGREE);
+        assertEquals(DEGREE, outputs.length);
+        assertEquals(3, outputs[0].getDegreeOfParallelism());
+        assertEquals(DEGREE, outputs[0].getNumConsumers());
+
+        // each consumer runs on its own thread, and gets all the tuples of
+        // its keys, so each key is counted once
+        OpIterator[] counts = new OpIterator[DEGREE];
+        for (int i = 0; i < DEGREE; i++)
+            counts[i] = new Aggregate(outputs[i], 1, 0, Aggregator.Op.COUNT);
+        Gather gather = new Gather(counts);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (List<Integer> t : tuples)
+            expected.merge(t.get(0), 1, Integer::sum);
+        List<List<Integer>> rows = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : expected.entrySet())
+            rows.add(row(e.getKey(), e.getValue()));
+        SystemTestUtil.matchTuples(gather, rows);
+
+        // a consumer cannot be rewound
+        outputs = Shuffle.outputs(new SeqScan(tid, table.getId(), "t"), 1, 2);
+        for (Shuffle s : outputs)
+            s.open();
+        try {
+            outputs[0].rewind();
+            fail("expected a DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        for (Shuffle s : outputs)
+            s.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelJoins() throws Exception {
+        // a and c are scanned in parallel, b is not
+        List<List<Integer>> a = new ArrayList<>();
+        List<List<Integer>> b = new ArrayList<>();
+        List<List<Integer>> c = new ArrayList<>();
+        HeapFile ta = SystemTestUtil.createRandomHeapFile(2, 40000, 20000, null, a, "a");
+        HeapFile tb = SystemTestUtil.createRandomHeapFile(2, 500, 20000, null, b, "b");
+        HeapFile tc = SystemTestUtil.createRandomHeapFile(2, 40000, 20000, null, c, "c");
+        assertTrue(ta.numPages() >= LogicalPlan.PARALLEL_SCAN_PAGES);
+        Database.getCatalog().addTable(ta, "pj_a");
+        Database.getCatalog().addTable(tb, "pj_b");
+        Database.getCatalog().addTable(tc, "pj_c");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("pj_a", new TableStats(ta.getId(), 1000));
+        stats.put("pj_b", new TableStats(tb.getId(), 1000));
+        stats.put("pj_c", new TableStats(tc.getId(), 1000));
+
+        // a.a0 = b.b0 and b.b1 = c.c0
+        List<List<Integer>> expected = new ArrayList<>();
+        long sum = 0;
+        for (List<Integer> ra : a) {
+            for (List<Integer> rb : b) {
+                if (!ra.get(0).equals(rb.get(0)))
+                    continue;
+                for (List<Integer> rc : c) {
+                    if (rb.get(1).equals(rc.get(0))) {
+                        expected.add(row(ra.get(0), ra.get(1), rb.get(0), rb.get(1), rc.get(0), rc.get(1)));
+                        sum += ra.get(1);
+                    }
+                }
+            }
+        }
+        TransactionId tid = new TransactionId();
+
+        Parser parser = new Parser();
+        parser.setDegreeOfParallelism(DEGREE);
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM pj_a, pj_b, pj_c WHERE pj_a.a0 = pj_b.b0 AND pj_b.b1 = pj_c.c0;");
+        assertEquals(DEGREE, lp.getDegreeOfParallelism());
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator top = ((Operator) plan).getChildren()[0];
+        assertTrue(top instanceof Gather);
+        OpIterator[] parts = ((Gather) top).getChildren();
+        assertEquals(DEGREE, parts.length);
+        // the last join of each part reads the shuffled outputs of the first
+        // join's part, so both joins are divided among the threads
+        assertTrue(parts[0] instanceof HashEquiJoin);
+        OpIterator in = ((HashEquiJoin) parts[0]).getChildren()[0];
+        if (!(in instanceof Shuffle && ((Shuffle) in).getChildren()[0] instanceof HashEquiJoin))
+            in = ((HashEquiJoin) parts[0]).getChildren()[1];
+        assertTrue(in instanceof Shuffle);
+        assertEquals(DEGREE, ((Shuffle) in).getDegreeOfParallelism());
+        assertTrue(((Shuffle) in).getChildren()[0] instanceof HashEquiJoin);
+        SystemTestUtil.matchTuples(plan, expected);
+
+        // aggregated in parallel, then merged
+        lp = parser.generateLogicalPlan(tid,
+                "SELECT COUNT(pj_a.a1), SUM(pj_a.a1) FROM pj_a, pj_b, pj_c "
+                        + "WHERE pj_a.a0 = pj_b.b0 AND pj_b.b1 = pj_c.c0;");
+        plan = lp.physicalPlan(tid, stats, false);
+        Aggregate fin = (Aggregate) ((Operator) plan).getChildren()[0];
+        assertEquals(Aggregate.Phase.FINAL, fin.getPhase());
+        plan.open();
+        Tuple t = plan.next();
+        assertEquals(new IntField(expected.size()), t.getField(0));
+        assertEquals(new LongField(sum), t.getField(1));
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        // with one thread, the plan is not divided
+        parser.setDegreeOfParallelism(1);
+        lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM pj_a, pj_b WHERE pj_a.a0 = pj_b.b0;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof HashEquiJoin);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testGroupedAggregate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 40000, 300, null, tuples, "g");
+        Database.getCatalog().addTable(table, "pj_g");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("pj_g", new TableStats(table.getId(), 1000));
+        Map<Integer, Integer> maxes = new HashMap<>();
+        for (List<Integer> t : tuples)
+            maxes.merge(t.get(0), t.get(1), Math::max);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : maxes.entrySet())
+            expected.add(row(e.getKey(), e.getValue()));
+        TransactionId tid = new TransactionId();
+
+        Parser parser = new Parser();
+        parser.setDegreeOfParallelism(DEGREE);
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT pj_g.g0, MAX(pj_g.g1) FROM pj_g GROUP BY pj_g.g0;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        Aggregate fin = (Aggregate) ((Operator) plan).getChildren()[0];
+        assertEquals(Aggregate.Phase.FINAL, fin.getPhase());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadDegree() {
+        new LogicalPlan().setDegreeOfParallelism(0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelJoinTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests parallel scans of page ranges, and running plans on several threads
+ * with Gather.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    /** Fails when it is read */
+    private static class FailingOperator extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td;
+
+        FailingOperator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() {
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            throw new DbException("failed on purpose");
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    private static int count(OpIterator it) throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    @Test public void testPartitions() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        List<SeqScan> scans = SeqScan.partitions(tid, table.getId(), "t", null, 6);
+        assertEquals(6, scans.size());
+        int next = 0;
+        for (SeqScan s : scans) {
+            assertEquals(next, s.getFirstPage());
+            assertTrue(s.getEndPage() > s.getFirstPage());
+            next = s.getEndPage();
+        }
+        assertEquals(table.numPages(), next);
+        // no more partitions than pages
+        assertEquals(table.numPages(), SeqScan.partitions(tid, table.getId(), "t", null, 1000).size());
+
+        Gather gather = Gather.parallelScan(tid, table.getId(), "t", 4);
+        assertEquals(4, gather.getDegreeOfParallelism());
+        SystemTestUtil.matchTuples(gather, tuples);
+
+        // a batch at a time, and again after a rewind
+        gather.open();
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = gather.nextBatch()) != null)
+            rows += batch.numRows();
+        assertEquals(tuples.size(), rows);
+        gather.rewind();
+        assertEquals(tuples.size(), count(gather));
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPartialAggregatesPerPartition() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 300, null, tuples);
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) > 100)
+                sums.merge(t.get(0), t.get(1), Integer::sum);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            row.add(e.getValue());
+            expected.add(row);
+        }
+        TransactionId tid = new TransactionId();
+
+        int[] afields = { 1 };
+        Aggregator.Op[] ops = { Aggregator.Op.SUM };
+        Predicate pred = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100));
+        List<SeqScan> scans = SeqScan.partitions(tid, table.getId(), "t", null, 4);
+        OpIterator[] partials = new OpIterator[scans.size()];
+        Aggregate partial = null;
+        for (int i = 0; i < partials.length; i++) {
+            partial = Aggregate.partial(new Filter(pred, scans.get(i)), afields, 0, ops,
+                    Aggregate.DEFAULT_MEMORY_GROUPS);
+            partials[i] = partial;
+        }
+        Aggregate fin = partial.finalAggregate(new Gather(partials));
+        SystemTestUtil.matchTuples(fin, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testProducerFailure() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        TransactionId tid = new TransactionId();
+        List<SeqScan> scans = SeqScan.partitions(tid, table.getId(), "t", null, 3);
+        OpIterator[] children = new OpIterator[scans.size() + 1];
+        for (int i = 0; i < scans.size(); i++)
+            children[i] = scans.get(i);
+        children[scans.size()] = new FailingOperator(scans.get(0).getTupleDesc());
+
+        Gather gather = new Gather(children);
+        gather.open();
+        try {
+            count(gather);
+            fail("expected the failure of a producer");
+        } catch (DbException e) {
+            assertEquals("failed on purpose", e.getMessage());
+        }
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelPlan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, tuples, "c");
+        assertTrue(table.numPages() >= LogicalPlan.PARALLEL_SCAN_PAGES);
+        Database.getCatalog().addTable(table, "par_t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("par_t", new TableStats(table.getId(), 1000));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) > 500)
+                expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+
+        Parser parser = new Parser();
+        LogicalPlan lp = parser.generateLogicalPlan(tid, "SELECT * FROM par_t t WHERE t.c0 > 500;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator below = ((Operator) plan).getChildren()[0];
+        if (Gather.DEFAULT_DEGREE > 1) {
+            assertTrue(below instanceof Gather);
+            // each partition evaluates the filter itself
+            OpIterator part = ((Gather) below).getChildren()[0];
+            assertTrue(part instanceof SeqScan);
+            assertEquals(1, ((SeqScan) part).getPredicates().length);
+            OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                    lp.getTableAliasToIdMapping(), stats);
+            // the partitions together are estimated as the filtered table
+            TableStats ts = stats.get("par_t");
+            int card = ts.estimateTableCardinality(
+                    ts.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(500)));
+            assertEquals(card, ((Operator) below).getEstimatedCardinality(),
+                    ((Gather) below).getChildren().length);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        // stopping early stops the producers
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM par_t t LIMIT 5;");
+        plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertEquals(5, count(plan));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedProducers() throws IOException {
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 10, null, null);
+        TransactionId tid = new TransactionId();
+        new Gather(new OpIterator[] { new SeqScan(tid, t1.getId(), "t"), new SeqScan(tid, t2.getId(), "t") });
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests SortMergeJoin on equality and range predicates, with memory budgets
+ * small enough that its inputs are sorted externally.
+ */
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Comparator<List<Integer>> ROW_ORDER = (a, b) -> {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    };
+
+    private static boolean matches(int v1, Predicate.Op op, int v2) {
+        switch (op) {
+            case EQUALS: return v1 == v2;
+            case LESS_THAN: return v1 < v2;
+            case LESS_THAN_OR_EQ: return v1 <= v2;
+            case GREATER_THAN: return v1 > v2;
+            case GREATER_THAN_OR_EQ: return v1 >= v2;
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    private static List<List<Integer>> nestedLoopJoin(List<List<Integer>> left, int f1, Predicate.Op op,
+            List<List<Integer>> right, int f2) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t1 : left) {
+            for (List<Integer> t2 : right) {
+                if (matches(t1.get(f1), op, t2.get(f2))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    result.add(out);
+                }
+            }
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    private static List<List<Integer>> readAll(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        result.sort(ROW_ORDER);
+        return result;
+    }
+
+    @Test public void testPredicates() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, leftTuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 200, 100, null, rightTuples);
+        TransactionId tid = new TransactionId();
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            List<List<Integer>> expected = nestedLoopJoin(leftTuples, 0, op, rightTuples, 2);
+            // a budget of 32 tuples spills sorted runs of both inputs, and
+            // splits child1 into blocks for range predicates
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 2),
+                    new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"), 32);
+            join.open();
+            assertEquals(op.toString(), expected, readAll(join));
+            join.rewind();
+            assertEquals(op.toString(), expected, readAll(join));
+            join.close();
+
+            join = new SortMergeJoin(new JoinPredicate(0, op, 2),
+                    new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+            join.open();
+            assertEquals(op.toString(), expected, readAll(join));
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSortedInputs() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> leftTuples = new ArrayList<>();
+        List<List<Integer>> rightTuples = new ArrayList<>();
+        BTreeFile left = BTreeUtility.createRandomBTreeFile(2, 500, 200, null, leftTuples, 1);
+        BTreeFile right = BTreeUtility.createRandomBTreeFile(2, 400, 200, null, rightTuples, 0);
+        TransactionId tid = new TransactionId();
+
+        BTreeScan leftScan = new BTreeScan(tid, left.getId(), "l", null);
+        BTreeScan rightScan = new BTreeScan(tid, right.getId(), "r", null);
+        assertTrue(SortMergeJoin.isSortedOn(leftScan, 1));
+        assertFalse(SortMergeJoin.isSortedOn(leftScan, 0));
+        assertTrue(SortMergeJoin.isSortedOn(rightScan, 0));
+
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                leftScan, rightScan, 16);
+        join.open();
+        assertEquals(nestedLoopJoin(leftTuples, 1, Predicate.Op.EQUALS, rightTuples, 0), readAll(join));
+        join.close();
+
+        // only one input in order
+        join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                new BTreeScan(tid, left.getId(), "l", null), new BTreeScan(tid, right.getId(), "r", null), 16);
+        join.open();
+        assertEquals(nestedLoopJoin(leftTuples, 0, Predicate.Op.GREATER_THAN, rightTuples, 0), readAll(join));
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedPredicate() throws IOException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        TransactionId tid = new TransactionId();
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new SeqScan(tid, table.getId(), "l"), new SeqScan(tid, table.getId(), "r"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -93,7 +93,10 @@ public class SystemTestUtil {
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
-            int value = ((IntField)tuple.getField(i)).getValue();
+            Field f = tuple.getField(i);
+            // such as the SUM of INTs, a LONG
+            int value = f instanceof LongField ? Math.toIntExact(((LongField) f).getValue())
+                    : ((IntField) f).getValue();
             list.add(value);
         }
         return list;